@@ -0,0 +1,159 @@
+package pro.sky.courseworktelegrambot.services;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.telegram.telegrambots.meta.api.methods.BotApiMethod;
+import org.telegram.telegrambots.meta.api.objects.Chat;
+import org.telegram.telegrambots.meta.api.objects.Message;
+import org.telegram.telegrambots.meta.api.objects.Update;
+import pro.sky.courseworktelegrambot.entities.*;
+import pro.sky.courseworktelegrambot.repositories.*;
+
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+import static org.mockito.Mockito.withSettings;
+
+/**
+ * Бот для бенчмарков: настоящие ShelterService, StateGraph и UserStateStore поверх репозиториев в памяти.<br>
+ * Репозитории - заглушки Mockito без записи вызовов (stubOnly), иначе мок копил бы каждый вызов
+ * и бенчмарк мерил бы рост его списка. Состояния и кнопки - часть меню из course-work.sql.
+ * Сообщения в Telegram не уходят: execute только запоминает последний запрос.
+ */
+class BotFixture {
+    static final String STAGE_TO_INFO = "Узнать информацию о приюте (этап 1)";
+    static final String INFO_TO_STAGE = "Назад к выбору этапа";
+    static final String ABOUT_SHELTER = "Рассказать о приюте";
+    static final String UNKNOWN_TEXT = "Как дела?";
+
+    final ShelterService shelterService;
+    final StateGraph stateGraph;
+    final UserStateStore userStateStore;
+    final Bot telegramBot;
+
+    //бот, который ничего не отправляет
+    static class Bot extends TelegramBot {
+        Object lastMethod;
+
+        Bot(UserStateStore userStateStore, StateGraph stateGraph, ShelterService shelterService) {
+            super(userStateStore, stateGraph, shelterService, null, null, null, null,
+                    stub(DogRepository.class), stub(CatRepository.class), null, null);
+        }
+
+        @Override
+        public <T extends Serializable, Method extends BotApiMethod<T>> T execute(Method method) {
+            lastMethod = method;
+            return null;
+        }
+    }
+
+    BotFixture() {
+        ShelterRepository shelterRepository = stub(ShelterRepository.class);
+        when(shelterRepository.findAll()).thenReturn(List.of(
+                shelter(ShelterId.DOG, "Собаки"), shelter(ShelterId.CAT, "Кошки")));
+        shelterService = new ShelterService(shelterRepository, new SimpleMeterRegistry());
+
+        StateRepository stateRepository = stub(StateRepository.class);
+        when(stateRepository.findAll()).thenReturn(states());
+        stateGraph = new StateGraph(stateRepository, shelterService);
+        stateGraph.reload();
+
+        userStateStore = new UserStateStore(stub(UserRepository.class), stub(JdbcTemplate.class), stateGraph);
+        telegramBot = new Bot(userStateStore, stateGraph, shelterService);
+    }
+
+    static <T> T stub(Class<T> type) {
+        return mock(type, withSettings().stubOnly());
+    }
+
+    /**
+     * Пользователь, уже выбравший приют и находящийся в памяти хранилища состояний.
+     */
+    User user(long chatId, String stateId) {
+        User user = new User(chatId, "User" + chatId, stateGraph.getState(stateId));
+        user.setShelterId(ShelterId.DOG);
+        user.setStateTime();
+        userStateStore.save(user); //новый пользователь сохраняется сразу и остается в памяти
+        return user;
+    }
+
+    static Update update(long chatId, String text) {
+        Chat chat = new Chat(chatId, "private");
+        chat.setFirstName("User" + chatId);
+        Message message = new Message();
+        message.setMessageId(1);
+        message.setChat(chat);
+        message.setText(text);
+        Update update = new Update();
+        update.setMessage(message);
+        return update;
+    }
+
+    static Shelter shelter(ShelterId id, String name) {
+        Shelter shelter = new Shelter();
+        shelter.setId(id);
+        shelter.setName(name);
+        shelter.setInformation("Приют " + name + " работает с 2010 года и содержит более 200 животных");
+        shelter.setTimetable("Ежедневно с 9:00 до 20:00, без перерыва на обед");
+        shelter.setAddress("г. Астана, ул. Примерная, д. 1");
+        shelter.setSecurity("Охрана: +7 700 000-00-00");
+        shelter.setSafetyPrecautions("Не кормите животных без разрешения волонтера");
+        shelter.setRules("Знакомство с животным - только в присутствии волонтера");
+        shelter.setDocuments("Паспорт и договор усыновления");
+        shelter.setTransportation("Используйте переноску");
+        shelter.setChildAccomodation("Уберите провода и мелкие предметы");
+        shelter.setAdultAccomodation("Подготовьте место для сна");
+        shelter.setInvalidAccomodation("Уберите пороги и высокие ступени");
+        shelter.setCommunication("Говорите спокойно, не делайте резких движений");
+        shelter.setCynologists("Иванов И.И., +7 700 000-00-01");
+        shelter.setRefusalReasons("Отсутствие постоянного жилья");
+        return shelter;
+    }
+
+    private static List<State> states() {
+        State badChoice = state("BadChoice", "Нераспознанная команда. Выберите кнопку:", NamedState.BAD_CHOICE);
+        State shelter = state("Shelter", "Выберите приют:", NamedState.INITIAL_STATE);
+        State stage = state("Stage", "Выберите этап:", NamedState.AFTER_SHELTER_CHOICE_STATE);
+        State info = state("Info", "Выберите вид информации:", null);
+        State getAnimal = state("GetAnimal", "Выберите вид информации:", null);
+        State aboutShelter = state("AboutShelter", "@information", null);
+        State timeTable = state("TimeTable", "@timetable", null);
+        State security = state("Security", "@security", null);
+        State safetyPrecautions = state("SafetyPrecautions", "@safetyPrecautions", null);
+        State rules = state("Rules", "@rules", null);
+        State documents = state("Documents", "@documents", null);
+        State childAccomodation = state("ChildAccomodation", "@childAccomodation", null);
+        State cynologists = state("Cynologists", "@cynologists", null);
+
+        button(stage, STAGE_TO_INFO, info, 1, 1, null);
+        button(stage, "Как взять животное из приюта (этап 2)", getAnimal, 2, 1, null);
+        button(stage, "Назад к выбору приюта", shelter, 3, 1, null);
+
+        button(info, ABOUT_SHELTER, aboutShelter, 1, 1, null);
+        button(info, "Расписание работы приюта и адрес, схема проезда", timeTable, 2, 1, null);
+        button(info, "Контактные данные охраны для оформления пропуска на машину", security, 3, 1, null);
+        button(info, "Рекомендации по технике безопасности на территории приюта", safetyPrecautions, 4, 1, null);
+        button(info, INFO_TO_STAGE, stage, 5, 1, null);
+
+        button(getAnimal, "Правила знакомства с животным", rules, 1, 1, null);
+        button(getAnimal, "Список документов, чтобы взять животное из приюта", documents, 2, 1, null);
+        button(getAnimal, "Обустройство дома для щенка", childAccomodation, 3, 1, ShelterId.DOG);
+        button(getAnimal, "Обустройство дома для котенка", childAccomodation, 3, 1, ShelterId.CAT);
+        button(getAnimal, "Рекомендации по проверенным кинологам", cynologists, 4, 1, ShelterId.DOG);
+        button(getAnimal, INFO_TO_STAGE, stage, 5, 1, null);
+
+        return List.of(badChoice, shelter, stage, info, getAnimal, aboutShelter, timeTable, security,
+                safetyPrecautions, rules, documents, childAccomodation, cynologists);
+    }
+
+    private static State state(String id, String text, NamedState namedState) {
+        return new State(id, text, false, namedState, new ArrayList<>());
+    }
+
+    private static void button(State state, String caption, State nextState, int row, int col, ShelterId shelterId) {
+        state.getButtons().add(new StateButton(state, caption, nextState, (byte) row, (byte) col, shelterId));
+    }
+}
@@ -0,0 +1,47 @@
+package pro.sky.courseworktelegrambot.services;
+
+import org.openjdk.jmh.annotations.*;
+import org.telegram.telegrambots.meta.api.objects.replykeyboard.ReplyKeyboardMarkup;
+import org.telegram.telegrambots.meta.exceptions.TelegramApiException;
+import pro.sky.courseworktelegrambot.entities.ShelterId;
+import pro.sky.courseworktelegrambot.entities.User;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Клавиатура сообщения: построение с нуля по кнопкам состояния
+ * и sendMessageToUser, берущий готовую клавиатуру из кэша.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class KeyboardBenchmark {
+    //Stage и Info - обычные меню, GetAnimal - с кнопками только для своего приюта
+    @Param({"Stage", "Info", "GetAnimal"})
+    private String stateId;
+
+    private BotFixture fixture;
+    private User user;
+    private pro.sky.courseworktelegrambot.entities.State state;
+
+    @Setup
+    public void setup() {
+        fixture = new BotFixture();
+        user = fixture.user(1, stateId);
+        state = user.getState();
+    }
+
+    @Benchmark
+    public ReplyKeyboardMarkup buildKeyboard() {
+        return StateGraph.buildKeyboard(StateGraph.buildKeyboardRows(state.getButtons(), ShelterId.DOG));
+    }
+
+    @Benchmark
+    public Object sendMessageToUser() throws TelegramApiException {
+        fixture.telegramBot.sendMessageToUser(user, null, 0);
+        return fixture.telegramBot.lastMethod;
+    }
+}
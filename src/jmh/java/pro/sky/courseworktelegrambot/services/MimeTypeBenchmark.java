@@ -0,0 +1,39 @@
+package pro.sky.courseworktelegrambot.services;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Определение MIME-типа фото отчета по первым байтам файла, как в {@link ReportPhotoDownloader}.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class MimeTypeBenchmark {
+    @Param({"jpeg", "png"})
+    private String format;
+
+    private byte[] header;
+
+    @Setup
+    public void setup() {
+        byte[] signature = switch (format) {
+            case "jpeg" -> new byte[]{(byte) 0xFF, (byte) 0xD8, (byte) 0xFF, (byte) 0xE0, 0x00, 0x10,
+                    'J', 'F', 'I', 'F', 0x00, 0x01, 0x01};
+            case "png" -> new byte[]{(byte) 0x89, 'P', 'N', 'G', 0x0D, 0x0A, 0x1A, 0x0A,
+                    0x00, 0x00, 0x00, 0x0D, 'I', 'H', 'D', 'R'};
+            default -> throw new IllegalArgumentException(format);
+        };
+        header = Arrays.copyOf(signature, ReportPhotoDownloader.HEADER_SIZE);
+    }
+
+    @Benchmark
+    public String detectMimeType() {
+        return ReportPhotoDownloader.detectMimeType(header);
+    }
+}
@@ -0,0 +1,32 @@
+package pro.sky.courseworktelegrambot.services;
+
+import org.openjdk.jmh.annotations.*;
+import pro.sky.courseworktelegrambot.entities.ShelterId;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Текст информации о приюте для состояний вида @address - из индекса приютов в памяти.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ShelterServiceBenchmark {
+    @Param({"information", "address", "cynologists"})
+    private String informationType;
+
+    private ShelterService shelterService;
+
+    @Setup
+    public void setup() {
+        shelterService = new BotFixture().shelterService;
+    }
+
+    @Benchmark
+    public String getInformation() {
+        return shelterService.getInformation(ShelterId.DOG, informationType);
+    }
+}
@@ -0,0 +1,77 @@
+package pro.sky.courseworktelegrambot.services;
+
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+import org.telegram.telegrambots.meta.api.objects.Message;
+import org.telegram.telegrambots.meta.api.objects.Update;
+import pro.sky.courseworktelegrambot.entities.User;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Обработка сообщения ботом: разбор нажатой кнопки (checkButton) и полный путь onUpdateReceived -
+ * пользователь из памяти, переход по графу состояний, текст из индекса приютов, клавиатура, сохранение состояния.
+ * Каждый сценарий возвращает пользователя в исходное состояние, поэтому повторяется без подготовки.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class TelegramBotBenchmark {
+    private static final long CHAT_ID = 1;
+
+    private BotFixture fixture;
+    private User user;
+    private pro.sky.courseworktelegrambot.entities.State stage;
+    private Message stageToInfo;
+    private Update aboutShelter;
+    private Update unknownText;
+    private Update toInfo;
+    private Update toStage;
+
+    @Setup
+    public void setup() {
+        fixture = new BotFixture();
+        user = fixture.user(CHAT_ID, "Info");
+        stage = fixture.stateGraph.getState("Stage");
+        stageToInfo = BotFixture.update(CHAT_ID, BotFixture.STAGE_TO_INFO).getMessage();
+        aboutShelter = BotFixture.update(CHAT_ID, BotFixture.ABOUT_SHELTER);
+        unknownText = BotFixture.update(CHAT_ID, BotFixture.UNKNOWN_TEXT);
+        toInfo = BotFixture.update(CHAT_ID, BotFixture.STAGE_TO_INFO);
+        toStage = BotFixture.update(CHAT_ID, BotFixture.INFO_TO_STAGE);
+    }
+
+    //только поиск перехода по надписи кнопки
+    @Benchmark
+    public pro.sky.courseworktelegrambot.entities.State checkButton() {
+        user.setState(stage);
+        fixture.telegramBot.checkButton(user, stageToInfo);
+        return user.getState();
+    }
+
+    //кнопка информации о приюте: текст @information из индекса, пользователь остается в Info
+    @Benchmark
+    public Object informationButton() {
+        fixture.telegramBot.onUpdateReceived(aboutShelter);
+        return fixture.telegramBot.lastMethod;
+    }
+
+    //текст не совпал ни с одной кнопкой: сообщение BadChoice с клавиатурой Info
+    @Benchmark
+    public Object unknownText() {
+        fixture.telegramBot.onUpdateReceived(unknownText);
+        return fixture.telegramBot.lastMethod;
+    }
+
+    //Info -> Stage -> Info: два перехода со сменой клавиатуры
+    @Benchmark
+    @OperationsPerInvocation(2)
+    public void navigation(Blackhole blackhole) {
+        fixture.telegramBot.onUpdateReceived(toStage);
+        blackhole.consume(fixture.telegramBot.lastMethod);
+        fixture.telegramBot.onUpdateReceived(toInfo);
+        blackhole.consume(fixture.telegramBot.lastMethod);
+    }
+}
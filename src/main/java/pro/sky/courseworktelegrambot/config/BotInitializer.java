@@ -4,10 +4,13 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 //import org.springframework.context.event.ContextRefreshedEvent;
 //import org.springframework.context.event.EventListener;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Component;
 import org.telegram.telegrambots.meta.TelegramBotsApi;
+import org.telegram.telegrambots.meta.api.methods.updates.SetWebhook;
 import org.telegram.telegrambots.meta.exceptions.TelegramApiException;
 import org.telegram.telegrambots.updatesreceivers.DefaultBotSession;
+import pro.sky.courseworktelegrambot.controllers.WebhookController;
 import pro.sky.courseworktelegrambot.services.TelegramBot;
 
 import javax.annotation.PostConstruct;
@@ -16,26 +19,63 @@ import javax.annotation.PostConstruct;
 public class BotInitializer {
     private static final Logger LOGGER = LoggerFactory.getLogger(BotInitializer.class);
 
+    public static final String MODE_POLLING = "polling";
+    public static final String MODE_WEBHOOK = "webhook";
+
     private final TelegramBot bot;
 
+    @Value("${telegram.bot.mode}")
+    private String mode;
+
+    @Value("${telegram.bot.webhook.url}")
+    private String webhookUrl;
+
+    @Value("${telegram.bot.webhook.secret}")
+    private String webhookSecret;
+
     public BotInitializer(TelegramBot bot) {
         this.bot = bot;
     }
 
     /**
      * Метод инициализации приложения, который реагирует на событие ContextRefreshedEvent.
-     * При вызове данного метода, он создает экземпляр TelegramBotsApi, затем регистрирует бота с этим API.
+     * В режиме polling создает экземпляр TelegramBotsApi и регистрирует бота с этим API (long polling).
+     * В режиме webhook сообщает Telegram адрес {@link WebhookController},
+     * на который тот будет присылать обновления.
      */
     //было @EventListener({ContextRefreshedEvent.class})
     @PostConstruct
     public void init() {
+        if (MODE_WEBHOOK.equals(mode)) {
+            registerWebhook();
+        } else {
+            registerLongPolling();
+        }
+    }
+
+    private void registerLongPolling() {
         try {
             // Создание экземпляра TelegramBotsApi с использованием DefaultBotSession.
             TelegramBotsApi telegramBotsApi = new TelegramBotsApi(DefaultBotSession.class);
-            // Регистрация бота с TelegramBotsApi.
+            // Регистрация бота с TelegramBotsApi. Заодно удаляется webhook, если он был установлен
             telegramBotsApi.registerBot(bot);
         } catch (TelegramApiException e) {
             LOGGER.error("Error of creation or registration of bot occurred: " + e.getMessage());
         }
     }
+
+    private void registerWebhook() {
+        if (webhookUrl.isBlank() || webhookSecret.isBlank()) {
+            LOGGER.error("Webhook mode requires telegram.bot.webhook.url and telegram.bot.webhook.secret");
+            return;
+        }
+        //секрет передаем в пути: используемая версия библиотеки не умеет задавать secret_token
+        String url = webhookUrl.replaceAll("/+$", "") + WebhookController.PATH + "/" + webhookSecret;
+        try {
+            bot.execute(new SetWebhook(url));
+            LOGGER.info("Webhook registered");
+        } catch (TelegramApiException e) {
+            LOGGER.error("Error of webhook registration occurred: " + e.getMessage());
+        }
+    }
 }
@@ -10,10 +10,15 @@ import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.*;
 import pro.sky.courseworktelegrambot.entities.*;
+import pro.sky.courseworktelegrambot.repositories.AdoptionExportView;
 import pro.sky.courseworktelegrambot.services.AdoptionService;
 
+import javax.servlet.http.HttpServletResponse;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
 import java.time.LocalDate;
 import java.util.Collection;
+import java.util.concurrent.CompletableFuture;
 
 @RestController
 @RequestMapping("adoption")
@@ -93,7 +98,7 @@ public class AdoptionController {
                     )
             })
     @PutMapping(value = "{shelter_id}/{adoption_id}", params="trial_date")
-    public Adoption setTrialDate(
+    public CompletableFuture<Adoption> setTrialDate(
             @Parameter(description = "Идентификатор приюта")
             @PathVariable("shelter_id") ShelterId shelterId,
             @Parameter(description = "Идентификатор усыновления")
@@ -159,4 +164,31 @@ public class AdoptionController {
             @PathVariable("shelter_id") ShelterId shelterId) {
         return adoptionService.getAllActiveAdoptions(shelterId);
     }
+
+    @Operation(summary = "Выгрузка усыновлений за период",
+            description = "Усыновления с датой усыновления от from до to в формате NDJSON: " +
+                    "по усыновлению в строке. Строки отдаются по мере чтения из БД",
+            responses = {
+                    @ApiResponse(
+                            responseCode = "200",
+                            description = "Усыновления за период",
+                            content = @Content(
+                                    mediaType = MediaType.APPLICATION_NDJSON_VALUE,
+                                    schema = @Schema(implementation = AdoptionExportView.class)
+                            )
+                    )
+            })
+    @GetMapping("{shelter_id}/export")
+    public void exportAdoptions(
+            @Parameter(description = "Идентификатор приюта")
+            @PathVariable("shelter_id") ShelterId shelterId,
+            @Parameter(description = "Первая дата усыновлений")
+            @RequestParam("from") LocalDate from,
+            @Parameter(description = "Последняя дата усыновлений")
+            @RequestParam("to") LocalDate to,
+            HttpServletResponse response) throws IOException {
+        response.setContentType(MediaType.APPLICATION_NDJSON_VALUE);
+        response.setCharacterEncoding(StandardCharsets.UTF_8.name());
+        adoptionService.exportAdoptions(shelterId, from, to, response.getOutputStream());
+    }
 }
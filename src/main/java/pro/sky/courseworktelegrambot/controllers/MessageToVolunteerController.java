@@ -12,6 +12,7 @@ import pro.sky.courseworktelegrambot.entities.MessageToVolunteer;
 import pro.sky.courseworktelegrambot.services.MessageToVolunteerService;
 
 import java.util.List;
+import java.util.concurrent.CompletableFuture;
 
 @RestController
 @RequestMapping("/message_to_volunteer")
@@ -51,13 +52,13 @@ public class MessageToVolunteerController {
     )
 
     @PutMapping(value = "{id}", params = {"answer", "replyToMessage"})
-    public void updateAnswer(@Parameter(description = "Идентификатор объекта MessageToVolunteer")
+    public CompletableFuture<Void> updateAnswer(@Parameter(description = "Идентификатор объекта MessageToVolunteer")
                              @PathVariable("id") int id,
                              @Parameter(description = "Ответ волонтера")
                              @RequestParam String answer,
                              @RequestParam boolean replyToMessage)
     {
-        messageToVolunteerService.updateAnswer(id, answer, replyToMessage);
+        return messageToVolunteerService.updateAnswer(id, answer, replyToMessage);
     }
 
 
@@ -2,17 +2,23 @@ package pro.sky.courseworktelegrambot.controllers;
 
 import io.swagger.v3.oas.annotations.Operation;
 import io.swagger.v3.oas.annotations.Parameter;
+import io.swagger.v3.oas.annotations.media.ArraySchema;
 import io.swagger.v3.oas.annotations.media.Content;
 import io.swagger.v3.oas.annotations.media.Schema;
 import io.swagger.v3.oas.annotations.responses.ApiResponse;
+import org.springframework.core.io.Resource;
 import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.*;
+import org.springframework.web.multipart.MultipartFile;
 import pro.sky.courseworktelegrambot.entities.Pet;
 import pro.sky.courseworktelegrambot.entities.ShelterId;
+import pro.sky.courseworktelegrambot.repositories.PetListView;
 import pro.sky.courseworktelegrambot.services.PetService;
 
-import java.util.Collection;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.List;
 
 @RestController
 @RequestMapping("pet")
@@ -104,6 +110,62 @@ public class PetController {
         return ResponseEntity.ok(updatedPet);
     }
 
+    @Operation(summary = "Загрузка фотографии питомца",
+            responses = {
+                    @ApiResponse(
+                            responseCode = "200",
+                            description = "Питомец с новой фотографией",
+                            content = @Content(
+                                    mediaType = MediaType.APPLICATION_JSON_VALUE,
+                                    schema = @Schema(implementation = Pet.class)
+                            )
+                    ),
+                    @ApiResponse(
+                            responseCode = "400",
+                            description = "Файл пустой или не является изображением"
+                    )
+            })
+    @PutMapping(value = "{shelter_id}/{pet_id}/photo", consumes = MediaType.MULTIPART_FORM_DATA_VALUE)
+    public ResponseEntity<Pet> uploadPetPhoto(
+            @Parameter(description = "Идентификатор приюта")
+            @PathVariable("shelter_id") ShelterId shelterId,
+            @Parameter(description = "Идентификатор питомца")
+            @PathVariable("pet_id") Integer petId,
+            @RequestParam("photo") MultipartFile photo) throws IOException {
+        try (InputStream is = photo.getInputStream()) {
+            //тип и размер, указанные клиентом, не используются: сервис определяет их сам по байтам фото
+            return ResponseEntity.ok(petService.savePetPhoto(shelterId, petId, is));
+        }
+    }
+
+    @Operation(summary = "Получение фотографии питомца",
+            description = "Поддерживает запросы части файла (Range) и проверку ETag (If-None-Match)",
+            responses = {
+                    @ApiResponse(
+                            responseCode = "200",
+                            description = "Фотография питомца",
+                            content = @Content(
+                                    mediaType = MediaType.IMAGE_JPEG_VALUE
+                            )
+                    ),
+                    @ApiResponse(
+                            responseCode = "206",
+                            description = "Запрошенная часть фотографии"
+                    ),
+                    @ApiResponse(
+                            responseCode = "304",
+                            description = "Фотография не изменилась"
+                    )
+            })
+    @GetMapping("{shelter_id}/{pet_id}/photo")
+    public ResponseEntity<Resource> getPetPhoto(
+            @Parameter(description = "Идентификатор приюта")
+            @PathVariable("shelter_id") ShelterId shelterId,
+            @Parameter(description = "Идентификатор питомца")
+            @PathVariable("pet_id") Integer petId) {
+        return PhotoResponses.of(petService.getPetPhoto(shelterId, petId));
+    }
+
     @Operation(summary = "Удаление питомца",
             responses = {
                     @ApiResponse(
@@ -126,21 +188,27 @@ public class PetController {
         return ResponseEntity.ok(pet);
     }
 
-    @Operation(summary = "Поиск всех питомцев",
+    @Operation(summary = "Страница питомцев",
+            description = "Питомцы по возрастанию id, начиная после after_id. Следующую страницу запрашивают " +
+                    "с after_id, равным id последнего питомца страницы",
             responses = {
                     @ApiResponse(
                             responseCode = "200",
-                            description = "Все найденные питомцы",
+                            description = "Страница питомцев",
                             content = @Content(
                                     mediaType = MediaType.APPLICATION_JSON_VALUE,
-                                    schema = @Schema(implementation = Pet.class)
+                                    array = @ArraySchema(schema = @Schema(implementation = PetListView.class))
                             )
                     )
             })
     @GetMapping("{shelter_id}/all")
-    public ResponseEntity<Collection<Pet>> getAllDogs(
+    public ResponseEntity<List<PetListView>> getAllDogs(
             @Parameter(description = "Идентификатор приюта")
-            @PathVariable("shelter_id") ShelterId shelterId) {
-        return ResponseEntity.ok(petService.getAllPets(shelterId));
+            @PathVariable("shelter_id") ShelterId shelterId,
+            @Parameter(description = "id последнего питомца предыдущей страницы")
+            @RequestParam(value = "after_id", defaultValue = "0") int afterId,
+            @Parameter(description = "Размер страницы, не больше 1000")
+            @RequestParam(value = "limit", defaultValue = "100") int limit) {
+        return ResponseEntity.ok(petService.getPets(shelterId, afterId, limit));
     }
 }
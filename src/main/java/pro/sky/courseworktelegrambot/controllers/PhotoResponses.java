@@ -0,0 +1,33 @@
+package pro.sky.courseworktelegrambot.controllers;
+
+import org.springframework.core.io.Resource;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
+import pro.sky.courseworktelegrambot.services.StoredPhoto;
+
+/**
+ * Ответ с фото для контроллеров отчетов и питомцев.<br>
+ * Тело ответа - {@link Resource}: Spring MVC сам отдает его потоком, объявляет Accept-Ranges,
+ * отвечает 206 с нужными частями файла на заголовок Range и 304 на If-None-Match, совпавший с ETag.
+ * ETag - ключ фото в хранилище, он меняется только вместе с содержимым.
+ */
+final class PhotoResponses {
+    //год - предельный срок, который имеет смысл указывать в max-age
+    private static final String CACHE_IMMUTABLE = "private, max-age=31536000, immutable";
+    //фото по этому адресу может поменяться: браузер хранит его, но каждый раз сверяет ETag
+    private static final String CACHE_REVALIDATE = "private, no-cache";
+
+    private PhotoResponses() {
+    }
+
+    static ResponseEntity<Resource> of(StoredPhoto photo) {
+        //Content-Length не указываем: при запросе части файла Spring посчитает его сам
+        return ResponseEntity.ok()
+                .eTag(photo.hash())
+                .header(HttpHeaders.CACHE_CONTROL, photo.immutable() ? CACHE_IMMUTABLE : CACHE_REVALIDATE)
+                .contentType(photo.mediaType() == null
+                        ? MediaType.IMAGE_JPEG : MediaType.parseMediaType(photo.mediaType()))
+                .body(photo.content());
+    }
+}
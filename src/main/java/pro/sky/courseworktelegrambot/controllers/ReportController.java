@@ -6,17 +6,24 @@ import io.swagger.v3.oas.annotations.media.ArraySchema;
 import io.swagger.v3.oas.annotations.media.Content;
 import io.swagger.v3.oas.annotations.media.Schema;
 import io.swagger.v3.oas.annotations.responses.ApiResponse;
-import org.springframework.http.HttpHeaders;
-import org.springframework.http.HttpStatus;
+import org.springframework.core.io.Resource;
 import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.*;
+import org.springframework.web.servlet.support.ServletUriComponentsBuilder;
 import pro.sky.courseworktelegrambot.entities.Report;
 import pro.sky.courseworktelegrambot.entities.ShelterId;
+import pro.sky.courseworktelegrambot.repositories.ReportExportView;
+import pro.sky.courseworktelegrambot.repositories.ReportListView;
 import pro.sky.courseworktelegrambot.services.ReportService;
 
+import javax.servlet.http.HttpServletResponse;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
 import java.time.LocalDate;
 import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
 
 @RestController
 @RequestMapping("report")
@@ -49,6 +56,8 @@ public class ReportController {
         return ResponseEntity.ok(dogReport);
     }
     @Operation(summary = "Получение фотографии животного из отчета",
+            description = "Поддерживает запросы части файла (Range) и проверку ETag (If-None-Match). " +
+                    "Фото отчетов прошлых дней не меняются и кэшируются как неизменяемые",
             responses = {
                     @ApiResponse(
                             responseCode = "200",
@@ -56,22 +65,24 @@ public class ReportController {
                             content = @Content(
                                     mediaType = MediaType.IMAGE_JPEG_VALUE
                             )
+                    ),
+                    @ApiResponse(
+                            responseCode = "206",
+                            description = "Запрошенная часть фотографии"
+                    ),
+                    @ApiResponse(
+                            responseCode = "304",
+                            description = "Фотография не изменилась"
                     )
             })
     @GetMapping("{shelter_id}/{report_id}/photo")
-    public ResponseEntity<byte[]> getReportPhoto(
+    public ResponseEntity<Resource> getReportPhoto(
             @Parameter(description = "Идентификатор приюта")
             @PathVariable("shelter_id") ShelterId shelterId,
             @Parameter(description = "Идентификатор отчета о животном")
             @PathVariable("report_id") Integer reportId) {
-        Report report = reportService.getReportById(shelterId, reportId);
-        byte[] photo = report.getPhoto();
-
-        HttpHeaders headers = new HttpHeaders();
-        headers.setContentType(MediaType.IMAGE_JPEG);
-        headers.setContentLength(photo.length);
-
-        return new ResponseEntity<>(photo, headers, HttpStatus.OK);
+        //фото отдается потоком из хранилища, в память целиком не читается
+        return PhotoResponses.of(reportService.getReportPhoto(shelterId, reportId));
     }
 
 
@@ -97,23 +108,68 @@ public class ReportController {
         return ResponseEntity.ok(report);
     }
 
-    @Operation(summary = "Поиск всех отчетов о животных",
+    @Operation(summary = "Страница отчетов о животных",
+            description = "Отчеты по возрастанию id, начиная после after_id. Следующую страницу запрашивают " +
+                    "с after_id, равным id последнего отчета страницы. Текст и фото отчетов не выдаются",
             responses = {
                     @ApiResponse(
                             responseCode = "200",
-                            description = "Все отчеты о животных",
+                            description = "Страница отчетов о животных",
                             content = @Content(
                                     mediaType = MediaType.APPLICATION_JSON_VALUE,
-                                    array = @ArraySchema(schema = @Schema(implementation = Report.class))
+                                    array = @ArraySchema(schema = @Schema(implementation = ReportListView.class))
                             )
                     )
             })
-    @GetMapping("{shelter_id}/all") // все отчеты приюта
-    public ResponseEntity<Collection<Report>> getAllReports(
+    @GetMapping("{shelter_id}/all") // отчеты приюта постранично
+    public ResponseEntity<List<ReportListView>> getAllReports(
             @Parameter(description = "Идентификатор приюта")
-            @PathVariable("shelter_id") ShelterId shelterId
+            @PathVariable("shelter_id") ShelterId shelterId,
+            @Parameter(description = "id последнего отчета предыдущей страницы")
+            @RequestParam(value = "after_id", defaultValue = "0") int afterId,
+            @Parameter(description = "Размер страницы, не больше 1000")
+            @RequestParam(value = "limit", defaultValue = "100") int limit,
+            @Parameter(description = "Первая дата отчетов")
+            @RequestParam(value = "from", required = false) LocalDate from,
+            @Parameter(description = "Последняя дата отчетов")
+            @RequestParam(value = "to", required = false) LocalDate to
     ) {
-        return ResponseEntity.ok(reportService.getAllReports(shelterId));
+        return ResponseEntity.ok(reportService.getReports(shelterId, afterId, limit, from, to));
+    }
+
+    @Operation(summary = "Выгрузка отчетов о животных за период",
+            description = "Отчеты с датой от from до to в формате NDJSON: по отчету в строке. " +
+                    "Строки отдаются по мере чтения из БД. Фото не выгружаются, " +
+                    "с photo_links=true у отчетов с фото выгружается ссылка на него",
+            responses = {
+                    @ApiResponse(
+                            responseCode = "200",
+                            description = "Отчеты о животных за период",
+                            content = @Content(
+                                    mediaType = MediaType.APPLICATION_NDJSON_VALUE,
+                                    schema = @Schema(implementation = ReportExportView.class)
+                            )
+                    )
+            })
+    @GetMapping("{shelter_id}/export")
+    public void exportReports(
+            @Parameter(description = "Идентификатор приюта")
+            @PathVariable("shelter_id") ShelterId shelterId,
+            @Parameter(description = "Первая дата отчетов")
+            @RequestParam("from") LocalDate from,
+            @Parameter(description = "Последняя дата отчетов")
+            @RequestParam("to") LocalDate to,
+            @Parameter(description = "Выгружать ссылки на фото отчетов")
+            @RequestParam(value = "photo_links", defaultValue = "false") boolean photoLinks,
+            HttpServletResponse response) throws IOException {
+        //ссылка ведет на getReportPhoto, ее конец (id отчета и /photo) добавляет сервис
+        String photoUrlPrefix = photoLinks
+                ? ServletUriComponentsBuilder.fromCurrentContextPath()
+                        .path("/report/{shelter_id}/").buildAndExpand(shelterId).toUriString()
+                : null;
+        response.setContentType(MediaType.APPLICATION_NDJSON_VALUE);
+        response.setCharacterEncoding(StandardCharsets.UTF_8.name());
+        reportService.exportReports(shelterId, from, to, photoUrlPrefix, response.getOutputStream());
     }
 
     @Operation(summary = "Поиск всех отчетов о животных на конкретную дату",
@@ -154,10 +210,10 @@ public class ReportController {
             }
     )
     @PostMapping("/warning_to_user/{user_id}")
-    public void warningToUser(@Parameter(description = "Идентификатор пользователя")
-                              @PathVariable("user_id") long id)
+    public CompletableFuture<Void> warningToUser(@Parameter(description = "Идентификатор пользователя")
+                                                 @PathVariable("user_id") long id)
     {
-        reportService.warningToUser(id);
+        return reportService.warningToUser(id);
     }
 
 }
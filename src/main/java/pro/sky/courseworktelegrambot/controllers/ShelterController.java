@@ -84,7 +84,7 @@ public class ShelterController {
                           @Parameter(description = "Тип информации о приюте")
                           @RequestParam String informationType,
                           @Parameter(description = "Новая информация")
-                          @RequestParam String newInformation) throws IllegalAccessException {
+                          @RequestParam String newInformation) {
         return shelterService.update(id, informationType, newInformation);
     }
 
@@ -1,6 +1,8 @@
 package pro.sky.courseworktelegrambot.controllers;
 
 import io.swagger.v3.oas.annotations.Operation;
+import io.swagger.v3.oas.annotations.Parameter;
+import io.swagger.v3.oas.annotations.media.ArraySchema;
 import io.swagger.v3.oas.annotations.media.Content;
 import io.swagger.v3.oas.annotations.media.Schema;
 import io.swagger.v3.oas.annotations.responses.ApiResponse;
@@ -8,10 +10,11 @@ import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.GetMapping;
 import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RequestParam;
 import org.springframework.web.bind.annotation.RestController;
-import pro.sky.courseworktelegrambot.entities.User;
+import pro.sky.courseworktelegrambot.repositories.UserListView;
 import pro.sky.courseworktelegrambot.services.UserService;
-import java.util.Collection;
+import java.util.List;
 @RestController
 @RequestMapping("user")
 public class UserController {
@@ -21,20 +24,27 @@ public class UserController {
         this.userService = userService;
     }
 
-    @Operation(summary = "Возвращает всех пользователей",
+    @Operation(summary = "Возвращает страницу пользователей",
+            description = "Пользователи по возрастанию id, начиная после after_id. Следующую страницу запрашивают " +
+                    "с after_id, равным id последнего пользователя страницы",
             responses = {
                     @ApiResponse(
                             responseCode = "200",
-                            description = "Все найденные пользователи",
+                            description = "Страница пользователей",
                             content = @Content(
                                     mediaType = MediaType.APPLICATION_JSON_VALUE,
-                                    schema = @Schema(implementation = User.class)
+                                    array = @ArraySchema(schema = @Schema(implementation = UserListView.class))
                             )
                     )
             })
     @GetMapping("all")
-    public ResponseEntity<Collection<User>> getAllDogs()
+    public ResponseEntity<List<UserListView>> getAllDogs(
+            @Parameter(description = "id последнего пользователя предыдущей страницы. " +
+                    "id - это id чата, он бывает отрицательным")
+            @RequestParam(value = "after_id", defaultValue = "" + Long.MIN_VALUE) long afterId,
+            @Parameter(description = "Размер страницы, не больше 1000")
+            @RequestParam(value = "limit", defaultValue = "100") int limit)
     {
-        return ResponseEntity.ok(userService.getAllUsers());
+        return ResponseEntity.ok(userService.getUsers(afterId, limit));
     }
 }
@@ -0,0 +1,50 @@
+package pro.sky.courseworktelegrambot.controllers;
+
+import io.swagger.v3.oas.annotations.Hidden;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.*;
+import org.telegram.telegrambots.meta.api.objects.Update;
+import pro.sky.courseworktelegrambot.services.TelegramBot;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+
+/**
+ * Прием обновлений от Telegram в режиме webhook (telegram.bot.mode=webhook).<br>
+ * Обновление сразу передается в очередь чата, а Telegram получает ответ 200,
+ * не дожидаясь окончания обработки. Если очередь чата переполнена, Telegram получает ответ 503
+ * и пришлет обновление повторно - иначе оно было бы потеряно.
+ */
+@Hidden //не для волонтеров, в swagger не показываем
+@RestController
+@RequestMapping(WebhookController.PATH)
+@ConditionalOnProperty(name = "telegram.bot.mode", havingValue = "webhook")
+public class WebhookController {
+    public static final String PATH = "/telegram/webhook";
+
+    private final TelegramBot telegramBot;
+    private final byte[] secret;
+
+    public WebhookController(TelegramBot telegramBot,
+                             @Value("${telegram.bot.webhook.secret}") String secret) {
+        this.telegramBot = telegramBot;
+        this.secret = secret.getBytes(StandardCharsets.UTF_8);
+    }
+
+    @PostMapping("{secret}")
+    public ResponseEntity<Void> receiveUpdate(@PathVariable("secret") String secret,
+                                              @RequestBody Update update) {
+        //сравнение за постоянное время, чтобы секрет нельзя было подобрать по времени ответа
+        if (secret.isEmpty()
+                || !MessageDigest.isEqual(this.secret, secret.getBytes(StandardCharsets.UTF_8))) {
+            return ResponseEntity.status(HttpStatus.FORBIDDEN).build();
+        }
+        if (!telegramBot.receiveUpdate(update)) {
+            return ResponseEntity.status(HttpStatus.SERVICE_UNAVAILABLE).build();
+        }
+        return ResponseEntity.ok().build();
+    }
+}
@@ -6,13 +6,16 @@ import java.time.LocalDateTime;
 import java.util.Objects;
 
 //Объекты этого класса никогда не будут созданы.
-//Он будет унаследован потомками DogAdoption и CatAdoption
-//нужен, чтобы создать две одинаковые таблицы dog_adoption и cat_аdoption
-//и обращаться к ним через универсальный репозиторий типа JpaRepository<? extends Adoption, Integer>
-//Две таблицы возникают из ТЗ данного нам заказчиком. Мы переспрашивали у наставника.
-//На самом деле иметь 2 одинаковые таблицы - плохое решение
-
-@MappedSuperclass
+//Он будет унаследован потомками DogAdoption и CatAdoption.
+//Усыновления всех приютов лежат в одной таблице adoption, приют различает колонка shelter_id:
+//Hibernate пишет в нее значение @DiscriminatorValue потомка. Поэтому задания по всем приютам
+//обходятся одним запросом через AdoptionRepository, а новому приюту не нужны новые таблицы.
+//Раньше по ТЗ были 2 одинаковые таблицы dog_adoption и cat_adoption, их переносит миграция shelter-tables.yml
+
+@Entity
+@Table(name = "adoption")
+@Inheritance(strategy = InheritanceType.SINGLE_TABLE)
+@DiscriminatorColumn(name = "shelter_id", discriminatorType = DiscriminatorType.STRING, length = 3)
 public abstract class Adoption {
     @Id
     //@GeneratedValue(strategy = GenerationType.AUTO) так выдает Schema-validation: missing sequence [hibernate_sequence]
@@ -32,11 +35,20 @@ public abstract class Adoption {
     //В интервале от date до trialDate бот ждет отчеты
     //При отборе животного волонтер устанавливает trialDate в 01.01.2001
     private LocalDate trialDate;
-
-    public Adoption() {
+    //Приют. Та же колонка, что и дискриминатор, поэтому только для чтения
+    @Enumerated(EnumType.STRING)
+    @Column(name = "shelter_id", insertable = false, updatable = false)
+    private ShelterId shelterId;
+    //Идентификатор питомца для запросов по всем приютам. Связь с питомцем - в наследниках
+    @Column(name = "pet_id", insertable = false, updatable = false)
+    private Integer petId;
+
+    protected Adoption(ShelterId shelterId) {
+        this.shelterId = shelterId;
     }
 
-    public Adoption(User user, LocalDate trialDate) {
+    protected Adoption(ShelterId shelterId, User user, LocalDate trialDate) {
+        this.shelterId = shelterId;
         this.user = user;
         this.date = LocalDate.now();
         this.trialDate = trialDate;
@@ -49,13 +61,16 @@ public abstract class Adoption {
         this.id = id;
     } //для тестов
 
+    public ShelterId getShelterId() {
+        return shelterId;
+    }
+
     public User getUser() {
         return user;
     }
 
-    //не удалось включить сюда Pet, т.к. здесь нельзя поставить связь
-    //а возвращать список усыновлений волонтеру хочется вместе с описанием животных
-    //пришлось поле pet унести в наследников
+    //Pet у каждого приюта свой класс со своей таблицей, поэтому связь с питомцем - в наследниках.
+    //Колонка pet_id общая, внешнего ключа на таблицу питомцев у нее нет
     public abstract Pet getPet();
 
     public LocalDate getDate() {
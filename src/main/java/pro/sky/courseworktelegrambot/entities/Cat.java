@@ -1,5 +1,9 @@
 package pro.sky.courseworktelegrambot.entities;
 
+import org.hibernate.annotations.Cache;
+import org.hibernate.annotations.CacheConcurrencyStrategy;
+
+import javax.persistence.Cacheable;
 import javax.persistence.Entity;
 import javax.persistence.Table;
 
@@ -8,6 +12,8 @@ import javax.persistence.Table;
  */
 
 @Entity
+@Cacheable
+@Cache(usage = CacheConcurrencyStrategy.READ_WRITE)
 @Table(name = "cat")
 public class Cat extends Pet {
     public Cat() {
@@ -18,7 +24,9 @@ public class Cat extends Pet {
         setName(pet.getName());
         setBreed(pet.getBreed());
         setAge(pet.getAge());
-        setPhoto(pet.getPhoto());
+        setPhotoHash(pet.getPhotoHash());
+        setPhotoType(pet.getPhotoType());
+        setPhotoSize(pet.getPhotoSize());
         setAdopted(pet.isAdopted());
     }
 }
@@ -1,12 +1,12 @@
 package pro.sky.courseworktelegrambot.entities;
 
+import javax.persistence.DiscriminatorValue;
 import javax.persistence.Entity;
 import javax.persistence.ManyToOne;
-import javax.persistence.Table;
 import java.time.LocalDate;
 
 @Entity
-@Table(name = "cat_adoption")
+@DiscriminatorValue("CAT")
 public class CatAdoption extends Adoption {
     //Питомец. не pet_id, а целый Pet, чтобы возвратить в коллекции описание тоже
     @ManyToOne
@@ -19,10 +19,11 @@ public class CatAdoption extends Adoption {
 
     public CatAdoption(User user, Cat pet, LocalDate trialDate) {
 
-        super(user, trialDate);
+        super(ShelterId.CAT, user, trialDate);
         this.pet = pet;
     }
     public CatAdoption() {
+        super(ShelterId.CAT);
     }
     @Override
     public String toString() {
@@ -4,7 +4,7 @@ import javax.persistence.*;
 import java.time.LocalDate;
 
 @Entity
-@Table(name = "cat_report")
+@DiscriminatorValue("CAT")
 public class CatReport extends Report {
     @ManyToOne
     private CatAdoption adoption;
@@ -13,12 +13,13 @@ public class CatReport extends Report {
         return adoption;
     }
 
-    public CatReport(CatAdoption adoption, LocalDate date, byte[] photo,
+    public CatReport(CatAdoption adoption, LocalDate date, String photoHash,
                      String imageType,int imageSize,String text) {
-        super(date, photo,imageType,imageSize, text);
+        super(ShelterId.CAT, date, photoHash,imageType,imageSize, text);
         this.adoption = adoption;
     }
     public CatReport() {
+        super(ShelterId.CAT);
     }
     @Override
     public String toString() {
@@ -1,5 +1,9 @@
 package pro.sky.courseworktelegrambot.entities;
 
+import org.hibernate.annotations.Cache;
+import org.hibernate.annotations.CacheConcurrencyStrategy;
+
+import javax.persistence.Cacheable;
 import javax.persistence.Entity;
 import javax.persistence.Table;
 
@@ -7,6 +11,8 @@ import javax.persistence.Table;
  * Object Dog
  */
 @Entity
+@Cacheable
+@Cache(usage = CacheConcurrencyStrategy.READ_WRITE)
 @Table(name = "dog")
 public class Dog extends Pet {
     public Dog() {
@@ -17,7 +23,9 @@ public class Dog extends Pet {
         setName(pet.getName());
         setBreed(pet.getBreed());
         setAge(pet.getAge());
-        setPhoto(pet.getPhoto());
+        setPhotoHash(pet.getPhotoHash());
+        setPhotoType(pet.getPhotoType());
+        setPhotoSize(pet.getPhotoSize());
         setAdopted(pet.isAdopted());
     }
 }
@@ -1,12 +1,12 @@
 package pro.sky.courseworktelegrambot.entities;
 
+import javax.persistence.DiscriminatorValue;
 import javax.persistence.Entity;
 import javax.persistence.ManyToOne;
-import javax.persistence.Table;
 import java.time.LocalDate;
 
 @Entity
-@Table(name = "dog_adoption")
+@DiscriminatorValue("DOG")
 public class DogAdoption extends Adoption {
     //Питомец. не pet_id, а целый Pet, чтобы возвратить в коллекции усыновлений и описание питомца тоже
     @ManyToOne
@@ -16,10 +16,11 @@ public class DogAdoption extends Adoption {
         return pet;
     }
     public DogAdoption(User user, Dog pet, LocalDate trialDate) {
-        super(user, trialDate);
+        super(ShelterId.DOG, user, trialDate);
         this.pet = pet;
     }
     public DogAdoption() {
+        super(ShelterId.DOG);
     }
     @Override
     public String toString() {
@@ -4,7 +4,7 @@ import javax.persistence.*;
 import java.time.LocalDate;
 
 @Entity
-@Table(name = "dog_report")
+@DiscriminatorValue("DOG")
 public class DogReport extends Report {
     @ManyToOne
     private DogAdoption adoption;
@@ -13,12 +13,13 @@ public class DogReport extends Report {
         return adoption;
     }
 
-    public DogReport(DogAdoption adoption, LocalDate date, byte[] photo,
+    public DogReport(DogAdoption adoption, LocalDate date, String photoHash,
                      String imageType,int imageSize,String text) {
-        super(date, photo,imageType,imageSize, text);
+        super(ShelterId.DOG, date, photoHash,imageType,imageSize, text);
         this.adoption = adoption;
     }
     public DogReport() {
+        super(ShelterId.DOG);
     }
     @Override
     public String toString() {
@@ -0,0 +1,16 @@
+package pro.sky.courseworktelegrambot.entities;
+
+/**
+ * Вид уведомления, которое Notifier рассылает по расписанию.
+ * Хранится в таблице notification_log строкой.
+ */
+public enum NotificationKind {
+    /**
+     * Напоминание прислать отчет (вместе с ним, если надо, уходит и сообщение волонтеру).
+     */
+    REPORT_REMINDER,
+    /**
+     * Поздравление с окончанием испытательного срока.
+     */
+    CONGRATULATION
+}
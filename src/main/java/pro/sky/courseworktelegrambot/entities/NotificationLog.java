@@ -0,0 +1,62 @@
+package pro.sky.courseworktelegrambot.entities;
+
+import javax.persistence.*;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+
+/**
+ * Сущность "отметка о рассылке".<br>
+ * Notifier записывает в таблицу <u>"notification_log"</u>, какое уведомление по какому усыновлению
+ * уже разослано за день. Отметка пишется в той же транзакции, что и сообщения волонтеру,
+ * поэтому повторный запуск рассылки пропускает уже обработанные усыновления.
+ * Уникальный индекс (shelter_id, adoption_id, kind, date) не дает разослать уведомление дважды.
+ */
+@Entity
+@Table(name = "notification_log")
+public class NotificationLog {
+    @Id
+    @GeneratedValue(strategy = GenerationType.IDENTITY)
+    private int id;
+    @Enumerated(EnumType.STRING)
+    private ShelterId shelterId; //усыновления собак и кошек лежат в разных таблицах
+    private int adoptionId;
+    @Enumerated(EnumType.STRING)
+    private NotificationKind kind;
+    private LocalDate date;
+    private LocalDateTime sentTime;
+
+    public NotificationLog() {
+    }
+
+    public NotificationLog(ShelterId shelterId, int adoptionId, NotificationKind kind, LocalDate date) {
+        this.shelterId = shelterId;
+        this.adoptionId = adoptionId;
+        this.kind = kind;
+        this.date = date;
+        this.sentTime = LocalDateTime.now();
+    }
+
+    public int getId() {
+        return id;
+    }
+
+    public ShelterId getShelterId() {
+        return shelterId;
+    }
+
+    public int getAdoptionId() {
+        return adoptionId;
+    }
+
+    public NotificationKind getKind() {
+        return kind;
+    }
+
+    public LocalDate getDate() {
+        return date;
+    }
+
+    public LocalDateTime getSentTime() {
+        return sentTime;
+    }
+}
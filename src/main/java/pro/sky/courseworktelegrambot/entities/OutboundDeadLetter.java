@@ -0,0 +1,58 @@
+package pro.sky.courseworktelegrambot.entities;
+
+import javax.persistence.*;
+import java.time.LocalDateTime;
+
+/**
+ * Сущность "недоставленное сообщение".<br>
+ * Сообщение, которое очередь исходящих сообщений так и не смогла отправить в Telegram
+ * (исчерпаны попытки или Telegram отказал окончательно), сохраняется в таблице <u>"outbound_dead_letter"</u>,
+ * чтобы волонтер мог разобраться и связаться с пользователем сам.
+ */
+@Entity
+@Table(name = "outbound_dead_letter")
+public class OutboundDeadLetter {
+    @Id
+    @GeneratedValue(strategy = GenerationType.IDENTITY)
+    private int id;
+    private long chatId;
+    private String text;
+    private int attempts;
+    private String error;
+    private LocalDateTime failedTime;
+
+    public OutboundDeadLetter() {
+    }
+
+    public OutboundDeadLetter(long chatId, String text, int attempts, String error) {
+        this.chatId = chatId;
+        this.text = text;
+        this.attempts = attempts;
+        this.error = error;
+        this.failedTime = LocalDateTime.now();
+    }
+
+    public int getId() {
+        return id;
+    }
+
+    public long getChatId() {
+        return chatId;
+    }
+
+    public String getText() {
+        return text;
+    }
+
+    public int getAttempts() {
+        return attempts;
+    }
+
+    public String getError() {
+        return error;
+    }
+
+    public LocalDateTime getFailedTime() {
+        return failedTime;
+    }
+}
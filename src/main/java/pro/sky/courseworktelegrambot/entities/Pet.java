@@ -1,5 +1,7 @@
 package pro.sky.courseworktelegrambot.entities;
 
+import com.fasterxml.jackson.annotation.JsonIgnore;
+
 import javax.persistence.*;
 import java.util.Objects;
 
@@ -30,11 +32,21 @@ public class Pet {
      */
     private int age;
     /**
-     * Фотография животного.
+     * Ключ фотографии животного в хранилище фото.
+     * Фотография загружается отдельным запросом, поэтому в теле запросов эти поля не принимаются.
+     */
+    @JsonIgnore
+    private String photoHash;
+    /**
+     * MIME-тип фотографии.
      */
-    @Lob
-    @Column(columnDefinition = "oid")
-    private byte[] photo;
+    @JsonIgnore
+    private String photoType;
+    /**
+     * Размер фотографии в байтах.
+     */
+    @JsonIgnore
+    private long photoSize;
     /**
      * Статус усыновления животного.
      */
@@ -75,12 +87,28 @@ public class Pet {
         this.age = age;
     }
 
-    public byte[] getPhoto() {
-        return photo;
+    public String getPhotoHash() {
+        return photoHash;
+    }
+
+    public void setPhotoHash(String photoHash) {
+        this.photoHash = photoHash;
+    }
+
+    public String getPhotoType() {
+        return photoType;
+    }
+
+    public void setPhotoType(String photoType) {
+        this.photoType = photoType;
+    }
+
+    public long getPhotoSize() {
+        return photoSize;
     }
 
-    public void setPhoto(byte[] photo) {
-        this.photo = photo;
+    public void setPhotoSize(long photoSize) {
+        this.photoSize = photoSize;
     }
 
     /**
@@ -89,7 +117,7 @@ public class Pet {
      * @return true, если фотография есть; false в противном случае
      */
     public boolean getHasPhoto() {
-        return photo != null;
+        return photoHash != null;
     }
 
     public boolean isAdopted() {
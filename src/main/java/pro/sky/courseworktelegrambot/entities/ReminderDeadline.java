@@ -0,0 +1,70 @@
+package pro.sky.courseworktelegrambot.entities;
+
+import javax.persistence.*;
+import java.time.Instant;
+import java.time.LocalDate;
+
+/**
+ * Сущность "срок уведомления".<br>
+ * В таблице <u>"reminder_deadline"</u> лежит ближайший срок каждого уведомления по каждому
+ * активному усыновлению: срок отчета за день и конец испытательного срока.
+ * Notifier просыпается к самому раннему сроку и обрабатывает только наступившие,
+ * а не перебирает все усыновления по cron. Индекс по due_time делает выборку дешевой.
+ */
+@Entity
+@Table(name = "reminder_deadline")
+public class ReminderDeadline {
+    @Id
+    @GeneratedValue(strategy = GenerationType.IDENTITY)
+    private int id;
+    @Enumerated(EnumType.STRING)
+    private ShelterId shelterId; //усыновления собак и кошек лежат в разных таблицах
+    private int adoptionId;
+    @Enumerated(EnumType.STRING)
+    private NotificationKind kind;
+    //день (в часовом поясе приюта), к которому относится срок: за него пишется отметка в notification_log
+    private LocalDate date;
+    //момент наступления срока. Внутри окна рассылки сроки разнесены, чтобы не отправлять все сразу
+    private Instant dueTime;
+
+    public ReminderDeadline() {
+    }
+
+    public ReminderDeadline(ShelterId shelterId, int adoptionId, NotificationKind kind, LocalDate date, Instant dueTime) {
+        this.shelterId = shelterId;
+        this.adoptionId = adoptionId;
+        this.kind = kind;
+        this.date = date;
+        this.dueTime = dueTime;
+    }
+
+    public int getId() {
+        return id;
+    }
+
+    public ShelterId getShelterId() {
+        return shelterId;
+    }
+
+    public int getAdoptionId() {
+        return adoptionId;
+    }
+
+    public NotificationKind getKind() {
+        return kind;
+    }
+
+    public LocalDate getDate() {
+        return date;
+    }
+
+    public Instant getDueTime() {
+        return dueTime;
+    }
+
+    //перенос срока на следующий день
+    public void moveTo(LocalDate date, Instant dueTime) {
+        this.date = date;
+        this.dueTime = dueTime;
+    }
+}
@@ -6,31 +6,42 @@ import javax.persistence.*;
 import java.time.LocalDate;
 import java.util.Objects;
 /**
- * Object Report
+ * Object Report<br>
+ * Отчеты всех приютов лежат в одной таблице report, приют различает колонка-дискриминатор shelter_id
  */
-@MappedSuperclass
+@Entity
+@Table(name = "report")
+@Inheritance(strategy = InheritanceType.SINGLE_TABLE)
+@DiscriminatorColumn(name = "shelter_id", discriminatorType = DiscriminatorType.STRING, length = 3)
 public abstract class Report {
     @Id
     @GeneratedValue(strategy = GenerationType.IDENTITY)
     private int id;
+    // приют отчета, та же колонка, что и дискриминатор, поэтому только для чтения
+    @Enumerated(EnumType.STRING)
+    @Column(name = "shelter_id", insertable = false, updatable = false)
+    private ShelterId shelterId;
+    // усыновление для запросов по всем приютам. Связь с усыновлением - в наследниках, поэтому только для чтения
+    @Column(name = "adoption_id", insertable = false, updatable = false)
+    private Integer adoptionId;
     private LocalDate date; // дата отчета
-    @Lob
-    @Column(columnDefinition = "oid")
-    private byte[] photo; // фото отчета
+    private String photoHash; // ключ фото отчета в хранилище фото
     private String imageType; //расширение фото
     private int imageSize; //размер фото
     private String text; // текст отчета
 
-    public Report(LocalDate date, byte[] photo, String imageType,
-                  int imageSize, String text) {
+    protected Report(ShelterId shelterId, LocalDate date, String photoHash, String imageType,
+                     int imageSize, String text) {
+        this.shelterId = shelterId;
         this.date = date;
-        this.photo = photo;
+        this.photoHash = photoHash;
         this.text = text;
         this.imageType = imageType;
         this.imageSize = imageSize;
     }
 
-    public Report() {
+    protected Report(ShelterId shelterId) {
+        this.shelterId = shelterId;
     }
 
     public void setId(int id) {
@@ -41,6 +52,10 @@ public abstract class Report {
         return id;
     }
 
+    public ShelterId getShelterId() {
+        return shelterId;
+    }
+
     public abstract Adoption getAdoption();
 
     public LocalDate getDate() {
@@ -51,16 +66,16 @@ public abstract class Report {
         this.date = date;
     }
     @JsonIgnore
-    public byte[] getPhoto() {
-        return photo;
+    public String getPhotoHash() {
+        return photoHash;
     }
 
     public boolean getPhotoPresented(){
-        return photo != null;
+        return photoHash != null;
     }
 
-    public void setPhoto(byte[] photo) {
-        this.photo = photo;
+    public void setPhotoHash(String photoHash) {
+        this.photoHash = photoHash;
     }
     @JsonIgnore
     public String getText() {
@@ -0,0 +1,92 @@
+package pro.sky.courseworktelegrambot.entities;
+
+import javax.persistence.*;
+import java.time.LocalDate;
+
+/**
+ * Сущность "состояние отчетов по усыновлению".<br>
+ * В таблице <u>"report_status"</u> одна короткая строка на усыновление: день последнего отчета,
+ * прислано ли в нем фото и текст, и день последнего полного отчета.
+ * Строку обновляет ReportService при каждом сохранении и удалении отчета,
+ * а бот и Notifier читают ее вместо таблиц отчетов.
+ */
+@Entity
+@Table(name = "report_status")
+public class ReportStatus {
+    @Id
+    @GeneratedValue(strategy = GenerationType.IDENTITY)
+    private int id;
+    @Enumerated(EnumType.STRING)
+    private ShelterId shelterId; //приют усыновления: shelter_id - дискриминатор общей таблицы adoption
+    private int adoptionId;
+    private LocalDate date; //день последнего отчета
+    private boolean photo;
+    private boolean text;
+    private LocalDate lastCompleteDate; //день последнего отчета с фото и текстом, null - таких не было
+
+    public ReportStatus() {
+    }
+
+    public ReportStatus(ShelterId shelterId, int adoptionId) {
+        this.shelterId = shelterId;
+        this.adoptionId = adoptionId;
+    }
+
+    /**
+     * Учитывает отчет за день. Отчеты можно учитывать в любом порядке:
+     * флаги фото и текста относятся к самому позднему дню.
+     *
+     * @param report сохраненный отчет, целиком за свой день
+     */
+    public void apply(Report report) {
+        if (date == null || report.getDate().isAfter(date)) {
+            date = report.getDate();
+        }
+        if (report.getDate().equals(date)) {
+            photo = report.getPhotoPresented();
+            text = report.getTextPresented();
+        }
+        if (report.getPhotoPresented() && report.getTextPresented()
+                && (lastCompleteDate == null || report.getDate().isAfter(lastCompleteDate))) {
+            lastCompleteDate = report.getDate();
+        }
+    }
+
+    //перед пересчетом по всем отчетам усыновления
+    public void reset() {
+        date = null;
+        photo = false;
+        text = false;
+        lastCompleteDate = null;
+    }
+
+    public int getId() {
+        return id;
+    }
+
+    public ShelterId getShelterId() {
+        return shelterId;
+    }
+
+    public int getAdoptionId() {
+        return adoptionId;
+    }
+
+    public LocalDate getDate() {
+        return date;
+    }
+
+    //прислано ли фото за день
+    public boolean hasPhoto(LocalDate date) {
+        return date.equals(this.date) && photo;
+    }
+
+    //прислан ли текст за день
+    public boolean hasText(LocalDate date) {
+        return date.equals(this.date) && text;
+    }
+
+    public LocalDate getLastCompleteDate() {
+        return lastCompleteDate;
+    }
+}
@@ -1,9 +1,18 @@
 package pro.sky.courseworktelegrambot.entities;
 
+import org.hibernate.annotations.Cache;
+import org.hibernate.annotations.CacheConcurrencyStrategy;
+import org.hibernate.annotations.Fetch;
+import org.hibernate.annotations.FetchMode;
+
 import javax.persistence.*;
 import java.util.List;
 
+//Состояния и кнопки меняются только правкой таблиц, а читаются при каждой загрузке User:
+//держим их в кэше второго уровня Hibernate (см. hibernate-cache.xml)
 @Entity
+@Cacheable
+@Cache(usage = CacheConcurrencyStrategy.READ_WRITE)
 public class State {
     @Id
     private String id;
@@ -15,7 +24,10 @@ public class State {
     @Enumerated(EnumType.STRING)
     private NamedState namedState;
     //кнопки подтягиваем сразу
+    //отдельным запросом, а не join: тогда коллекция берется из кэша второго уровня
     @OneToMany(fetch = FetchType.EAGER, mappedBy = "state")  //по умолчанию (fetch = FetchType.LAZY)
+    @Fetch(FetchMode.SELECT)
+    @Cache(usage = CacheConcurrencyStrategy.READ_WRITE)
     private List<StateButton> buttons;
 
     //для тестов
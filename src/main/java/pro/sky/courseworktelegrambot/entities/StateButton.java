@@ -1,8 +1,13 @@
 package pro.sky.courseworktelegrambot.entities;
 
+import org.hibernate.annotations.Cache;
+import org.hibernate.annotations.CacheConcurrencyStrategy;
+
 import javax.persistence.*;
 
 @Entity
+@Cacheable
+@Cache(usage = CacheConcurrencyStrategy.READ_WRITE)
 @IdClass(StateButtonPK.class)
 public class StateButton {
     @Id
@@ -1,5 +1,8 @@
 package pro.sky.courseworktelegrambot.entities;
 
+import org.hibernate.annotations.Fetch;
+import org.hibernate.annotations.FetchMode;
+
 import javax.persistence.*;
 import java.time.LocalDateTime;
 import com.fasterxml.jackson.annotation.JsonIgnore;
@@ -13,9 +16,12 @@ public class User {
     private String name;
     @Enumerated(EnumType.STRING)
     private ShelterId shelterId;
+    //состояния - отдельной загрузкой по id, а не join: тогда они берутся из кэша второго уровня
     @ManyToOne  //по умолчанию (fetch = FetchType.EAGER)
+    @Fetch(FetchMode.SELECT)
     private State state;
     @ManyToOne
+    @Fetch(FetchMode.SELECT)
     private State previousState;
     private LocalDateTime stateTime;
 
@@ -69,6 +75,10 @@ public class User {
         this.stateTime = LocalDateTime.now();
     }
 
+    public void setStateTime(LocalDateTime stateTime) { //для восстановления из хранилища состояний
+        this.stateTime = stateTime;
+    }
+
     public String getName() {
         return name;
     }
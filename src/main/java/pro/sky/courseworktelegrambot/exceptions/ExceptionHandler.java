@@ -38,4 +38,10 @@ public class ExceptionHandler {
         LOGGER.error("MessageToVolunteer not found. " + e.getMessage());
         return ResponseEntity.status(HttpStatus.NOT_FOUND).body("MessageToVolunteer not found. " + e.getMessage());
     }
+
+    @org.springframework.web.bind.annotation.ExceptionHandler({NotAnImageException.class})
+    public ResponseEntity<?> NotAnImage(NotAnImageException e) {
+        LOGGER.error("Not an image. " + e.getMessage());
+        return ResponseEntity.status(HttpStatus.BAD_REQUEST).body("Not an image. " + e.getMessage());
+    }
 }
@@ -0,0 +1,8 @@
+package pro.sky.courseworktelegrambot.exceptions;
+
+public class NotAnImageException extends RuntimeException {
+
+    public NotAnImageException(String message) {
+        super(message);
+    }
+}
@@ -0,0 +1,19 @@
+package pro.sky.courseworktelegrambot.exceptions;
+
+public class PhotoTooLargeException extends RuntimeException {
+
+    private final long maxSize;
+
+    public PhotoTooLargeException(long maxSize) {
+        this.maxSize = maxSize;
+    }
+
+    public long getMaxSize() {
+        return maxSize;
+    }
+
+    @Override
+    public String getMessage() {
+        return "Photo is larger than " + maxSize + " bytes";
+    }
+}
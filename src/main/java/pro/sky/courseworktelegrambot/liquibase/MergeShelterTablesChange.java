@@ -0,0 +1,112 @@
+package pro.sky.courseworktelegrambot.liquibase;
+
+import liquibase.change.custom.CustomTaskChange;
+import liquibase.database.Database;
+import liquibase.database.jvm.JdbcConnection;
+import liquibase.exception.CustomChangeException;
+import liquibase.exception.ValidationErrors;
+import liquibase.resource.ResourceAccessor;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+
+/**
+ * Миграция Liquibase: переносит усыновления и отчеты из таблиц приютов (dog_adoption, cat_adoption,
+ * dog_report, cat_report) в общие таблицы adoption и report с колонкой-дискриминатором shelter_id.<br>
+ * id в таблицах приютов пересекаются, а в общей таблице должны быть уникальны. Поэтому строки собак
+ * переносятся со своими id, а id строк кошек сдвигаются на максимальный id собак. На тот же сдвиг
+ * меняются ссылки на усыновления кошек в отчетах, notification_log, reminder_deadline и report_status.
+ * После переноса счетчики id общих таблиц продолжают нумерацию после перенесенных строк.<br>
+ * SQL-скриптом это не сделать: в H2 значение RESTART WITH - только константа, а ее надо вычислить.
+ */
+public class MergeShelterTablesChange implements CustomTaskChange {
+
+    //таблицы со ссылкой на усыновление и колонкой shelter_id
+    private static final String[] ADOPTION_REFERENCES = {"notification_log", "reminder_deadline", "report_status"};
+
+    private int movedAdoptions;
+    private int movedReports;
+
+    @Override
+    public void execute(Database database) throws CustomChangeException {
+        Connection connection = ((JdbcConnection) database.getConnection()).getUnderlyingConnection();
+        try {
+            long adoptionShift = maxId(connection, "dog_adoption");
+            long reportShift = maxId(connection, "dog_report");
+            movedAdoptions = moveAdoptions(connection, "DOG", "dog_adoption", 0)
+                    + moveAdoptions(connection, "CAT", "cat_adoption", adoptionShift);
+            movedReports = moveReports(connection, "DOG", "dog_report", 0, 0)
+                    + moveReports(connection, "CAT", "cat_report", reportShift, adoptionShift);
+            for (String table : ADOPTION_REFERENCES) {
+                try (PreparedStatement statement = connection.prepareStatement("UPDATE " + table
+                        + " SET adoption_id = adoption_id + ? WHERE shelter_id = 'CAT'")) {
+                    statement.setLong(1, adoptionShift);
+                    statement.executeUpdate();
+                }
+            }
+            restartId(connection, "adoption");
+            restartId(connection, "report");
+        } catch (SQLException e) {
+            throw new CustomChangeException("Не удалось перенести усыновления и отчеты в общие таблицы", e);
+        }
+    }
+
+    private int moveAdoptions(Connection connection, String shelterId, String table, long shift) throws SQLException {
+        try (PreparedStatement statement = connection.prepareStatement(
+                "INSERT INTO adoption (id, shelter_id, user_id, pet_id, date, trial_date) "
+                        + "SELECT id + ?, ?, user_id, pet_id, date, trial_date FROM " + table)) {
+            statement.setLong(1, shift);
+            statement.setString(2, shelterId);
+            return statement.executeUpdate();
+        }
+    }
+
+    private int moveReports(Connection connection, String shelterId, String table,
+                            long shift, long adoptionShift) throws SQLException {
+        try (PreparedStatement statement = connection.prepareStatement(
+                "INSERT INTO report (id, shelter_id, adoption_id, date, photo_hash, text, image_type, image_size) "
+                        + "SELECT id + ?, ?, adoption_id + ?, date, photo_hash, text, image_type, image_size FROM " + table)) {
+            statement.setLong(1, shift);
+            statement.setString(2, shelterId);
+            statement.setLong(3, adoptionShift);
+            return statement.executeUpdate();
+        }
+    }
+
+    private long maxId(Connection connection, String table) throws SQLException {
+        try (Statement statement = connection.createStatement();
+             ResultSet resultSet = statement.executeQuery("SELECT COALESCE(MAX(id), 0) FROM " + table)) {
+            resultSet.next();
+            return resultSet.getLong(1);
+        }
+    }
+
+    //строки перенесены с явными id, счетчик AUTO_INCREMENT о них не знает
+    private void restartId(Connection connection, String table) throws SQLException {
+        long next = maxId(connection, table) + 1;
+        try (Statement statement = connection.createStatement()) {
+            statement.execute("ALTER TABLE " + table + " ALTER COLUMN id RESTART WITH " + next);
+        }
+    }
+
+    @Override
+    public String getConfirmationMessage() {
+        return "Moved " + movedAdoptions + " adoptions and " + movedReports + " reports to shared tables";
+    }
+
+    @Override
+    public void setUp() {
+    }
+
+    @Override
+    public void setFileOpener(ResourceAccessor resourceAccessor) {
+    }
+
+    @Override
+    public ValidationErrors validate(Database database) {
+        return new ValidationErrors();
+    }
+}
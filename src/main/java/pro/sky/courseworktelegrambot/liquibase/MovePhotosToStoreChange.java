@@ -0,0 +1,105 @@
+package pro.sky.courseworktelegrambot.liquibase;
+
+import liquibase.change.custom.CustomTaskChange;
+import liquibase.database.Database;
+import liquibase.database.jvm.JdbcConnection;
+import liquibase.exception.CustomChangeException;
+import liquibase.exception.ValidationErrors;
+import liquibase.resource.ResourceAccessor;
+import org.springframework.core.io.Resource;
+import pro.sky.courseworktelegrambot.services.FileSystemPhotoStore;
+import pro.sky.courseworktelegrambot.services.PhotoStore;
+import pro.sky.courseworktelegrambot.services.ReportPhotoDownloader;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+
+/**
+ * Миграция Liquibase: переносит фото из BLOB-колонок photo таблиц отчетов и питомцев
+ * в хранилище фото и записывает в таблицы ключ, размер и MIME-тип фото.<br>
+ * SQL-скриптом это не сделать - файлы пишет {@link FileSystemPhotoStore},
+ * каталог хранилища передается параметром changelog photo-store-path.
+ * Фото читаются из БД по одному и потоком, поэтому миграция не требует памяти под все фото сразу.
+ */
+public class MovePhotosToStoreChange implements CustomTaskChange {
+
+    private String storePath;
+    private int movedCount;
+
+    //Liquibase передает атрибут storePath из changelog, только если у свойства есть и getter, и setter
+    public String getStorePath() {
+        return storePath;
+    }
+
+    public void setStorePath(String storePath) {
+        this.storePath = storePath;
+    }
+
+    @Override
+    public void execute(Database database) throws CustomChangeException {
+        PhotoStore photoStore = new FileSystemPhotoStore(storePath);
+        Connection connection = ((JdbcConnection) database.getConnection()).getUnderlyingConnection();
+        try {
+            movePhotos(connection, photoStore, "dog_report", "image_type", "image_size");
+            movePhotos(connection, photoStore, "cat_report", "image_type", "image_size");
+            movePhotos(connection, photoStore, "dog", "photo_type", "photo_size");
+            movePhotos(connection, photoStore, "cat", "photo_type", "photo_size");
+        } catch (SQLException | IOException e) {
+            throw new CustomChangeException("Не удалось перенести фото в хранилище " + storePath, e);
+        }
+    }
+
+    private void movePhotos(Connection connection, PhotoStore photoStore,
+                            String table, String typeColumn, String sizeColumn) throws SQLException, IOException {
+        String select = "SELECT id, photo, " + typeColumn + " FROM " + table + " WHERE photo IS NOT NULL";
+        String update = "UPDATE " + table + " SET photo_hash = ?, " + typeColumn + " = ?, "
+                + sizeColumn + " = ? WHERE id = ?";
+        try (PreparedStatement selectStatement = connection.prepareStatement(select);
+             PreparedStatement updateStatement = connection.prepareStatement(update);
+             ResultSet resultSet = selectStatement.executeQuery()) {
+            while (resultSet.next()) {
+                String hash;
+                try (InputStream is = resultSet.getBinaryStream("photo")) {
+                    hash = photoStore.save(is);
+                }
+                Resource photo = photoStore.load(hash);
+                String mediaType = resultSet.getString(typeColumn);
+                if (mediaType == null) {
+                    try (InputStream is = photo.getInputStream()) {
+                        mediaType = ReportPhotoDownloader.detectMimeType(is.readNBytes(ReportPhotoDownloader.HEADER_SIZE));
+                    }
+                }
+                updateStatement.setString(1, hash);
+                updateStatement.setString(2, mediaType);
+                updateStatement.setLong(3, photo.contentLength());
+                updateStatement.setInt(4, resultSet.getInt("id"));
+                updateStatement.executeUpdate();
+                movedCount++;
+            }
+        }
+    }
+
+    @Override
+    public String getConfirmationMessage() {
+        return "Moved " + movedCount + " photos to " + storePath;
+    }
+
+    @Override
+    public void setUp() {
+    }
+
+    @Override
+    public void setFileOpener(ResourceAccessor resourceAccessor) {
+    }
+
+    @Override
+    public ValidationErrors validate(Database database) {
+        ValidationErrors errors = new ValidationErrors();
+        errors.checkRequiredField("storePath", storePath);
+        return errors;
+    }
+}
@@ -0,0 +1,24 @@
+package pro.sky.courseworktelegrambot.repositories;
+
+import java.time.LocalDate;
+
+/**
+ * Усыновление для выгрузки: пользователь и питомец - только id и имя.
+ */
+public record AdoptionExportView(int id,
+                                 Long userId,
+                                 String userName,
+                                 Integer petId,
+                                 String petName,
+                                 LocalDate date,
+                                 LocalDate trialDate) {
+    //для запроса: имя питомца подставляет сервис
+    public AdoptionExportView(int id, Long userId, String userName, Integer petId,
+                              LocalDate date, LocalDate trialDate) {
+        this(id, userId, userName, petId, null, date, trialDate);
+    }
+
+    public AdoptionExportView withPetName(String petName) {
+        return new AdoptionExportView(id, userId, userName, petId, petName, date, trialDate);
+    }
+}
@@ -0,0 +1,58 @@
+package pro.sky.courseworktelegrambot.repositories;
+
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.jpa.repository.QueryHints;
+import org.springframework.stereotype.Repository;
+import pro.sky.courseworktelegrambot.entities.Adoption;
+import pro.sky.courseworktelegrambot.entities.ShelterId;
+import pro.sky.courseworktelegrambot.entities.User;
+
+import javax.persistence.QueryHint;
+import java.time.LocalDate;
+import java.util.Collection;
+import java.util.List;
+import java.util.Optional;
+import java.util.stream.Stream;
+
+//Усыновления всех приютов из общей таблицы adoption. Запросы по одному приюту получают приют параметром,
+//задания, которые идут по всем приютам сразу, - без него
+@Repository
+public interface AdoptionRepository extends JpaRepository<Adoption, Integer> {
+    //усыновление приюта: усыновление другого приюта с тем же id не найдется
+    Optional<Adoption> findByShelterIdAndId(ShelterId shelterId, int id);
+    List<Adoption> findByShelterId(ShelterId shelterId);
+    //поиск усыновлений пользователя с пересекающимся испытательным сроком,
+    List<Adoption> findByShelterIdAndUserAndDateLessThanEqualAndTrialDateGreaterThanEqual(
+            //trialDate_parameter >= date_base AND date_parameter <= trialDate_base
+            ShelterId shelterId, User user, LocalDate trialDate, LocalDate Date);
+    //поиск усыновлений животного с пересекающимся испытательным сроком,
+    List<Adoption> findByShelterIdAndPetIdAndDateLessThanEqualAndTrialDateGreaterThanEqual(
+            //trialDate_parameter >= date_base AND date_parameter <= trialDate_base
+            ShelterId shelterId, Integer petId, LocalDate trialDate, LocalDate Date);
+    //поиск активных усыновлений приюта, действующих на дату с проверкой обех границ
+    //от даты усыновления до конца испытательного срока
+    List<Adoption> findByShelterIdAndDateLessThanEqualAndTrialDateGreaterThanEqual(
+            //date_parameter >= date_base AND date_parameter <= trialDate_base
+            ShelterId shelterId, LocalDate date1, LocalDate date2);
+    //поиск активных усыновлений всех приютов с проверкой только верхней границы
+    List<Adoption> findByTrialDateGreaterThanEqual(LocalDate date);
+
+    //для выгрузки усыновлений за даты from..to: строки читаются из БД частями по fetchSize по мере записи в ответ.
+    //Питомцы у каждого приюта в своей таблице, поэтому имя питомца подставляет сервис
+    @Query("SELECT new pro.sky.courseworktelegrambot.repositories.AdoptionExportView(" +
+            "a.id, u.id, u.name, a.petId, a.date, a.trialDate) " +
+            "FROM Adoption a LEFT JOIN a.user u WHERE a.shelterId = ?1 AND a.date BETWEEN ?2 AND ?3 ORDER BY a.id")
+    @QueryHints(@QueryHint(name = "org.hibernate.fetchSize", value = "500"))
+    Stream<AdoptionExportView> streamByDate(ShelterId shelterId, LocalDate from, LocalDate to);
+
+    //Для напоминаний об отчетах: усыновления с наступившим сроком отчета, еще активные на дату,
+    //с датой последнего полного отчета из report_status одним запросом, таблица отчетов не читается.
+    //Питомцы у каждого приюта в своей таблице, поэтому имя питомца подставляет Notifier
+    @Query("SELECT new pro.sky.courseworktelegrambot.repositories.ReportReminderView(" +
+            "a.id, a.shelterId, u.id, u.name, a.petId, a.date, a.trialDate, s.lastCompleteDate) " +
+            "FROM Adoption a JOIN a.user u " +
+            "LEFT JOIN ReportStatus s ON s.shelterId = a.shelterId AND s.adoptionId = a.id " +
+            "WHERE a.id IN ?1 AND a.trialDate >= ?2")
+    List<ReportReminderView> findReportReminders(Collection<Integer> adoptionIds, LocalDate date);
+}
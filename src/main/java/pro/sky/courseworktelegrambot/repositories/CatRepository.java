@@ -1,9 +1,26 @@
 package pro.sky.courseworktelegrambot.repositories;
 
+import org.springframework.data.domain.Pageable;
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.jpa.repository.QueryHints;
 import org.springframework.stereotype.Repository;
 import pro.sky.courseworktelegrambot.entities.Cat;
 
+import javax.persistence.QueryHint;
+import java.util.List;
+
 @Repository
 public interface CatRepository extends JpaRepository<Cat, Integer> {
+    //каталог питомцев приюта: результат запроса в кэше запросов Hibernate.
+    //Он сбрасывается при любом изменении таблицы cat через Hibernate
+    @Override
+    @QueryHints(@QueryHint(name = "org.hibernate.cacheable", value = "true"))
+    List<Cat> findAll();
+
+    //для списка питомцев: страница после питомца afterId по возрастанию id
+    @Query("SELECT new pro.sky.courseworktelegrambot.repositories.PetListView(" +
+            "p.id, p.name, p.breed, p.age, CASE WHEN p.photoHash IS NULL THEN false ELSE true END, p.adopted) " +
+            "FROM Cat p WHERE p.id > ?1 ORDER BY p.id")
+    List<PetListView> findPage(int afterId, Pageable pageable);
 }
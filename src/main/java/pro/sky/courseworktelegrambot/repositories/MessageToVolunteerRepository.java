@@ -8,6 +8,7 @@ import java.util.List;
 
 @Repository
 public interface MessageToVolunteerRepository extends JpaRepository<MessageToVolunteer, Integer> {
-    List<MessageToVolunteer> findAllByAnswerIsNull();
+    //answer - TEXT, индекс по нему не построить. answer_time пишется вместе с ответом и проиндексирован
+    List<MessageToVolunteer> findAllByAnswerTimeIsNull();
 
 }
@@ -0,0 +1,24 @@
+package pro.sky.courseworktelegrambot.repositories;
+
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.transaction.annotation.Transactional;
+import pro.sky.courseworktelegrambot.entities.NotificationKind;
+import pro.sky.courseworktelegrambot.entities.NotificationLog;
+import pro.sky.courseworktelegrambot.entities.ShelterId;
+
+import java.time.LocalDate;
+import java.util.Set;
+
+public interface NotificationLogRepository extends JpaRepository<NotificationLog, Integer> {
+    //усыновления всех приютов, по которым уведомление этого вида за день уже разослано.
+    //id усыновлений общие для приютов, поэтому приют в условии не нужен
+    @Query("SELECT l.adoptionId FROM NotificationLog l WHERE l.kind = ?1 AND l.date = ?2")
+    Set<Integer> findAdoptionIds(NotificationKind kind, LocalDate date);
+
+    @Transactional
+    @Modifying
+    @Query("DELETE FROM NotificationLog l WHERE l.shelterId = ?1 AND l.adoptionId = ?2")
+    void deleteByAdoption(ShelterId shelterId, int adoptionId);
+}
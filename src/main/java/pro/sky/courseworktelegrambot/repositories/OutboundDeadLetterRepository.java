@@ -0,0 +1,7 @@
+package pro.sky.courseworktelegrambot.repositories;
+
+import org.springframework.data.jpa.repository.JpaRepository;
+import pro.sky.courseworktelegrambot.entities.OutboundDeadLetter;
+
+public interface OutboundDeadLetterRepository extends JpaRepository<OutboundDeadLetter, Integer> {
+}
@@ -0,0 +1,12 @@
+package pro.sky.courseworktelegrambot.repositories;
+
+/**
+ * Питомец для списков: те же поля, что отдает Pet, но без ключа и сведений о фото.
+ */
+public record PetListView(int id,
+                          String name,
+                          String breed,
+                          int age,
+                          boolean hasPhoto,
+                          boolean adopted) {
+}
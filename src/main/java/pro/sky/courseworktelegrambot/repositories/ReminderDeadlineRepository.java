@@ -0,0 +1,30 @@
+package pro.sky.courseworktelegrambot.repositories;
+
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.transaction.annotation.Transactional;
+import pro.sky.courseworktelegrambot.entities.ReminderDeadline;
+import pro.sky.courseworktelegrambot.entities.ShelterId;
+
+import java.time.Instant;
+import java.util.List;
+import java.util.Optional;
+import java.util.Set;
+
+public interface ReminderDeadlineRepository extends JpaRepository<ReminderDeadline, Integer> {
+    //наступившие сроки, по порядку наступления
+    List<ReminderDeadline> findByDueTimeLessThanEqualOrderByDueTime(Instant time);
+
+    //самый ранний срок: до него Notifier может спать
+    Optional<ReminderDeadline> findFirstByOrderByDueTime();
+
+    //усыновления всех приютов, у которых есть хотя бы один срок
+    @Query("SELECT d.adoptionId FROM ReminderDeadline d")
+    Set<Integer> findAdoptionIds();
+
+    @Transactional
+    @Modifying
+    @Query("DELETE FROM ReminderDeadline d WHERE d.shelterId = ?1 AND d.adoptionId = ?2")
+    void deleteByAdoption(ShelterId shelterId, int adoptionId);
+}
@@ -0,0 +1,38 @@
+package pro.sky.courseworktelegrambot.repositories;
+
+import com.fasterxml.jackson.annotation.JsonIgnore;
+import com.fasterxml.jackson.annotation.JsonInclude;
+
+import java.time.LocalDate;
+
+/**
+ * Отчет для выгрузки: вместо усыновления с пользователем и питомцем - их id.
+ * Фото не выгружается, вместо него по запросу - ссылка на выдачу фото.
+ *
+ * @param photoUrl ссылка на фото, null - если фото нет или ссылки не запрошены
+ */
+@JsonInclude(JsonInclude.Include.NON_NULL)
+public record ReportExportView(int id,
+                               int adoptionId,
+                               Long userId,
+                               Integer petId,
+                               LocalDate date,
+                               String text,
+                               @JsonIgnore String photoHash,
+                               String imageType,
+                               int imageSize,
+                               String photoUrl) {
+    //для запроса: ссылку на фото подставляет сервис
+    public ReportExportView(int id, int adoptionId, Long userId, Integer petId, LocalDate date,
+                            String text, String photoHash, String imageType, int imageSize) {
+        this(id, adoptionId, userId, petId, date, text, photoHash, imageType, imageSize, null);
+    }
+
+    public boolean getPhotoPresented() {
+        return photoHash != null;
+    }
+
+    public ReportExportView withPhotoUrl(String photoUrl) {
+        return new ReportExportView(id, adoptionId, userId, petId, date, text, photoHash, imageType, imageSize, photoUrl);
+    }
+}
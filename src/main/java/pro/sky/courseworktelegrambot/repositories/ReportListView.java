@@ -0,0 +1,16 @@
+package pro.sky.courseworktelegrambot.repositories;
+
+import java.time.LocalDate;
+
+/**
+ * Отчет для списков волонтера: без текста и ключа фото и без загрузки усыновления,
+ * пользователя и питомца, которые отчет тянет за собой. Вместо усыновления - его id.
+ */
+public record ReportListView(int id,
+                             int adoptionId,
+                             LocalDate date,
+                             boolean photoPresented,
+                             boolean textPresented,
+                             String imageType,
+                             int imageSize) {
+}
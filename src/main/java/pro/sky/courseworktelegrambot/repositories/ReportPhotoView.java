@@ -0,0 +1,13 @@
+package pro.sky.courseworktelegrambot.repositories;
+
+import java.time.LocalDate;
+
+/**
+ * Фото отчета без загрузки самого отчета: без усыновления, пользователя и питомца,
+ * которые отчет тянет за собой. Нужна только для выдачи фото.
+ */
+public record ReportPhotoView(String photoHash,
+                              String imageType,
+                              int imageSize,
+                              LocalDate date) {
+}
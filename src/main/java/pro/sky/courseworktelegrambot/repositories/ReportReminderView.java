@@ -0,0 +1,37 @@
+package pro.sky.courseworktelegrambot.repositories;
+
+import pro.sky.courseworktelegrambot.entities.ShelterId;
+
+import java.time.LocalDate;
+
+/**
+ * Активное усыновление с датой последнего полного (с фото и текстом) отчета по нему.
+ * По этим данным Notifier решает, кому напомнить об отчете и о ком сообщить волонтеру.
+ *
+ * @param shelterId      приют усыновления: от него зависит текст уведомления
+ * @param petId          питомец: питомцы у каждого приюта в своей таблице, поэтому его имя
+ *                       подставляется после запроса
+ * @param trialDate      дата окончания испытательного срока: до нее переносится срок отчета
+ * @param lastReportDate дата последнего полного отчета из report_status,
+ *                       null - если полных отчетов еще не было
+ */
+public record ReportReminderView(int adoptionId,
+                                 ShelterId shelterId,
+                                 long userId,
+                                 String userName,
+                                 Integer petId,
+                                 String petName,
+                                 LocalDate adoptionDate,
+                                 LocalDate trialDate,
+                                 LocalDate lastReportDate) {
+    //для запроса: имя питомца подставляет Notifier
+    public ReportReminderView(int adoptionId, ShelterId shelterId, long userId, String userName, Integer petId,
+                              LocalDate adoptionDate, LocalDate trialDate, LocalDate lastReportDate) {
+        this(adoptionId, shelterId, userId, userName, petId, null, adoptionDate, trialDate, lastReportDate);
+    }
+
+    public ReportReminderView withPetName(String petName) {
+        return new ReportReminderView(adoptionId, shelterId, userId, userName, petId, petName,
+                adoptionDate, trialDate, lastReportDate);
+    }
+}
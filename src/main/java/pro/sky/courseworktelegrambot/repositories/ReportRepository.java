@@ -0,0 +1,61 @@
+package pro.sky.courseworktelegrambot.repositories;
+
+import org.springframework.data.domain.Pageable;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.jpa.repository.QueryHints;
+import org.springframework.stereotype.Repository;
+import org.springframework.transaction.annotation.Transactional;
+import pro.sky.courseworktelegrambot.entities.Report;
+import pro.sky.courseworktelegrambot.entities.ShelterId;
+
+import javax.persistence.QueryHint;
+import java.time.LocalDate;
+import java.util.List;
+import java.util.Optional;
+import java.util.stream.Stream;
+
+//Отчеты всех приютов из общей таблицы report. Приют - параметр запроса, а не отдельный репозиторий,
+//поэтому новому приюту не нужны ни новые таблицы, ни новые запросы
+@Repository
+public interface ReportRepository extends JpaRepository<Report, Integer> {
+    //отчет приюта: отчет другого приюта с тем же id не найдется
+    Optional<Report> findByShelterIdAndId(ShelterId shelterId, int id);
+    //для волонтера
+    List<Report> findByShelterIdAndDate(ShelterId shelterId, LocalDate date);
+    //для бота: дополнение отчета за день. id усыновлений общие для приютов, поэтому приют в условии не нужен
+    List<Report> findByAdoptionIdAndDate(int adoptionId, LocalDate date);
+    //для пересчета состояния отчетов после удаления отчета
+    List<Report> findByAdoptionId(int adoptionId);
+
+    //при удалении усыновления: отчеты удаляются одним запросом, без загрузки
+    @Transactional
+    @Modifying
+    @Query("DELETE FROM Report r WHERE r.adoptionId = ?1")
+    void deleteByAdoption(int adoptionId);
+
+    //для выдачи фото: отчет вместе с усыновлением не загружаем
+    @Query("SELECT new pro.sky.courseworktelegrambot.repositories.ReportPhotoView(" +
+            "r.photoHash, r.imageType, r.imageSize, r.date) FROM Report r WHERE r.shelterId = ?1 AND r.id = ?2")
+    Optional<ReportPhotoView> findPhotoById(ShelterId shelterId, int id);
+
+    //для списка отчетов волонтеру: страница после отчета afterId за даты from..to.
+    //Страницы по возрастанию id (keyset), поэтому следующая не зависит от числа уже пролистанных отчетов
+    @Query("SELECT new pro.sky.courseworktelegrambot.repositories.ReportListView(" +
+            "r.id, r.adoptionId, r.date, " +
+            "CASE WHEN r.photoHash IS NULL THEN false ELSE true END, " +
+            "CASE WHEN r.text IS NULL THEN false ELSE true END, " +
+            "r.imageType, r.imageSize) FROM Report r " +
+            "WHERE r.shelterId = ?1 AND r.id > ?2 AND r.date BETWEEN ?3 AND ?4 ORDER BY r.id")
+    List<ReportListView> findPage(ShelterId shelterId, int afterId, LocalDate from, LocalDate to, Pageable pageable);
+
+    //для выгрузки отчетов за даты from..to: строки читаются из БД частями по fetchSize по мере записи в ответ.
+    //Проекция, а не сущности: они копились бы в контексте постоянства до конца выгрузки
+    @Query("SELECT new pro.sky.courseworktelegrambot.repositories.ReportExportView(" +
+            "r.id, a.id, a.user.id, a.petId, r.date, r.text, r.photoHash, r.imageType, r.imageSize) " +
+            "FROM Report r JOIN Adoption a ON a.id = r.adoptionId " +
+            "WHERE r.shelterId = ?1 AND r.date BETWEEN ?2 AND ?3 ORDER BY r.id")
+    @QueryHints(@QueryHint(name = "org.hibernate.fetchSize", value = "500"))
+    Stream<ReportExportView> streamByDate(ShelterId shelterId, LocalDate from, LocalDate to);
+}
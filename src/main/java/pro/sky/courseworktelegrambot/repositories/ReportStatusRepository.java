@@ -0,0 +1,19 @@
+package pro.sky.courseworktelegrambot.repositories;
+
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.transaction.annotation.Transactional;
+import pro.sky.courseworktelegrambot.entities.ReportStatus;
+import pro.sky.courseworktelegrambot.entities.ShelterId;
+
+import java.util.Optional;
+
+public interface ReportStatusRepository extends JpaRepository<ReportStatus, Integer> {
+    Optional<ReportStatus> findByShelterIdAndAdoptionId(ShelterId shelterId, int adoptionId);
+
+    @Transactional
+    @Modifying
+    @Query("DELETE FROM ReportStatus s WHERE s.shelterId = ?1 AND s.adoptionId = ?2")
+    void deleteByAdoption(ShelterId shelterId, int adoptionId);
+}
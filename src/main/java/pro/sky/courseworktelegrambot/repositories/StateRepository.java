@@ -1,13 +1,24 @@
 package pro.sky.courseworktelegrambot.repositories;
 
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.QueryHints;
 import pro.sky.courseworktelegrambot.entities.NamedState;
 import pro.sky.courseworktelegrambot.entities.State;
 
+import javax.persistence.QueryHint;
+import java.util.List;
+
 public interface StateRepository extends JpaRepository<State, String> {
     //мы используем StateRepository
     //для получения состояния неправильного выбора из кнопок
     //для получения начального состояния для нового пользователя
     //для получения начального состояния после выбора приюта
     State findByNamedState(NamedState namedState);
+
+    //для перестроения графа: таблицы могли изменить прямо в БД, поэтому читаем их мимо кэша второго уровня
+    //и обновляем кэш прочитанным
+    @Override
+    @QueryHints({@QueryHint(name = "javax.persistence.cache.retrieveMode", value = "BYPASS"),
+            @QueryHint(name = "javax.persistence.cache.storeMode", value = "REFRESH")})
+    List<State> findAll();
 }
@@ -0,0 +1,14 @@
+package pro.sky.courseworktelegrambot.repositories;
+
+import pro.sky.courseworktelegrambot.entities.ShelterId;
+
+import java.time.LocalDateTime;
+
+/**
+ * Пользователь для списков: без загрузки его состояний и их кнопок.
+ */
+public record UserListView(long id,
+                           String name,
+                           ShelterId shelterId,
+                           LocalDateTime stateTime) {
+}
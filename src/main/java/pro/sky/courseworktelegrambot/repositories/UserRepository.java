@@ -1,8 +1,22 @@
 package pro.sky.courseworktelegrambot.repositories;
 
+import org.springframework.data.domain.Pageable;
 import org.springframework.data.jpa.repository.JpaRepository;
-import pro.sky.courseworktelegrambot.entities.State;
+import org.springframework.data.jpa.repository.Query;
 import pro.sky.courseworktelegrambot.entities.User;
 
+import java.util.List;
+import java.util.Optional;
+
 public interface UserRepository extends JpaRepository<User, Long> {
+    //для бота: берем только идентификаторы состояний, без загрузки State и их кнопок
+    @Query("SELECT new pro.sky.courseworktelegrambot.repositories.UserStateView(" +
+            "u.id, u.name, u.shelterId, u.state.id, u.previousState.id, u.stateTime) " +
+            "FROM User u WHERE u.id = ?1")
+    Optional<UserStateView> findStateById(long id);
+
+    //для списка пользователей: страница после пользователя afterId по возрастанию id
+    @Query("SELECT new pro.sky.courseworktelegrambot.repositories.UserListView(" +
+            "u.id, u.name, u.shelterId, u.stateTime) FROM User u WHERE u.id > ?1 ORDER BY u.id")
+    List<UserListView> findPage(long afterId, Pageable pageable);
 }
@@ -0,0 +1,17 @@
+package pro.sky.courseworktelegrambot.repositories;
+
+import pro.sky.courseworktelegrambot.entities.ShelterId;
+
+import java.time.LocalDateTime;
+
+/**
+ * Состояние пользователя без загрузки сущностей State: вместо них только идентификаторы.
+ * Сами состояния бот берет из графа состояний.
+ */
+public record UserStateView(long id,
+                            String name,
+                            ShelterId shelterId,
+                            String stateId,
+                            String previousStateId,
+                            LocalDateTime stateTime) {
+}
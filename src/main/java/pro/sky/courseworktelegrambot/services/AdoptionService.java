@@ -1,55 +1,74 @@
 package pro.sky.courseworktelegrambot.services;
 
+import com.fasterxml.jackson.databind.ObjectMapper;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import javax.persistence.EntityNotFoundException;
 import org.springframework.data.jpa.repository.JpaRepository;
 import org.springframework.stereotype.Service;
-import org.telegram.telegrambots.meta.exceptions.TelegramApiException;
+import org.springframework.transaction.annotation.Transactional;
 import pro.sky.courseworktelegrambot.entities.*;
 import pro.sky.courseworktelegrambot.exceptions.ShelterNotFoundException;
 import pro.sky.courseworktelegrambot.exceptions.TelegramException;
 import pro.sky.courseworktelegrambot.exceptions.UserOrPetIsBusyException;
 import pro.sky.courseworktelegrambot.repositories.*;
+import pro.sky.courseworktelegrambot.timer.ReminderSchedule;
 
+import java.io.IOException;
+import java.io.OutputStream;
 import java.time.LocalDate;
 import java.time.temporal.ChronoUnit;
 import java.util.Collection;
+import java.util.Iterator;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.stream.Stream;
 
 @Service
 public class AdoptionService {
     private static final Logger LOGGER = LoggerFactory.getLogger(AdoptionService.class);
     private final UserRepository userRepository;
-    private final DogRepository dogRepository;
-    private final CatRepository catRepository;
-    private final DogAdoptionRepository dogAdoptionRepository;
-    private final CatAdoptionRepository catAdoptionRepository;
+    private final AdoptionRepository adoptionRepository;
+    private final ReportRepository reportRepository;
+    private final ReportStatusRepository reportStatusRepository;
+    private final NotificationLogRepository notificationLogRepository;
+    private final PetService petService;
     private final ShelterService shelterService;
     private final TelegramBotSender telegramBotSender;
+    private final ReminderSchedule reminderSchedule;
+    private final ObjectMapper objectMapper;
 
     public AdoptionService(
             UserRepository userRepository,
-            DogRepository dogRepository,
-            CatRepository catRepository,
-            DogAdoptionRepository dogAdoptionRepository,
-            CatAdoptionRepository catAdoptionRepository,
+            AdoptionRepository adoptionRepository,
+            ReportRepository reportRepository,
+            ReportStatusRepository reportStatusRepository,
+            NotificationLogRepository notificationLogRepository,
+            PetService petService,
             ShelterService shelterService,
-            TelegramBotSender telegramBotSender) {
+            TelegramBotSender telegramBotSender,
+            ReminderSchedule reminderSchedule,
+            ObjectMapper objectMapper) {
         this.userRepository = userRepository;
-        this.dogRepository = dogRepository;
-        this.catRepository = catRepository;
-        this.dogAdoptionRepository = dogAdoptionRepository;
-        this.catAdoptionRepository = catAdoptionRepository;
+        this.adoptionRepository = adoptionRepository;
+        this.reportRepository = reportRepository;
+        this.reportStatusRepository = reportStatusRepository;
+        this.notificationLogRepository = notificationLogRepository;
+        this.petService = petService;
         this.shelterService = shelterService;
         this.telegramBotSender = telegramBotSender;
+        this.reminderSchedule = reminderSchedule;
+        this.objectMapper = objectMapper;
     }
 
-    //из такого репозитория удается прочитать, возвращается предок
-    //но в него ничего не удается сохранить уже при компиляции, при подстановке любого типа возникает
-    //method save in interface org.springframework.data.repository.CrudRepository<T,ID> cannot be applied to given types;
-    private JpaRepository<? extends Adoption, Integer> adoptionRepository(ShelterId shelterId) {
-        return (shelterId==ShelterId.DOG) ? dogAdoptionRepository : catAdoptionRepository;
+    //Усыновления всех приютов в одной таблице и читаются по приюту из нее, но у каждого приюта
+    //свой класс усыновления. switch без default: для нового приюта компилятор потребует указать его класс
+    private static Adoption newAdoption(ShelterId shelterId, User user, Pet pet, LocalDate trialDate) {
+        return switch (shelterId) {
+            case DOG -> new DogAdoption(user, (Dog) pet, trialDate);
+            case CAT -> new CatAdoption(user, (Cat) pet, trialDate);
+        };
     }
 
     /**
@@ -72,45 +91,25 @@ public class AdoptionService {
         //Проверяем, что заданный User есть
         User user = userRepository.findById(userId).orElseThrow(() ->
                 new EntityNotFoundException("User with id " + userId + " not found"));
-        Adoption adoption; //переменная для возврата
-        if (shelterId == ShelterId.DOG) {
-            //Проверяем, что заданный Dog есть
-            //Dog pet = dogRepository.getReferenceById(petId);  //так не идет обращение к  БД. Оно будет позже
-            Dog pet = dogRepository.findById(petId).orElseThrow(() ->
-                    new EntityNotFoundException("Dog with id " + petId + " not found"));
-            //Проверяем, что у пользователя нет другого испытательного срока
-            if (!dogAdoptionRepository.findByUserAndDateLessThanEqualAndTrialDateGreaterThanEqual(
-                    user, trialDate, LocalDate.now()).isEmpty()) {
-                throw new UserOrPetIsBusyException();
-            }
-            //Проверяем, что у собаки нет другого испытательного срока
-            if (!dogAdoptionRepository.findByPetAndDateLessThanEqualAndTrialDateGreaterThanEqual(
-                    pet, trialDate, LocalDate.now()).isEmpty()) {
-                throw new UserOrPetIsBusyException();
-            }
-            DogAdoption dogAdoption = new DogAdoption(user, pet, trialDate);
-            adoption = dogAdoptionRepository.save(dogAdoption);
-        } else {
-            Cat pet = catRepository.findById(petId).orElseThrow(() ->
-                    new EntityNotFoundException("Cat with id " + petId + " not found"));
-            if (!catAdoptionRepository.findByUserAndDateLessThanEqualAndTrialDateGreaterThanEqual(
-                    user, trialDate, LocalDate.now()).isEmpty()) {
-                throw new UserOrPetIsBusyException();
-            }
-            if (!catAdoptionRepository.findByPetAndDateLessThanEqualAndTrialDateGreaterThanEqual(
-                    pet, trialDate, LocalDate.now()).isEmpty()) {
-                throw new UserOrPetIsBusyException();
-            }
-            CatAdoption catAdoption = new CatAdoption(user, pet, trialDate);
-            adoption = catAdoptionRepository.save(catAdoption);
+        //Проверяем, что заданный питомец есть в приюте
+        Pet pet = petService.getPet(shelterId, petId);
+        //Проверяем, что у пользователя нет другого испытательного срока
+        if (!adoptionRepository.findByShelterIdAndUserAndDateLessThanEqualAndTrialDateGreaterThanEqual(
+                shelterId, user, trialDate, LocalDate.now()).isEmpty()) {
+            throw new UserOrPetIsBusyException();
         }
-        try {
-            telegramBotSender.sendMessageToUser(adoption.getUser(),
-                    adoption.getUser().getName()+", поздравляем с усыновлением нашего питомца! " +
-                    "Вам назначен испытательный срок до " + trialDate.toString(), 0);
-        } catch (TelegramApiException e) {
-            LOGGER.error("Ошибка при поздравлении об усыновлении " + e.getMessage());
+        //Проверяем, что у питомца нет другого испытательного срока
+        if (!adoptionRepository.findByShelterIdAndPetIdAndDateLessThanEqualAndTrialDateGreaterThanEqual(
+                shelterId, petId, trialDate, LocalDate.now()).isEmpty()) {
+            throw new UserOrPetIsBusyException();
         }
+        Adoption adoption = adoptionRepository.save(newAdoption(shelterId, user, pet, trialDate));
+        //сроки напоминаний об отчетах и поздравления
+        reminderSchedule.schedule(shelterId, adoption);
+        //поздравление не ждем: усыновление уже сохранено, а ошибки отправки очередь запишет сама
+        telegramBotSender.queueMessageToUser(adoption.getUser(),
+                adoption.getUser().getName()+", поздравляем с усыновлением нашего питомца! " +
+                "Вам назначен испытательный срок до " + trialDate.toString(), 0);
         return adoption;
     }
 
@@ -125,7 +124,7 @@ public class AdoptionService {
      */
     public Adoption getAdoption(ShelterId shelterId, int adoptionId) {
         shelterService.checkShelterId(shelterId);
-        return adoptionRepository(shelterId).findById(adoptionId)
+        return adoptionRepository.findByShelterIdAndId(shelterId, adoptionId)
                 .orElseThrow(() -> new EntityNotFoundException(
                         "Adoption with id " + adoptionId + " for shelter " + shelterId + " not found"));
         //System.out.println(adoption.getClass());
@@ -137,36 +136,41 @@ public class AdoptionService {
      *
      * @param shelterId  идентификатор приюта.
      * @param adoptionId индификатор усыновления.
-     * @return {@link Adoption} измененный объект
+     * @return future с измененным объектом {@link Adoption}. Завершается с {@link TelegramException},
+     * если не состоялось уведомление пользователя
      * @throws ShelterNotFoundException если приют не найден.
      * @throws EntityNotFoundException  если не найден id усыновления
-     * @throws TelegramException  если не найден не состоялось уведомление пользователя
      */
-    public Adoption setTrialDate(ShelterId shelterId, Integer adoptionId, LocalDate trialDate){
+    public CompletableFuture<Adoption> setTrialDate(ShelterId shelterId, Integer adoptionId, LocalDate trialDate){
         shelterService.checkShelterId(shelterId);
 
-        Adoption adoption = adoptionRepository(shelterId).findById(adoptionId).orElseThrow(() -> new EntityNotFoundException(
-                "Adoption with id " + adoptionId + " for shelter " + shelterId + " not found"));
+        Adoption adoption = getAdoption(shelterId, adoptionId);
         long days = ChronoUnit.DAYS.between(adoption.getTrialDate(), trialDate);
-        try {
-            telegramBotSender.sendMessageToUser(adoption.getUser(), "ВНИМАНИЕ !!! " +
-                    "Вам увеличен испытательный срок на " + days + " дней до " + trialDate.toString(), 0);
-        } catch (TelegramApiException e) {
-            LOGGER.error("Ошибка при попытке изменить испытательный срок " + e.getMessage());
-            //TelegramException - это RunTimeException, в отличие от TelegramApiException
-            throw new TelegramException(); //при ошибке срок не меняем и не сохраняем
-        }
-        adoption.setTrialDate(trialDate);
-        if (shelterId==ShelterId.DOG) {
-            return dogAdoptionRepository.save((DogAdoption) adoption);
-        } else {
-            return catAdoptionRepository.save((CatAdoption)adoption);
-        }
+        //без уведомления срок не меняем, но поток запроса отправки не ждет:
+        //срок сохраняется, когда сообщение ушло. Не ушедшее вовремя сообщение снимается с очереди,
+        //поэтому пользователь не получит уведомления о сроке, который не сохранен
+        return telegramBotSender.withSendTimeout(telegramBotSender.queueMessageToUser(adoption.getUser(), "ВНИМАНИЕ !!! " +
+                "Вам увеличен испытательный срок на " + days + " дней до " + trialDate.toString(), 0))
+                .handle((message, e) -> {
+                    if (e != null) {
+                        LOGGER.error("Ошибка при попытке изменить испытательный срок " + e.getMessage());
+                        //TelegramException - это RunTimeException, в отличие от TelegramApiException
+                        throw new TelegramException(); //при ошибке срок не меняем и не сохраняем
+                    }
+                    adoption.setTrialDate(trialDate);
+                    Adoption saved = adoptionRepository.save(adoption);
+                    //с новым испытательным сроком меняется и срок поздравления
+                    reminderSchedule.schedule(shelterId, saved);
+                    return saved;
+                });
     }
 
     /**
      * Метод удаляет усыновление по ID
-     * Используется метод репозитория {@link JpaRepository#delete(Object)}
+     * Используется метод репозитория {@link JpaRepository#delete(Object)}.<br>
+     * В той же транзакции удаляются отчеты усыновления, его состояние отчетов в report_status,
+     * отметки о разосланных уведомлениях в notification_log и сроки уведомлений.
+     * Фото отчетов остаются в хранилище: одно фото может быть у нескольких отчетов
      *
      * @param shelterId  идентификатор приюта.
      * @param adoptionId индификатор усыновления.
@@ -174,10 +178,16 @@ public class AdoptionService {
      * @throws ShelterNotFoundException если приют не найден.
      * @throws EntityNotFoundException  если не найден id усыновления
      */
+    @Transactional
     public Adoption deleteAdoption(ShelterId shelterId, int adoptionId) {
         shelterService.checkShelterId(shelterId);
         Adoption adoption = getAdoption(shelterId, adoptionId);
-        adoptionRepository(shelterId).deleteById(adoptionId);
+        //отчеты ссылаются на усыновление внешним ключом, поэтому удаляются первыми
+        reportRepository.deleteByAdoption(adoptionId);
+        reportStatusRepository.deleteByAdoption(shelterId, adoptionId);
+        notificationLogRepository.deleteByAdoption(shelterId, adoptionId);
+        adoptionRepository.deleteById(adoptionId);
+        reminderSchedule.cancel(shelterId, adoptionId);
         return adoption;
     }
 
@@ -191,7 +201,38 @@ public class AdoptionService {
      */
     public Collection<Adoption> getAllAdoptions(ShelterId shelterId) {
         shelterService.checkShelterId(shelterId);
-        return List.copyOf(adoptionRepository(shelterId).findAll());
+        return List.copyOf(adoptionRepository.findByShelterId(shelterId));
+    }
+
+    /**
+     * Метод выгружает усыновления приюта за период в формате NDJSON: по усыновлению в строке, по возрастанию id.
+     * Усыновления читаются из БД потоком и пишутся в out по мере чтения, поэтому память не зависит от периода.
+     * Имена питомцев подставляются из каталога питомцев приюта, который читается один раз
+     *
+     * @param shelterId идентификатор приюта.
+     * @param from      первая дата усыновлений
+     * @param to        последняя дата усыновлений
+     * @param out       поток, в который пишутся усыновления. Не закрывается
+     * @return long число выгруженных усыновлений
+     * @throws ShelterNotFoundException если приют не найден.
+     * @throws IOException              если не удалось записать в out
+     */
+    @Transactional(readOnly = true)
+    public long exportAdoptions(ShelterId shelterId, LocalDate from, LocalDate to, OutputStream out)
+            throws IOException {
+        shelterService.checkShelterId(shelterId);
+        Map<Integer, String> petNames = petService.getPetNames(shelterId, null);
+        try (Stream<AdoptionExportView> adoptions = adoptionRepository.streamByDate(shelterId, from, to);
+             NdjsonWriter writer = new NdjsonWriter(objectMapper, out)) {
+            Iterator<AdoptionExportView> iterator = adoptions.iterator();
+            while (iterator.hasNext()) {
+                AdoptionExportView adoption = iterator.next();
+                //питомец мог быть удален, тогда в усыновлении его нет
+                writer.write((adoption.petId() == null) ? adoption
+                        : adoption.withPetName(petNames.get(adoption.petId())));
+            }
+            return writer.getCount();
+        }
     }
 
     /**
@@ -203,13 +244,8 @@ public class AdoptionService {
      * */
     public Collection<Adoption> getAllActiveAdoptions(ShelterId shelterId) {
         shelterService.checkShelterId(shelterId);
-        if (shelterId==ShelterId.DOG) {
-            return List.copyOf(dogAdoptionRepository
-                    .findByDateLessThanEqualAndTrialDateGreaterThanEqual(LocalDate.now(), LocalDate.now()));
-        } else {
-            return List.copyOf(catAdoptionRepository
-                    .findByDateLessThanEqualAndTrialDateGreaterThanEqual(LocalDate.now(), LocalDate.now()));
-        }
+        return List.copyOf(adoptionRepository.findByShelterIdAndDateLessThanEqualAndTrialDateGreaterThanEqual(
+                shelterId, LocalDate.now(), LocalDate.now()));
     }
 
     /**
@@ -226,14 +262,9 @@ public class AdoptionService {
      * @return Adoption найденное активное усыновление. null, если такое не найдено
      * */
     public Adoption getActiveAdoption(User user, LocalDate date) {
-        List<? extends Adoption> adoptionList;
-        if (user.getShelterId() == ShelterId.DOG) {
-            adoptionList = dogAdoptionRepository
-                    .findByUserAndDateLessThanEqualAndTrialDateGreaterThanEqual(user, date, date);
-        } else {
-            adoptionList = catAdoptionRepository
-                    .findByUserAndDateLessThanEqualAndTrialDateGreaterThanEqual(user, date, date);
-        }
+        List<Adoption> adoptionList = adoptionRepository
+                .findByShelterIdAndUserAndDateLessThanEqualAndTrialDateGreaterThanEqual(
+                        user.getShelterId(), user, date, date);
         if (adoptionList.isEmpty()) {
             return null;
         } else {
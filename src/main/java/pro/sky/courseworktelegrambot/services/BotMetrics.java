@@ -0,0 +1,132 @@
+package pro.sky.courseworktelegrambot.services;
+
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import org.springframework.stereotype.Component;
+import org.telegram.telegrambots.meta.exceptions.TelegramApiRequestException;
+import pro.sky.courseworktelegrambot.entities.NamedState;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Метрики обработки обновлений и отправки сообщений ботом.<br>
+ * Все счетчики и таймеры горячего пути регистрируются в конструкторе, по одному на каждое сочетание тегов.
+ * Поэтому запись метрики - это выбор из массива и {@code record}, без построения тегов и поиска в реестре.
+ * Счетчики ошибок отправки ищутся в реестре по коду ошибки, но только когда ошибка уже случилась.
+ */
+@Component
+public class BotMetrics {
+    //тег state для состояний без именованного состояния и для новых пользователей
+    private static final String NO_NAMED_STATE = "none";
+    //тег code для ошибок отправки без кода ошибки Telegram (сеть, таймаут)
+    private static final String NO_ERROR_CODE = "none";
+
+    /**
+     * Чем закончилась обработка обновления.
+     */
+    public enum Outcome {
+        NEW_USER,   //новый пользователь: приветствие и выбор приюта
+        BUTTON,     //нажата кнопка
+        TEXT_INPUT, //текст в состоянии текстового ввода
+        BAD_CHOICE, //текст не совпал ни с одной кнопкой
+        FAILED;     //ответ не отправлен или обработка завершилась исключением
+
+        private final String tag = name().toLowerCase();
+    }
+
+    private final MeterRegistry meterRegistry;
+    //[состояние при входе (ordinal + 1, 0 - без именованного состояния)][итог]
+    private final Timer[][] updateTimers;
+    private final Timer lagTimer;
+    private final Timer sendTimer;
+    private final Timer photoDownloadTimer;
+    private final Timer photoDownloadFailedTimer;
+    private final DistributionSummary photoBytes;
+
+    public BotMetrics(MeterRegistry meterRegistry) {
+        this.meterRegistry = meterRegistry;
+        NamedState[] namedStates = NamedState.values();
+        Outcome[] outcomes = Outcome.values();
+        updateTimers = new Timer[namedStates.length + 1][outcomes.length];
+        for (int i = 0; i <= namedStates.length; i++) {
+            String state = i == 0 ? NO_NAMED_STATE : namedStates[i - 1].name();
+            for (Outcome outcome : outcomes) {
+                updateTimers[i][outcome.ordinal()] = Timer.builder("telegram.updates.processing")
+                        .description("Обработка обновления ботом по состоянию при входе и итогу")
+                        .tag("state", state)
+                        .tag("outcome", outcome.tag)
+                        .register(meterRegistry);
+            }
+        }
+        lagTimer = Timer.builder("telegram.updates.lag")
+                .description("Время от отправки сообщения пользователем до начала его обработки")
+                .register(meterRegistry);
+        sendTimer = Timer.builder("telegram.send")
+                .description("Отправка сообщения в Telegram")
+                .register(meterRegistry);
+        photoDownloadTimer = Timer.builder("telegram.report.photo.download")
+                .description("Скачивание фото отчета, включая ожидание в пуле скачивания")
+                .tag("result", "success")
+                .register(meterRegistry);
+        photoDownloadFailedTimer = Timer.builder("telegram.report.photo.download")
+                .description("Скачивание фото отчета, включая ожидание в пуле скачивания")
+                .tag("result", "error")
+                .register(meterRegistry);
+        photoBytes = DistributionSummary.builder("telegram.report.photo.size")
+                .description("Размер скачанных фото отчетов")
+                .baseUnit("bytes")
+                .register(meterRegistry);
+    }
+
+    /**
+     * @param state   именованное состояние пользователя при входе, может быть null
+     * @param outcome итог обработки
+     * @param nanos   длительность обработки
+     */
+    public void recordUpdate(NamedState state, Outcome outcome, long nanos) {
+        int stateIndex = state == null ? 0 : state.ordinal() + 1;
+        updateTimers[stateIndex][outcome.ordinal()].record(nanos, TimeUnit.NANOSECONDS);
+    }
+
+    /**
+     * Отставание обработки от отправки сообщения. Telegram сообщает время отправки с точностью до секунды.
+     *
+     * @param messageDate время отправки сообщения, секунды от начала эпохи (message.getDate())
+     */
+    public void recordLag(Integer messageDate) {
+        if (messageDate == null) {
+            return;
+        }
+        long lag = System.currentTimeMillis() - messageDate * 1000L;
+        lagTimer.record(Math.max(lag, 0), TimeUnit.MILLISECONDS);
+    }
+
+    public void recordSend(long nanos) {
+        sendTimer.record(nanos, TimeUnit.NANOSECONDS);
+    }
+
+    /**
+     * Считает ошибку отправки с кодом ошибки Telegram (429, 403...). Без кода - "none".
+     */
+    public void recordSendError(Throwable error) {
+        String code = error instanceof TelegramApiRequestException requestException
+                && requestException.getErrorCode() != null
+                ? requestException.getErrorCode().toString() : NO_ERROR_CODE;
+        meterRegistry.counter("telegram.send.errors", "code", code).increment();
+    }
+
+    /**
+     * @param nanos время от запроса скачивания до его завершения
+     * @param bytes размер фото. Для неудачного скачивания не учитывается
+     * @param error ошибка скачивания или null
+     */
+    public void recordPhotoDownload(long nanos, long bytes, Throwable error) {
+        if (error != null) {
+            photoDownloadFailedTimer.record(nanos, TimeUnit.NANOSECONDS);
+            return;
+        }
+        photoDownloadTimer.record(nanos, TimeUnit.NANOSECONDS);
+        photoBytes.record(bytes);
+    }
+}
@@ -0,0 +1,100 @@
+package pro.sky.courseworktelegrambot.services;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.core.io.FileSystemResource;
+import org.springframework.core.io.Resource;
+import org.springframework.stereotype.Component;
+
+import javax.persistence.EntityNotFoundException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.*;
+import java.security.DigestOutputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.HexFormat;
+import java.util.regex.Pattern;
+
+/**
+ * Хранилище фото в локальной файловой системе.<br>
+ * Фото с ключом abcd... лежит в файле {photo.store.path}/ab/cd/abcd...,
+ * чтобы в одном каталоге не скапливались сотни тысяч файлов.
+ * Файл сначала пишется во временный в том же каталоге хранилища,
+ * а потом переименовывается, поэтому читатели никогда не видят недописанное фото.<br>
+ * Файлы при удалении отчетов и питомцев не удаляются: на одно фото могут ссылаться несколько записей.
+ */
+@Component
+public class FileSystemPhotoStore implements PhotoStore {
+    private static final Logger LOGGER = LoggerFactory.getLogger(FileSystemPhotoStore.class);
+
+    private static final Pattern HASH_PATTERN = Pattern.compile("[0-9a-f]{64}");
+
+    private final Path root;
+
+    public FileSystemPhotoStore(@Value("${photo.store.path}") String root) {
+        this.root = Paths.get(root);
+    }
+
+    @Override
+    public String save(InputStream is) throws IOException {
+        Files.createDirectories(root);
+        Path temp = Files.createTempFile(root, "upload-", ".tmp");
+        try {
+            MessageDigest digest = sha256();
+            //хэш считаем по ходу записи, второй раз файл не читаем
+            try (OutputStream os = new DigestOutputStream(Files.newOutputStream(temp), digest)) {
+                is.transferTo(os);
+            }
+            String hash = HexFormat.of().formatHex(digest.digest());
+            Path target = path(hash);
+            if (Files.exists(target)) {
+                LOGGER.debug("Photo " + hash + " already stored");
+                return hash;
+            }
+            Files.createDirectories(target.getParent());
+            try {
+                Files.move(temp, target, StandardCopyOption.ATOMIC_MOVE);
+            } catch (FileAlreadyExistsException e) {
+                //такое же фото одновременно сохранил другой поток - содержимое то же самое
+            }
+            return hash;
+        } finally {
+            Files.deleteIfExists(temp);
+        }
+    }
+
+    @Override
+    public String save(Path file) throws IOException {
+        try (InputStream is = Files.newInputStream(file)) {
+            return save(is);
+        }
+    }
+
+    @Override
+    public Resource load(String hash) {
+        if (hash == null || !HASH_PATTERN.matcher(hash).matches()) {
+            throw new EntityNotFoundException("Photo " + hash + " not found");
+        }
+        Path file = path(hash);
+        if (!Files.isRegularFile(file)) {
+            throw new EntityNotFoundException("Photo " + hash + " not found");
+        }
+        return new FileSystemResource(file);
+    }
+
+    private Path path(String hash) {
+        return root.resolve(hash.substring(0, 2)).resolve(hash.substring(2, 4)).resolve(hash);
+    }
+
+    private static MessageDigest sha256() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            //SHA-256 обязана поддерживать любая реализация Java
+            throw new IllegalStateException(e);
+        }
+    }
+}
@@ -4,7 +4,6 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.data.jpa.repository.JpaRepository;
 import org.springframework.stereotype.Service;
-import org.telegram.telegrambots.meta.exceptions.TelegramApiException;
 import pro.sky.courseworktelegrambot.entities.MessageToVolunteer;
 import pro.sky.courseworktelegrambot.entities.User;
 import pro.sky.courseworktelegrambot.exceptions.MessageToVolunteerNotFoundException;
@@ -13,6 +12,7 @@ import pro.sky.courseworktelegrambot.repositories.MessageToVolunteerRepository;
 
 import java.time.LocalDateTime;
 import java.util.List;
+import java.util.concurrent.CompletableFuture;
 
 /**
  * В класс MessageToVolunteerService находятся методы с бизнес логикой для общения волонтера
@@ -34,12 +34,12 @@ public class MessageToVolunteerService {
     }
     /**
      * Получает список всех объектов MessageToVolunteer из БД, у которых
-     * поле answer равно null.
+     * нет ответа (время ответа answerTime равно null).
      *
      * @return список объектов MessageToVolunteer.
      */
     public List<MessageToVolunteer> findAllWithoutAnswer() {
-        return List.copyOf(messageToVolunteerRepository.findAllByAnswerIsNull());
+        return List.copyOf(messageToVolunteerRepository.findAllByAnswerTimeIsNull());
     }
 
     /**
@@ -66,20 +66,27 @@ public class MessageToVolunteerService {
      * @param id идентификатор объекта MessageToVolunteer.
      * @param answer строка с ответом.
      * @param answerToMessage если True, то уйдет сообщение с включенным в ответ вопросом
+     * @return future, которое завершается после отправки и сохранения ответа
+     * или с {@link TelegramException}, если ответ не отправлен
      * @throws MessageToVolunteerNotFoundException если объект не найден.
      */
-    public void updateAnswer (int id, String answer, boolean answerToMessage) {
+    public CompletableFuture<Void> updateAnswer (int id, String answer, boolean answerToMessage) {
         MessageToVolunteer messageToVolunteer = messageToVolunteerRepository.findById(id)
                 .orElseThrow(() -> new MessageToVolunteerNotFoundException(id));
         messageToVolunteer.setAnswerTime(LocalDateTime.now());
         messageToVolunteer.setAnswer(answer);
-        try {
-            telegramBotSender.sendMessageToUser(messageToVolunteer.getUser(), answer, answerToMessage ? id : 0);
-        } catch (TelegramApiException e) {
-            LOGGER.error("Ошибка при отправке ответа волонтера "+e.getMessage());
-            //TelegramException - это RunTimeException, в отличие от TelegramApiException
-            throw new TelegramException(); //при ошибке отметку об отправке ответа (дату ответа) не сохраняем
-        }
-        messageToVolunteerRepository.save(messageToVolunteer);
+        //поток запроса отправки не ждет: ответ сохраняется, когда сообщение ушло.
+        //Не ушедшее вовремя сообщение снимается с очереди - пользователь не получит несохраненный ответ
+        return telegramBotSender.withSendTimeout(telegramBotSender.queueMessageToUser(
+                        messageToVolunteer.getUser(), answer, answerToMessage ? id : 0))
+                .handle((message, e) -> {
+                    if (e != null) {
+                        LOGGER.error("Ошибка при отправке ответа волонтера "+e.getMessage());
+                        //TelegramException - это RunTimeException, в отличие от TelegramApiException
+                        throw new TelegramException(); //при ошибке отметку об отправке ответа (дату ответа) не сохраняем
+                    }
+                    messageToVolunteerRepository.save(messageToVolunteer);
+                    return null;
+                });
     }
 }
@@ -0,0 +1,53 @@
+package pro.sky.courseworktelegrambot.services;
+
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectWriter;
+import com.fasterxml.jackson.databind.SerializationFeature;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * Пишет объекты в поток в формате NDJSON: каждый объект - JSON в одну строку.<br>
+ * Строки уходят клиенту по мере записи, поэтому выгрузка любого объема занимает постоянную память.
+ * Поток ответа при закрытии не закрывается - это дело контейнера сервлетов.
+ */
+class NdjsonWriter implements Closeable {
+    //через сколько строк отдавать накопленное клиенту
+    private static final int FLUSH_EVERY = 100;
+
+    private final ObjectWriter objectWriter;
+    private final JsonGenerator generator;
+    private long count;
+
+    NdjsonWriter(ObjectMapper objectMapper, OutputStream out) throws IOException {
+        //сбрасываем накопленное сами, раз в FLUSH_EVERY строк, а не после каждой
+        this.objectWriter = objectMapper.writer().without(SerializationFeature.FLUSH_AFTER_WRITE_VALUE);
+        this.generator = objectMapper.getFactory().createGenerator(out)
+                .disable(JsonGenerator.Feature.AUTO_CLOSE_TARGET);
+        //между строками только перевод строки, который пишем сами, а не пробел по умолчанию
+        this.generator.setRootValueSeparator(null);
+    }
+
+    void write(Object value) throws IOException {
+        objectWriter.writeValue(generator, value);
+        generator.writeRaw('\n');
+        if (++count % FLUSH_EVERY == 0) {
+            generator.flush();
+        }
+    }
+
+    /**
+     * @return число записанных строк
+     */
+    long getCount() {
+        return count;
+    }
+
+    @Override
+    public void close() throws IOException {
+        generator.close();
+    }
+}
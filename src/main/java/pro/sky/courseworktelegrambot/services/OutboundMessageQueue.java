@@ -0,0 +1,437 @@
+package pro.sky.courseworktelegrambot.services;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import org.telegram.telegrambots.meta.api.methods.send.SendMessage;
+import org.telegram.telegrambots.meta.api.objects.Message;
+import org.telegram.telegrambots.meta.bots.AbsSender;
+import org.telegram.telegrambots.meta.exceptions.TelegramApiException;
+import org.telegram.telegrambots.meta.exceptions.TelegramApiRequestException;
+import pro.sky.courseworktelegrambot.entities.OutboundDeadLetter;
+import pro.sky.courseworktelegrambot.repositories.OutboundDeadLetterRepository;
+
+import javax.annotation.PreDestroy;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.Map;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Очередь исходящих сообщений с ограничением скорости отправки.<br>
+ * Telegram допускает около 30 сообщений в секунду от бота и около 1 сообщения в секунду в один чат.
+ * Очередь соблюдает оба ограничения (token bucket: общий и на каждый чат),
+ * сообщения одного чата уходят в порядке постановки.
+ * <p>
+ * При ответе 429 отправка приостанавливается на указанное Telegram время retry_after.
+ * Временные ошибки (5xx, сеть) повторяются с экспоненциальной задержкой и случайным разбросом,
+ * но не более telegram.bot.outbound.max-attempts раз.
+ * Сообщения, которые так и не удалось доставить, сохраняются в таблицу outbound_dead_letter.
+ * <p>
+ * Вызывающий получает {@link CompletableFuture}: может дождаться результата или просто забыть про него.
+ * <p>
+ * Ответы пользователю отправляются сразу, в потоке обработки обновления ({@link #execute}),
+ * но тоже берут жетоны из общего bucket и bucket чата и ждут окончания паузы после 429.
+ */
+@Component
+public class OutboundMessageQueue {
+    private static final Logger LOGGER = LoggerFactory.getLogger(OutboundMessageQueue.class);
+
+    private static final int TOO_MANY_REQUESTS = 429;
+
+    private final OutboundDeadLetterRepository deadLetterRepository;
+    private final TokenBucket globalBucket;
+    private final double chatRate;
+    private final int maxAttempts;
+    private final long retryDelayMillis;
+
+    private final Map<Long, ChatOutbox> outboxes = new ConcurrentHashMap<>();
+    //планировщик решает, когда можно отправлять, а сама отправка (блокирующий запрос) - в отдельном пуле
+    private final ScheduledExecutorService scheduler;
+    private final ExecutorService senders;
+    //до какого момента (System.nanoTime) Telegram просил не присылать ничего
+    private volatile long pausedUntil = System.nanoTime();
+    private final AtomicInteger pending = new AtomicInteger();
+
+    private final Counter sentCounter;
+    private final Counter retriedCounter;
+    private final Counter deadLetterCounter;
+
+    public OutboundMessageQueue(@Value("${telegram.bot.outbound.global-rate}") double globalRate,
+                                @Value("${telegram.bot.outbound.chat-rate}") double chatRate,
+                                @Value("${telegram.bot.outbound.max-attempts}") int maxAttempts,
+                                @Value("${telegram.bot.outbound.retry-delay}") long retryDelayMillis,
+                                @Value("${telegram.bot.outbound.threads}") int threads,
+                                OutboundDeadLetterRepository deadLetterRepository,
+                                MeterRegistry meterRegistry) {
+        this.deadLetterRepository = deadLetterRepository;
+        this.globalBucket = new TokenBucket(globalRate);
+        this.chatRate = chatRate;
+        this.maxAttempts = maxAttempts;
+        this.retryDelayMillis = retryDelayMillis;
+        this.scheduler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "outbound-scheduler");
+            thread.setDaemon(true);
+            return thread;
+        });
+        AtomicInteger threadNumber = new AtomicInteger(1);
+        this.senders = Executors.newFixedThreadPool(threads, runnable -> {
+            Thread thread = new Thread(runnable, "outbound-sender-" + threadNumber.getAndIncrement());
+            thread.setDaemon(true);
+            return thread;
+        });
+        //пустые очереди давно молчащих чатов убираем раз в минуту
+        scheduler.scheduleWithFixedDelay(this::removeIdleOutboxes, 1, 1, TimeUnit.MINUTES);
+
+        sentCounter = Counter.builder("telegram.outbound.sent")
+                .description("Сообщения, доставленные через очередь")
+                .register(meterRegistry);
+        retriedCounter = Counter.builder("telegram.outbound.retried")
+                .description("Повторные попытки отправки")
+                .register(meterRegistry);
+        deadLetterCounter = Counter.builder("telegram.outbound.dead_letters")
+                .description("Сообщения, которые не удалось доставить")
+                .register(meterRegistry);
+        Gauge.builder("telegram.outbound.pending", pending, AtomicInteger::get)
+                .description("Сообщения в очереди, ожидающие отправки")
+                .register(meterRegistry);
+    }
+
+    /**
+     * Ставит сообщение в очередь на отправку.
+     *
+     * @param sender  бот, от имени которого отправляется сообщение
+     * @param message сообщение
+     * @return future с отправленным сообщением. Завершается с {@link TelegramApiException},
+     * если сообщение так и не удалось доставить
+     */
+    public CompletableFuture<Message> submit(AbsSender sender, SendMessage message) {
+        Outgoing outgoing = new Outgoing(sender, message);
+        long chatId = Long.parseLong(message.getChatId());
+        boolean[] start = {false};
+        ChatOutbox outbox = outboxes.compute(chatId, (id, box) -> {
+            if (box == null) {
+                box = new ChatOutbox(new TokenBucket(chatRate));
+            }
+            box.items.addLast(outgoing);
+            if (!box.active) {
+                box.active = true;
+                start[0] = true;
+            }
+            return box;
+        });
+        pending.incrementAndGet();
+        if (start[0]) {
+            schedule(chatId, outbox, 0);
+        }
+        return outgoing.future;
+    }
+
+    /**
+     * Снимает с очереди сообщение, которое еще не начало отправляться.
+     * Его future завершается с {@link TelegramApiException}, и сообщение уже не будет доставлено.
+     * Сообщение, запрос отправки которого уже выполняется, не снимается - надо дождаться его future.
+     *
+     * @param future результат {@link #submit(AbsSender, SendMessage)}
+     * @return true, если сообщение снято с очереди. False, если оно уже отправляется или отправка завершилась
+     */
+    public boolean cancel(CompletableFuture<Message> future) {
+        if (future.isDone()) {
+            return false;
+        }
+        //отмена - редкость (таймаут ожидания), поэтому чат сообщения ищем перебором очередей
+        for (Long chatId : outboxes.keySet()) {
+            boolean[] removed = {false};
+            outboxes.computeIfPresent(chatId, (id, box) -> {
+                removed[0] = box.items.removeIf(outgoing -> outgoing.future == future);
+                return box;
+            });
+            if (removed[0]) {
+                pending.decrementAndGet();
+                future.completeExceptionally(
+                        new TelegramApiException("Message to chat " + chatId + " is cancelled before sending"));
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Отправляет сообщение сразу, в вызывающем потоке, минуя очередь чата,
+     * но по общим с очередью правилам: берет жетоны из bucket чата и общего bucket и ждет окончания паузы,
+     * которую Telegram назначил ответом 429. Полученный здесь 429 приостанавливает и очередь.
+     * Поэтому второй и следующие ответы в один чат ждут, пока bucket чата пополнится.
+     * После 429 отправка повторяется, но не более telegram.bot.outbound.max-attempts раз.
+     * Остальные ошибки не повторяются - их обрабатывает вызывающий.
+     *
+     * @param sender  бот, от имени которого отправляется сообщение
+     * @param message сообщение
+     * @return отправленное сообщение
+     * @throws TelegramApiException если сообщение не отправлено
+     */
+    public Message execute(AbsSender sender, SendMessage message) throws TelegramApiException {
+        long chatId = Long.parseLong(message.getChatId());
+        int attempts = 0;
+        while (true) {
+            attempts++;
+            acquire(chatId);
+            try {
+                return sender.execute(message);
+            } catch (TelegramApiRequestException e) {
+                Integer errorCode = e.getErrorCode();
+                if (errorCode == null || errorCode != TOO_MANY_REQUESTS || attempts >= maxAttempts) {
+                    throw e;
+                }
+                pause(e);
+                retriedCounter.increment();
+            }
+        }
+    }
+
+    //ждет жетона bucket чата, затем окончания паузы после 429 и жетона общего bucket.
+    //Жетон чата между проверкой и взятием в pump может забрать только этот метод - как и общий жетон
+    private void acquire(long chatId) throws TelegramApiException {
+        TokenBucket chatBucket = outboxes.computeIfAbsent(chatId, id -> new ChatOutbox(new TokenBucket(chatRate)))
+                .bucket;
+        try {
+            long chatWait;
+            while ((chatWait = chatBucket.tryTake(System.nanoTime())) > 0) {
+                TimeUnit.NANOSECONDS.sleep(chatWait);
+            }
+            while (true) {
+                long now = System.nanoTime();
+                long wait = pausedUntil - now;
+                if (wait <= 0) {
+                    wait = globalBucket.tryTake(now);
+                    if (wait <= 0) {
+                        return;
+                    }
+                }
+                TimeUnit.NANOSECONDS.sleep(wait);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new TelegramApiException(e);
+        }
+    }
+
+    //Telegram просит подождать всех, а не только этот чат. Возвращает паузу в наносекундах
+    private long pause(TelegramApiRequestException e) {
+        Integer retryAfter = e.getParameters() == null ? null : e.getParameters().getRetryAfter();
+        long retryAfterNanos = TimeUnit.SECONDS.toNanos(retryAfter == null ? 1 : retryAfter);
+        pausedUntil = Math.max(pausedUntil, System.nanoTime() + retryAfterNanos);
+        LOGGER.warn("Telegram asked to retry after " + retryAfter + " s");
+        return retryAfterNanos;
+    }
+
+    public int getPending() {
+        return pending.get();
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        scheduler.shutdownNow();
+        senders.shutdown();
+        try {
+            if (!senders.awaitTermination(10, TimeUnit.SECONDS)) {
+                senders.shutdownNow();
+            }
+        } catch (InterruptedException e) {
+            senders.shutdownNow();
+            Thread.currentThread().interrupt();
+        }
+        if (pending.get() > 0) {
+            LOGGER.warn("Outbound queue stopped, messages not sent: " + pending.get());
+        }
+    }
+
+    private void schedule(long chatId, ChatOutbox outbox, long delayNanos) {
+        try {
+            scheduler.schedule(() -> pump(chatId, outbox), delayNanos, TimeUnit.NANOSECONDS);
+        } catch (RejectedExecutionException e) {
+            //приложение останавливается
+            LOGGER.warn("Outbound queue is shut down, chat " + chatId + " is not served");
+        }
+    }
+
+    //выполняется только в потоке планировщика, поэтому проверка и взятие жетонов не разделены другими чатами.
+    //Общий жетон между проверкой и взятием может забрать только ответ из execute - тогда bucket уходит
+    //в небольшой минус, и следующие отправки просто подождут его пополнения
+    private void pump(long chatId, ChatOutbox outbox) {
+        long now = System.nanoTime();
+        long wait = Math.max(Math.max(pausedUntil - now, outbox.notBefore - now),
+                Math.max(globalBucket.nanosUntilAvailable(now), outbox.bucket.nanosUntilAvailable(now)));
+        if (wait > 0) {
+            schedule(chatId, outbox, wait);
+            return;
+        }
+        Outgoing[] next = {null};
+        outboxes.computeIfPresent(chatId, (id, box) -> {
+            next[0] = box.items.pollFirst();
+            box.active = next[0] != null;
+            return box;
+        });
+        if (next[0] == null) {
+            return;
+        }
+        globalBucket.take(now);
+        outbox.bucket.take(now);
+        try {
+            senders.execute(() -> send(chatId, outbox, next[0]));
+        } catch (RejectedExecutionException e) {
+            LOGGER.warn("Outbound queue is shut down, chat " + chatId + " is not served");
+        }
+    }
+
+    private void send(long chatId, ChatOutbox outbox, Outgoing outgoing) {
+        outgoing.attempts++;
+        long retryAfterNanos = -1;
+        try {
+            Message message = outgoing.sender.execute(outgoing.message);
+            sentCounter.increment();
+            pending.decrementAndGet();
+            outgoing.future.complete(message);
+        } catch (TelegramApiRequestException e) {
+            Integer errorCode = e.getErrorCode();
+            if (errorCode != null && errorCode == TOO_MANY_REQUESTS) {
+                retryAfterNanos = pause(e);
+            } else if (errorCode == null || errorCode >= 500) {
+                retryAfterNanos = backoffNanos(outgoing.attempts);
+            }
+            retryOrDrop(chatId, outbox, outgoing, retryAfterNanos, e);
+            return;
+        } catch (TelegramApiException e) {
+            //сеть и прочие сбои без ответа Telegram - временные
+            retryOrDrop(chatId, outbox, outgoing, backoffNanos(outgoing.attempts), e);
+            return;
+        } catch (RuntimeException e) {
+            retryOrDrop(chatId, outbox, outgoing, -1, new TelegramApiException(e));
+            return;
+        }
+        next(chatId, outbox);
+    }
+
+    //retryAfterNanos < 0 - повторять бесполезно (например, пользователь заблокировал бота)
+    private void retryOrDrop(long chatId, ChatOutbox outbox, Outgoing outgoing,
+                             long retryAfterNanos, TelegramApiException e) {
+        if (retryAfterNanos >= 0 && outgoing.attempts < maxAttempts) {
+            retriedCounter.increment();
+            outboxes.computeIfPresent(chatId, (id, box) -> {
+                //возвращаем в начало, чтобы не нарушить порядок сообщений чата
+                box.items.addFirst(outgoing);
+                box.notBefore = System.nanoTime() + retryAfterNanos;
+                return box;
+            });
+            schedule(chatId, outbox, retryAfterNanos);
+            return;
+        }
+        pending.decrementAndGet();
+        deadLetterCounter.increment();
+        LOGGER.error("Message to chat " + chatId + " is not delivered after "
+                + outgoing.attempts + " attempts: " + e.getMessage());
+        try {
+            deadLetterRepository.save(new OutboundDeadLetter(
+                    chatId, outgoing.message.getText(), outgoing.attempts, e.getMessage()));
+        } catch (RuntimeException saveException) {
+            LOGGER.error("Dead letter for chat " + chatId + " is not saved: " + saveException.getMessage());
+        }
+        outgoing.future.completeExceptionally(e);
+        next(chatId, outbox);
+    }
+
+    private void next(long chatId, ChatOutbox outbox) {
+        boolean[] more = {false};
+        outboxes.computeIfPresent(chatId, (id, box) -> {
+            more[0] = !box.items.isEmpty();
+            box.active = more[0];
+            return box;
+        });
+        if (more[0]) {
+            schedule(chatId, outbox, 0);
+        }
+    }
+
+    //экспоненциальная задержка с разбросом 50-100%, чтобы повторы разных чатов не шли одной волной
+    private long backoffNanos(int attempt) {
+        long delay = retryDelayMillis << Math.min(attempt - 1, 10);
+        return TimeUnit.MILLISECONDS.toNanos(delay / 2 + ThreadLocalRandom.current().nextLong(delay / 2 + 1));
+    }
+
+    private void removeIdleOutboxes() {
+        long now = System.nanoTime();
+        outboxes.keySet().forEach(chatId -> outboxes.computeIfPresent(chatId, (id, box) ->
+                !box.active && box.items.isEmpty() && box.bucket.nanosUntilAvailable(now) == 0 ? null : box));
+    }
+
+    private static final class Outgoing {
+        private final AbsSender sender;
+        private final SendMessage message;
+        private final CompletableFuture<Message> future = new CompletableFuture<>();
+        private int attempts;
+
+        private Outgoing(AbsSender sender, SendMessage message) {
+            this.sender = sender;
+            this.message = message;
+        }
+    }
+
+    //изменяется только внутри compute/computeIfPresent карты outboxes
+    private static final class ChatOutbox {
+        private final Deque<Outgoing> items = new ArrayDeque<>();
+        private final TokenBucket bucket;
+        private boolean active; //есть запланированная или выполняющаяся отправка
+        private volatile long notBefore = System.nanoTime();
+
+        private ChatOutbox(TokenBucket bucket) {
+            this.bucket = bucket;
+        }
+    }
+
+    /**
+     * Token bucket: вмещает жетоны за секунду работы, пополняется со скоростью rate в секунду.
+     */
+    static final class TokenBucket {
+        private final double capacity;
+        private final double tokensPerNano;
+        private double tokens;
+        private long refilledAt = System.nanoTime();
+
+        TokenBucket(double rate) {
+            this.capacity = Math.max(1, rate);
+            this.tokensPerNano = rate / TimeUnit.SECONDS.toNanos(1);
+            this.tokens = capacity;
+        }
+
+        synchronized long nanosUntilAvailable(long now) {
+            refill(now);
+            return tokens >= 1 ? 0 : (long) Math.ceil((1 - tokens) / tokensPerNano);
+        }
+
+        synchronized void take(long now) {
+            refill(now);
+            tokens -= 1;
+        }
+
+        //берет жетон, если он есть. Иначе возвращает, сколько ждать следующего
+        synchronized long tryTake(long now) {
+            refill(now);
+            if (tokens >= 1) {
+                tokens -= 1;
+                return 0;
+            }
+            return (long) Math.ceil((1 - tokens) / tokensPerNano);
+        }
+
+        private void refill(long now) {
+            if (now > refilledAt) {
+                tokens = Math.min(capacity, tokens + (now - refilledAt) * tokensPerNano);
+                refilledAt = now;
+            }
+        }
+    }
+}
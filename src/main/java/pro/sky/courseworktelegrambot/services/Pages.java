@@ -0,0 +1,27 @@
+package pro.sky.courseworktelegrambot.services;
+
+import org.springframework.data.domain.PageRequest;
+import org.springframework.data.domain.Pageable;
+
+/**
+ * Размер страниц списков, которые выдаются по ключу (после заданного id).<br>
+ * Номер страницы всегда 0: место в списке задает условие id > after_id, а не OFFSET,
+ * поэтому запрос дальней страницы стоит столько же, сколько первой.
+ */
+final class Pages {
+    /**
+     * Наибольший размер страницы: больший limit уменьшается до него
+     */
+    static final int MAX_LIMIT = 1000;
+
+    private Pages() {
+    }
+
+    /**
+     * @param limit запрошенный размер страницы
+     * @return первые limit строк запроса, но не меньше одной и не больше {@link #MAX_LIMIT}
+     */
+    static Pageable first(int limit) {
+        return PageRequest.ofSize(Math.max(1, Math.min(limit, MAX_LIMIT)));
+    }
+}
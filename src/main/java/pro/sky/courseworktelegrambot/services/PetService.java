@@ -8,12 +8,20 @@ import pro.sky.courseworktelegrambot.entities.Cat;
 import pro.sky.courseworktelegrambot.entities.Dog;
 import pro.sky.courseworktelegrambot.entities.Pet;
 import pro.sky.courseworktelegrambot.entities.ShelterId;
+import pro.sky.courseworktelegrambot.exceptions.NotAnImageException;
 import pro.sky.courseworktelegrambot.exceptions.ShelterNotFoundException;
 import pro.sky.courseworktelegrambot.repositories.CatRepository;
 import pro.sky.courseworktelegrambot.repositories.DogRepository;
+import pro.sky.courseworktelegrambot.repositories.PetListView;
 
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.SequenceInputStream;
 import java.util.Collection;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 
 
 /**
@@ -26,19 +34,26 @@ public class PetService {
     private final DogRepository dogRepository;
     private final CatRepository catRepository;
     private final ShelterService shelterService;
+    private final PhotoStore photoStore;
 
     public PetService(DogRepository dogRepository,
                       CatRepository catRepository,
-                      ShelterService shelterService) {
+                      ShelterService shelterService,
+                      PhotoStore photoStore) {
         this.dogRepository = dogRepository;
         this.catRepository = catRepository;
         this.shelterService = shelterService;
+        this.photoStore = photoStore;
     }
 
     //из такого репозитория удается прочитать, возвращается Pet
-    //но в него ничего не удается сохранить
+    //но в него ничего не удается сохранить.
+    //switch без default: для нового приюта компилятор потребует указать его репозиторий
     private JpaRepository<? extends Pet, Integer> petRepository(ShelterId shelterId) {
-        return (shelterId==ShelterId.DOG) ? dogRepository : catRepository;
+        return switch (shelterId) {
+            case DOG -> dogRepository;
+            case CAT -> catRepository;
+        };
     }
 
     /**
@@ -95,7 +110,11 @@ public class PetService {
         shelterService.checkShelterId(shelterId);
         //если ключ не найден или 0, то save создает новую запись.
         //Поэтому проверим существование id
-        getPet(shelterId, pet.getId());  //если id не существует, здесь будет исключение
+        Pet storedPet = getPet(shelterId, pet.getId());  //если id не существует, здесь будет исключение
+        //фото в теле запроса не передается, оно меняется отдельным запросом. Сохраняем прежнее
+        pet.setPhotoHash(storedPet.getPhotoHash());
+        pet.setPhotoType(storedPet.getPhotoType());
+        pet.setPhotoSize(storedPet.getPhotoSize());
         if (shelterId==ShelterId.DOG) {
             return dogRepository.save(new Dog(pet));  //обертываем Pet
         } else {
@@ -103,6 +122,63 @@ public class PetService {
         }
     }
 
+    /**
+     * Метод сохраняет фото питомца в хранилище фото, а в БД - ссылку на него.<br>
+     * Фото читается потоком и целиком в память не загружается.
+     * MIME-тип определяется по первым байтам фото, а не берется у клиента: фото потом отдается
+     * с этим типом, и под видом фото нельзя сохранить, например, HTML-страницу.
+     * Размер - это число байтов, записанных в хранилище.
+     *
+     * @param shelterId идентификатор приюта.
+     * @param id        индификатор питомца
+     * @param is        поток с фото
+     * @return          сохраненные данные питомца
+     * @throws ShelterNotFoundException если id приюта не найден в базе
+     * @throws EntityNotFoundException если id питомца не найден в базе
+     * @throws NotAnImageException если фото пустое или не является изображением
+     */
+    public Pet savePetPhoto(ShelterId shelterId, int id, InputStream is) throws IOException {
+        Pet pet = getPet(shelterId, id);
+        byte[] header = is.readNBytes(ReportPhotoDownloader.HEADER_SIZE);
+        if (header.length == 0) {
+            throw new NotAnImageException("Photo is empty");
+        }
+        String mediaType = ReportPhotoDownloader.detectMimeType(header);
+        //SVG - это XML, в нем может быть скрипт
+        if (!mediaType.startsWith("image/") || mediaType.equals("image/svg+xml")) {
+            throw new NotAnImageException("Photo type " + mediaType + " is not supported");
+        }
+        String hash = photoStore.save(new SequenceInputStream(new ByteArrayInputStream(header), is));
+        pet.setPhotoHash(hash);
+        pet.setPhotoType(mediaType);
+        pet.setPhotoSize(photoStore.load(hash).contentLength());
+        if (shelterId==ShelterId.DOG) {
+            return dogRepository.save((Dog) pet);
+        } else {
+            return catRepository.save((Cat) pet);
+        }
+    }
+
+    /**
+     * Метод возвращает фото питомца из хранилища фото.
+     * Байты фото читаются уже при отправке ответа.
+     *
+     * @param shelterId идентификатор приюта.
+     * @param id        индификатор питомца
+     * @return          фото питомца
+     * @throws ShelterNotFoundException если id приюта не найден в базе
+     * @throws EntityNotFoundException если питомца нет, у него нет фото или фото не найдено в хранилище
+     */
+    public StoredPhoto getPetPhoto(ShelterId shelterId, int id) {
+        Pet pet = getPet(shelterId, id);
+        if (!pet.getHasPhoto()) {
+            throw new EntityNotFoundException("Pet with id " + id + " has no photo");
+        }
+        //фото питомца можно заменить, адрес при этом тот же - кэшировать навсегда нельзя
+        return new StoredPhoto(pet.getPhotoHash(), pet.getPhotoType(), pet.getPhotoSize(),
+                photoStore.load(pet.getPhotoHash()), false);
+    }
+
     /**
      * Метод удаляет питомца из БД
      * Используется метод репозитория {@link JpaRepository#deleteById(Object)}
@@ -120,15 +196,42 @@ public class PetService {
     }
 
     /**
-     * Метод выводит всех питомцев в приюте
-     * Используется метод репозитория {@link JpaRepository#findAll()}
+     * Метод возвращает имена питомцев приюта по их id.<br>
+     * Питомцы у каждого приюта в своей таблице, поэтому запросы по общим таблицам усыновлений
+     * возвращают только id питомца, а имя подставляется по этому словарю.
+     * Питомцы, которых уже нет в базе, в словарь не попадают.
+     *
+     * @param shelterId идентификатор приюта.
+     * @param ids       id питомцев, null - все питомцы приюта
+     * @return          имена питомцев по id
+     */
+    public Map<Integer, String> getPetNames(ShelterId shelterId, Collection<Integer> ids) {
+        //каталог питомцев приюта берется из кэша запросов, поэтому без id читаем его целиком
+        List<? extends Pet> pets = (ids == null)
+                ? petRepository(shelterId).findAll()
+                : petRepository(shelterId).findAllById(ids);
+        //имя питомца может быть не задано, а Collectors.toMap null не принимает
+        Map<Integer, String> names = new HashMap<>();
+        pets.forEach(pet -> names.put(pet.getId(), pet.getName()));
+        return names;
+    }
+
+    /**
+     * Метод выводит страницу питомцев приюта: питомцев с id больше afterId по возрастанию id.<br>
+     * Следующую страницу запрашивают с afterId, равным id последнего питомца страницы.
      * @param shelterId идентификатор приюта.
-     * @return  Список питомцев в приюте
+     * @param afterId   id последнего питомца предыдущей страницы, 0 - с начала
+     * @param limit     размер страницы, не больше {@link Pages#MAX_LIMIT}
+     * @return  Страница питомцев в приюте
      * @throws ShelterNotFoundException если id приюта не найден в базе
      * */
-    public Collection<Pet> getAllPets(ShelterId shelterId) {
+    public List<PetListView> getPets(ShelterId shelterId, int afterId, int limit) {
         shelterService.checkShelterId(shelterId);
-        return List.copyOf(petRepository(shelterId).findAll());
+        if (shelterId==ShelterId.DOG) {
+            return dogRepository.findPage(afterId, Pages.first(limit));
+        } else {
+            return catRepository.findPage(afterId, Pages.first(limit));
+        }
     }
 }
 
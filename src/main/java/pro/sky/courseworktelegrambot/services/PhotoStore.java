@@ -0,0 +1,42 @@
+package pro.sky.courseworktelegrambot.services;
+
+import org.springframework.core.io.Resource;
+
+import javax.persistence.EntityNotFoundException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Path;
+
+/**
+ * Хранилище фото отчетов и питомцев.<br>
+ * Фото адресуются своим содержимым: ключ - SHA-256 байтов фото в шестнадцатеричном виде.
+ * Одинаковые фото (например, присланные повторно) хранятся один раз.
+ * В сущностях хранится только ключ, размер и MIME-тип, сами байты читаются только при выдаче фото.
+ */
+public interface PhotoStore {
+
+    /**
+     * Сохраняет фото из потока, не загружая его целиком в память.
+     *
+     * @param is поток с фото. Поток читается до конца, но не закрывается
+     * @return ключ фото (SHA-256)
+     */
+    String save(InputStream is) throws IOException;
+
+    /**
+     * Сохраняет фото из файла. Сам файл не изменяется и не удаляется.
+     *
+     * @param file файл с фото
+     * @return ключ фото (SHA-256)
+     */
+    String save(Path file) throws IOException;
+
+    /**
+     * Возвращает сохраненное фото.
+     *
+     * @param hash ключ фото
+     * @return фото, которое можно прочитать потоком
+     * @throws EntityNotFoundException если фото с таким ключом нет
+     */
+    Resource load(String hash);
+}
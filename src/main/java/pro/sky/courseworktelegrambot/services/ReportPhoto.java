@@ -0,0 +1,29 @@
+package pro.sky.courseworktelegrambot.services;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+/**
+ * Фото отчета, скачанное из Telegram во временный файл.<br>
+ * Байты фото не держатся в памяти: их читает тот, кто сохраняет отчет,
+ * после чего временный файл удаляется через {@link #delete()}.
+ *
+ * @param file      временный файл с фото
+ * @param mediaType MIME-тип, определенный по первым байтам файла
+ * @param size      размер фото в байтах
+ */
+public record ReportPhoto(Path file, String mediaType, long size) {
+
+    public byte[] readBytes() throws IOException {
+        return Files.readAllBytes(file);
+    }
+
+    public void delete() {
+        try {
+            Files.deleteIfExists(file);
+        } catch (IOException e) {
+            //временный файл удалится вместе с каталогом временных файлов, это не ошибка отчета
+        }
+    }
+}
@@ -0,0 +1,186 @@
+package pro.sky.courseworktelegrambot.services;
+
+import eu.medsea.mimeutil.MimeUtil;
+import eu.medsea.mimeutil.detector.MagicMimeMimeDetector;
+import org.json.JSONObject;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.*;
+import org.springframework.http.client.SimpleClientHttpRequestFactory;
+import org.springframework.stereotype.Component;
+import org.springframework.web.client.RestTemplate;
+import pro.sky.courseworktelegrambot.exceptions.PhotoTooLargeException;
+
+import javax.annotation.PreDestroy;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.net.URL;
+import java.net.URLConnection;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Скачивание фото отчетов из Telegram.<br>
+ * Фото скачивается в отдельном пуле потоков, чтобы не занимать потоки обработки обновлений,
+ * и пишется во временный файл по мере поступления: в памяти держится только буфер чтения.
+ * MIME-тип определяется по первым байтам файла, размер ограничен report.photo.max-size.
+ */
+@Component
+public class ReportPhotoDownloader {
+    private static final Logger LOGGER = LoggerFactory.getLogger(ReportPhotoDownloader.class);
+
+    //сигнатуры форматов изображений умещаются в начале файла, весь файл для этого не нужен
+    public static final int HEADER_SIZE = 256;
+    private static final int BUFFER_SIZE = 8192;
+
+    static {
+        //регистрируем детектор один раз, а не на каждое фото
+        MimeUtil.registerMimeDetector(MagicMimeMimeDetector.class.getName());
+    }
+
+    private final RestTemplate restTemplate;
+    private final String token;
+    private final String fileInfoUri;
+    private final String fileStorageUri;
+    private final long maxSize;
+    private final int timeoutMillis;
+    private final ExecutorService executor;
+
+    public ReportPhotoDownloader(@Value("${telegram.bot.token}") String token,
+                                 @Value("${file_info.uri}") String fileInfoUri,
+                                 @Value("${file_storage.uri}") String fileStorageUri,
+                                 @Value("${report.photo.max-size}") long maxSize,
+                                 @Value("${report.photo.timeout}") int timeoutMillis,
+                                 @Value("${report.photo.threads}") int threads) {
+        this.token = token;
+        this.fileInfoUri = fileInfoUri;
+        this.fileStorageUri = fileStorageUri;
+        this.maxSize = maxSize;
+        this.timeoutMillis = timeoutMillis;
+        //один RestTemplate на все запросы, с таймаутами, чтобы зависший запрос не держал поток вечно
+        SimpleClientHttpRequestFactory requestFactory = new SimpleClientHttpRequestFactory();
+        requestFactory.setConnectTimeout(timeoutMillis);
+        requestFactory.setReadTimeout(timeoutMillis);
+        this.restTemplate = new RestTemplate(requestFactory);
+        AtomicInteger threadNumber = new AtomicInteger(1);
+        this.executor = Executors.newFixedThreadPool(threads, runnable -> {
+            Thread thread = new Thread(runnable, "report-photo-" + threadNumber.getAndIncrement());
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    /**
+     * Скачивает фото во временный файл, не блокируя вызывающий поток.
+     *
+     * @param fileId идентификатор файла в Telegram
+     * @return future со скачанным фото. Завершается с {@link PhotoTooLargeException},
+     * если фото больше допустимого размера, или с другой ошибкой, если скачать не удалось
+     */
+    public CompletableFuture<ReportPhoto> download(String fileId) {
+        return CompletableFuture.supplyAsync(() -> {
+            String fullUri = fileStorageUri.replace("{token}", token)
+                    .replace("{filePath}", getFilePath(fileId));
+            try {
+                URLConnection connection = new URL(fullUri).openConnection();
+                connection.setConnectTimeout(timeoutMillis);
+                connection.setReadTimeout(timeoutMillis);
+                //если Telegram сообщил размер, то слишком большое фото даже не начинаем читать
+                if (connection.getContentLengthLong() > maxSize) {
+                    throw new PhotoTooLargeException(maxSize);
+                }
+                try (InputStream is = connection.getInputStream()) {
+                    return receive(is);
+                }
+            } catch (IOException e) {
+                throw new UncheckedIOException("Ошибка чтения с URI: " + fullUri, e);
+            }
+        }, executor);
+    }
+
+    //путь файла в хранилище Telegram по fileId
+    private String getFilePath(String fileId) {
+        ResponseEntity<String> response = restTemplate.exchange(
+                fileInfoUri,
+                HttpMethod.GET,
+                new HttpEntity<>(new HttpHeaders()),
+                String.class,
+                token,
+                fileId);
+        LOGGER.debug(response.toString());
+        if (response.getStatusCode() != HttpStatus.OK) {
+            throw new IllegalStateException("getFile returned " + response.getStatusCode());
+        }
+        return new JSONObject(response.getBody()).getJSONObject("result").getString("file_path");
+    }
+
+    /**
+     * Переписывает фото из потока во временный файл, определяя MIME-тип по первым байтам
+     * и проверяя размер по мере чтения.
+     *
+     * @param is поток с фото
+     * @return фото во временном файле
+     * @throws PhotoTooLargeException если фото больше допустимого размера. Временный файл удаляется
+     */
+    ReportPhoto receive(InputStream is) throws IOException {
+        byte[] header = new byte[HEADER_SIZE];
+        int headerLength = is.readNBytes(header, 0, HEADER_SIZE);
+        Path file = Files.createTempFile("report-photo-", ".tmp");
+        long size = headerLength;
+        try (OutputStream os = Files.newOutputStream(file)) {
+            checkSize(size);
+            os.write(header, 0, headerLength);
+            byte[] buffer = new byte[BUFFER_SIZE];
+            int read;
+            while ((read = is.read(buffer)) != -1) {
+                size += read;
+                checkSize(size);
+                os.write(buffer, 0, read);
+            }
+        } catch (IOException | RuntimeException e) {
+            Files.deleteIfExists(file);
+            throw e;
+        }
+        String mediaType = detectMimeType(Arrays.copyOf(header, headerLength));
+        LOGGER.debug("mediaType = " + mediaType + ", mediaSize = " + size);
+        return new ReportPhoto(file, mediaType, size);
+    }
+
+    private void checkSize(long size) {
+        if (size > maxSize) {
+            throw new PhotoTooLargeException(maxSize);
+        }
+    }
+
+    /**
+     * Определяет MIME-тип по сигнатуре в начале данных.
+     *
+     * @param data первые байты файла
+     * @return MIME-тип, например image/jpeg
+     */
+    public static String detectMimeType(byte[] data) {
+        return MimeUtil.getMostSpecificMimeType(MimeUtil.getMimeTypes(data)).toString();
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        executor.shutdown();
+        try {
+            if (!executor.awaitTermination(10, TimeUnit.SECONDS)) {
+                executor.shutdownNow();
+            }
+        } catch (InterruptedException e) {
+            executor.shutdownNow();
+            Thread.currentThread().interrupt();
+        }
+    }
+}
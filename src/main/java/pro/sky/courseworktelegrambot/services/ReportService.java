@@ -1,101 +1,122 @@
 package pro.sky.courseworktelegrambot.services;
 
+import com.fasterxml.jackson.databind.ObjectMapper;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.data.jpa.repository.JpaRepository;
 import org.springframework.stereotype.Service;
-import org.telegram.telegrambots.meta.exceptions.TelegramApiException;
+import org.springframework.transaction.annotation.Transactional;
 import pro.sky.courseworktelegrambot.entities.*;
 import pro.sky.courseworktelegrambot.exceptions.ShelterNotFoundException;
 import pro.sky.courseworktelegrambot.exceptions.TelegramException;
-import pro.sky.courseworktelegrambot.repositories.CatReportRepository;
-import pro.sky.courseworktelegrambot.repositories.DogReportRepository;
+import pro.sky.courseworktelegrambot.repositories.ReportExportView;
+import pro.sky.courseworktelegrambot.repositories.ReportListView;
+import pro.sky.courseworktelegrambot.repositories.ReportPhotoView;
+import pro.sky.courseworktelegrambot.repositories.ReportRepository;
+import pro.sky.courseworktelegrambot.repositories.ReportStatusRepository;
 import pro.sky.courseworktelegrambot.repositories.UserRepository;
 
 import javax.persistence.EntityNotFoundException;
+import java.io.IOException;
+import java.io.OutputStream;
 import java.time.LocalDate;
+import java.util.Iterator;
 import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.stream.Stream;
 
 @Service
 public class ReportService {
     private static final Logger LOGGER = LoggerFactory.getLogger(ReportService.class);
-    private final DogReportRepository dogReportRepository;
-    private final CatReportRepository catReportRepository;
+    private static final LocalDate FIRST_DATE = LocalDate.of(1, 1, 1);
+    private static final LocalDate LAST_DATE = LocalDate.of(9999, 12, 31);
+    private final ReportRepository reportRepository;
     private final ShelterService shelterService;
     private final UserRepository userRepository;
     private final TelegramBotSender telegramBotSender;
+    private final PhotoStore photoStore;
+    private final ReportStatusRepository reportStatusRepository;
+    private final ObjectMapper objectMapper;
 
 
-    public ReportService(CatReportRepository catReportRepository,
-                         DogReportRepository dogReportRepository,
+    public ReportService(ReportRepository reportRepository,
                          ShelterService shelterService,
                          UserRepository userRepository,
-                         TelegramBotSender telegramBotSender) {
-        this.dogReportRepository = dogReportRepository;
-        this.catReportRepository = catReportRepository;
+                         TelegramBotSender telegramBotSender,
+                         PhotoStore photoStore,
+                         ReportStatusRepository reportStatusRepository,
+                         ObjectMapper objectMapper) {
+        this.reportRepository = reportRepository;
         this.shelterService = shelterService;
         this.userRepository = userRepository;
         this.telegramBotSender = telegramBotSender;
+        this.photoStore = photoStore;
+        this.reportStatusRepository = reportStatusRepository;
+        this.objectMapper = objectMapper;
     }
 
-    //из такого репозитория удается прочитать, возвращается предок
-    //но в него ничего не удается сохранить уже при компиляции, при подстановке любого типа возникает
-    //method save in interface org.springframework.data.repository.CrudRepository<T,ID> cannot be applied to given types;
-    private JpaRepository<? extends Report, Integer> reportRepository(ShelterId shelterId) {
-        return (shelterId == ShelterId.DOG) ? dogReportRepository : catReportRepository;
+    //Отчеты всех приютов в одной таблице и читаются по приюту из нее, но у каждого приюта
+    //свой класс отчета. switch без default: для нового приюта компилятор потребует указать его класс
+    private static Report newReport(Adoption adoption, LocalDate date, String photoHash,
+                                    String mediaType, int mediaSize, String text) {
+        return switch (adoption.getShelterId()) {
+            case DOG -> new DogReport((DogAdoption) adoption, date, photoHash, mediaType, mediaSize, text);
+            case CAT -> new CatReport((CatAdoption) adoption, date, photoHash, mediaType, mediaSize, text);
+        };
+    }
+
+    /**
+     * Метод сохраняет фото отчета в хранилище фото, а отчет со ссылкой на фото - в БД.<br>
+     * Фото читается из файла потоком и целиком в память не загружается.
+     *
+     * @param adoption  активное усыновление пользователя
+     * @param date      дата отчета
+     * @param photo     скачанное фото отчета. Временный файл удаляет вызывающий
+     * @param text      текст отчета, может быть null
+     * @return Report сохраненные данные отчета для кошки или собаки
+     */
+    @Transactional
+    public Report saveReport(Adoption adoption, LocalDate date, ReportPhoto photo, String text) throws IOException {
+        String photoHash = photoStore.save(photo.file());
+        return saveReport(adoption, date, photoHash, photo.mediaType(), (int) photo.size(), text);
     }
 
     /**
      * Метод сохраняет отчет по питомцу в ДБ .<br>
      * Используется метод репозитория {@link JpaRepository#save(Object)}.<br>
      * Если для заданного усыновления и даты отчет найден, то он дополняется,
-     * если нет, то создается новый
+     * если нет, то создается новый. В той же транзакции обновляется состояние отчетов усыновления
+     * в report_status
      *
      * @param adoption  активное усыновление пользователя
      * @param date      дата отчета
-     * @param photo     фото отчета, может быть null, если прислан текст
+     * @param photoHash ключ фото отчета в {@link PhotoStore}, может быть null, если прислан текст
      * @param text      текст отчета, может быть null, если прислано фото
      * @return Report сохраненные данные отчета для кошки или собаки
      */
-    public Report saveReport(Adoption adoption, LocalDate date, byte[] photo, String mediaType,int mediaSize, String text) {
+    @Transactional
+    public Report saveReport(Adoption adoption, LocalDate date, String photoHash, String mediaType,int mediaSize, String text) {
         //вызывается из бота (дата в этом случае всегда now()), волонтер отчеты только читает
-        if (adoption.getUser().getShelterId() == ShelterId.DOG) {
-            DogAdoption dogAdoption = (DogAdoption) adoption;
-            List<DogReport> reportList = dogReportRepository.findByAdoptionAndDate(dogAdoption, date);
-            DogReport report;  //объект для сохранения
-            if (reportList.isEmpty()) {
-                report = new DogReport(dogAdoption, LocalDate.now(), photo,mediaType,mediaSize, text);
-            } else {
-                report = reportList.get(0);
-                if (photo != null) {
-                    report.setPhoto(photo);
-                    report.setImageType(mediaType);
-                    report.setImageSize(mediaSize);
-                }
-                if (text != null) {
-                    report.setText(text);
-                }
-            }
-            return dogReportRepository.save(report);
+        //приют берем из усыновления: пользователь мог уже переключиться на другой приют
+        List<Report> reportList = reportRepository.findByAdoptionIdAndDate(adoption.getId(), date);
+        Report report;  //объект для сохранения
+        if (reportList.isEmpty()) {
+            report = newReport(adoption, LocalDate.now(), photoHash, mediaType, mediaSize, text);
         } else {
-            CatAdoption catAdoption = (CatAdoption) adoption;
-            List<CatReport> reportList = catReportRepository.findByAdoptionAndDate(catAdoption, date);
-            CatReport report;  //объект для сохранения
-            if (reportList.isEmpty()) {
-                report = new CatReport(catAdoption, LocalDate.now(), photo,mediaType,mediaSize, text);
-            } else {
-                report = reportList.get(0);
-                if (photo != null) {
-                    report.setPhoto(photo);
-                    report.setImageType(mediaType);
-                    report.setImageSize(mediaSize);
-                }
-                if (text != null) {
-                    report.setText(text);
-                }
+            report = reportList.get(0);
+            if (photoHash != null) {
+                report.setPhotoHash(photoHash);
+                report.setImageType(mediaType);
+                report.setImageSize(mediaSize);
+            }
+            if (text != null) {
+                report.setText(text);
             }
-            return catReportRepository.save(report);
         }
+        Report saved = reportRepository.save(report);
+        updateReportStatus(adoption.getShelterId(), adoption.getId(), saved);
+        return saved;
     }
 
     /**
@@ -110,13 +131,39 @@ public class ReportService {
      */
     public Report getReportById(ShelterId shelterId, int reportId) {
         shelterService.checkShelterId(shelterId);
-        return reportRepository(shelterId).findById(reportId).orElseThrow(() ->
+        return reportRepository.findByShelterIdAndId(shelterId, reportId).orElseThrow(() ->
                 new EntityNotFoundException("Report with id " + reportId + " in shelter " + shelterId + " not found"));
     }
 
+    /**
+     * Метод возвращает фото отчета из хранилища фото.<br>
+     * Сам отчет не загружается, из БД читаются только ключ, тип и размер фото.
+     * Байты фото читаются уже при отправке ответа.
+     *
+     * @param shelterId идентификатор приюта.
+     * @param reportId  индентификатор отчета
+     * @return фото отчета
+     * @throws ShelterNotFoundException если id приюта не найден в базе
+     * @throws EntityNotFoundException  если отчета нет, у него нет фото или фото не найдено в хранилище
+     */
+    public StoredPhoto getReportPhoto(ShelterId shelterId, int reportId) {
+        shelterService.checkShelterId(shelterId);
+        ReportPhotoView photo = reportRepository.findPhotoById(shelterId, reportId)
+                .orElseThrow(() -> new EntityNotFoundException(
+                        "Report with id " + reportId + " in shelter " + shelterId + " not found"));
+        if (photo.photoHash() == null) {
+            throw new EntityNotFoundException("Report with id " + reportId + " has no photo");
+        }
+        //фото отчета можно прислать заново только в день отчета. Отчеты прошлых дней уже не меняются
+        boolean immutable = photo.date().isBefore(LocalDate.now());
+        return new StoredPhoto(photo.photoHash(), photo.imageType(), photo.imageSize(),
+                photoStore.load(photo.photoHash()), immutable);
+    }
+
     /**
      * Метод удаляет отчет по заданному индентификатору.
-     * Используется метод репозитория {@link JpaRepository#deleteById(Object)}.<br><br>
+     * Используется метод репозитория {@link JpaRepository#deleteById(Object)}.<br>
+     * Состояние отчетов усыновления в report_status пересчитывается в той же транзакции.<br><br>
      *
      * @param shelterId идентификатор приюта.
      * @param reportId  идетификатор отчета
@@ -124,10 +171,12 @@ public class ReportService {
      * @throws ShelterNotFoundException если id приюта не найден в базе
      * @throws EntityNotFoundException  если id отчета не найден в базе
      */
+    @Transactional
     public Report deleteReportById(ShelterId shelterId, int reportId) {
         shelterService.checkShelterId(shelterId);
         Report report = getReportById(shelterId, reportId);
-        reportRepository(shelterId).deleteById(reportId);
+        reportRepository.deleteById(reportId);
+        recomputeReportStatus(shelterId, report.getAdoption().getId());
         return report;
     }
 
@@ -141,48 +190,99 @@ public class ReportService {
      */
     public List<Report> getAllReportsByDate(ShelterId shelterId, LocalDate date) {
         shelterService.checkShelterId(shelterId);
-        if (shelterId == ShelterId.DOG) {
-            return List.copyOf(dogReportRepository.findByDate(date));
-        } else {
-            return List.copyOf(catReportRepository.findByDate(date));
-        }
+        return List.copyOf(reportRepository.findByShelterIdAndDate(shelterId, date));
     }
 
     /**
-     * Метод выводит все отчеты кошек и собак из БД.<br>
-     * Используется метод репозитория {@link JpaRepository#findAll()}.<br><br>
+     * Метод выводит страницу отчетов приюта за период: отчеты с id больше afterId по возрастанию id.<br>
+     * Следующую страницу запрашивают с afterId, равным id последнего отчета страницы.
+     * Отчеты читаются проекцией, без текста, фото и связанных усыновлений.<br><br>
      *
      * @param shelterId идентификатор приюта.
-     * @return List<Report> возвращает список всех отчетов кошек или собак
+     * @param afterId   id последнего отчета предыдущей страницы, 0 - с начала
+     * @param limit     размер страницы, не больше {@link Pages#MAX_LIMIT}
+     * @param from      первая дата отчетов, null - без ограничения
+     * @param to        последняя дата отчетов, null - без ограничения
+     * @return List<ReportListView> возвращает страницу отчетов кошек или собак
      * @throws ShelterNotFoundException если id приюта не найден в базе
      */
-    public List<Report> getAllReports(ShelterId shelterId) {
+    public List<ReportListView> getReports(ShelterId shelterId, int afterId, int limit,
+                                           LocalDate from, LocalDate to) {
         shelterService.checkShelterId(shelterId);
-        return List.copyOf(reportRepository(shelterId).findAll());
+        //вместо null - даты, за пределы которых отчеты не выходят: так условие в запросе одно
+        LocalDate first = (from == null) ? FIRST_DATE : from;
+        LocalDate last = (to == null) ? LAST_DATE : to;
+        return reportRepository.findPage(shelterId, afterId, first, last, Pages.first(limit));
     }
 
     /**
-     * Метод находит отчет за сегодня для заданного усыновления.<br>
-     * Используется для определения полноты сданного отчета
-     * при выводе запроса пользователю, прислать оставшуюся чась отчета
+     * Метод выгружает отчеты приюта за период в формате NDJSON: по отчету в строке, по возрастанию id.<br>
+     * Отчеты читаются из БД потоком и пишутся в out по мере чтения, поэтому память не зависит от периода.
+     * Фото не выгружается. Если задан photoUrlPrefix, у отчетов с фото выгружается ссылка на него:
+     * photoUrlPrefix + id отчета + "/photo".<br><br>
      *
-     * @param adoption усыновление, для которого ищем отчет за сегодня
-     * @return Report  найденный отчет, null - если не найден
+     * @param shelterId      идентификатор приюта.
+     * @param from           первая дата отчетов
+     * @param to             последняя дата отчетов
+     * @param photoUrlPrefix начало ссылки на фото отчета, null - без ссылок
+     * @param out            поток, в который пишутся отчеты. Не закрывается
+     * @return long число выгруженных отчетов
+     * @throws ShelterNotFoundException если id приюта не найден в базе
+     * @throws IOException              если не удалось записать в out
      */
-    public Report getReportForToday(Adoption adoption) {
-        List<? extends Report> reportList;
-        if (adoption.getUser().getShelterId() == ShelterId.DOG) {
-            DogAdoption dogAdoption = (DogAdoption) adoption;
-            reportList = dogReportRepository.findByAdoptionAndDate(dogAdoption, LocalDate.now());
-        } else {
-            CatAdoption catAdoption = (CatAdoption) adoption;
-            reportList = catReportRepository.findByAdoptionAndDate(catAdoption, LocalDate.now());
+    @Transactional(readOnly = true)
+    public long exportReports(ShelterId shelterId, LocalDate from, LocalDate to,
+                              String photoUrlPrefix, OutputStream out) throws IOException {
+        shelterService.checkShelterId(shelterId);
+        try (Stream<ReportExportView> reports = reportRepository.streamByDate(shelterId, from, to);
+             NdjsonWriter writer = new NdjsonWriter(objectMapper, out)) {
+            Iterator<ReportExportView> iterator = reports.iterator();
+            while (iterator.hasNext()) {
+                ReportExportView report = iterator.next();
+                if (photoUrlPrefix != null && report.getPhotoPresented()) {
+                    report = report.withPhotoUrl(photoUrlPrefix + report.id() + "/photo");
+                }
+                writer.write(report);
+            }
+            return writer.getCount();
         }
-        if (!reportList.isEmpty()) {
-            return reportList.get(0);
-        } else {
-            return null;
+    }
+
+    /**
+     * Метод возвращает состояние отчетов по усыновлению из report_status.<br>
+     * Используется для определения полноты сданного отчета
+     * при выводе запроса пользователю, прислать оставшуюся чась отчета.
+     * Таблицы отчетов при этом не читаются
+     *
+     * @param adoption усыновление, для которого ищем состояние отчетов
+     * @return ReportStatus найденное состояние, null - если отчетов по усыновлению еще не было
+     */
+    public ReportStatus getReportStatus(Adoption adoption) {
+        return reportStatusRepository.findByShelterIdAndAdoptionId(adoption.getShelterId(), adoption.getId())
+                .orElse(null);
+    }
+
+    //учитывает сохраненный отчет в состоянии отчетов усыновления
+    private void updateReportStatus(ShelterId shelterId, int adoptionId, Report report) {
+        ReportStatus status = reportStatusRepository.findByShelterIdAndAdoptionId(shelterId, adoptionId)
+                .orElseGet(() -> new ReportStatus(shelterId, adoptionId));
+        status.apply(report);
+        reportStatusRepository.save(status);
+    }
+
+    //после удаления отчета состояние пересчитывается по оставшимся отчетам усыновления.
+    //Удаляет отчеты только волонтер и редко, поэтому полный пересчет здесь дешевле, чем учет частных случаев
+    private void recomputeReportStatus(ShelterId shelterId, int adoptionId) {
+        List<Report> reports = reportRepository.findByAdoptionId(adoptionId);
+        Optional<ReportStatus> current = reportStatusRepository.findByShelterIdAndAdoptionId(shelterId, adoptionId);
+        if (reports.isEmpty()) {
+            current.ifPresent(reportStatusRepository::delete);
+            return;
         }
+        ReportStatus status = current.orElseGet(() -> new ReportStatus(shelterId, adoptionId));
+        status.reset();
+        reports.forEach(status::apply);
+        reportStatusRepository.save(status);
     }
 
     /**
@@ -190,21 +290,25 @@ public class ReportService {
      * он не так подробно заполняет ежедневный отчет, как необходимо.
      * Предупреждение посылает волонтер через API.
      * @param id идентификатор пользователя
+     * @return future, которое завершается после отправки
+     * или с {@link TelegramException}, если отправка не состоялась
      * @throws EntityNotFoundException если пользователь не найден.
-     * @throws TelegramException если отправка не состоялась.
      * */
-    public void warningToUser(long id){
+    public CompletableFuture<Void> warningToUser(long id){
         User user = userRepository.findById(id).orElseThrow(
                 ()-> new EntityNotFoundException("User with id " + id + " not found"));
-        try {
-            telegramBotSender.sendMessageToUser(
-                    user, "Дорогой усыновитель, мы заметили, что ты заполняешь отчет не так подробно, как необходимо. " +
-                            "Пожалуйста, подойди ответственнее к этому занятию. В противном случае волонтеры приюта будут обязаны " +
-                            "самолично проверять условия содержания животного", 0);
-        } catch (TelegramApiException e) {
-            LOGGER.error("Ошибка при отправке сообщения "+e.getMessage());
-            //TelegramException - это RunTimeException, в отличие от TelegramApiException
-            throw new TelegramException();
-        }
+        //поток запроса отправки не ждет
+        return telegramBotSender.withSendTimeout(telegramBotSender.queueMessageToUser(
+                        user, "Дорогой усыновитель, мы заметили, что ты заполняешь отчет не так подробно, как необходимо. " +
+                                "Пожалуйста, подойди ответственнее к этому занятию. В противном случае волонтеры приюта будут обязаны " +
+                                "самолично проверять условия содержания животного", 0))
+                .handle((message, e) -> {
+                    if (e != null) {
+                        LOGGER.error("Ошибка при отправке сообщения "+e.getMessage());
+                        //TelegramException - это RunTimeException, в отличие от TelegramApiException
+                        throw new TelegramException();
+                    }
+                    return null;
+                });
     }
 }
@@ -1,5 +1,8 @@
 package pro.sky.courseworktelegrambot.services;
 
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.springframework.scheduling.annotation.Scheduled;
 import org.springframework.stereotype.Service;
 import pro.sky.courseworktelegrambot.entities.Shelter;
 import pro.sky.courseworktelegrambot.entities.ShelterId;
@@ -7,33 +10,122 @@ import pro.sky.courseworktelegrambot.exceptions.InformationTypeByShelterNotFound
 import pro.sky.courseworktelegrambot.exceptions.ShelterNotFoundException;
 import pro.sky.courseworktelegrambot.repositories.ShelterRepository;
 
-import java.lang.reflect.Field;
-import java.util.List;
-import java.util.Optional;
+import java.util.*;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.BiConsumer;
+import java.util.function.Function;
 
 /**
- * В классе ShelterService содержится бизнес логика для работы с информацией о приютах.
+ * В классе ShelterService содержится бизнес логика для работы с информацией о приютах.<br>
+ * Приюты держатся в кэше, общем для бота и REST API: список, приюты по идентификатору
+ * и готовый индекс "приют -> тип информации -> текст". Бот берет информацию при каждом переходе
+ * в состояние с текстом вида @тип, и в БД за ней не ходит.<br>
+ * create/update/delete сбрасывают кэш и увеличивают его версию, а следующее чтение загружает приюты заново.
+ * Снимок подменяется одной записью volatile-ссылки, как граф состояний в {@link StateGraph}.<br>
+ * Сброс действует только в своем экземпляре приложения. Изменения, сделанные через другой экземпляр
+ * (или прямо в БД), подхватывает периодическое перечитывание приютов раз в shelters.reload-interval:
+ * как и граф состояний, снимок подменяется, только если приюты изменились.
+ * Попадания и промахи кэша - метрики cache.gets{cache=shelters}.
  */
 @Service
 public class ShelterService {
 
     /**
-     * Лист для получения всех приютов из БД.
+     * Тип информации (имя поля Shelter) -> чтение и запись поля.
+     * Составлено один раз вместо поиска полей рефлексией на каждый запрос.
      */
-    private final List<Shelter> shelters;
+    private static final Map<String, Function<Shelter, String>> GETTERS = Map.ofEntries(
+            Map.entry("name", Shelter::getName),
+            Map.entry("information", Shelter::getInformation),
+            Map.entry("timetable", Shelter::getTimetable),
+            Map.entry("address", Shelter::getAddress),
+            Map.entry("security", Shelter::getSecurity),
+            Map.entry("safetyPrecautions", Shelter::getSafetyPrecautions),
+            Map.entry("rules", Shelter::getRules),
+            Map.entry("documents", Shelter::getDocuments),
+            Map.entry("transportation", Shelter::getTransportation),
+            Map.entry("childAccomodation", Shelter::getChildAccomodation),
+            Map.entry("adultAccomodation", Shelter::getAdultAccomodation),
+            Map.entry("invalidAccomodation", Shelter::getInvalidAccomodation),
+            Map.entry("communication", Shelter::getCommunication),
+            Map.entry("cynologists", Shelter::getCynologists),
+            Map.entry("refusalReasons", Shelter::getRefusalReasons));
+    private static final Map<String, BiConsumer<Shelter, String>> SETTERS = Map.ofEntries(
+            Map.entry("name", Shelter::setName),
+            Map.entry("information", Shelter::setInformation),
+            Map.entry("timetable", Shelter::setTimetable),
+            Map.entry("address", Shelter::setAddress),
+            Map.entry("security", Shelter::setSecurity),
+            Map.entry("safetyPrecautions", Shelter::setSafetyPrecautions),
+            Map.entry("rules", Shelter::setRules),
+            Map.entry("documents", Shelter::setDocuments),
+            Map.entry("transportation", Shelter::setTransportation),
+            Map.entry("childAccomodation", Shelter::setChildAccomodation),
+            Map.entry("adultAccomodation", Shelter::setAdultAccomodation),
+            Map.entry("invalidAccomodation", Shelter::setInvalidAccomodation),
+            Map.entry("communication", Shelter::setCommunication),
+            Map.entry("cynologists", Shelter::setCynologists),
+            Map.entry("refusalReasons", Shelter::setRefusalReasons));
+
+    /**
+     * Снимок приютов из БД: список, приюты по идентификатору и их информация по типу.
+     * Не изменяется, только подменяется целиком.
+     *
+     * @param version версия кэша, с которой снимок загружен
+     */
+    private record Snapshot(long version,
+                            List<Shelter> shelters,
+                            Map<ShelterId, Shelter> byId,
+                            Map<ShelterId, Map<String, String>> information) {
+    }
 
     private final ShelterRepository shelterRepository;
 
+    //версия растет при каждом изменении приютов. Снимок, загруженный до изменения, не публикуется
+    private final AtomicLong version = new AtomicLong();
+    //null - кэш сброшен, следующее чтение загрузит приюты из БД
+    private volatile Snapshot snapshot;
+
+    private final Counter hitCounter;
+    private final Counter missCounter;
+    private final Counter evictionCounter;
 
-    public ShelterService(ShelterRepository shelterRepository) {
+    public ShelterService(ShelterRepository shelterRepository, MeterRegistry meterRegistry) {
         this.shelterRepository = shelterRepository;
+        hitCounter = Counter.builder("cache.gets")
+                .tags("cache", "shelters", "result", "hit")
+                .description("Чтения приютов из кэша")
+                .register(meterRegistry);
+        missCounter = Counter.builder("cache.gets")
+                .tags("cache", "shelters", "result", "miss")
+                .description("Чтения приютов, загрузившие их из БД")
+                .register(meterRegistry);
+        evictionCounter = Counter.builder("cache.evictions")
+                .tags("cache", "shelters")
+                .description("Сбросы кэша приютов после изменений")
+                .register(meterRegistry);
         //Если в таблице найдутся лишние, несоответствующие перечислению ключи,
         //то spring не сможет создать этот бин. Будет ошибка
         //No enum constant pro.sky.courseworktelegrambot.entities.ShelterId.aaa
         //Если в таблице будут отсутствовать некоторые элементы перечисления
-        //то список shelters будет короче, но это не страшно,
+        //то приютов будет меньше, но это не страшно,
         //т.к. у пользователя и кнопок для выбора приюта будет меньше
-        this.shelters = shelterRepository.findAll();
+        this.snapshot = load();
+    }
+
+    /**
+     * Периодически перечитывает приюты из БД.
+     * Снимок подменяется, только если информация о приютах изменилась.
+     */
+    @Scheduled(initialDelayString = "${shelters.reload-interval}",
+            fixedDelayString = "${shelters.reload-interval}")
+    public void refresh() {
+        Snapshot current = snapshot;
+        Snapshot fresh = load();
+        if (current != null && fresh.information().equals(current.information())) {
+            return;
+        }
+        publish(fresh);
     }
 
     /**
@@ -44,21 +136,24 @@ public class ShelterService {
      * @throws IllegalArgumentException Если аргумент shelter равен null.
      */
     public Shelter create(Shelter shelter) {
-        return shelterRepository.save(shelter);
+        Shelter saved = shelterRepository.save(shelter);
+        invalidate();
+        return saved;
     }
 
     /**
-     * Извлекает объект Shelter по указанному идентификатору.
+     * Извлекает объект Shelter по указанному идентификатору из кэша.
      *
      * @param id идентификатор Shelter для извлечения.
      * @return возвращает объект Shelter.
      * @throws ShelterNotFoundException Если Shelter с указанным идентификатором не найдено.
      */
     public Shelter get(ShelterId id) {
-        //Optional<Shelter> optionalShelter = Optional.ofNullable(id)
-        //        .flatMap(shelterRepository::findById);
-        //return optionalShelter.orElseThrow(() -> new ShelterNotFoundException(id));
-        return shelterRepository.findById(id).orElseThrow(() -> new ShelterNotFoundException(id.toString()));
+        Shelter shelter = (id == null) ? null : snapshot().byId().get(id);
+        if (shelter == null) {
+            throw new ShelterNotFoundException(String.valueOf(id));
+        }
+        return shelter;
     }
 
     /**
@@ -69,11 +164,19 @@ public class ShelterService {
      * @param newInformation  новая информация.
      * @return возвращает обновленный объект Shelter.
      * @throws ShelterNotFoundException если объект Shelter с указанным идентификатором не найден.
+     * @throws InformationTypeByShelterNotFoundException если такого типа информации нет.
      */
-    public Shelter update(ShelterId id, String informationType, String newInformation) throws IllegalAccessException {
-        Shelter shelter = setInformation(id, informationType, newInformation);
-        shelterRepository.save(shelter);
-        return shelter;
+    public Shelter update(ShelterId id, String informationType, String newInformation) {
+        BiConsumer<Shelter, String> setter = SETTERS.get(informationType);
+        if (setter == null) {
+            throw new InformationTypeByShelterNotFoundException(informationType);
+        }
+        //изменяем свежую копию из БД, а не приют из кэша, который в это время читают другие потоки
+        Shelter shelter = shelterRepository.findById(id).orElseThrow(() -> new ShelterNotFoundException(id.toString()));
+        setter.accept(shelter, newInformation);
+        Shelter saved = shelterRepository.save(shelter);
+        invalidate();
+        return saved;
     }
 
     /**
@@ -86,82 +189,58 @@ public class ShelterService {
         Optional<Shelter> shelterOptional = shelterRepository.findById(id);
         if (shelterOptional.isPresent()) {
             shelterRepository.deleteById(id);
+            invalidate();
         } else {
             throw new ShelterNotFoundException(id.toString());
         }
     }
 
     /**
-     * Извлекает список всех объектов Shelter из БД.
+     * Извлекает список всех объектов Shelter из кэша.
      *
-     * @return возвращает список всех объектов Shelter.
+     * @return возвращает неизменяемый список всех объектов Shelter.
      */
     public List<Shelter> findAll() {
-        return List.copyOf(shelterRepository.findAll());
+        return snapshot().shelters();
     }
 
     /**
-     * Получает необходимое значение поля из объекта Shelter, находящегося в листе shelters.
+     * Получает информацию о приюте из кэша.
      *
      * @param id              идентификатор объекта Shelter.
      * @param informationType тип информации о приюте..
      * @return возвращает нужную информацию о приюте.
-     * @throws IllegalAccessException выбрасывается если базовое поле не доступно.
+     * @throws ShelterNotFoundException если приюта нет.
+     * @throws InformationTypeByShelterNotFoundException если такого типа информации нет.
      */
-    public String getInformation(ShelterId id, String informationType)
-            throws IllegalAccessException {
-        Shelter shelter = null;
-        for (Shelter myShelter : shelters) {
-            if (myShelter.getId().equals(id)) {
-                shelter = myShelter;
-            }
-        }
-
-        if (shelter == null) {
-            throw new ShelterNotFoundException(id.toString());
-        }
-        Field field = null;
-        Field[] fields = shelter.getClass().getDeclaredFields();
-        for (Field myField : fields) {
-            if (myField.getName().equals(informationType)) {
-                field = myField;
-            }
-        }
-        if (field == null) {
+    public String getInformation(ShelterId id, String informationType) {
+        Map<String, String> shelterInformation = shelterInformation(id);
+        if (!shelterInformation.containsKey(informationType)) {
             throw new InformationTypeByShelterNotFoundException(informationType);
         }
-        field.setAccessible(true);
-        return (String) field.get(shelter);
+        return shelterInformation.get(informationType);
     }
 
     /**
-     * Изменяет значение типа информации (поля) о приюте. Изменения записываются в лист shelters.
+     * Изменяет значение типа информации о приюте только в кэше, без записи в БД.
+     * Изменение пропадет при следующем сбросе или перечитывании кэша.
      *
      * @param id              идентификатор объекта Shelter.
      * @param informationType тип информации о приюте..
      * @param newInformation  новая информация.
-     * @return возвращает обновленный объект Shelter.
-     * @throws IllegalAccessException выбрасывается если базовое поле не доступно.
+     * @throws ShelterNotFoundException если приюта нет.
+     * @throws InformationTypeByShelterNotFoundException если такого типа информации нет.
      */
-    public Shelter setInformation(ShelterId id, String informationType, String newInformation)
-            throws IllegalAccessException {
-        Shelter shelter = null;
-        for (Shelter myShelter : shelters) {
-            if (myShelter.getId().equals(id)) {
-                shelter = myShelter;
-            }
-        }
-        if (shelter == null) {
-            throw new ShelterNotFoundException(id.toString());
-        }
-        Field[] fields = shelter.getClass().getDeclaredFields();
-        for (Field field : fields) {
-            if (field.getName().equals(informationType)) {
-                field.setAccessible(true);
-                field.set(shelter, newInformation);
-            }
+    public synchronized void setInformation(ShelterId id, String informationType, String newInformation) {
+        if (!SETTERS.containsKey(informationType)) {
+            throw new InformationTypeByShelterNotFoundException(informationType);
         }
-        return shelter;
+        Snapshot current = snapshot();
+        Map<String, String> shelterInformation = new HashMap<>(shelterInformation(id));
+        shelterInformation.put(informationType, newInformation);
+        Map<ShelterId, Map<String, String>> information = new EnumMap<>(current.information());
+        information.put(id, Collections.unmodifiableMap(shelterInformation));
+        publish(new Snapshot(current.version(), current.shelters(), current.byId(), information));
     }
 
 
@@ -178,13 +257,61 @@ public class ShelterService {
 
     public void checkShelterId(ShelterId shelterId) {
         if (shelterId == null) {throw new ShelterNotFoundException("NULL");}
-        //если shelterId в коллекции не найдется, то бросаем исключение
-        if (!shelters.stream().map(Shelter::getId).toList().contains(shelterId)) {
-            throw new ShelterNotFoundException(shelterId.toString());
-        }
+        //если shelterId в кэше не найдется, то бросаем исключение
+        shelterInformation(shelterId);
     }
 
     public String getNameById(ShelterId shelterId) {
-        return shelters.stream().filter(shelter -> shelter.getId() == shelterId).toList().get(0).getName();
+        return shelterInformation(shelterId).get("name");
+    }
+
+    private Map<String, String> shelterInformation(ShelterId id) {
+        Map<String, String> shelterInformation = snapshot().information().get(id);
+        if (shelterInformation == null) {
+            throw new ShelterNotFoundException(String.valueOf(id));
+        }
+        return shelterInformation;
+    }
+
+    //снимок из кэша, а если кэш сброшен - загруженный из БД
+    private Snapshot snapshot() {
+        Snapshot current = snapshot;
+        if (current != null) {
+            hitCounter.increment();
+            return current;
+        }
+        missCounter.increment();
+        Snapshot loaded = load();
+        publish(loaded);
+        return loaded;
+    }
+
+    //версию запоминаем до чтения из БД: если приюты изменят во время загрузки, снимок уже устарел
+    private Snapshot load() {
+        long loadedVersion = version.get();
+        List<Shelter> shelters = List.copyOf(shelterRepository.findAll());
+        Map<ShelterId, Shelter> byId = new EnumMap<>(ShelterId.class);
+        Map<ShelterId, Map<String, String>> information = new EnumMap<>(ShelterId.class);
+        for (Shelter shelter : shelters) {
+            byId.put(shelter.getId(), shelter);
+            //HashMap, т.к. незаполненная информация - null
+            Map<String, String> shelterInformation = new HashMap<>();
+            GETTERS.forEach((informationType, getter) -> shelterInformation.put(informationType, getter.apply(shelter)));
+            information.put(shelter.getId(), Collections.unmodifiableMap(shelterInformation));
+        }
+        return new Snapshot(loadedVersion, shelters, byId, information);
+    }
+
+    //снимок публикуется, только если с начала его загрузки приюты не менялись
+    private synchronized void publish(Snapshot loaded) {
+        if (loaded.version() == version.get()) {
+            snapshot = loaded;
+        }
+    }
+
+    private synchronized void invalidate() {
+        version.incrementAndGet();
+        snapshot = null;
+        evictionCounter.increment();
     }
 }
@@ -0,0 +1,250 @@
+package pro.sky.courseworktelegrambot.services;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+import org.telegram.telegrambots.meta.api.objects.replykeyboard.ReplyKeyboardMarkup;
+import org.telegram.telegrambots.meta.api.objects.replykeyboard.buttons.KeyboardRow;
+import pro.sky.courseworktelegrambot.entities.*;
+import pro.sky.courseworktelegrambot.repositories.StateRepository;
+
+import javax.annotation.PostConstruct;
+import java.util.*;
+
+/**
+ * Граф состояний бота, построенный один раз из таблиц state и state_button.<br>
+ * Состояния графа - собственные неизменяемые копии: их кнопки не меняются,
+ * а сущности State из Hibernate боту больше не нужны.
+ * По каждой паре (состояние, приют) заранее построены
+ * таблица переходов "надпись кнопки -> следующее состояние" и клавиатура.
+ * <p>
+ * При изменении таблиц граф перестраивается целиком и подменяется одной записью volatile-ссылки,
+ * поэтому читатели видят либо старый, либо новый граф, но никогда не смесь.
+ */
+@Component
+public class StateGraph {
+    private static final Logger LOGGER = LoggerFactory.getLogger(StateGraph.class);
+
+    private final StateRepository stateRepository;
+    private final ShelterService shelterService;
+
+    private volatile Snapshot snapshot = Snapshot.EMPTY;
+
+    public StateGraph(StateRepository stateRepository, ShelterService shelterService) {
+        this.stateRepository = stateRepository;
+        this.shelterService = shelterService;
+    }
+
+    @PostConstruct
+    public void init() {
+        reload();
+    }
+
+    /**
+     * Периодически перечитывает таблицы состояний и кнопок.
+     * Граф подменяется, только если их содержимое изменилось.
+     */
+    @Scheduled(initialDelayString = "${state-graph.reload-interval}",
+            fixedDelayString = "${state-graph.reload-interval}")
+    public void refresh() {
+        reload();
+    }
+
+    /**
+     * Строит граф заново и атомарно подменяет им текущий.
+     *
+     * @return true, если граф изменился
+     */
+    public synchronized boolean reload() {
+        Snapshot fresh = build(snapshot.version + 1);
+        if (fresh.signature.equals(snapshot.signature)) {
+            return false;
+        }
+        snapshot = fresh;
+        LOGGER.info("State graph loaded, version " + fresh.version + ", states: " + fresh.states.size());
+        return true;
+    }
+
+    /**
+     * Версия графа. Меняется при каждой подмене графа.
+     */
+    public long getVersion() {
+        return snapshot.version;
+    }
+
+    /**
+     * @param id идентификатор состояния
+     * @return состояние графа или null, если такого состояния нет
+     */
+    public State getState(String id) {
+        return id == null ? null : snapshot.states.get(id);
+    }
+
+    public State getNamedState(NamedState namedState) {
+        return snapshot.namedStates.get(namedState);
+    }
+
+    /**
+     * Находит состояние, в которое ведет кнопка с указанной надписью.
+     *
+     * @param state     текущее состояние
+     * @param shelterId выбранный пользователем приют (может быть null)
+     * @param caption   надпись на кнопке
+     * @return следующее состояние или null, если такой кнопки в состоянии для этого приюта нет
+     */
+    public State getNextState(State state, ShelterId shelterId, String caption) {
+        Map<String, State> transitions = snapshot.transitions.get(new Key(state.getId(), shelterId));
+        return transitions == null ? null : transitions.get(caption);
+    }
+
+    /**
+     * @param name название приюта (надпись кнопки начального состояния)
+     * @return идентификатор приюта или null, если приюта с таким названием нет
+     */
+    public ShelterId getShelterIdByName(String name) {
+        return snapshot.shelterByName.get(name);
+    }
+
+    /**
+     * Возвращает заранее построенную клавиатуру состояния для указанного приюта.
+     *
+     * @return клавиатура или null для состояний текстового ввода и состояний вне графа
+     */
+    public ReplyKeyboardMarkup getKeyboard(State state, ShelterId shelterId) {
+        return snapshot.keyboards.get(new Key(state.getId(), shelterId));
+    }
+
+    /**
+     * Заменяет состояния пользователя одноименными состояниями текущего графа.
+     * Неизвестное графу (например, удаленное) состояние заменяется начальным.
+     */
+    public void bind(User user) {
+        State state = user.getState() == null ? null : getState(user.getState().getId());
+        user.setState(state == null ? getNamedState(NamedState.INITIAL_STATE) : state);
+        if (user.getPreviousState() != null) {
+            user.setPreviousState(getState(user.getPreviousState().getId()));
+        }
+    }
+
+    /**
+     * Строит клавиатуру из кнопок, видимых в указанном приюте:
+     * ряды по возрастанию номера, кнопки в ряду по возрастанию номера колонки.
+     */
+    public static List<KeyboardRow> buildKeyboardRows(List<StateButton> buttons, ShelterId shelterId) {
+        SortedMap<Integer, List<StateButton>> rows = new TreeMap<>();
+        for (StateButton button : buttons) {
+            if (button.getShelterId() == null || button.getShelterId().equals(shelterId)) {
+                rows.computeIfAbsent(button.getRow(), row -> new ArrayList<>()).add(button);
+            }
+        }
+        List<KeyboardRow> keyboard = new ArrayList<>(rows.size());
+        rows.values().forEach(rowButtons -> {
+            KeyboardRow keyboardRow = new KeyboardRow();
+            rowButtons.stream()
+                    .sorted(Comparator.comparingInt(StateButton::getCol))
+                    .forEach(button -> keyboardRow.add(button.getCaption()));
+            keyboard.add(keyboardRow);
+        });
+        return keyboard;
+    }
+
+    public static ReplyKeyboardMarkup buildKeyboard(List<KeyboardRow> keyboard) {
+        ReplyKeyboardMarkup replyKeyboardMarkup = new ReplyKeyboardMarkup();
+        replyKeyboardMarkup.setSelective(true);
+        replyKeyboardMarkup.setResizeKeyboard(true);
+        replyKeyboardMarkup.setOneTimeKeyboard(false);
+        replyKeyboardMarkup.setKeyboard(keyboard);
+        return replyKeyboardMarkup;
+    }
+
+    private Snapshot build(long version) {
+        List<State> entities = stateRepository.findAll();
+        StringBuilder signature = new StringBuilder();
+
+        //1 проход - копии состояний, 2 проход - копии кнопок со ссылками на копии состояний
+        Map<String, State> states = new HashMap<>();
+        Map<NamedState, State> namedStates = new EnumMap<>(NamedState.class);
+        for (State entity : entities) {
+            State state = new State(entity.getId(), entity.getText(), entity.isTextInput(),
+                    entity.getNamedState(), null);
+            states.put(state.getId(), state);
+            if (state.getNamedState() != null) {
+                namedStates.put(state.getNamedState(), state);
+            }
+            signature.append(state.getId()).append('|').append(state.getText()).append('|')
+                    .append(state.isTextInput()).append('|').append(state.getNamedState()).append('\n');
+        }
+        for (State entity : entities) {
+            State state = states.get(entity.getId());
+            List<StateButton> buttons = new ArrayList<>();
+            if (entity.getButtons() != null) {
+                for (StateButton button : entity.getButtons()) {
+                    State nextState = button.getNextState() == null ? null
+                            : states.get(button.getNextState().getId());
+                    buttons.add(new StateButton(state, button.getCaption(), nextState,
+                            (byte) button.getRow(), (byte) button.getCol(), button.getShelterId()));
+                    signature.append(state.getId()).append('>').append(button.getCaption()).append('>')
+                            .append(nextState == null ? null : nextState.getId()).append('|')
+                            .append(button.getRow()).append('|').append(button.getCol()).append('|')
+                            .append(button.getShelterId()).append('\n');
+                }
+            }
+            state.setButtons(buttons);
+        }
+
+        //кнопки начального состояния - названия приютов
+        Map<String, ShelterId> shelterByName = new HashMap<>();
+        State initialState = namedStates.get(NamedState.INITIAL_STATE);
+        if (initialState != null) {
+            State afterShelterChoiceState = namedStates.get(NamedState.AFTER_SHELTER_CHOICE_STATE);
+            List<StateButton> buttons = new ArrayList<>();
+            byte column = 1;
+            for (Shelter shelter : shelterService.findAll()) {
+                buttons.add(new StateButton(initialState, shelter.getName(), afterShelterChoiceState,
+                        (byte) 1, column++, null));
+                shelterByName.put(shelter.getName(), shelter.getId());
+                signature.append(shelter.getId()).append('=').append(shelter.getName()).append('\n');
+            }
+            initialState.setButtons(buttons);
+        }
+
+        //кнопки больше не меняются, таблицы переходов и клавиатуры строим один раз
+        List<ShelterId> shelterKeys = new ArrayList<>(Arrays.asList(ShelterId.values()));
+        shelterKeys.add(null); //пользователь, еще не выбравший приют
+        Map<Key, Map<String, State>> transitions = new HashMap<>();
+        Map<Key, ReplyKeyboardMarkup> keyboards = new HashMap<>();
+        for (State state : states.values()) {
+            state.setButtons(List.copyOf(state.getButtons()));
+            for (ShelterId shelterId : shelterKeys) {
+                Key key = new Key(state.getId(), shelterId);
+                Map<String, State> captions = new HashMap<>();
+                state.getButtons().stream()
+                        .filter(button -> button.getShelterId() == null || button.getShelterId().equals(shelterId))
+                        .filter(button -> button.getNextState() != null)
+                        .forEach(button -> captions.put(button.getCaption(), button.getNextState()));
+                transitions.put(key, Map.copyOf(captions));
+                if (!state.isTextInput()) {
+                    keyboards.put(key, buildKeyboard(
+                            Collections.unmodifiableList(buildKeyboardRows(state.getButtons(), shelterId))));
+                }
+            }
+        }
+        return new Snapshot(version, signature.toString(), Map.copyOf(states),
+                Collections.unmodifiableMap(namedStates), Collections.unmodifiableMap(transitions),
+                Collections.unmodifiableMap(keyboards), Map.copyOf(shelterByName));
+    }
+
+    private record Key(String stateId, ShelterId shelterId) {
+    }
+
+    private record Snapshot(long version,
+                            String signature,
+                            Map<String, State> states,
+                            Map<NamedState, State> namedStates,
+                            Map<Key, Map<String, State>> transitions,
+                            Map<Key, ReplyKeyboardMarkup> keyboards,
+                            Map<String, ShelterId> shelterByName) {
+        static final Snapshot EMPTY = new Snapshot(0, "", Map.of(), Map.of(), Map.of(), Map.of(), Map.of());
+    }
+}
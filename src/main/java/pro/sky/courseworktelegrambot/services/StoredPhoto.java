@@ -0,0 +1,15 @@
+package pro.sky.courseworktelegrambot.services;
+
+import org.springframework.core.io.Resource;
+
+/**
+ * Фото из {@link PhotoStore} вместе с данными, нужными для его выдачи по HTTP.
+ *
+ * @param hash      ключ фото (SHA-256). Меняется вместе с содержимым, поэтому годится как ETag
+ * @param mediaType MIME-тип фото, может быть null
+ * @param size      размер фото в байтах
+ * @param content   фото, которое читается потоком только при отправке
+ * @param immutable true, если по этому адресу уже никогда не будет другого фото
+ */
+public record StoredPhoto(String hash, String mediaType, long size, Resource content, boolean immutable) {
+}
@@ -1,33 +1,23 @@
 package pro.sky.courseworktelegrambot.services;
 
-import eu.medsea.mimeutil.MimeUtil;
-import eu.medsea.mimeutil.detector.MagicMimeMimeDetector;
-import org.json.JSONObject;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.data.jpa.repository.JpaRepository;
-import org.springframework.http.*;
 import org.springframework.stereotype.Service;
-import org.springframework.web.client.RestTemplate;
 import org.telegram.telegrambots.meta.api.objects.Message;
 import org.telegram.telegrambots.meta.api.objects.PhotoSize;
 import org.telegram.telegrambots.meta.api.objects.Update;
 import org.telegram.telegrambots.meta.exceptions.TelegramApiException;
 import pro.sky.courseworktelegrambot.entities.*;
+import pro.sky.courseworktelegrambot.exceptions.PhotoTooLargeException;
 import pro.sky.courseworktelegrambot.repositories.CatRepository;
 import pro.sky.courseworktelegrambot.repositories.DogRepository;
-import pro.sky.courseworktelegrambot.repositories.StateRepository;
-import pro.sky.courseworktelegrambot.repositories.UserRepository;
 
-import javax.annotation.PostConstruct;
 import java.io.IOException;
-import java.io.InputStream;
-import java.net.MalformedURLException;
-import java.net.URL;
+import java.io.UncheckedIOException;
 import java.time.LocalDate;
-import java.util.ArrayList;
 import java.util.List;
-import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.CompletionException;
 
 @Service
 //интересно, что доступ к сервису TelegramBotSender осуществляется без внедрения
@@ -35,8 +25,6 @@ import java.util.concurrent.atomic.AtomicInteger;
 public class TelegramBot extends TelegramBotSender {
     private static final Logger LOGGER = LoggerFactory.getLogger(TelegramBot.class);
 
-    private final UserRepository userRepository;
-    private final StateRepository stateRepository;
 
     //для тестов оставим возможность заинжектить сюда
     //реальные сервисы с моками после создания spyTelegramBot
@@ -46,20 +34,25 @@ public class TelegramBot extends TelegramBotSender {
     private MessageToVolunteerService messageToVolunteerService;
     private AdoptionService adoptionService;
     private ReportService reportService;
+    private UserStateStore userStateStore;
     private final DogRepository dogRepository;
     private final CatRepository catRepository;
+    private final UpdateDispatcher updateDispatcher;
+    private final ReportPhotoDownloader reportPhotoDownloader;
 
-    public TelegramBot(UserRepository userRepository,
-                       StateRepository stateRepository,
+    public TelegramBot(UserStateStore userStateStore,
+                       StateGraph stateGraph,
                        ShelterService shelterService,
                        FeedbackRequestService feedbackRequestService,
                        MessageToVolunteerService messageToVolunteerService,
                        AdoptionService adoptionService,
                        ReportService reportService,
                        DogRepository dogRepository,
-                       CatRepository catRepository) {
-        this.userRepository = userRepository;
-        this.stateRepository = stateRepository;
+                       CatRepository catRepository,
+                       UpdateDispatcher updateDispatcher,
+                       ReportPhotoDownloader reportPhotoDownloader) {
+        this.userStateStore = userStateStore;
+        setStateGraph(stateGraph); //граф состояний хранится в родителе, он строит по нему клавиатуры
         this.shelterService = shelterService;
         this.feedbackRequestService = feedbackRequestService;
         this.messageToVolunteerService = messageToVolunteerService;
@@ -67,6 +60,8 @@ public class TelegramBot extends TelegramBotSender {
         this.reportService = reportService;
         this.dogRepository = dogRepository;
         this.catRepository = catRepository;
+        this.updateDispatcher = updateDispatcher;
+        this.reportPhotoDownloader = reportPhotoDownloader;
     }
 
     //для тестов
@@ -74,37 +69,52 @@ public class TelegramBot extends TelegramBotSender {
                              AdoptionService adoptionService,
                              ReportService reportService,
                              FeedbackRequestService feedbackRequestService,
-                             MessageToVolunteerService messageToVolunteerService) {
+                             MessageToVolunteerService messageToVolunteerService,
+                             UserStateStore userStateStore,
+                             StateGraph stateGraph) {
         this.shelterService = shelterService;
         this.feedbackRequestService = feedbackRequestService;
         this.messageToVolunteerService = messageToVolunteerService;
         this.adoptionService = adoptionService;
         this.reportService = reportService;
+        this.userStateStore = userStateStore;
+        setStateGraph(stateGraph);
     }
 
     private JpaRepository<? extends Pet, Integer> petRepository(ShelterId shelterId) {
-        return (shelterId == ShelterId.DOG) ? dogRepository : catRepository;
+        return switch (shelterId) {
+            case DOG -> dogRepository;
+            case CAT -> catRepository;
+        };
     }
 
-    private State initialState;  //начальное состояние для новых пользователей извлечем заранее,
-    //остальные будут приходить вместе с пользователем при извлечении его из репозитория
-    private State badChoiceState;  //если пришло сообщение, не соответствующее кнопкам
-    private State afterShelterChoiceState;  //состояние после выбора приюта.
-
-    @PostConstruct
-    public void initStates() {
-        initialState = stateRepository.findByNamedState(NamedState.INITIAL_STATE);//.get();
-        badChoiceState = stateRepository.findByNamedState(NamedState.BAD_CHOICE);//.get();
-        afterShelterChoiceState = stateRepository.findByNamedState(NamedState.AFTER_SHELTER_CHOICE_STATE);//.get();
-        //прикрепим кнопки к начальному состоянию. Названия вынем из приютов
-        List<StateButton> buttons = new ArrayList<>();
-        AtomicInteger column= new AtomicInteger(1);
-        shelterService.findAll().forEach(shelter -> {
-            buttons.add(new StateButton(
-                    initialState, shelter.getName(), afterShelterChoiceState,
-                    (byte)1, (byte)column.getAndIncrement(), null));
-        });
-        initialState.setButtons(buttons);
+    //все состояния берем из графа состояний. Кнопки начального состояния (приюты) граф строит сам
+    private State initialState() {  //начальное состояние для новых пользователей
+        return stateGraph.getNamedState(NamedState.INITIAL_STATE);
+    }
+    private State badChoiceState() {  //если пришло сообщение, не соответствующее кнопкам
+        return stateGraph.getNamedState(NamedState.BAD_CHOICE);
+    }
+
+    @Override
+    //По умолчанию библиотека вызывает onUpdateReceived для каждого обновления по очереди в потоке опроса.
+    //Раздаем обновления диспетчеру: разные чаты обрабатываются параллельно, один чат - по порядку
+    public void onUpdatesReceived(List<Update> updates) {
+        updates.forEach(this::receiveUpdate);
+    }
+
+    /**
+     * Передает обновление на обработку в очередь его чата.<br>
+     * Единая точка входа и для long polling, и для webhook.
+     *
+     * @param update обновление от Telegram
+     * @return false, если очередь чата переполнена и обновление отброшено.
+     * Обновления без сообщения не обрабатываются, но и не считаются отброшенными
+     */
+    public boolean receiveUpdate(Update update) {
+        if (!update.hasMessage()) {return true;}
+        long chatId = update.getMessage().getChatId();
+        return updateDispatcher.dispatch(chatId, () -> onUpdateReceived(update));
     }
 
     @Override
@@ -113,67 +123,88 @@ public class TelegramBot extends TelegramBotSender {
     public void onUpdateReceived(Update update) {
         if (!update.hasMessage()) {return;}
         Message message = update.getMessage();
-        long chatId = message.getChatId();
-        User user = userRepository.findById(chatId).orElse(null);
-        State oldState = null; //старое состояние (или состояние при входе)
-        if (user == null) {
-            user = new User(chatId, message.getChat().getFirstName(), initialState);
-            //oldState останется = null. Это вызовет goToNextState, т.к. oldState<>initialState
-            try {
-                //я не обрабатываю ошибку внутри sendMessage, а намеренно выбрасываю ее в бот
-                //чтобы была возможность на нее правильно среагировать, например не сохранять состояние
-                sendMessage(user.getId(), "Привет, " + user.getName(), null, 0);
-            } catch (TelegramApiException e) {
-                LOGGER.error("Ошибка посылки приветственного сообщения: " + e.getMessage());
-                return;
-            }
-        } else {
-            //запоминаем старое состояние (или состояние при входе)
-            oldState = user.getState();
-            //Последующие действия возможно назначат новое состояние
-            if (oldState.isTextInput()) {
-                //в сообщении может не быть текста и message.getText() будет null
-                if (RETURN_BUTTON_FOR_TEXT_INPUT.equals(message.getText())) {
-                    user.setState(user.getPreviousState());
-                } else {
-                    try {
-                        //хорошо бы сделать рефлексией, т.е. поместить имена методов в табл State
-                        switch (user.getState().getNamedState()) {
-                            //проверяем, не нужны ли спец действия для определенных состояний
-                            case MESSAGE_TO_VOLUNTEER -> createMessageToVolonteer(user, message);
-                            case FEEDBACK_REQUEST -> createFeedbackRequest(user, message);
-                            case REPORT -> acceptReport(user, message);
-                            case ANIMAL_BY_NUMBER -> showAnimal(user, message);
+        botMetrics.recordLag(message.getDate());
+        //метрика обработки: именованное состояние при входе и итог. Пока обработка не дошла до конца - FAILED
+        long start = System.nanoTime();
+        NamedState enteredState = null;
+        BotMetrics.Outcome outcome = BotMetrics.Outcome.FAILED;
+        try {
+            long chatId = message.getChatId();
+            User user = userStateStore.find(chatId);
+            State oldState = null; //старое состояние (или состояние при входе)
+            BotMetrics.Outcome result;
+            if (user == null) {
+                result = BotMetrics.Outcome.NEW_USER;
+                user = new User(chatId, message.getChat().getFirstName(), initialState());
+                //oldState останется = null. Это вызовет goToNextState, т.к. oldState<>initialState
+                try {
+                    //я не обрабатываю ошибку внутри sendMessage, а намеренно выбрасываю ее в бот
+                    //чтобы была возможность на нее правильно среагировать, например не сохранять состояние
+                    sendMessage(user.getId(), "Привет, " + user.getName(), null, 0);
+                } catch (TelegramApiException e) {
+                    LOGGER.error("Ошибка посылки приветственного сообщения: " + e.getMessage());
+                    return;
+                }
+            } else {
+                //граф мог перестроиться, пока пользователь был в памяти. Берем его состояния из текущего графа
+                stateGraph.bind(user);
+                //запоминаем старое состояние (или состояние при входе)
+                oldState = user.getState();
+                enteredState = oldState.getNamedState();
+                //Последующие действия возможно назначат новое состояние
+                if (oldState.isTextInput()) {
+                    //в сообщении может не быть текста и message.getText() будет null
+                    if (RETURN_BUTTON_FOR_TEXT_INPUT.equals(message.getText())) {
+                        result = BotMetrics.Outcome.BUTTON;
+                        user.setState(user.getPreviousState());
+                    } else {
+                        result = BotMetrics.Outcome.TEXT_INPUT;
+                        try {
+                            //хорошо бы сделать рефлексией, т.е. поместить имена методов в табл State
+                            switch (user.getState().getNamedState()) {
+                                //проверяем, не нужны ли спец действия для определенных состояний
+                                case MESSAGE_TO_VOLUNTEER -> createMessageToVolonteer(user, message);
+                                case FEEDBACK_REQUEST -> createFeedbackRequest(user, message);
+                                case REPORT -> acceptReport(user, message);
+                                case ANIMAL_BY_NUMBER -> showAnimal(user, message);
+                            }
+                        } catch (TelegramApiException e) {
+                            //при невозможности послать ответ, ничего не делаем. Но прерываем выполнение метода
+                            //в логах останется запись от sendMessage. Состояние пользователя не меняем
+                            userStateStore.discard(user);
+                            return;
                         }
-                    } catch (TelegramApiException e) {
-                        //при невозможности послать ответ, ничего не делаем. Но прерываем выполнение метода
-                        //в логах останется запись от sendMessage
-                        return;
                     }
+                } else {
+                    //проверяем, не нажата ли кнопка. Если нажата, то только установим новое состояние у user
+                    checkButton(user, message);
+                    result = user.getState().getNamedState() == NamedState.BAD_CHOICE
+                            ? BotMetrics.Outcome.BAD_CHOICE : BotMetrics.Outcome.BUTTON;
                 }
-            } else {
-                //проверяем, не нажата ли кнопка. Если нажата, то только установим новое состояние у user
-                checkButton(user, message);
             }
-        }
-        //У usera возможно установлено новое состояние.
-        //Если оно изменилось относительно входного, отработаем изменение
-        //Здесь посылаем сообщение с кнопками из StateButton
-        //Если в новом состоянии кнопок нет, то новое состояние вернем в состояние oldState
-        try {
-            if (!user.getState().equals(oldState)) {goToNextState(user, oldState);}
-        } catch (TelegramApiException e) {
-            //при невозможности послать ответ, ничего не делаем. Но прерываем выполнение метода
-            //в логах останется запись от sendMessage
-            return;
-        }
+            //У usera возможно установлено новое состояние.
+            //Если оно изменилось относительно входного, отработаем изменение
+            //Здесь посылаем сообщение с кнопками из StateButton
+            //Если в новом состоянии кнопок нет, то новое состояние вернем в состояние oldState
+            try {
+                if (!user.getState().equals(oldState)) {goToNextState(user, oldState);}
+            } catch (TelegramApiException e) {
+                //при невозможности послать ответ, ничего не делаем. Но прерываем выполнение метода
+                //в логах останется запись от sendMessage. Состояние пользователя не меняем
+                userStateStore.discard(user);
+                return;
+            }
 
-        //сохраняем новые состояния пользователя (старое и новое)
-        //PreviousState меняем, если к выходу State отличется от входного
-        //Т.е. в ожидательных состояниях PreviousState не трогается, пока мы не нажмем "Возврат к боту"
-        if (!user.getState().equals(oldState)) user.setPreviousState(oldState);
-        user.setStateTime();
-        userRepository.save(user);
+            //сохраняем новые состояния пользователя (старое и новое)
+            //PreviousState меняем, если к выходу State отличется от входного
+            //Т.е. в ожидательных состояниях PreviousState не трогается, пока мы не нажмем "Возврат к боту"
+            if (!user.getState().equals(oldState)) user.setPreviousState(oldState);
+            user.setStateTime();
+            userStateStore.save(user);
+            outcome = result;
+        } finally {
+            botMetrics.recordUpdate(enteredState, outcome, System.nanoTime() - start);
+        }
     }
 
     private void goToNextState(User user, State oldState) throws TelegramApiException {
@@ -188,18 +219,13 @@ public class TelegramBot extends TelegramBotSender {
         if (text.startsWith("@")) {
             ShelterId shelterId = user.getShelterId();
             String informationType = text.substring(1);
-            try {
-                text = shelterService.getInformation(shelterId, informationType);
-            } catch (IllegalAccessException e) {
-                LOGGER.error("Ошибка получения информации. " + e);
-                //Антон, может быть здесь InformationTypeByShelterNotFound?
-                throw new RuntimeException(e);
-            }
+            //из индекса в памяти. Неизвестный тип информации - InformationTypeByShelterNotFoundException
+            text = shelterService.getInformation(shelterId, informationType);
         }
 
         //выясняем, есть ли кнопки в текущем состоянии
         List<StateButton> buttons = state.getButtons();
-        if (buttons.isEmpty()  && !state.isTextInput() && !state.equals(initialState)) {
+        if (buttons.isEmpty()  && !state.isTextInput() && state.getNamedState() != NamedState.INITIAL_STATE) {
             //если кнопок нет и не состояние текстового ввода и не список приютов
             //то возвращаем состояние назад (к тому, что было при входе в обработку сообщения)
             //этот режим используем для вывода разной информации о приюте, оставаясь в прежнем состоянии
@@ -207,21 +233,17 @@ public class TelegramBot extends TelegramBotSender {
             //дальше выводим текст нового и кнопки старого состояния
         }
 
-        //Интересно, что у initialState будут свои кнопки, назначенные в @PostConstract из приютов
-        //А у user.getState().getButtons() - для того же состояния кнопок не будет, т.к. в базе их нет
-        //поэтому подменим кнопки у usera в начальном состоянии (выбора приюта)
-        if (state.equals(initialState)) state.setButtons(initialState.getButtons()); //возьмем из initialState
-
         //бросает TelegramApiException
         sendMessageToUser(user, text, 0);
         if (state.getNamedState()==NamedState.ANIMAL_LIST) {showAnimalList(user);}
     }
 
-    private void checkButton(User user, Message message) {
+    //не private - для бенчмарков
+    void checkButton(User user, Message message) {
         //для состояний, не являющихся текстовым вводом, т.е. состояний выбора из клавиатуры
         //задача: проверить что пришло (какая кнопка нажата) и установить новое состояние
         if (!message.hasText()) {
-            user.setState(badChoiceState);
+            user.setState(badChoiceState());
             return;
         }
         String textFromUser = message.getText();
@@ -230,31 +252,24 @@ public class TelegramBot extends TelegramBotSender {
         //а не ссылки на состояния. В тестах ссылок нет. user.getState()==initialState не работает
         if (user.getState().getNamedState() == NamedState.INITIAL_STATE) {  //если состоялся выбор приюта
             //Надо найти ключ из таблицы приютов по названию
-            List<Shelter> shelterList = shelterService.findAll().stream()
-                    .filter(shelter -> shelter.getName().equals(textFromUser))
-                    .toList();
-            if (shelterList.isEmpty()) {  //пришло не Кошки и не Собаки
-                user.setState(badChoiceState);
+            ShelterId shelterId = stateGraph.getShelterIdByName(textFromUser);
+            if (shelterId == null) {  //пришло не Кошки и не Собаки
+                user.setState(badChoiceState());
                 return;
             }
-            user.setShelterId(shelterList.get(0).getId()); //запишем выбранный приют в пользователя
-            user.setState(afterShelterChoiceState);
+            user.setShelterId(shelterId); //запишем выбранный приют в пользователя
+            user.setState(stateGraph.getNamedState(NamedState.AFTER_SHELTER_CHOICE_STATE));
             return;
         }
-        List<StateButton> buttons = user.getState().getButtons();
-        for (StateButton button : buttons) {
-            if (button.getCaption().equals(textFromUser)){
-                user.setState(button.getNextState());
-                return;
-            }
-        }
-        user.setState(badChoiceState);
+        //кнопки, видимые в приюте пользователя, ищем по надписи в готовой таблице переходов
+        State nextState = stateGraph.getNextState(user.getState(), user.getShelterId(), textFromUser);
+        user.setState(nextState == null ? badChoiceState() : nextState);
     }
 
 
     private void createMessageToVolonteer(User user, Message message) {
         if (!message.hasText()) {
-            user.setState(badChoiceState);
+            user.setState(badChoiceState());
             return;
         }
         //сохраняем в табл MessageToVolonteer пришедший текст
@@ -268,7 +283,7 @@ public class TelegramBot extends TelegramBotSender {
 
     private void createFeedbackRequest(User user, Message message) {
         if (!message.hasText()) {
-            user.setState(badChoiceState);
+            user.setState(badChoiceState());
             return;
         }
 
@@ -288,44 +303,72 @@ public class TelegramBot extends TelegramBotSender {
     }
 
     private void acceptReport(User user, Message message) {
-        byte[] photo = null; //пока так
         String  text = null;
-        String mediaType = null;
-        int mediaSize = 0;
-        if (message.hasPhoto()) {
-            List<PhotoSize> photoSizes = message.getPhoto();
-            PhotoSize largestPhoto = photoSizes.get(photoSizes.size() - 1); // получаем последний и самый большой вариант фото
-            String fileId = largestPhoto.getFileId();
-            //String path = largestPhoto.getFilePath(); не работает, приходит null
-            ResponseEntity<String> response = getFilePath(fileId);
-            LOGGER.debug(response.toString());
-            if (response.getStatusCode() == HttpStatus.OK){
-                JSONObject jsonObject = new JSONObject(response.getBody());
-                String filePath = String.valueOf(jsonObject
-                        .getJSONObject("result")
-                        .getString("file_path"));
-                LOGGER.debug(jsonObject.toString());
-                photo = downloadPhoto(filePath);
-            }
-            // Определяем MIME-тип
-            mediaType = detectMimeType(photo);
-            LOGGER.debug("mediaType = " + mediaType);
-            // Размер файла
-            mediaSize = largestPhoto.getFileSize();
-            LOGGER.debug("mediaSize = " + mediaSize);
-        }
         if (message.hasText()) {
-            //text = message.getDocument().toString().getBytes(); //пока так
             text = message.getText();
         }
-
-        Report report = null;
         //найдем активное усыновление пользователя
         Adoption adoption = adoptionService.getActiveAdoption(user, LocalDate.now());
+        if (adoption != null && message.hasPhoto()) {
+            List<PhotoSize> photoSizes = message.getPhoto();
+            PhotoSize largestPhoto = photoSizes.get(photoSizes.size() - 1); // получаем последний и самый большой вариант фото
+            //фото скачивается в своем пуле, поток обработки обновлений освобождается для других чатов.
+            //Отчет сохраняем уже в очереди этого чата, чтобы не пересечься с его следующими сообщениями
+            long chatId = user.getId();
+            String reportText = text;
+            long downloadStart = System.nanoTime();
+            reportPhotoDownloader.download(largestPhoto.getFileId()).whenComplete((photo, e) -> {
+                botMetrics.recordPhotoDownload(System.nanoTime() - downloadStart, photo == null ? 0 : photo.size(), e);
+                if (!updateDispatcher.dispatch(chatId, () -> acceptReportPhoto(chatId, adoption, photo, e, reportText))
+                        && photo != null) {
+                    photo.delete();
+                }
+            });
+            //состояние не меняем, ответ пользователь получит после сохранения фото
+            return;
+        }
+
+        Report report = null;
         if (adoption != null) { //если усыновление найдено
-            report = reportService.saveReport(adoption, LocalDate.now(), photo,mediaType,mediaSize, text);
+            report = reportService.saveReport(adoption, LocalDate.now(), null, null, 0, text);
         }
-        //если после сохранения report=null, значит у юзера не было испытательного срока
+        replyToReport(user, report);
+        //состояние не меняем. Пользователь может слать следующие элементы отчета волонтеру.
+        //поэтому потом goToNextState не выполняется и user.setPreviousState тоже не выполняется
+    }
+
+    //вторая половина acceptReport: фото скачано (или не скачано - error), сохраняем отчет
+    private void acceptReportPhoto(long chatId, Adoption adoption, ReportPhoto photo, Throwable error, String text) {
+        User user = userStateStore.find(chatId);
+        try {
+            if (user == null) {
+                return;
+            }
+            if (error != null) {
+                Throwable cause = error instanceof CompletionException && error.getCause() != null
+                        ? error.getCause() : error;
+                LOGGER.error("Ошибка получения фото отчета: " + cause.getMessage());
+                String errorText = cause instanceof PhotoTooLargeException
+                        ? "Фото слишком большое. Пришлите, пожалуйста, фото поменьше"
+                        : "Не удалось получить фото. Пришлите, пожалуйста, еще раз";
+                sendMessageToUser(user, errorText, 0);
+                return;
+            }
+            Report report = reportService.saveReport(adoption, LocalDate.now(), photo, text);
+            replyToReport(user, report);
+        } catch (IOException e) {
+            throw new UncheckedIOException("Ошибка сохранения скачанного фото", e);
+        } catch (TelegramApiException e) {
+            //главное - отчет принят или пользователь сможет прислать фото еще раз
+        } finally {
+            if (photo != null) {
+                photo.delete();
+            }
+        }
+    }
+
+    private void replyToReport(User user, Report report) {
+        //если report=null, значит у юзера не было испытательного срока
         //в этом случае reportRequestText побочным действием вернет его предыдущее состояние
         String requestText = reportRequestText(user, user.getPreviousState(), report);
 
@@ -337,52 +380,6 @@ public class TelegramBot extends TelegramBotSender {
             //Главное - отчет принят. Ничего не делаем
             //даже не сообщаем в вызывающий метод
         }
-        //состояние не меняем. Пользователь может слать следующие элементы отчета волонтеру.
-        //поэтому потом goToNextState не выполняется и user.setPreviousState тоже не выполняется
-    }
-    //вспомогательный метод получения пути файла по fileId
-    public ResponseEntity<String> getFilePath(String fileId) {  //public - для тестов, чтобы замокать
-        RestTemplate restTemplate = new RestTemplate();
-        HttpHeaders httpHeaders = new HttpHeaders();
-        HttpEntity<String> request = new HttpEntity<>(httpHeaders);
-        return restTemplate.exchange(
-                getFileInfoUri(),
-                HttpMethod.GET,
-                request,
-                String.class,
-                getBotToken(),
-                fileId);
-    }
-    //вспомогательный метод скачивания файла по пути
-    private byte[] downloadPhoto(String filePath) {
-        String fullUri = getFileStorageUri().replace("{token}", getBotToken())
-                .replace("{filePath}", filePath);
-        URL urlObj = null;
-        try {
-            urlObj = new URL(fullUri);
-            LOGGER.debug("urlObj = " + urlObj);
-        } catch (MalformedURLException e) {
-            throw new RuntimeException("Ошибка создания URI", e);
-        }
-        return downloadJFileByURL(urlObj);
-    }
-    //вспомогательный метод скачивания файла по URL
-    public byte[] downloadJFileByURL(URL url) { //public - для тестов, чтобы замокать
-        try (InputStream is = url.openStream()) {
-            return is.readAllBytes();
-        } catch (IOException e) {
-            throw new RuntimeException("Ошибка чтения с URI: " + url.toExternalForm(), e);
-        }
-    }
-
-    private String detectMimeType(byte[] data) {
-        // Регистрируем MimeDetector
-        MimeUtil.registerMimeDetector(MagicMimeMimeDetector.class.getName());
-
-        // Получаем MIME-тип из массива байт
-        String mimeType = MimeUtil.getMostSpecificMimeType(MimeUtil.getMimeTypes(data)).toString();
-
-        return mimeType;
     }
 
     private void showAnimalList(User user) throws TelegramApiException  {
@@ -429,6 +426,8 @@ public class TelegramBot extends TelegramBotSender {
         //или чего-то прислал в состоянии сдачи отчета (report<>null)
         //что будем ему писать?
 
+        boolean photoPresented;
+        boolean textPresented;
         if (report == null) {  //состояние сдачи отчета - неизвестно. Извлечем его из базы
             Adoption adoption = adoptionService.getActiveAdoption(user, LocalDate.now());
             if (adoption == null) {
@@ -436,16 +435,23 @@ public class TelegramBot extends TelegramBotSender {
                 return "В приюте " + shelterService.getNameById(user.getShelterId())
                         + " у Вас нет активного испытательного срока";
             }
-            report = reportService.getReportForToday(adoption);
+            //читаем короткую строку report_status, а не отчет за сегодня
+            ReportStatus status = reportService.getReportStatus(adoption);
+            //если состояние не найдено, значит отчетов еще не было
+            LocalDate today = LocalDate.now();
+            photoPresented = status != null && status.hasPhoto(today);
+            textPresented = status != null && status.hasText(today);
+        } else {
+            photoPresented = report.getPhotoPresented();
+            textPresented = report.getTextPresented();
         }
-        //если отчет в базе не найден, значит он еще не сдан. report будет == null
 
-        //потом узнаем состояние сдачи отчета и сформируем сообщение
-        if (report==null || !report.getPhotoPresented() && !report.getTextPresented()) {
+        //по состоянию сдачи отчета сформируем сообщение
+        if (!photoPresented && !textPresented) {
             return "Пришлите, пожалуйста, фото (.jpeg) и текстовый отчет";
-        } else if (!report.getPhotoPresented() && report.getTextPresented()){
+        } else if (!photoPresented) {
             return "Осталось прислать фото";
-        } else if (report.getPhotoPresented() && !report.getTextPresented()) {
+        } else if (!textPresented) {
             return "Осталось прислать текст";
         } else {
             return "Отчет уже получен. Можете послать еще раз";
@@ -1,24 +1,27 @@
 package pro.sky.courseworktelegrambot.services;
 
+import io.micrometer.core.instrument.composite.CompositeMeterRegistry;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Service;
 import org.telegram.telegrambots.bots.TelegramLongPollingBot;
 import org.telegram.telegrambots.meta.api.methods.send.SendMessage;
+import org.telegram.telegrambots.meta.api.objects.Message;
 import org.telegram.telegrambots.meta.api.objects.Update;
 import org.telegram.telegrambots.meta.api.objects.replykeyboard.ReplyKeyboardMarkup;
 import org.telegram.telegrambots.meta.api.objects.replykeyboard.buttons.KeyboardButton;
 import org.telegram.telegrambots.meta.api.objects.replykeyboard.buttons.KeyboardRow;
 import org.telegram.telegrambots.meta.exceptions.TelegramApiException;
+import pro.sky.courseworktelegrambot.entities.ShelterId;
 import pro.sky.courseworktelegrambot.entities.State;
-import pro.sky.courseworktelegrambot.entities.StateButton;
 import pro.sky.courseworktelegrambot.entities.User;
 
-import java.util.ArrayList;
 import java.util.Collections;
-import java.util.Comparator;
 import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
 
 import static org.apache.commons.lang3.StringUtils.replace;
 
@@ -36,39 +39,61 @@ public class TelegramBotSender extends TelegramLongPollingBot {
     @Value("${telegram.bot.token}")
     private String token;
 
-    @Value("${file_info.uri}")
-    private String fileInfoUri;
-
-    @Value("${file_storage.uri}")
-    private String fileStorageUri;
-
     @Override
     public String getBotToken() {
         return token;//botConfig.getBotToken();
     }
 
-    public String getFileInfoUri() {
-        return fileInfoUri;
-    }
-
-    public String getFileStorageUri() {
-        return fileStorageUri;
+    //адрес Bot API вместе с префиксом bot, к нему добавляются токен и метод.
+    //Для нагрузочного теста - адрес заглушки Bot API. Long polling берет адрес из тех же настроек
+    @Value("${telegram.bot.api-url}")
+    public void setApiUrl(String apiUrl) {
+        getOptions().setBaseUrl(apiUrl);
     }
 
     @Override
     public void onUpdateReceived(Update update) {
     }
 
+    protected StateGraph stateGraph;
+
+    //TelegramBot получает граф через свой конструктор, а Spring передает его еще и сюда - это один и тот же бин
+    @Autowired
+    public void setStateGraph(StateGraph stateGraph) {
+        this.stateGraph = stateGraph;
+    }
+
+    //без Spring (в тестах) метрики пишутся в пустой реестр, т.е. никуда
+    protected BotMetrics botMetrics = new BotMetrics(new CompositeMeterRegistry());
+
+    @Autowired
+    public void setBotMetrics(BotMetrics botMetrics) {
+        this.botMetrics = botMetrics;
+    }
+
+    private OutboundMessageQueue outboundMessageQueue;
+
+    @Autowired
+    public void setOutboundMessageQueue(OutboundMessageQueue outboundMessageQueue) {
+        this.outboundMessageQueue = outboundMessageQueue;
+    }
+
+    //сколько ждать отправки сообщения из очереди, если вызывающий решил дождаться
+    @Value("${telegram.bot.outbound.await-timeout:30000}")
+    private long awaitTimeout = 30000;
+
     //бот будет проверять этот текст в состояниях тестового ввода. Поэтому public
     public final String RETURN_BUTTON_FOR_TEXT_INPUT = "Назад к кнопкам";
-    //Для состояний ожидания ввода текста создадим заранее клавиатуру. Получилось одной строкой
-    private final List<KeyboardRow> KEYBOARD_FOR_TEXT_INPUT =
+    //Для состояний ожидания ввода текста создадим заранее клавиатуру. Одна на все сообщения
+    private final ReplyKeyboardMarkup KEYBOARD_FOR_TEXT_INPUT = StateGraph.buildKeyboard(
             Collections.singletonList(new KeyboardRow(
                     Collections.singletonList(new KeyboardButton(
-                            RETURN_BUTTON_FOR_TEXT_INPUT))));
+                            RETURN_BUTTON_FOR_TEXT_INPUT)))));
 
     /**
-     * Отправляет сообщение указанному чату с заданным текстовым сообщением.
+     * Отправляет сообщение указанному чату с заданным текстовым сообщением.<br>
+     * Сообщение уходит сразу, но с общим для всех отправок ограничением скорости
+     * и паузой после ответа 429 (см. {@link OutboundMessageQueue#execute}).
      *
      * @param chatId     Идентификатор чата, куда нужно отправить сообщение.
      * @param textToSend Текст сообщения, который следует отправить.
@@ -79,6 +104,26 @@ public class TelegramBotSender extends TelegramLongPollingBot {
     public void sendMessage (long chatId, String textToSend,
                              ReplyKeyboardMarkup replyKeyboardMarkup, int replyToMessageId)
             throws TelegramApiException {
+        SendMessage sendMessage = createSendMessage(chatId, textToSend, replyKeyboardMarkup, replyToMessageId);
+        long start = System.nanoTime();
+        try {
+            if (outboundMessageQueue == null) { //без очереди (в тестах) отправляем сразу
+                execute(sendMessage);
+            } else {
+                outboundMessageQueue.execute(this, sendMessage);
+            }
+            botMetrics.recordSend(System.nanoTime() - start);
+        } catch (TelegramApiException e) {
+            botMetrics.recordSend(System.nanoTime() - start);
+            botMetrics.recordSendError(e);
+            LOGGER.error("Error occurred by sending message '"
+                    +textToSend+"' to chat "+chatId+" : " + e.getMessage());
+            throw e; //пробрасываем в вызывающие методы, чтобы они прервали свою работу
+        }
+    }
+
+    private SendMessage createSendMessage(long chatId, String textToSend,
+                                          ReplyKeyboardMarkup replyKeyboardMarkup, int replyToMessageId) {
         SendMessage sendMessage = new SendMessage();
         sendMessage.setChatId(String.valueOf(chatId));
         //при посылке подчеркивания возникает ошибка
@@ -90,14 +135,7 @@ public class TelegramBotSender extends TelegramLongPollingBot {
             sendMessage.setReplyMarkup(replyKeyboardMarkup);
         }
         if (replyToMessageId != 0) sendMessage.setReplyToMessageId(replyToMessageId);
-
-        try {
-            execute(sendMessage);
-        } catch (TelegramApiException e) {
-            LOGGER.error("Error occurred by sending message '"
-                    +textToSend+"' to chat "+chatId+" : " + e.getMessage());
-            throw e; //пробрасываем в вызывающие методы, чтобы они прервали свою работу
-        }
+        return sendMessage;
     }
 
     /**
@@ -127,44 +165,74 @@ public class TelegramBotSender extends TelegramLongPollingBot {
         //Сообщений без кнопок мы посылать не планируем. Какие-нибудь кнопки всегда должны быть.
         //Поэтому надо позаботиться, чтобы в таблицах не оказалось состояний не текстового ввода и без кнопок.
 
-        List<KeyboardRow> keyboard;
-        if (state.isTextInput()) {
-            keyboard = KEYBOARD_FOR_TEXT_INPUT; //прикрепим только кнопку Назад к кнопкам
-        } else {
-            //если не текстовый ввод и не список приютов,
-            //то должны быть кнопки в таблице state_button. Делаем спец клавиатуру
-            //для использования переменных в лямбде они должны быть final
-            final List<KeyboardRow> customKeyboard = new ArrayList<>();
-            final List<StateButton> buttons = state.getButtons();
-            if (buttons.isEmpty()) {
-                LOGGER.error("State " + state.getId() + " has no button");
+        //бросает TelegramApiException
+        sendMessage(user.getId(), text, getKeyboard(state, user.getShelterId()), replyToMessageId);
+    }
+
+    /**
+     * Ставит сообщение пользователю (с кнопками его состояния, как в {@link #sendMessageToUser})
+     * в очередь исходящих сообщений, которая соблюдает ограничения Telegram на скорость отправки.<br>
+     * Вызывающий может просто забыть про результат (ошибки будут в логе и в таблице outbound_dead_letter)
+     * или дождаться отправки через {@link #withSendTimeout(CompletableFuture)}.
+     *
+     * @param user  пользователь, которому надо отправить соообщение.
+     * @param text  текст сообщения. Если null, то текст состояния пользователя
+     * @param replyToMessageId  идентификатор сообщения, на которое надо отправить ответ
+     * @return future с отправленным сообщением
+     */
+    public CompletableFuture<Message> queueMessageToUser(User user, String text, int replyToMessageId) {
+        State state = user.getState();
+        if (text==null) {text = state.getText();}
+        SendMessage sendMessage = createSendMessage(user.getId(), text,
+                getKeyboard(state, user.getShelterId()), replyToMessageId);
+        if (outboundMessageQueue == null) { //без очереди (в тестах) отправляем сразу
+            try {
+                return CompletableFuture.completedFuture(execute(sendMessage));
+            } catch (TelegramApiException e) {
+                return CompletableFuture.failedFuture(e);
             }
-            buttons.stream()
-                    .filter(button -> button.getShelterId() == null
-                            || button.getShelterId().equals(user.getShelterId()))
-                    .mapToInt(StateButton::getRow)
-                    .distinct()
-                    .forEachOrdered(row -> {
-                        KeyboardRow keyboardRow = new KeyboardRow();
-                        buttons.stream()
-                                .filter(button -> button.getRow() == row
-                                        && (button.getShelterId() == null
-                                        || button.getShelterId().equals(user.getShelterId())))
-                                .sorted(Comparator.comparingInt(StateButton::getCol))
-                                .forEach(button -> keyboardRow.add(button.getCaption()));
-                        customKeyboard.add(keyboardRow);
-                    });
-            keyboard = customKeyboard;
         }
+        return outboundMessageQueue.submit(this, sendMessage);
+    }
+
+    /**
+     * Ограничивает ожидание отправки сообщения, поставленного в очередь: если сообщение не ушло
+     * за отведенное время, оно снимается с очереди, и future завершается с {@link TelegramApiException}.
+     * Поэтому ошибка future означает, что сообщение не доставлено и не будет доставлено позже,
+     * а успех - что доставлено: вызывающий может сохранять изменения, о которых оно сообщает.
+     * Сообщение, которое в момент таймаута уже отправляется, не снимается - future дождется результата запроса.
+     *
+     * @param future результат {@link #queueMessageToUser(User, String, int)}
+     * @return future с отправленным сообщением
+     */
+    public CompletableFuture<Message> withSendTimeout(CompletableFuture<Message> future) {
+        //без очереди (в тестах) сообщение уже отправляется, снимать нечего
+        if (outboundMessageQueue != null && !future.isDone()) {
+            CompletableFuture.delayedExecutor(awaitTimeout, TimeUnit.MILLISECONDS)
+                    .execute(() -> outboundMessageQueue.cancel(future));
+        }
+        return future.copy();
+    }
 
-        //Создаем клавиатуру
-        ReplyKeyboardMarkup replyKeyboardMarkup = new ReplyKeyboardMarkup();
-        replyKeyboardMarkup.setSelective(true);
-        replyKeyboardMarkup.setResizeKeyboard(true);
-        replyKeyboardMarkup.setOneTimeKeyboard(false);
-        //устанавливаем список keyboard нашей клавиатуре
-        replyKeyboardMarkup.setKeyboard(keyboard);
-        //бросает TelegramApiException
-        sendMessage(user.getId(), text, replyKeyboardMarkup, replyToMessageId);
+    //клавиатура: для текстового ввода - только кнопка Назад к кнопкам,
+    //иначе должны быть кнопки в таблице state_button (или приюты)
+    private ReplyKeyboardMarkup getKeyboard(State state, ShelterId shelterId) {
+        return state.isTextInput() ? KEYBOARD_FOR_TEXT_INPUT : getButtonsKeyboard(state, shelterId);
+    }
+
+    /**
+     * Возвращает клавиатуру состояния для приюта. Клавиатуры состояний графа построены заранее
+     * ({@link StateGraph#getKeyboard}), а для состояния вне графа клавиатура строится по его кнопкам.
+     */
+    private ReplyKeyboardMarkup getButtonsKeyboard(State state, ShelterId shelterId) {
+        ReplyKeyboardMarkup keyboard = stateGraph == null ? null : stateGraph.getKeyboard(state, shelterId);
+        if (keyboard != null) {
+            return keyboard;
+        }
+        if (state.getButtons() == null || state.getButtons().isEmpty()) {
+            LOGGER.error("State " + state.getId() + " has no button");
+        }
+        return StateGraph.buildKeyboard(Collections.unmodifiableList(StateGraph.buildKeyboardRows(
+                state.getButtons() == null ? List.of() : state.getButtons(), shelterId)));
     }
 }
@@ -0,0 +1,193 @@
+package pro.sky.courseworktelegrambot.services;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PreDestroy;
+import java.util.ArrayDeque;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Диспетчер входящих обновлений бота.<br>
+ * Обновления разных чатов обрабатываются параллельно на пуле потоков ограниченного размера,
+ * обновления одного чата - строго по очереди, в порядке поступления.
+ * Длина очереди одного чата ограничена. Если чат присылает сообщения быстрее, чем бот успевает
+ * их обработать, лишние обновления отбрасываются и учитываются в метриках.
+ */
+@Component
+public class UpdateDispatcher {
+    private static final Logger LOGGER = LoggerFactory.getLogger(UpdateDispatcher.class);
+
+    //сколько обновлений одного чата поток обрабатывает подряд,
+    //прежде чем уступить место другим чатам
+    private static final int BATCH_SIZE = 16;
+
+    private final ThreadPoolExecutor executor;
+    private final int chatQueueLimit;
+    //очереди существуют только у чатов, у которых есть необработанные обновления
+    private final Map<Long, ChatQueue> chatQueues = new ConcurrentHashMap<>();
+    private final AtomicInteger pending = new AtomicInteger();
+
+    private final Counter acceptedCounter;
+    private final Counter rejectedCounter;
+    private final Counter failedCounter;
+
+    public UpdateDispatcher(@Value("${telegram.bot.dispatcher.threads}") int threads,
+                            @Value("${telegram.bot.dispatcher.chat-queue-limit}") int chatQueueLimit,
+                            MeterRegistry meterRegistry) {
+        this.chatQueueLimit = chatQueueLimit;
+        //на Java 17 виртуальных потоков нет, поэтому пул фиксированного размера.
+        //Очередь пула не переполнится: в ней не больше одной задачи на чат
+        AtomicInteger threadNumber = new AtomicInteger(1);
+        this.executor = new ThreadPoolExecutor(threads, threads, 0L, TimeUnit.MILLISECONDS,
+                new LinkedBlockingQueue<>(),
+                runnable -> {
+                    Thread thread = new Thread(runnable, "update-dispatcher-" + threadNumber.getAndIncrement());
+                    thread.setDaemon(true);
+                    return thread;
+                });
+
+        acceptedCounter = Counter.builder("telegram.updates.accepted")
+                .description("Обновления, принятые в очередь чата")
+                .register(meterRegistry);
+        rejectedCounter = Counter.builder("telegram.updates.rejected")
+                .description("Обновления, отброшенные из-за переполнения очереди чата")
+                .register(meterRegistry);
+        failedCounter = Counter.builder("telegram.updates.failed")
+                .description("Обновления, обработка которых завершилась исключением")
+                .register(meterRegistry);
+        Gauge.builder("telegram.updates.pending", pending, AtomicInteger::get)
+                .description("Обновления в очередях, ожидающие обработки")
+                .register(meterRegistry);
+        Gauge.builder("telegram.updates.active_chats", chatQueues, Map::size)
+                .description("Чаты, у которых есть необработанные обновления")
+                .register(meterRegistry);
+        Gauge.builder("telegram.updates.busy_threads", executor, ThreadPoolExecutor::getActiveCount)
+                .description("Занятые потоки диспетчера")
+                .register(meterRegistry);
+    }
+
+    /**
+     * Ставит задачу в очередь заданного чата.
+     * Задачи одного чата выполняются по одной в порядке постановки.
+     *
+     * @param chatId идентификатор чата
+     * @param task   обработка обновления
+     * @return false, если очередь чата переполнена и задача отброшена
+     */
+    public boolean dispatch(long chatId, Runnable task) {
+        boolean[] accepted = new boolean[1];
+        //все изменения очереди чата выполняются внутри compute, т.е. под блокировкой ключа.
+        //Так не бывает гонки между добавлением задачи и удалением опустевшей очереди
+        chatQueues.compute(chatId, (id, queue) -> {
+            if (queue == null) {
+                queue = new ChatQueue(id);
+            }
+            if (queue.tasks.size() >= chatQueueLimit) {
+                return queue;
+            }
+            queue.tasks.add(task);
+            pending.incrementAndGet();
+            accepted[0] = true;
+            if (!queue.running) {
+                queue.running = true;
+                submit(queue);
+            }
+            return queue;
+        });
+        if (accepted[0]) {
+            acceptedCounter.increment();
+        } else {
+            rejectedCounter.increment();
+            LOGGER.warn("Очередь чата " + chatId + " переполнена (" + chatQueueLimit + "), обновление отброшено");
+        }
+        return accepted[0];
+    }
+
+    /**
+     * @return число обновлений, ожидающих обработки во всех чатах
+     */
+    public int getPending() {
+        return pending.get();
+    }
+
+    private void submit(ChatQueue queue) {
+        try {
+            executor.execute(queue);
+        } catch (RejectedExecutionException e) {
+            //бывает только при остановке приложения
+            LOGGER.warn("Диспетчер остановлен, обновления чата " + queue.chatId + " не будут обработаны");
+        }
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        executor.shutdown();
+        try {
+            if (!executor.awaitTermination(10, TimeUnit.SECONDS)) {
+                LOGGER.warn("Не все обновления обработаны при остановке. Осталось " + pending.get());
+                executor.shutdownNow();
+            }
+        } catch (InterruptedException e) {
+            executor.shutdownNow();
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    //очередь одного чата. Выполняется в пуле как одна задача, пока в ней есть обновления
+    private final class ChatQueue implements Runnable {
+        private final long chatId;
+        private final Queue<Runnable> tasks = new ArrayDeque<>();
+        private boolean running;
+
+        private ChatQueue(long chatId) {
+            this.chatId = chatId;
+        }
+
+        @Override
+        public void run() {
+            for (int i = 0; i < BATCH_SIZE; i++) {
+                Runnable task = next();
+                if (task == null) {
+                    return; //очередь пуста и уже удалена из карты
+                }
+                try {
+                    task.run();
+                } catch (RuntimeException e) {
+                    failedCounter.increment();
+                    LOGGER.error("Ошибка обработки обновления чата " + chatId + ": " + e.getMessage(), e);
+                } finally {
+                    pending.decrementAndGet();
+                }
+            }
+            //обработали пачку - уступаем поток другим чатам, а сами встаем в конец очереди пула
+            submit(this);
+        }
+
+        //берет следующую задачу. Если задач нет, то атомарно удаляет очередь чата из карты
+        private Runnable next() {
+            Runnable[] next = new Runnable[1];
+            chatQueues.computeIfPresent(chatId, (id, queue) -> {
+                next[0] = queue.tasks.poll();
+                if (next[0] == null) {
+                    queue.running = false;
+                    return null;
+                }
+                return queue;
+            });
+            return next[0];
+        }
+    }
+}
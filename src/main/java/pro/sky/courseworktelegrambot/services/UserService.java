@@ -1,8 +1,7 @@
 package pro.sky.courseworktelegrambot.services;
 
-import org.springframework.data.jpa.repository.JpaRepository;
 import org.springframework.stereotype.Service;
-import pro.sky.courseworktelegrambot.entities.User;
+import pro.sky.courseworktelegrambot.repositories.UserListView;
 import pro.sky.courseworktelegrambot.repositories.UserRepository;
 import java.util.List;
 
@@ -15,11 +14,15 @@ public class UserService {
     }
 
     /**
-     * Метод возвращает всех пользователей
-     * Используется метод репозитория {@link JpaRepository#findAll()}
-     * @return  Список всех пользователей
+     * Метод возвращает страницу пользователей: пользователей с id больше afterId по возрастанию id.
+     * Следующую страницу запрашивают с afterId, равным id последнего пользователя страницы.
+     * Состояния пользователей не загружаются
+     * @param afterId id последнего пользователя предыдущей страницы. id - это id чата,
+     *                он бывает отрицательным, поэтому с начала - {@link Long#MIN_VALUE}
+     * @param limit   размер страницы, не больше {@link Pages#MAX_LIMIT}
+     * @return  Страница пользователей
      * */
-    public List<User> getAllUsers() {
-        return List.copyOf(userRepository.findAll());
+    public List<UserListView> getUsers(long afterId, int limit) {
+        return userRepository.findPage(afterId, Pages.first(limit));
     }
 }
@@ -0,0 +1,239 @@
+package pro.sky.courseworktelegrambot.services;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.dao.DataAccessException;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+import pro.sky.courseworktelegrambot.config.BotInitializer;
+import pro.sky.courseworktelegrambot.entities.State;
+import pro.sky.courseworktelegrambot.entities.User;
+import pro.sky.courseworktelegrambot.repositories.UserRepository;
+import pro.sky.courseworktelegrambot.repositories.UserStateView;
+
+import javax.annotation.PreDestroy;
+import java.sql.Timestamp;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Хранилище состояний пользователей бота с отложенной записью (write-behind).<br>
+ * Пользователи, с которыми бот общается, держатся в памяти.
+ * Изменения состояния (state, previousState, shelterId, stateTime) не пишутся в БД на каждое сообщение,
+ * а накапливаются и записываются в таблицу users пакетом JDBC раз в user-state.flush-interval мс
+ * и при остановке приложения.<br>
+ * Новые пользователи записываются сразу, т.к. на них ссылаются обращения к волонтеру, запросы обратной связи и т.п.
+ * <p>
+ * Восстановление после сбоя: при аварийном завершении теряются изменения состояний
+ * не более чем за последний интервал записи (плюс время самой записи).
+ * Пользователь в этом случае увидит кнопки своего более раннего состояния.
+ * Отчеты, сообщения волонтеру и прочие данные пишутся своими сервисами сразу и не теряются.
+ * Состояние, прочитанное из БД другими сервисами (например, для клавиатуры в ответе волонтера),
+ * может отставать на тот же интервал.
+ * <p>
+ * Несколько экземпляров бота: обновления одного чата получает только один экземпляр в режиме polling
+ * (второй getUpdates Telegram отклоняет), поэтому отложенная запись используется только в нем.
+ * В режиме webhook балансировщик может отдать сообщения одного чата разным экземплярам, и кэш в памяти
+ * одного из них устареет. Поэтому в этом режиме хранилище пишет каждое изменение сразу (write-through),
+ * а пользователя из памяти сверяет со строкой в БД при каждом {@link #find(long)}: если строка новее
+ * (state_time больше), пользователь перечитывается.<br>
+ * Запись в любом режиме условная - {@code WHERE state_time <= ?}: более старый снимок не затирает
+ * более новое состояние, записанное другим экземпляром. Отброшенный снимок вытесняет пользователя из памяти.
+ * Сравнение идет по времени экземпляров, поэтому их часы должны быть синхронизированы.
+ */
+@Component
+public class UserStateStore {
+    private static final Logger LOGGER = LoggerFactory.getLogger(UserStateStore.class);
+
+    //не затираем более новое состояние, записанное другим экземпляром бота
+    private static final String UPDATE_STATE_SQL = "UPDATE users " +
+            "SET shelter_id = ?, state_id = ?, previous_state_id = ?, state_time = ? " +
+            "WHERE id = ? AND (state_time IS NULL OR state_time <= ?)";
+    private static final int ROW_ID = 4;
+
+    private final UserRepository userRepository;
+    private final JdbcTemplate jdbcTemplate;
+    private final StateGraph stateGraph;
+
+    //пользователи, с которыми недавно общались
+    private final Map<Long, User> users = new ConcurrentHashMap<>();
+    //снимки состояний, еще не записанные в БД. Более поздний снимок заменяет более ранний
+    private final Map<Long, Object[]> dirty = new ConcurrentHashMap<>();
+
+    //через сколько минут без сообщений пользователь вытесняется из памяти
+    @Value("${user-state.evict-after-minutes:30}")
+    private long evictAfterMinutes = 30;
+
+    //webhook - запись сразу и сверка с БД при каждом чтении, polling - отложенная запись
+    @Value("${telegram.bot.mode:polling}")
+    private String mode = "polling";
+
+    public UserStateStore(UserRepository userRepository, JdbcTemplate jdbcTemplate, StateGraph stateGraph) {
+        this.userRepository = userRepository;
+        this.jdbcTemplate = jdbcTemplate;
+        this.stateGraph = stateGraph;
+    }
+
+    /**
+     * Возвращает пользователя из памяти, а при его отсутствии - из БД.
+     * Из БД читаются только идентификаторы состояний, сами состояния берутся из графа состояний.
+     *
+     * @param id идентификатор пользователя (чата)
+     * @return пользователь или null, если такого пользователя еще нет
+     */
+    public User find(long id) {
+        if (isWriteThrough()) {
+            return findFresh(id);
+        }
+        User user = users.get(id);
+        if (user == null) {
+            user = userRepository.findStateById(id).map(this::toUser).orElse(null);
+            if (user != null) {
+                users.put(id, user);
+            }
+        }
+        return user;
+    }
+
+    //пользователь из памяти, если в БД нет более нового состояния
+    private User findFresh(long id) {
+        UserStateView view = userRepository.findStateById(id).orElse(null);
+        if (view == null) {
+            users.remove(id);
+            return null;
+        }
+        User cached = users.get(id);
+        if (cached != null && !isNewer(view.stateTime(), cached.getStateTime())) {
+            return cached;
+        }
+        User user = toUser(view);
+        users.put(id, user);
+        return user;
+    }
+
+    private static boolean isNewer(LocalDateTime stored, LocalDateTime cached) {
+        return stored != null && (cached == null || stored.isAfter(cached));
+    }
+
+    /**
+     * Запоминает новое состояние пользователя.
+     * Известный пользователь будет записан в БД при ближайшей пакетной записи (в режиме webhook - сразу),
+     * новый (или уже вытесненный из памяти) - записывается сразу.
+     *
+     * @param user пользователь
+     */
+    public void save(User user) {
+        if (users.get(user.getId()) != user) {
+            userRepository.save(user);
+            users.put(user.getId(), user);
+            return;
+        }
+        if (isWriteThrough()) {
+            if (jdbcTemplate.update(UPDATE_STATE_SQL, toRow(user)) == 0) {
+                staleSnapshot(user.getId());
+            }
+            return;
+        }
+        //снимок делаем в потоке бота, чтобы в БД попало согласованное состояние
+        dirty.put(user.getId(), toRow(user));
+    }
+
+    /**
+     * Отменяет несохраненные изменения пользователя, сделанные после последнего вызова {@link #save(User)}.
+     * Пользователь вытесняется из памяти и при следующем обращении будет прочитан из БД.
+     * Ранее запомненный, но еще не записанный снимок записывается сразу.
+     *
+     * @param user пользователь
+     */
+    public void discard(User user) {
+        users.remove(user.getId(), user);
+        Object[] row = dirty.remove(user.getId());
+        if (row != null && jdbcTemplate.update(UPDATE_STATE_SQL, row) == 0) {
+            staleSnapshot((Long) row[ROW_ID]);
+        }
+    }
+
+    /**
+     * Записывает накопленные изменения состояний в БД одним пакетом
+     * и вытесняет из памяти давно не писавших пользователей.
+     */
+    @Scheduled(fixedDelayString = "${user-state.flush-interval}")
+    public void flush() {
+        if (!dirty.isEmpty()) {
+            List<Object[]> rows = new ArrayList<>(dirty.size());
+            for (Long id : List.copyOf(dirty.keySet())) {
+                Object[] row = dirty.remove(id);
+                if (row != null) {
+                    rows.add(row);
+                }
+            }
+            try {
+                int[] updated = jdbcTemplate.batchUpdate(UPDATE_STATE_SQL, rows);
+                for (int i = 0; i < updated.length; i++) {
+                    //строка новее снимка, пользователь перечитается при следующем обращении
+                    if (updated[i] == 0 && !dirty.containsKey((Long) rows.get(i)[ROW_ID])) {
+                        staleSnapshot((Long) rows.get(i)[ROW_ID]);
+                    }
+                }
+                LOGGER.debug("Записано состояний пользователей: " + rows.size());
+            } catch (DataAccessException e) {
+                LOGGER.error("Ошибка записи состояний пользователей: " + e.getMessage());
+                //вернем обратно, но не затрем более свежие снимки
+                rows.forEach(row -> dirty.putIfAbsent((Long) row[ROW_ID], row));
+            }
+        }
+        evictIdle();
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        flush();
+    }
+
+    private boolean isWriteThrough() {
+        return BotInitializer.MODE_WEBHOOK.equals(mode);
+    }
+
+    //другой экземпляр записал более новое состояние: снимок не записан, пользователя перечитаем из БД
+    private void staleSnapshot(long id) {
+        users.remove(id);
+        LOGGER.debug("Состояние пользователя " + id + " в БД новее, пользователь будет перечитан");
+    }
+
+    private void evictIdle() {
+        LocalDateTime border = LocalDateTime.now().minusMinutes(evictAfterMinutes);
+        users.entrySet().removeIf(entry -> !dirty.containsKey(entry.getKey())
+                && entry.getValue().getStateTime() != null
+                && entry.getValue().getStateTime().isBefore(border));
+    }
+
+    private User toUser(UserStateView view) {
+        User user = new User(view.id(), view.name(), stateGraph.getState(view.stateId()));
+        user.setShelterId(view.shelterId());
+        user.setPreviousState(stateGraph.getState(view.previousStateId()));
+        user.setStateTime(view.stateTime());
+        //состояние, которого уже нет в графе, заменится начальным
+        stateGraph.bind(user);
+        return user;
+    }
+
+    private static Object[] toRow(User user) {
+        Timestamp stateTime = user.getStateTime() == null ? null : Timestamp.valueOf(user.getStateTime());
+        return new Object[]{
+                user.getShelterId() == null ? null : user.getShelterId().name(),
+                stateId(user.getState()),
+                stateId(user.getPreviousState()),
+                stateTime,
+                user.getId(),
+                stateTime};
+    }
+
+    private static String stateId(State state) {
+        return state == null ? null : state.getId();
+    }
+}
@@ -0,0 +1,152 @@
+package pro.sky.courseworktelegrambot.timer;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.dao.DataAccessException;
+import org.springframework.dao.DuplicateKeyException;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PreDestroy;
+import java.lang.management.ManagementFactory;
+import java.sql.Timestamp;
+import java.time.Clock;
+import java.time.LocalDateTime;
+import java.time.temporal.ChronoUnit;
+import java.util.UUID;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Блокировка заданий по расписанию в БД, чтобы при нескольких экземплярах бота
+ * каждое срабатывание задания выполнял только один из них.<br>
+ * Блокировка - строка таблицы job_lock с владельцем и сроком аренды (locked_until).
+ * Пока задание выполняется, владелец раз в треть аренды продлевает ее (heartbeat).
+ * Если владелец упал, аренда истекает, и блокировку забирает следующий экземпляр.<br>
+ * После завершения задания блокировка держится еще до job-lock.min-hold мс от захвата:
+ * экземпляры, чье расписание сработало чуть позже (часы немного расходятся), задание не повторят.
+ * Используются только обычные UPDATE и INSERT, поэтому блокировка работает и на H2, и на PostgreSQL.
+ * Время берется из часов приложения - часы экземпляров должны быть синхронизированы.
+ */
+@Component
+public class JobLock {
+    private static final Logger LOGGER = LoggerFactory.getLogger(JobLock.class);
+
+    //захват свободной (или истекшей, или своей же) блокировки
+    private static final String ACQUIRE_SQL = "UPDATE job_lock SET owner = ?, locked_at = ?, locked_until = ? " +
+            "WHERE name = ? AND (locked_until <= ? OR owner = ?)";
+    //первый захват блокировки с таким именем. Одновременную вставку отсечет первичный ключ
+    private static final String INSERT_SQL = "INSERT INTO job_lock (name, owner, locked_at, locked_until) " +
+            "VALUES (?, ?, ?, ?)";
+    private static final String HEARTBEAT_SQL = "UPDATE job_lock SET locked_until = ? WHERE name = ? AND owner = ?";
+    private static final String RELEASE_SQL = "UPDATE job_lock SET locked_until = ? WHERE name = ? AND owner = ?";
+
+    private final JdbcTemplate jdbcTemplate;
+    private final long leaseMillis;
+    private final long minHoldMillis;
+    private final String owner;
+    private final Clock clock;
+    private final ScheduledExecutorService heartbeatExecutor;
+
+    @Autowired
+    public JobLock(JdbcTemplate jdbcTemplate,
+                   @Value("${job-lock.lease}") long leaseMillis,
+                   @Value("${job-lock.min-hold}") long minHoldMillis) {
+        //имя процесса JVM - это pid@host. Случайная часть различает перезапуски
+        this(jdbcTemplate, leaseMillis, minHoldMillis,
+                ManagementFactory.getRuntimeMXBean().getName() + "/" + UUID.randomUUID().toString().substring(0, 8),
+                Clock.systemDefaultZone());
+    }
+
+    //для тестов: несколько "экземпляров" с разными владельцами и своими часами
+    JobLock(JdbcTemplate jdbcTemplate, long leaseMillis, long minHoldMillis, String owner, Clock clock) {
+        this.jdbcTemplate = jdbcTemplate;
+        this.leaseMillis = leaseMillis;
+        this.minHoldMillis = minHoldMillis;
+        this.owner = owner;
+        this.clock = clock;
+        this.heartbeatExecutor = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "job-lock-heartbeat");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    /**
+     * Выполняет задание, если удалось захватить его блокировку. Иначе задание пропускается:
+     * его выполняет (или уже выполнил) другой экземпляр.
+     *
+     * @param name имя задания
+     * @param job  задание
+     * @return true, если задание выполнено этим экземпляром
+     */
+    public boolean runExclusively(String name, Runnable job) {
+        LocalDateTime lockedAt = now();
+        if (!tryAcquire(name, lockedAt)) {
+            LOGGER.info("Задание " + name + " выполняет другой экземпляр, пропускаем");
+            return false;
+        }
+        long period = Math.max(1, leaseMillis / 3);
+        ScheduledFuture<?> heartbeat = heartbeatExecutor.scheduleAtFixedRate(
+                () -> heartbeat(name), period, period, TimeUnit.MILLISECONDS);
+        try {
+            job.run();
+            return true;
+        } finally {
+            heartbeat.cancel(false);
+            release(name, lockedAt);
+        }
+    }
+
+    boolean tryAcquire(String name, LocalDateTime lockedAt) {
+        Timestamp now = Timestamp.valueOf(lockedAt);
+        Timestamp until = Timestamp.valueOf(lockedAt.plus(leaseMillis, ChronoUnit.MILLIS));
+        if (jdbcTemplate.update(ACQUIRE_SQL, owner, now, until, name, now, owner) == 1) {
+            return true;
+        }
+        try {
+            return jdbcTemplate.update(INSERT_SQL, name, owner, now, until) == 1;
+        } catch (DuplicateKeyException e) {
+            //строка есть, и блокировка занята другим экземпляром
+            return false;
+        }
+    }
+
+    private void heartbeat(String name) {
+        try {
+            Timestamp until = Timestamp.valueOf(now().plus(leaseMillis, ChronoUnit.MILLIS));
+            if (jdbcTemplate.update(HEARTBEAT_SQL, until, name, owner) == 0) {
+                //аренда истекла, и блокировку забрал другой экземпляр (например, эта JVM долго стояла на GC)
+                LOGGER.warn("Блокировка задания " + name + " потеряна");
+            }
+        } catch (DataAccessException e) {
+            //следующая попытка продления будет через треть аренды
+            LOGGER.error("Ошибка продления блокировки задания " + name + ": " + e.getMessage());
+        }
+    }
+
+    private void release(String name, LocalDateTime lockedAt) {
+        LocalDateTime minHoldUntil = lockedAt.plus(minHoldMillis, ChronoUnit.MILLIS);
+        LocalDateTime now = now();
+        Timestamp until = Timestamp.valueOf(minHoldUntil.isAfter(now) ? minHoldUntil : now);
+        try {
+            jdbcTemplate.update(RELEASE_SQL, until, name, owner);
+        } catch (DataAccessException e) {
+            //блокировка освободится сама по истечении аренды
+            LOGGER.error("Ошибка освобождения блокировки задания " + name + ": " + e.getMessage());
+        }
+    }
+
+    private LocalDateTime now() {
+        return LocalDateTime.now(clock);
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        heartbeatExecutor.shutdownNow();
+    }
+}
@@ -1,158 +1,382 @@
 package pro.sky.courseworktelegrambot.timer;
 
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
-import org.springframework.scheduling.annotation.EnableScheduling;
-import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
 import org.springframework.stereotype.Component;
-import org.springframework.transaction.annotation.Transactional;
-import org.telegram.telegrambots.meta.exceptions.TelegramApiException;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
 import pro.sky.courseworktelegrambot.entities.*;
 import pro.sky.courseworktelegrambot.repositories.*;
 import pro.sky.courseworktelegrambot.services.MessageToVolunteerService;
+import pro.sky.courseworktelegrambot.services.PetService;
 import pro.sky.courseworktelegrambot.services.TelegramBotSender;
 
+import javax.annotation.PreDestroy;
+import java.time.Duration;
 import java.time.LocalDate;
-import java.time.LocalDateTime;
 import java.time.temporal.ChronoUnit;
-import java.util.List;
-import java.util.Map;
+import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Function;
+import java.util.function.Supplier;
 import java.util.stream.Collectors;
 
 /**
- *  Проверяет каждый день в 21:01 по Московскому времени (GMT+ 3) все ежедневные отчеты усыновителей.<br>
- *  Если усыновитель не прислал, или прислал не полный отчет напоминает ему об этом.
- *  Если усыновитель не присылает отчет более 2 дней извещает волонтера.<br>
- *  Проверяет каждый день в 23:01 Московскому времени (GMT+ 3) все усыновления.<br>
- *  Если пользователю не продлили испытательный период, поздравляет его.
+ *  Рассылает уведомления по срокам из таблицы reminder_deadline (см. {@link ReminderSchedule}).<br>
+ *  Notifier не опрашивает все усыновления по cron, а спит до самого раннего срока (но не дольше
+ *  notifier.max-sleep мс) и обрабатывает только усыновления, чей срок наступил.<br>
+ *  Срок отчета: если усыновитель не прислал, или прислал не полный отчет за день, напоминает ему об этом.
+ *  Если усыновитель не присылает отчет более 2 дней извещает волонтера. Срок переносится на следующий день.<br>
+ *  Конец испытательного срока: если пользователю не продлили испытательный период, поздравляет его.<br>
+ *  Рассылка идет частями по notifier.chunk-size усыновлений в пуле из notifier.threads потоков.
+ *  Каждая часть - своя транзакция: сообщения волонтеру, отметки в notification_log и перенос сроков
+ *  сохраняются вместе, и только после этого уведомления ставятся в очередь отправки.
+ *  Ошибка в одной части не откатывает остальные: ее сроки остаются наступившими и будут обработаны снова,
+ *  а отметки не дадут повторить уже разосланное.<br>
+ *  Если экземпляров бота несколько, сроки обрабатывает один из них - см. {@link JobLock}.<br>
+ *  По каждому заданию (тег job) считаются длительность notifier.job.duration,
+ *  число обработанных усыновлений notifier.job.items и отправленных уведомлений notifier.job.notifications.
  *  */
 @Component
-@EnableScheduling
 public class Notifier {
 
     private static final Logger LOGGER = LoggerFactory.getLogger(Notifier.class);
+    //если наступившие сроки остались необработанными (блокировка у другого экземпляра или часть упала),
+    //следующая попытка - не сразу, чтобы не крутиться в цикле
+    private static final long RETRY_DELAY_MILLIS = 60_000;
 
-    private final CatAdoptionRepository catAdoptionRepository;
-    private final DogAdoptionRepository dogAdoptionRepository;
-    private final CatReportRepository catReportRepository;
-    private final DogReportRepository dogReportRepository;
+    private final AdoptionRepository adoptionRepository;
+    private final UserRepository userRepository;
+    private final NotificationLogRepository notificationLogRepository;
+    private final ReminderDeadlineRepository reminderDeadlineRepository;
+    private final ReminderSchedule reminderSchedule;
     private final MessageToVolunteerService messageToVolunteerService;
+    private final PetService petService;
     private final TelegramBotSender telegramBotSender;
+    private final TransactionTemplate transactionTemplate;
+    private final JobLock jobLock;
+    private final int chunkSize;
+    private final long maxSleepMillis;
+    private final ExecutorService executor;
+    private final ScheduledExecutorService scheduler;
+    private final MeterRegistry meterRegistry;
 
-    public Notifier(CatAdoptionRepository catAdoptionRepository,
-                    DogAdoptionRepository dogAdoptionRepository,
-                    CatReportRepository catReportRepository,
-                    DogReportRepository dogReportRepository,
+    public Notifier(AdoptionRepository adoptionRepository,
+                    UserRepository userRepository,
+                    NotificationLogRepository notificationLogRepository,
+                    ReminderDeadlineRepository reminderDeadlineRepository,
+                    ReminderSchedule reminderSchedule,
                     MessageToVolunteerService messageToVolunteerService,
-                    TelegramBotSender telegramBotSender) {
-        this.catAdoptionRepository = catAdoptionRepository;
-        this.dogAdoptionRepository = dogAdoptionRepository;
-        this.catReportRepository = catReportRepository;
-        this.dogReportRepository = dogReportRepository;
+                    PetService petService,
+                    TelegramBotSender telegramBotSender,
+                    PlatformTransactionManager transactionManager,
+                    JobLock jobLock,
+                    @Value("${notifier.chunk-size}") int chunkSize,
+                    @Value("${notifier.threads}") int threads,
+                    @Value("${notifier.max-sleep}") long maxSleepMillis,
+                    MeterRegistry meterRegistry) {
+        this.adoptionRepository = adoptionRepository;
+        this.userRepository = userRepository;
+        this.notificationLogRepository = notificationLogRepository;
+        this.reminderDeadlineRepository = reminderDeadlineRepository;
+        this.reminderSchedule = reminderSchedule;
         this.messageToVolunteerService = messageToVolunteerService;
+        this.petService = petService;
         this.telegramBotSender = telegramBotSender;
+        this.transactionTemplate = new TransactionTemplate(transactionManager);
+        this.jobLock = jobLock;
+        this.chunkSize = chunkSize;
+        this.maxSleepMillis = maxSleepMillis;
+        this.meterRegistry = meterRegistry;
+        AtomicInteger threadNumber = new AtomicInteger(1);
+        this.executor = Executors.newFixedThreadPool(threads, runnable -> {
+            Thread thread = new Thread(runnable, "notifier-" + threadNumber.getAndIncrement());
+            thread.setDaemon(true);
+            return thread;
+        });
+        this.scheduler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "notifier-scheduler");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    //уведомление, которое уйдет пользователю после фиксации транзакции своей части
+    private record Notification(User user, String text) {
+    }
+
+    //сроки одной группы обрабатываются вместе: у них общие отметки в notification_log.
+    //Приюты в группе смешаны - усыновления всех приютов в одной таблице
+    private record DeadlineGroup(NotificationKind kind, LocalDate date) {
     }
 
     /**
-     *  Проверяет каждый день в 21:01 все ежедневные отчеты усыновителей.<br>
+     * Запускает обработку сроков, когда приложение готово: сначала назначает сроки
+     * усыновлениям, у которых их еще нет, затем обрабатывает наступившие.
+     */
+    @EventListener(ApplicationReadyEvent.class)
+    public void start() {
+        scheduler.execute(() -> {
+            try {
+                jobLock.runExclusively("scheduleMissingReminders", reminderSchedule::scheduleMissing);
+            } catch (RuntimeException e) {
+                LOGGER.error("Ошибка при назначении сроков уведомлений: " + e.getMessage());
+            }
+            tick();
+        });
+    }
+
+    //одно пробуждение: обработать наступившие сроки и заснуть до следующего
+    private void tick() {
+        try {
+            processDueDeadlines();
+        } catch (RuntimeException e) {
+            LOGGER.error("Ошибка при обработке сроков уведомлений: " + e.getMessage());
+        }
+        long delay = maxSleepMillis;
+        try {
+            Optional<ReminderDeadline> next = reminderDeadlineRepository.findFirstByOrderByDueTime();
+            if (next.isPresent()) {
+                long untilNext = Duration.between(reminderSchedule.now(), next.get().getDueTime()).toMillis();
+                delay = Math.min(delay, untilNext > 0 ? untilNext : RETRY_DELAY_MILLIS);
+            }
+        } catch (RuntimeException e) {
+            LOGGER.error("Ошибка при поиске следующего срока уведомлений: " + e.getMessage());
+        }
+        if (!scheduler.isShutdown()) {
+            scheduler.schedule(this::tick, delay, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    /**
+     *  Обрабатывает наступившие сроки уведомлений.<br>
+     *  Сроки всех приютов делятся на группы по виду уведомления и дню. Для сроков отчета
+     *  используется {@link #sendWarningNoReport(LocalDate, List)},
+     *  для конца испытательного срока - {@link #sendCongratulation(LocalDate, List)}.
+     *  При нескольких экземплярах бота сроки обрабатывает только один.
+     *  */
+    //без @Transactional: транзакции у каждой части рассылки свои
+    public void processDueDeadlines() {
+        jobLock.runExclusively("notifier", () -> {
+            List<ReminderDeadline> due = reminderDeadlineRepository
+                    .findByDueTimeLessThanEqualOrderByDueTime(reminderSchedule.now());
+            Map<DeadlineGroup, List<ReminderDeadline>> groups = due.stream()
+                    .collect(Collectors.groupingBy(
+                            deadline -> new DeadlineGroup(deadline.getKind(), deadline.getDate()),
+                            LinkedHashMap::new, Collectors.toList()));
+            groups.forEach((group, deadlines) -> {
+                if (group.kind() == NotificationKind.REPORT_REMINDER) {
+                    sendWarningNoReport(group.date(), deadlines);
+                } else {
+                    sendCongratulation(group.date(), deadlines);
+                }
+            });
+        });
+    }
+
+    /**
+     *  Напоминает об отчете за день усыновителям, чей срок отчета наступил.<br>
      *  Если усыновитель не прислал, или прислал не полный отчет напоминает ему об этом.Используется метод <u>sendNotification</u> этого сервиса.
-     *  Полноту данных проверяем методамм {@link  DogReportRepository#findByDateAndPhotoIsNotNullAndTextIsNotNull(LocalDate)} и
-     *  {@link CatReportRepository#findByDateAndPhotoIsNotNullAndTextIsNotNull(LocalDate)}
+     *  Для каждой части одним запросом {@link AdoptionRepository#findReportReminders(Collection, LocalDate)}
+     *  получаем усыновления всех приютов с датой последнего полного отчета из report_status,
+     *  дальше все считается в памяти. Имена питомцев - по запросу на приют, в котором есть напоминания.
      *  Если усыновитель не присылает отчет более 2 дней извещает волонтера.
-     *  посредством {@link MessageToVolunteerRepository#save(Object)} save()}
+     *  посредством {@link MessageToVolunteerService#createMessageToVolunteer(int, User, String)}
      * */
-    @Scheduled(cron = "1 * * * * *")
-    //@Scheduled(cron = "0 21 * * * *")
-    //улучшенный формат <Минуты> <Часы> <Дни_месяца> <Месяцы> <Дни_недели> <Годы>
-    @Transactional
-    public void sendWarningNoReport(){
-        LOGGER.info("Вызов sendWarningNoReport " + LocalDateTime.now());
-        long today = ChronoUnit.DAYS.between(LocalDate.of(2022, 12,31), LocalDate.now());
-        long dayLatestReport;
-        LocalDate date;
-        Report report;
-
-        List<DogAdoption> currentDogAdoptionList = dogAdoptionRepository.findByTrialDateGreaterThanEqual(LocalDate.now());
-        Map<Adoption, LocalDate> todayDogReports = dogReportRepository.findByDateAndPhotoIsNotNullAndTextIsNotNull(LocalDate.now())
+    private void sendWarningNoReport(LocalDate date, List<ReminderDeadline> deadlines) {
+        //кто уже получил напоминание за этот день, тому не напоминаем
+        Set<Integer> done = notificationLogRepository.findAdoptionIds(NotificationKind.REPORT_REMINDER, date);
+        runInChunks("sendWarningNoReport", date, deadlines, chunk -> remindChunk(chunk, date, done));
+    }
+
+    //одна часть напоминаний. Выполняется в транзакции, возвращает уведомления для отправки
+    private List<Notification> remindChunk(List<ReminderDeadline> chunk, LocalDate date, Set<Integer> done) {
+        Map<Integer, ReportReminderView> reminders = adoptionRepository.findReportReminders(adoptionIds(chunk), date).stream()
+                .collect(Collectors.toMap(ReportReminderView::adoptionId, Function.identity()));
+        //кто за этот день прислал полный отчет или уже получил напоминание, тому не напоминаем
+        List<ReportReminderView> missingReports = withPetNames(chunk.stream()
+                .map(deadline -> reminders.get(deadline.getAdoptionId()))
+                .filter(reminder -> reminder != null && !reportedOn(reminder, date))
+                .filter(reminder -> !done.contains(reminder.adoptionId()))
+                .collect(Collectors.toList()));
+        //пользователи нужны для отправки сообщений. Загружаем их одним запросом на часть
+        Map<Long, User> users = missingReports.isEmpty() ? Map.of() : userRepository.findAllById(missingReports.stream()
+                        .map(ReportReminderView::userId)
+                        .collect(Collectors.toSet()))
                 .stream()
-                .collect(Collectors.toMap(DogReport::getAdoption, Report::getDate));
-        for (DogAdoption adoption:currentDogAdoptionList) {
-            if (todayDogReports.containsKey(adoption)) {
-                break;
-            }else{
-                report = dogReportRepository.findLatestReport(adoption.getId());
-                date = (report != null) ? report.getDate() : adoption.getDate();
-                dayLatestReport = ChronoUnit.DAYS.between(LocalDate.of(2022, 12,31), date);
-                if(today-dayLatestReport > 2){
-                    LOGGER.info("Вызов messageToVolunteer");
-                    messageToVolunteerService.createMessageToVolunteer(adoption.getId(), adoption.getUser(),
-                            "ВНИМАНИЕ !!! Опекун " + adoption.getUser().getName()
-                                    + " не присылал ежедневный отчет по собаке " + adoption.getPet().getName() + " более 2х дней.");
-                }
-                sendNotification(adoption, "ВНИМАНИЕ !!! " + adoption.getUser().getName() +
-                        ", просим Вас присылать ежедневный отчет по собаке " + adoption.getPet().getName() + " до 21:00.");
+                .collect(Collectors.toMap(User::getId, Function.identity()));
+        List<NotificationLog> logs = new ArrayList<>();
+        List<Notification> notifications = new ArrayList<>();
+        for (ReportReminderView reminder : missingReports) {
+            User user = users.get(reminder.userId());
+            String petKind = petKind(reminder.shelterId());
+            //если полных отчетов еще не было, считаем от даты усыновления
+            LocalDate lastDate = (reminder.lastReportDate() != null) ? reminder.lastReportDate() : reminder.adoptionDate();
+            if (ChronoUnit.DAYS.between(lastDate, date) > 2) {
+                LOGGER.info("Вызов messageToVolunteer");
+                messageToVolunteerService.createMessageToVolunteer(reminder.adoptionId(), user,
+                        "ВНИМАНИЕ !!! Опекун " + reminder.userName()
+                                + " не присылал ежедневный отчет по " + petKind + " " + reminder.petName() + " более 2х дней.");
             }
+            logs.add(new NotificationLog(reminder.shelterId(), reminder.adoptionId(), NotificationKind.REPORT_REMINDER, date));
+            notifications.add(new Notification(user, "ВНИМАНИЕ !!! " + reminder.userName() +
+                    ", просим Вас присылать ежедневный отчет по " + petKind + " " + reminder.petName()
+                    + " до " + reminderSchedule.reportDeadlineText() + "."));
         }
-
-        List<CatAdoption> currentCatAdoptionList = catAdoptionRepository.findByTrialDateGreaterThanEqual(LocalDate.now());
-        Map<Adoption, LocalDate> todayCatReports = catReportRepository.findByDateAndPhotoIsNotNullAndTextIsNotNull(LocalDate.now())
-                .stream()
-                .collect(Collectors.toMap(CatReport::getAdoption, Report::getDate));
-        for (CatAdoption adoption:currentCatAdoptionList) {
-            if (todayCatReports.containsKey(adoption)) {
-                break;
-            }else{
-                report = catReportRepository.findLatestReport(adoption.getId());
-                date = (report != null) ? report.getDate() : adoption.getDate();
-                dayLatestReport = ChronoUnit.DAYS.between(LocalDate.of(2022, 12,31), date);
-                if(today-dayLatestReport > 2){
-                    messageToVolunteerService.createMessageToVolunteer(adoption.getId(), adoption.getUser(),
-                            "ВНИМАНИЕ !!! Опекун " + adoption.getUser().getName()
-                                    + " не присылал ежедневный отчет по кошке " + adoption.getPet().getName() + " более 2х дней.");
-                }
-                sendNotification(adoption, "ВНИМАНИЕ !!! " + adoption.getUser().getName() +
-                        ", просим Вас присылать ежедневный отчет по кошке " + adoption.getPet().getName() + " до 21:00.");
+        notificationLogRepository.saveAll(logs);
+        //срок отчета переносим на следующий день. Усыновления, которого нет или чей испытательный срок
+        //уже закончился, запрос не вернул - его срок удаляем
+        for (ReminderDeadline deadline : chunk) {
+            ReportReminderView reminder = reminders.get(deadline.getAdoptionId());
+            if (reminder == null) {
+                reminderDeadlineRepository.delete(deadline);
+            } else {
+                reminderSchedule.advance(deadline, reminder.trialDate());
             }
         }
+        return notifications;
+    }
+
+    //полный отчет за день прислан. Если рассылка запоздала, полный отчет за следующий день тоже считается
+    private static boolean reportedOn(ReportReminderView reminder, LocalDate date) {
+        return reminder.lastReportDate() != null && !reminder.lastReportDate().isBefore(date);
+    }
+
+    //питомцы у каждого приюта в своей таблице, поэтому имена читаются отдельно по каждому приюту
+    private List<ReportReminderView> withPetNames(List<ReportReminderView> reminders) {
+        Map<ShelterId, Map<Integer, String>> petNames = reminders.stream()
+                .collect(Collectors.groupingBy(ReportReminderView::shelterId,
+                        Collectors.mapping(ReportReminderView::petId,
+                                Collectors.filtering(Objects::nonNull, Collectors.toSet()))))
+                .entrySet().stream()
+                .collect(Collectors.toMap(Map.Entry::getKey,
+                        entry -> petService.getPetNames(entry.getKey(), entry.getValue())));
+        return reminders.stream()
+                .map(reminder -> (reminder.petId() == null) ? reminder
+                        : reminder.withPetName(petNames.get(reminder.shelterId()).get(reminder.petId())))
+                .collect(Collectors.toList());
+    }
+
+    //switch без default: для нового приюта компилятор потребует указать его текст
+    private static String petKind(ShelterId shelterId) {
+        return switch (shelterId) {
+            case DOG -> "собаке";
+            case CAT -> "кошке";
+        };
     }
 
     /**
-     *  Проверяет каждый день в 23:01 все усыновления.<br>
+     *  Поздравляет пользователей, у которых в этот день закончился испытательный срок.<br>
      *  Если пользователю не продлили испытательный период, поздравляет его.
      *  Используется метод <u>sendNotification</u> этого сервиса.
      * */
-    //@Scheduled(cron = "0 22 * * * *")  //в 22 часа каждый день
-    @Scheduled(cron = "1 * * * * *")
-    @Transactional
-    public void sendCongratulation(){
-        List<DogAdoption> currentDogAdoptionList = dogAdoptionRepository.findByTrialDate(LocalDate.now());
-        for (DogAdoption adoption : currentDogAdoptionList) {
-            sendNotification(adoption, adoption.getUser().getName()
-                    + "! Поздравляем !!! Вы успешно прошли испытательный период. "
-                    + "Всего наилучшего Вам и вашему питомцу.");
+    private void sendCongratulation(LocalDate date, List<ReminderDeadline> deadlines) {
+        Set<Integer> done = notificationLogRepository.findAdoptionIds(NotificationKind.CONGRATULATION, date);
+        runInChunks("sendCongratulation", date, deadlines, chunk -> {
+            List<Adoption> adoptions = adoptionRepository.findAllById(adoptionIds(chunk));
+            //испытательный срок могли продлить уже после того, как срок поздравления был назначен
+            List<Adoption> finished = adoptions.stream()
+                    .filter(adoption -> date.equals(adoption.getTrialDate()))
+                    .filter(adoption -> !done.contains(adoption.getId()))
+                    .collect(Collectors.toList());
+            notificationLogRepository.saveAll(finished.stream()
+                    .map(adoption -> new NotificationLog(adoption.getShelterId(), adoption.getId(),
+                            NotificationKind.CONGRATULATION, date))
+                    .collect(Collectors.toList()));
+            //поздравление - последнее уведомление по усыновлению
+            reminderDeadlineRepository.deleteAll(chunk);
+            return finished.stream()
+                    .map(adoption -> new Notification(adoption.getUser(), adoption.getUser().getName()
+                            + "! Поздравляем !!! Вы успешно прошли испытательный период. "
+                            + "Всего наилучшего Вам и вашему питомцу."))
+                    .collect(Collectors.toList());
+        });
+    }
+
+    private static List<Integer> adoptionIds(List<ReminderDeadline> deadlines) {
+        return deadlines.stream()
+                .map(ReminderDeadline::getAdoptionId)
+                .collect(Collectors.toList());
+    }
+
+    /**
+     * Делит работу на части и выполняет их параллельно, каждую в своей транзакции.
+     * Уведомления части отправляются только после фиксации ее транзакции: если транзакция откатится,
+     * пользователь ничего не получит, и следующий запуск обработает эту часть заново.
+     * Метод ждет завершения всех частей.
+     */
+    private <T> void runInChunks(String job, LocalDate date, List<T> items,
+                                 Function<List<T>, List<Notification>> chunkWork) {
+        if (items.isEmpty()) {
+            return;
         }
-        List<CatAdoption> currentCatAdoptionList = catAdoptionRepository.findByTrialDate(LocalDate.now());
-        for (CatAdoption adoption : currentCatAdoptionList) {
-            sendNotification(adoption, adoption.getUser().getName()
-                    + "! Поздравляем !!! Вы успешно прошли испытательный период. "
-                    + "Всего наилучшего Вам и вашему питомцу.");
+        //задания запускаются несколько раз в день, поэтому метры ищем в реестре при каждом запуске
+        Timer.Sample sample = Timer.start(meterRegistry);
+        AtomicInteger sent = new AtomicInteger();
+        List<CompletableFuture<Void>> futures = new ArrayList<>();
+        for (int from = 0; from < items.size(); from += chunkSize) {
+            List<T> chunk = items.subList(from, Math.min(from + chunkSize, items.size()));
+            Supplier<List<Notification>> transactionalWork = () ->
+                    transactionTemplate.execute(status -> chunkWork.apply(chunk));
+            futures.add(CompletableFuture.supplyAsync(transactionalWork, executor)
+                    .thenAccept(notifications -> {
+                        notifications.forEach(
+                                notification -> sendNotification(notification.user(), notification.text()));
+                        sent.addAndGet(notifications.size());
+                    })
+                    .exceptionally(e -> {
+                        //отметки этой части откатились - она будет выполнена при следующем запуске
+                        LOGGER.error("Ошибка в части задания " + job + " " + date + ": " + e.getMessage());
+                        return null;
+                    }));
         }
+        CompletableFuture.allOf(futures.toArray(new CompletableFuture[0])).join();
+        sample.stop(Timer.builder("notifier.job.duration")
+                .description("Длительность задания рассылки уведомлений")
+                .tag("job", job)
+                .register(meterRegistry));
+        meterRegistry.counter("notifier.job.items", "job", job).increment(items.size());
+        meterRegistry.counter("notifier.job.notifications", "job", job).increment(sent.get());
+        LOGGER.info(job + " " + date + ": обработано " + items.size() + " усыновлений частями по " + chunkSize);
     }
 
     /**
      *  Отправляет уведомление пользователю, проходящему испытательный период.<br>
-     *  Используется метод сервиса {@link TelegramBotSender#sendMessageToUser(User, String, int)}  }
+     *  Используется метод сервиса {@link TelegramBotSender#queueMessageToUser(User, String, int)}  }
      *  @param adoption (пользователь является усыновителем, получаем через adoption.getUser())
      *  @param notification текст уведомления.
      * */
     public void sendNotification(Adoption adoption, String notification){
-        //это почти тоже что sendMessageToUser, но не сигналит об ошибке отправки
-        //что не допустимо для вызова из контроллеров.
-        //а если по расписанию, то можно ошибку и проигнорировать
+        sendNotification(adoption.getUser(), notification);
+    }
+
+    private void sendNotification(User user, String notification){
+        //по расписанию уходят сотни уведомлений сразу, поэтому через очередь с ограничением скорости.
+        //Результат не ждем: недоставленные сообщения очередь запишет в outbound_dead_letter
+        telegramBotSender.queueMessageToUser(user, notification, 0);
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        scheduler.shutdownNow();
+        executor.shutdown();
         try {
-            telegramBotSender.sendMessageToUser(adoption.getUser(), notification, 0);
-        }catch (TelegramApiException e){
-            LOGGER.error("TelegramError " + e.getMessage());
+            if (!executor.awaitTermination(10, TimeUnit.SECONDS)) {
+                executor.shutdownNow();
+            }
+        } catch (InterruptedException e) {
+            executor.shutdownNow();
+            Thread.currentThread().interrupt();
         }
     }
 }
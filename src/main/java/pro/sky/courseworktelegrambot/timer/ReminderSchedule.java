@@ -0,0 +1,173 @@
+package pro.sky.courseworktelegrambot.timer;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.annotation.Transactional;
+import pro.sky.courseworktelegrambot.entities.*;
+import pro.sky.courseworktelegrambot.repositories.AdoptionRepository;
+import pro.sky.courseworktelegrambot.repositories.ReminderDeadlineRepository;
+
+import java.time.*;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Сроки уведомлений по усыновлениям в таблице reminder_deadline.<br>
+ * У каждого активного усыновления есть срок отчета за день (notifier.report-deadline)
+ * и срок поздравления в последний день испытательного срока (notifier.congratulation-time).
+ * Время задается в часовом поясе приюта notifier.zone, а не сервера.<br>
+ * Сроки разных усыновлений разнесены по окну notifier.spread-minutes после заданного времени:
+ * смещение постоянно для усыновления, поэтому уведомления уходят равномерно, а не пачкой в 21:00.
+ * Сроки назначает {@link pro.sky.courseworktelegrambot.services.AdoptionService} при создании
+ * и изменении усыновления, а переносит на следующий день {@link Notifier} после рассылки.
+ */
+@Component
+public class ReminderSchedule {
+    private static final Logger LOGGER = LoggerFactory.getLogger(ReminderSchedule.class);
+
+    private final ReminderDeadlineRepository reminderDeadlineRepository;
+    private final AdoptionRepository adoptionRepository;
+    private final LocalTime reportDeadline;
+    private final LocalTime congratulationTime;
+    private final long spreadSeconds;
+    private final Clock clock;
+
+    @Autowired
+    public ReminderSchedule(ReminderDeadlineRepository reminderDeadlineRepository,
+                            AdoptionRepository adoptionRepository,
+                            @Value("${notifier.zone}") String zone,
+                            @Value("${notifier.report-deadline}") String reportDeadline,
+                            @Value("${notifier.congratulation-time}") String congratulationTime,
+                            @Value("${notifier.spread-minutes}") int spreadMinutes) {
+        this(reminderDeadlineRepository, adoptionRepository,
+                LocalTime.parse(reportDeadline), LocalTime.parse(congratulationTime), spreadMinutes,
+                Clock.system(ZoneId.of(zone)));
+    }
+
+    //для тестов: часы с заданным временем и часовым поясом приюта
+    ReminderSchedule(ReminderDeadlineRepository reminderDeadlineRepository,
+                     AdoptionRepository adoptionRepository,
+                     LocalTime reportDeadline, LocalTime congratulationTime, int spreadMinutes, Clock clock) {
+        this.reminderDeadlineRepository = reminderDeadlineRepository;
+        this.adoptionRepository = adoptionRepository;
+        this.reportDeadline = reportDeadline;
+        this.congratulationTime = congratulationTime;
+        this.spreadSeconds = spreadMinutes * 60L;
+        this.clock = clock;
+    }
+
+    public Instant now() {
+        return clock.instant();
+    }
+
+    //сегодняшний день в часовом поясе приюта
+    public LocalDate today() {
+        return LocalDate.now(clock);
+    }
+
+    //время, до которого надо прислать отчет, для текста напоминания
+    public String reportDeadlineText() {
+        return reportDeadline.toString();
+    }
+
+    /**
+     * Назначает (или переназначает) сроки уведомлений по усыновлению.
+     * Прежние сроки усыновления удаляются.
+     *
+     * @param shelterId идентификатор приюта
+     * @param adoption  сохраненное усыновление
+     */
+    @Transactional
+    public void schedule(ShelterId shelterId, Adoption adoption) {
+        reminderDeadlineRepository.deleteByAdoption(shelterId, adoption.getId());
+        reminderDeadlineRepository.saveAll(deadlines(shelterId, adoption));
+    }
+
+    /**
+     * Удаляет сроки уведомлений по усыновлению, например, при удалении усыновления.
+     */
+    public void cancel(ShelterId shelterId, int adoptionId) {
+        reminderDeadlineRepository.deleteByAdoption(shelterId, adoptionId);
+    }
+
+    //ближайшие сроки усыновления: первый еще не прошедший день отчета и конец испытательного срока
+    List<ReminderDeadline> deadlines(ShelterId shelterId, Adoption adoption) {
+        LocalDate today = today();
+        List<ReminderDeadline> deadlines = new ArrayList<>();
+        LocalDate reportDate = adoption.getDate().isAfter(today) ? adoption.getDate() : today;
+        if (!dueTime(shelterId, adoption.getId(), NotificationKind.REPORT_REMINDER, reportDate).isAfter(now())) {
+            reportDate = reportDate.plusDays(1);
+        }
+        if (!reportDate.isAfter(adoption.getTrialDate())) {
+            deadlines.add(deadline(shelterId, adoption.getId(), NotificationKind.REPORT_REMINDER, reportDate));
+        }
+        //если испытательный срок закончился сегодня, а время поздравления прошло, Notifier поздравит сразу
+        if (!adoption.getTrialDate().isBefore(today)) {
+            deadlines.add(deadline(shelterId, adoption.getId(), NotificationKind.CONGRATULATION, adoption.getTrialDate()));
+        }
+        return deadlines;
+    }
+
+    /**
+     * Переносит срок отчета на следующий день после рассылки напоминаний.
+     * Если испытательный срок закончился, срок удаляется.
+     * После долгого простоя пропущенные дни не наверстываются: срок переносится не раньше, чем на сегодня.
+     *
+     * @param deadline  обработанный срок отчета
+     * @param trialDate дата окончания испытательного срока
+     */
+    public void advance(ReminderDeadline deadline, LocalDate trialDate) {
+        LocalDate next = deadline.getDate().plusDays(1);
+        if (next.isBefore(today())) {
+            next = today();
+        }
+        if (next.isAfter(trialDate)) {
+            reminderDeadlineRepository.delete(deadline);
+        } else {
+            deadline.moveTo(next, dueTime(deadline.getShelterId(), deadline.getAdoptionId(), deadline.getKind(), next));
+            reminderDeadlineRepository.save(deadline);
+        }
+    }
+
+    /**
+     * Назначает сроки активным усыновлениям, у которых их нет: созданным до появления
+     * таблицы reminder_deadline или напрямую в БД. Вызывается при запуске Notifier.
+     */
+    @Transactional
+    public void scheduleMissing() {
+        //усыновления всех приютов - одним запросом к общей таблице adoption
+        Set<Integer> scheduled = reminderDeadlineRepository.findAdoptionIds();
+        List<ReminderDeadline> deadlines = new ArrayList<>();
+        int count = 0;
+        for (Adoption adoption : adoptionRepository.findByTrialDateGreaterThanEqual(today())) {
+            if (!scheduled.contains(adoption.getId())) {
+                deadlines.addAll(deadlines(adoption.getShelterId(), adoption));
+                count++;
+            }
+        }
+        reminderDeadlineRepository.saveAll(deadlines);
+        LOGGER.info("Назначены сроки уведомлений для " + count + " усыновлений");
+    }
+
+    private ReminderDeadline deadline(ShelterId shelterId, int adoptionId, NotificationKind kind, LocalDate date) {
+        return new ReminderDeadline(shelterId, adoptionId, kind, date, dueTime(shelterId, adoptionId, kind, date));
+    }
+
+    //момент срока: время вида уведомления в часовом поясе приюта плюс постоянное смещение усыновления в окне
+    Instant dueTime(ShelterId shelterId, int adoptionId, NotificationKind kind, LocalDate date) {
+        LocalTime time = (kind == NotificationKind.REPORT_REMINDER) ? reportDeadline : congratulationTime;
+        return date.atTime(time).atZone(clock.getZone()).toInstant().plusSeconds(spreadOffset(shelterId, adoptionId));
+    }
+
+    //соседние id перемешиваются умножением на нечетную константу, и смещения ложатся по окну равномерно
+    private long spreadOffset(ShelterId shelterId, int adoptionId) {
+        if (spreadSeconds == 0) {
+            return 0;
+        }
+        return Math.floorMod(adoptionId * 0x9E3779B9L + shelterId.ordinal(), spreadSeconds);
+    }
+}
@@ -280,3 +280,54 @@ CREATE UNIQUE INDEX dog_report_adoption_date ON dog_report (adoption_id, date)
 INSERT INTO dog_adoption(user_id, pet_id, date, trial_date)
 VALUES (340330886, 1, '2023-10-01', '2023-10-02');
 
+
+--changeset alexander:create_outbound_dead_letter
+--сообщения, которые очередь исходящих сообщений так и не смогла доставить в Telegram
+CREATE TABLE outbound_dead_letter
+(
+    id          INTEGER PRIMARY KEY AUTO_INCREMENT,
+    chat_id     LONG      NOT NULL,
+    text        TEXT,
+    attempts    INTEGER   NOT NULL,
+    error       TEXT,
+    failed_time TIMESTAMP NOT NULL
+);
+
+--changeset alexander:create_notification_log
+--отметки Notifier о разосланных за день уведомлениях: повторный запуск рассылки их пропускает
+CREATE TABLE notification_log
+(
+    id          INTEGER PRIMARY KEY AUTO_INCREMENT,
+    shelter_id  VARCHAR(3)  NOT NULL,
+    adoption_id INTEGER     NOT NULL,
+    kind        VARCHAR(30) NOT NULL,
+    date        DATE        NOT NULL,
+    sent_time   TIMESTAMP   NOT NULL
+);
+--одно уведомление одного вида по усыновлению за день
+CREATE UNIQUE INDEX notification_log_adoption_kind_date ON notification_log (shelter_id, adoption_id, kind, date);
+
+--changeset alexander:create_job_lock
+--блокировки заданий по расписанию: при нескольких экземплярах бота задание выполняет один
+CREATE TABLE job_lock
+(
+    name         VARCHAR(50) PRIMARY KEY,
+    owner        VARCHAR(255) NOT NULL,
+    locked_at    TIMESTAMP    NOT NULL,
+    locked_until TIMESTAMP    NOT NULL
+);
+
+--changeset alexander:create_reminder_deadline
+--ближайшие сроки уведомлений по активным усыновлениям: Notifier просыпается к самому раннему
+CREATE TABLE reminder_deadline
+(
+    id          INTEGER PRIMARY KEY AUTO_INCREMENT,
+    shelter_id  VARCHAR(3)  NOT NULL,
+    adoption_id INTEGER     NOT NULL,
+    kind        VARCHAR(30) NOT NULL,
+    date        DATE        NOT NULL,
+    due_time    TIMESTAMP   NOT NULL
+);
+--у усыновления один ближайший срок каждого вида
+CREATE UNIQUE INDEX reminder_deadline_adoption_kind ON reminder_deadline (shelter_id, adoption_id, kind);
+CREATE INDEX reminder_deadline_due_time ON reminder_deadline (due_time);
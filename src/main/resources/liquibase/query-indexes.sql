@@ -0,0 +1,25 @@
+-- liquibase formatted sql
+
+--changeset alexander:create_query_indexes labels:query-indexes
+--индексы под запросы репозиториев. Отчет по усыновлению за день уже ищется по уникальному индексу
+--*_report_adoption_date, для остальных запросов индексов не было, и H2 читал таблицы целиком.
+--Частичных индексов в H2 нет: условия IS NULL используют обычный индекс по колонке,
+--в которой NULL означает "еще не обработано".
+--Метка query-indexes нужна бенчмарку QueryIndexesBenchmarkTest, чтобы сравнить запросы без индексов и с ними
+
+--отчеты за день для волонтера
+CREATE INDEX dog_report_date ON dog_report (date);
+CREATE INDEX cat_report_date ON cat_report (date);
+--пересечение испытательных сроков пользователя и питомца: user_id/pet_id = ? AND date <= ? AND trial_date >= ?.
+--По trial_date идет диапазон, а date проверяется по самому индексу без чтения строк
+CREATE INDEX dog_adoption_user_trial ON dog_adoption (user_id, trial_date, date);
+CREATE INDEX cat_adoption_user_trial ON cat_adoption (user_id, trial_date, date);
+CREATE INDEX dog_adoption_pet_trial ON dog_adoption (pet_id, trial_date, date);
+CREATE INDEX cat_adoption_pet_trial ON cat_adoption (pet_id, trial_date, date);
+--активные усыновления (trial_date >= ?) и поздравления (trial_date = ?)
+CREATE INDEX dog_adoption_trial_date ON dog_adoption (trial_date);
+CREATE INDEX cat_adoption_trial_date ON cat_adoption (trial_date);
+--вопросы волонтеру без ответа: answer - TEXT, а answer_time пишется вместе с ответом
+CREATE INDEX message_to_volunteer_answer_time ON message_to_volunteer (answer_time);
+--невыполненные запросы обратной связи
+CREATE INDEX feedback_request_execution_time ON feedback_request (execution_time);
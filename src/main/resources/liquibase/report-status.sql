@@ -0,0 +1,31 @@
+-- liquibase formatted sql
+
+--changeset alexander:create_report_status
+--состояние отчетов по усыновлению одной строкой: последний день отчета, что в нем прислано
+--и последний день полного отчета. Бот и Notifier читают его вместо таблиц отчетов.
+--Отдельный файл: заполнение из отчетов использует photo_hash, который появляется в photo-store.yml
+CREATE TABLE report_status
+(
+    id                 INTEGER PRIMARY KEY AUTO_INCREMENT,
+    shelter_id         VARCHAR(3) NOT NULL,
+    adoption_id        INTEGER    NOT NULL,
+    date               DATE       NOT NULL,
+    photo              BOOLEAN    NOT NULL,
+    text               BOOLEAN    NOT NULL,
+    last_complete_date DATE
+);
+CREATE UNIQUE INDEX report_status_adoption ON report_status (shelter_id, adoption_id);
+
+--changeset alexander:fill_report_status
+INSERT INTO report_status (shelter_id, adoption_id, date, photo, text, last_complete_date)
+SELECT 'DOG', r.adoption_id, r.date, r.photo_hash IS NOT NULL, r.text IS NOT NULL,
+       (SELECT MAX(c.date) FROM dog_report c
+        WHERE c.adoption_id = r.adoption_id AND c.photo_hash IS NOT NULL AND c.text IS NOT NULL)
+FROM dog_report r
+WHERE r.date = (SELECT MAX(l.date) FROM dog_report l WHERE l.adoption_id = r.adoption_id);
+INSERT INTO report_status (shelter_id, adoption_id, date, photo, text, last_complete_date)
+SELECT 'CAT', r.adoption_id, r.date, r.photo_hash IS NOT NULL, r.text IS NOT NULL,
+       (SELECT MAX(c.date) FROM cat_report c
+        WHERE c.adoption_id = r.adoption_id AND c.photo_hash IS NOT NULL AND c.text IS NOT NULL)
+FROM cat_report r
+WHERE r.date = (SELECT MAX(l.date) FROM cat_report l WHERE l.adoption_id = r.adoption_id);
@@ -2,6 +2,7 @@ package pro.sky.courseworktelegrambot.controllers;
 
 import com.fasterxml.jackson.core.type.TypeReference;
 import com.fasterxml.jackson.databind.ObjectMapper;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 import org.mockito.Mockito;
@@ -10,26 +11,38 @@ import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.boot.test.autoconfigure.web.servlet.WebMvcTest;
 import org.springframework.boot.test.mock.mockito.MockBean;
 import org.springframework.boot.test.mock.mockito.SpyBean;
+import org.springframework.context.annotation.Import;
 import org.springframework.http.MediaType;
 import org.springframework.test.web.servlet.MockMvc;
+import org.springframework.test.web.servlet.MvcResult;
+import org.telegram.telegrambots.meta.api.objects.Message;
 import pro.sky.courseworktelegrambot.entities.*;
 import pro.sky.courseworktelegrambot.repositories.*;
 import pro.sky.courseworktelegrambot.services.AdoptionService;
+import pro.sky.courseworktelegrambot.services.PetService;
 import pro.sky.courseworktelegrambot.services.ShelterService;
 import pro.sky.courseworktelegrambot.services.TelegramBotSender;
+import pro.sky.courseworktelegrambot.timer.ReminderSchedule;
 
+import java.nio.charset.StandardCharsets;
 import java.time.LocalDate;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.Map;
 import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.stream.Stream;
 
 import static org.assertj.core.api.Assertions.assertThat;
 import static org.mockito.ArgumentMatchers.any;
 import static org.mockito.Mockito.*;
 import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.*;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.content;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.request;
 import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.status;
 
 @WebMvcTest(controllers = AdoptionController.class)
+@Import(SimpleMeterRegistry.class)
 public class AdoptionControllerTest {
 
     @Autowired
@@ -39,19 +52,22 @@ public class AdoptionControllerTest {
     private UserRepository userRepository;
 
     @MockBean
-    private DogRepository dogRepository;
+    private PetService petService;
 
     @MockBean
-    private CatRepository catRepository;
+    private ShelterRepository shelterRepository;
 
     @MockBean
-    private ShelterRepository shelterRepository;
+    private AdoptionRepository adoptionRepository;
+
+    @MockBean
+    private ReportRepository reportRepository;
 
     @MockBean
-    private DogAdoptionRepository dogAdoptionRepository;
+    private ReportStatusRepository reportStatusRepository;
 
     @MockBean
-    private CatAdoptionRepository catAdoptionRepository;
+    private NotificationLogRepository notificationLogRepository;
 
     @SpyBean
     private AdoptionService adoptionService;
@@ -62,6 +78,9 @@ public class AdoptionControllerTest {
     @MockBean
     private TelegramBotSender telegramBotSender;
 
+    @MockBean
+    private ReminderSchedule reminderSchedule;
+
     @Autowired
     private ObjectMapper objectMapper;
 
@@ -88,15 +107,15 @@ public class AdoptionControllerTest {
     public void createAdoptionTest() throws Exception {
         doNothing().when(shelterService).checkShelterId(ShelterId.DOG);
         when(userRepository.findById(user.getId())).thenReturn(Optional.of(user));
-        when(dogRepository.findById(pet.getId())).thenReturn(Optional.of(pet));
-        when(dogAdoptionRepository
-                .findByUserAndDateLessThanEqualAndTrialDateGreaterThanEqual(
-                        user, trialDate, LocalDate.now())).thenReturn(new ArrayList<>());
-        when(dogAdoptionRepository
-                .findByPetAndDateLessThanEqualAndTrialDateGreaterThanEqual(
-                        pet, trialDate, LocalDate.now())).thenReturn(new ArrayList<>());
+        when(petService.getPet(ShelterId.DOG, pet.getId())).thenReturn(pet);
+        when(adoptionRepository
+                .findByShelterIdAndUserAndDateLessThanEqualAndTrialDateGreaterThanEqual(
+                        ShelterId.DOG, user, trialDate, LocalDate.now())).thenReturn(new ArrayList<>());
+        when(adoptionRepository
+                .findByShelterIdAndPetIdAndDateLessThanEqualAndTrialDateGreaterThanEqual(
+                        ShelterId.DOG, pet.getId(), trialDate, LocalDate.now())).thenReturn(new ArrayList<>());
         //в save в качестве аргумента придет посторонний adoption, поэтому any()
-        when(dogAdoptionRepository.save(any())).thenReturn(adoption);
+        when(adoptionRepository.save(any())).thenReturn(adoption);
 
         AdoptionDTO adoptionDTO = new AdoptionDTO();
         adoptionDTO.setUserId(123);
@@ -116,7 +135,7 @@ public class AdoptionControllerTest {
                     //проверяем, что к нам вернулся объект, которым мы замокали репозиторий
                     assertThat(dogAdoption).isEqualTo(adoption);
                     //на вход save попадет объект c id = 0, не равный нашему возвращаемому adoption
-                    verify(dogAdoptionRepository, atLeast(1)).save(any());
+                    verify(adoptionRepository, atLeast(1)).save(any());
                     //надо бы проверить, что аргументы save соответствуют http-запросу
                     //assertThat(dogAdoption.getTrialDate()).isEqualTo(adoption.getTrialDate());
                 });
@@ -125,7 +144,7 @@ public class AdoptionControllerTest {
 
     @Test
     public void getAdoptionTest() throws Exception {
-        when(dogAdoptionRepository.findById(any())).thenReturn(Optional.of(adoption));
+        when(adoptionRepository.findByShelterIdAndId(eq(ShelterId.DOG), anyInt())).thenReturn(Optional.of(adoption));
         Mockito.doNothing().when(shelterService).checkShelterId(ShelterId.DOG);
         mockMvc.perform(
                 get("/adoption/DOG/1")
@@ -138,37 +157,43 @@ public class AdoptionControllerTest {
                     );
                     assertThat(dogAdoption).isEqualTo(adoption);
                 });
-        verify(dogAdoptionRepository, atLeast(1)).findById(any());
+        verify(adoptionRepository, atLeast(1)).findByShelterIdAndId(eq(ShelterId.DOG), anyInt());
     }
 
     @Test
     public void setTrialDateTest() throws Exception {
         doNothing().when(shelterService).checkShelterId(ShelterId.DOG);
-        when(dogAdoptionRepository.findById(adoption.getId())).thenReturn(Optional.of(adoption));
-        when(dogAdoptionRepository.save(adoption)).thenReturn(adoption);
+        when(adoptionRepository.findByShelterIdAndId(ShelterId.DOG, adoption.getId())).thenReturn(Optional.of(adoption));
+        when(adoptionRepository.save(adoption)).thenReturn(adoption);
+        //сообщение пользователю ушло
+        when(telegramBotSender.queueMessageToUser(any(), anyString(), anyInt()))
+                .thenReturn(CompletableFuture.completedFuture(new Message()));
+        when(telegramBotSender.withSendTimeout(any())).thenAnswer(invocation -> invocation.getArgument(0));
 
-        mockMvc.perform(
+        MvcResult mvcResult = mockMvc.perform(
                 put("/adoption/DOG/1?trial_date=01.01.2024")
                         //.contentType(MediaType.APPLICATION_JSON)
-        ).andExpect(status().isOk())
+        ).andExpect(request().asyncStarted()).andReturn();
+        //срок сохраняется после отправки сообщения, поэтому ответ асинхронный
+        mockMvc.perform(asyncDispatch(mvcResult)).andExpect(status().isOk())
                 .andExpect(result -> {
                     DogAdoption dogAdoption = objectMapper.readValue(
                             result.getResponse().getContentAsString(),
                             DogAdoption.class
                     );
-                    //к нам должен вернуться наш же adoption, который мы поручили вернуть dogAdoptionRepository.findById и save
+                    //к нам должен вернуться наш же adoption, который мы поручили вернуть adoptionRepository.findById и save
                     assertThat(dogAdoption).isEqualTo(adoption);
                     //но с измененной датой
                     assertThat(dogAdoption.getTrialDate()).isEqualTo(LocalDate.of(2024, 1, 1));
 
                 });
         //кроме того проверим, что был вызов save
-        verify(dogAdoptionRepository, new Times(1)).save(adoption);
+        verify(adoptionRepository, new Times(1)).save(adoption);
     }
 
     @Test
     public void deleteAdoption() throws Exception {
-        when(dogAdoptionRepository.findById(any())).thenReturn(Optional.of(adoption));
+        when(adoptionRepository.findByShelterIdAndId(eq(ShelterId.DOG), anyInt())).thenReturn(Optional.of(adoption));
         doNothing().when(shelterService).checkShelterId(ShelterId.DOG);
         mockMvc.perform(
                 delete("/adoption/DOG/1")
@@ -180,16 +205,17 @@ public class AdoptionControllerTest {
                             DogAdoption.class
                     );
                 });
-        verify(dogAdoptionRepository, new Times(1)).deleteById(any());
-        reset(dogAdoptionRepository);
+        verify(adoptionRepository, new Times(1)).deleteById(any());
+        verify(reportRepository).deleteByAdoption(1);
+        reset(adoptionRepository);
     }
 
     @Test
     public void getAllAdoptionsTest() throws Exception {
         doNothing().when(shelterService).checkShelterId(ShelterId.DOG);
-        List<DogAdoption> adoptions = new ArrayList<>();
+        List<Adoption> adoptions = new ArrayList<>();
         adoptions.add(adoption);
-        when(dogAdoptionRepository.findAll()).thenReturn(adoptions);
+        when(adoptionRepository.findByShelterId(ShelterId.DOG)).thenReturn(adoptions);
         mockMvc.perform(
                 get("/adoption/DOG/all")
                         //.contentType(MediaType.APPLICATION_JSON)
@@ -205,4 +231,28 @@ public class AdoptionControllerTest {
                 });
     }
 
+    @Test
+    public void exportAdoptionsTest() throws Exception {
+        LocalDate from = LocalDate.of(2023, 9, 1);
+        LocalDate to = LocalDate.of(2023, 9, 30);
+        doNothing().when(shelterService).checkShelterId(ShelterId.DOG);
+        //имя питомца запрос не возвращает: питомцы у каждого приюта в своей таблице
+        AdoptionExportView first = new AdoptionExportView(1, 123L, "Иван", 1, from, trialDate);
+        //питомец мог быть удален
+        AdoptionExportView second = new AdoptionExportView(2, 124L, "Петр", null, to, to.plusDays(30));
+        when(adoptionRepository.streamByDate(ShelterId.DOG, from, to)).thenAnswer(invocation -> Stream.of(first, second));
+        when(petService.getPetNames(ShelterId.DOG, null)).thenReturn(Map.of(1, "Тузик"));
+
+        String body = mockMvc.perform(get("/adoption/DOG/export?from=01.09.2023&to=30.09.2023"))
+                .andExpect(status().isOk())
+                .andExpect(content().contentTypeCompatibleWith(MediaType.APPLICATION_NDJSON))
+                .andReturn().getResponse().getContentAsString(StandardCharsets.UTF_8);
+
+        //по объекту в строке, без пробелов между строками
+        assertThat(body).isEqualTo(objectMapper.writeValueAsString(first.withPetName("Тузик")) + "\n"
+                + objectMapper.writeValueAsString(second) + "\n");
+        assertThat(objectMapper.readTree(body.split("\n")[0]).get("userName").asText()).isEqualTo("Иван");
+        assertThat(objectMapper.readTree(body.split("\n")[0]).get("petName").asText()).isEqualTo("Тузик");
+        verify(adoptionRepository, never()).streamByDate(eq(ShelterId.CAT), any(), any());
+    }
 }
@@ -12,6 +12,8 @@ import org.springframework.boot.test.mock.mockito.MockBean;
 import org.springframework.boot.test.mock.mockito.SpyBean;
 import org.springframework.http.MediaType;
 import org.springframework.test.web.servlet.MockMvc;
+import org.springframework.test.web.servlet.MvcResult;
+import org.telegram.telegrambots.meta.api.objects.Message;
 import pro.sky.courseworktelegrambot.entities.MessageToVolunteer;
 import pro.sky.courseworktelegrambot.entities.User;
 import pro.sky.courseworktelegrambot.repositories.MessageToVolunteerRepository;
@@ -23,10 +25,12 @@ import java.time.LocalDateTime;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
 
 import static org.assertj.core.api.Assertions.assertThat;
 import static org.mockito.Mockito.*;
 import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.*;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.request;
 import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.status;
 
 @WebMvcTest(controllers = MessageToVolunteerController.class)
@@ -83,7 +87,7 @@ public class MessageToVolunteerControllerTest {
         messageToVolunteers.add(messageToVolunteer1);
         messageToVolunteers.add(messageToVolunteer2);
 
-        when(messageToVolunteerRepository.findAllByAnswerIsNull()).thenReturn(messageToVolunteers);
+        when(messageToVolunteerRepository.findAllByAnswerTimeIsNull()).thenReturn(messageToVolunteers);
 
         mockMvc.perform(
                         get("/message_to_volunteer/all_without_answer")
@@ -109,11 +113,18 @@ public class MessageToVolunteerControllerTest {
         messageToVolunteer1.setAnswerTime(LocalDateTime.now());
         messageToVolunteer1.setAnswer(answer);
         when(messageToVolunteerRepository.save(any())).thenReturn(messageToVolunteer1);
+        //ответ пользователю ушел
+        when(telegramBot.queueMessageToUser(any(), anyString(), anyInt()))
+                .thenReturn(CompletableFuture.completedFuture(new Message()));
+        when(telegramBot.withSendTimeout(any())).thenAnswer(invocation -> invocation.getArgument(0));
 
-        mockMvc.perform(
+        MvcResult mvcResult = mockMvc.perform(
                 put("/message_to_volunteer/1/?answer={Answer}&replyToMessage={true}", answer, answerToMessage)
                         .contentType(MediaType.APPLICATION_JSON)
-        ).andExpect(status().isOk());
+        ).andExpect(request().asyncStarted()).andReturn();
+        //ответ сохраняется после отправки сообщения, поэтому результат асинхронный
+        mockMvc.perform(asyncDispatch(mvcResult)).andExpect(status().isOk());
+        verify(messageToVolunteerRepository).save(messageToVolunteer1);
 
         // not found checking
         when(messageToVolunteerRepository.findById(2)).thenReturn(Optional.empty());
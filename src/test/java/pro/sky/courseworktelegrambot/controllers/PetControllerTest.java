@@ -6,20 +6,25 @@ import org.junit.jupiter.api.Test;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.boot.test.autoconfigure.web.servlet.WebMvcTest;
 import org.springframework.boot.test.mock.mockito.MockBean;
+import org.springframework.core.io.ByteArrayResource;
+import org.springframework.http.HttpHeaders;
 import org.springframework.http.MediaType;
+import org.springframework.mock.web.MockMultipartFile;
 import org.springframework.test.web.servlet.MockMvc;
 import pro.sky.courseworktelegrambot.entities.Pet;
 import pro.sky.courseworktelegrambot.entities.ShelterId;
+import pro.sky.courseworktelegrambot.exceptions.NotAnImageException;
+import pro.sky.courseworktelegrambot.repositories.PetListView;
 import pro.sky.courseworktelegrambot.services.PetService;
+import pro.sky.courseworktelegrambot.services.StoredPhoto;
 
-import java.util.Arrays;
-import java.util.Collection;
+import java.util.List;
 
 import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.eq;
 import static org.mockito.Mockito.when;
 import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.*;
-import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.jsonPath;
-import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.status;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.*;
 /**
  * Тестовый класс для PetController
  */
@@ -66,6 +71,24 @@ public class PetControllerTest {
                 .andExpect(jsonPath("$.name").value("Тузик"));
     }
 
+    @Test
+    void getPetPhotoTest() throws Exception {
+        String photoHash = "a".repeat(64);
+        when(petService.getPetPhoto(ShelterId.DOG, 1)).thenReturn(new StoredPhoto(photoHash, "image/png", 4,
+                new ByteArrayResource(new byte[]{1, 2, 3, 4}), false));
+
+        mockMvc.perform(get("/pet/{shelter_id}/{pet_id}/photo", "DOG", 1))
+                .andExpect(status().isOk())
+                .andExpect(content().contentType(MediaType.IMAGE_PNG))
+                .andExpect(content().bytes(new byte[]{1, 2, 3, 4}))
+                .andExpect(header().string(HttpHeaders.ETAG, "\"" + photoHash + "\""))
+                .andExpect(header().string(HttpHeaders.CACHE_CONTROL, "private, no-cache"));
+        //фото не изменилось
+        mockMvc.perform(get("/pet/{shelter_id}/{pet_id}/photo", "DOG", 1)
+                        .header(HttpHeaders.IF_NONE_MATCH, "\"" + photoHash + "\""))
+                .andExpect(status().isNotModified());
+    }
+
     @Test
     void updatePetTest() throws Exception {
         when(petService.updatePet(any(ShelterId.class), any(Pet.class))).thenReturn(pet);
@@ -91,18 +114,34 @@ public class PetControllerTest {
 
     @Test
     void getAllPetsTest() throws Exception {
-        Pet pet1;
-        pet1 = new Pet();
-        pet1.setId(2);
-        pet1.setName("Басик");
-        Collection<Pet> pets = Arrays.asList(pet,pet1);
-        when(petService.getAllPets(any(ShelterId.class))).thenReturn(pets);
+        List<PetListView> pets = List.of(
+                new PetListView(1, "Тузик", null, 0, false, false),
+                new PetListView(2, "Басик", null, 0, true, false));
+        when(petService.getPets(ShelterId.DOG, 0, 100)).thenReturn(pets);
 
         mockMvc.perform(get("/pet/{shelter_id}/all", "DOG"))
                 .andExpect(status().isOk())
                 .andExpect(jsonPath("$[0].id").value(1))
                 .andExpect(jsonPath("$[0].name").value("Тузик"))
                 .andExpect(jsonPath("$[1].id").value(2))
-                .andExpect(jsonPath("$[1].name").value("Басик"));
+                .andExpect(jsonPath("$[1].name").value("Басик"))
+                .andExpect(jsonPath("$[1].hasPhoto").value(true));
+    }
+
+    @Test
+    void uploadNotImagePhotoTest() throws Exception {
+        when(petService.savePetPhoto(eq(ShelterId.DOG), eq(1), any()))
+                .thenThrow(new NotAnImageException("Photo type text/html is not supported"));
+        //тип, заявленный клиентом, не проверяется - сервис смотрит на сами байты
+        MockMultipartFile photo = new MockMultipartFile("photo", "cat.jpg", MediaType.IMAGE_JPEG_VALUE,
+                "<html><script>alert(1)</script></html>".getBytes());
+
+        mockMvc.perform(multipart("/pet/{shelter_id}/{pet_id}/photo", "DOG", 1)
+                        .file(photo)
+                        .with(request -> {
+                            request.setMethod("PUT");
+                            return request;
+                        }))
+                .andExpect(status().isBadRequest());
     }
-}
\ No newline at end of file
+}
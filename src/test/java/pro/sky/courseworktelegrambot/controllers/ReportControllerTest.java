@@ -1,6 +1,7 @@
 package pro.sky.courseworktelegrambot.controllers;
 
 import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.JsonNode;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
@@ -9,26 +10,34 @@ import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.boot.test.autoconfigure.web.servlet.WebMvcTest;
 import org.springframework.boot.test.mock.mockito.MockBean;
 import org.springframework.boot.test.mock.mockito.SpyBean;
+import org.springframework.core.io.ByteArrayResource;
+import org.springframework.http.HttpHeaders;
 import org.springframework.http.MediaType;
 import org.springframework.test.web.servlet.MockMvc;
 import pro.sky.courseworktelegrambot.entities.*;
-import pro.sky.courseworktelegrambot.repositories.CatAdoptionRepository;
-import pro.sky.courseworktelegrambot.repositories.CatReportRepository;
-import pro.sky.courseworktelegrambot.repositories.DogAdoptionRepository;
-import pro.sky.courseworktelegrambot.repositories.DogReportRepository;
+import pro.sky.courseworktelegrambot.repositories.ReportExportView;
+import pro.sky.courseworktelegrambot.repositories.ReportListView;
+import pro.sky.courseworktelegrambot.repositories.ReportPhotoView;
+import pro.sky.courseworktelegrambot.repositories.ReportRepository;
+import pro.sky.courseworktelegrambot.repositories.ReportStatusRepository;
 import pro.sky.courseworktelegrambot.repositories.UserRepository;
+import pro.sky.courseworktelegrambot.services.PhotoStore;
 import pro.sky.courseworktelegrambot.services.ReportService;
 import pro.sky.courseworktelegrambot.services.ShelterService;
 import pro.sky.courseworktelegrambot.services.TelegramBotSender;
 
+import java.nio.charset.StandardCharsets;
 import java.time.LocalDate;
 import java.util.List;
 import java.util.Optional;
+import java.util.stream.Stream;
 
 import static org.assertj.core.api.Assertions.assertThat;
 import static org.mockito.Mockito.*;
 import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.delete;
 import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.get;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.content;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.header;
 import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.status;
 
 @WebMvcTest(controllers = ReportController.class)
@@ -37,25 +46,22 @@ public class ReportControllerTest {
     @Autowired
     private MockMvc mockMvc;
     @MockBean
-    private DogReportRepository dogReportRepository;
+    private ReportRepository reportRepository;
 
     @MockBean
-    private CatReportRepository catReportRepository;
-
-    @MockBean
-    private DogAdoptionRepository dogAdoptionRepository;
+    private UserRepository userRepository;
 
     @MockBean
-    private CatAdoptionRepository catAdoptionRepository;
+    private ShelterService shelterService;
 
     @MockBean
-    private UserRepository userRepository;
+    private TelegramBotSender telegramBotSender;
 
     @MockBean
-    private ShelterService shelterService;
+    private PhotoStore photoStore;
 
     @MockBean
-    private TelegramBotSender telegramBotSender;
+    private ReportStatusRepository reportStatusRepository;
 
     @SpyBean
     private ReportService reportService;
@@ -89,7 +95,7 @@ public class ReportControllerTest {
     @Test
     public void getReportTest() throws Exception {
         Mockito.doNothing().when(shelterService).checkShelterId(ShelterId.DOG);
-        when(dogReportRepository.findById(any())).thenReturn(Optional.of(report));
+        when(reportRepository.findByShelterIdAndId(eq(ShelterId.DOG), anyInt())).thenReturn(Optional.of(report));
 
         mockMvc.perform(
                 get("/report/DOG/1")
@@ -102,13 +108,68 @@ public class ReportControllerTest {
                     );
                     assertThat(dogReport).isEqualTo(report);
                 });
-        verify(dogReportRepository, atLeast(1)).findById(any());
+        verify(reportRepository, atLeast(1)).findByShelterIdAndId(eq(ShelterId.DOG), anyInt());
+    }
+
+    @Test
+    public void getReportPhotoTest() throws Exception {
+        String photoHash = "a".repeat(64);
+        Mockito.doNothing().when(shelterService).checkShelterId(ShelterId.DOG);
+        //отчет прошлого дня - его фото уже не изменится
+        when(reportRepository.findPhotoById(ShelterId.DOG, 1)).thenReturn(Optional.of(
+                new ReportPhotoView(photoHash, "image/jpeg", 3, LocalDate.of(2023, 9, 27))));
+        when(photoStore.load(photoHash)).thenReturn(new ByteArrayResource(new byte[]{1, 2, 3}));
+
+        mockMvc.perform(get("/report/DOG/1/photo"))
+                .andExpect(status().isOk())
+                .andExpect(content().contentType(MediaType.IMAGE_JPEG))
+                .andExpect(content().bytes(new byte[]{1, 2, 3}))
+                .andExpect(header().string(HttpHeaders.ETAG, "\"" + photoHash + "\""))
+                .andExpect(header().string(HttpHeaders.CACHE_CONTROL, "private, max-age=31536000, immutable"))
+                .andExpect(header().string(HttpHeaders.ACCEPT_RANGES, "bytes"));
+        //отчет целиком не загружается
+        verify(reportRepository, never()).findByShelterIdAndId(any(), anyInt());
+
+        //часть фото
+        mockMvc.perform(get("/report/DOG/1/photo").header(HttpHeaders.RANGE, "bytes=1-"))
+                .andExpect(status().isPartialContent())
+                .andExpect(header().string(HttpHeaders.CONTENT_RANGE, "bytes 1-2/3"))
+                .andExpect(content().bytes(new byte[]{2, 3}));
+
+        //у браузера уже есть это фото
+        mockMvc.perform(get("/report/DOG/1/photo").header(HttpHeaders.IF_NONE_MATCH, "\"" + photoHash + "\""))
+                .andExpect(status().isNotModified());
+    }
+
+    @Test
+    public void getTodayReportPhotoIsRevalidatedTest() throws Exception {
+        String photoHash = "a".repeat(64);
+        Mockito.doNothing().when(shelterService).checkShelterId(ShelterId.DOG);
+        //сегодня пользователь еще может прислать другое фото
+        when(reportRepository.findPhotoById(ShelterId.DOG, 1)).thenReturn(Optional.of(
+                new ReportPhotoView(photoHash, "image/jpeg", 3, LocalDate.now())));
+        when(photoStore.load(photoHash)).thenReturn(new ByteArrayResource(new byte[]{1, 2, 3}));
+
+        mockMvc.perform(get("/report/DOG/1/photo"))
+                .andExpect(status().isOk())
+                .andExpect(header().string(HttpHeaders.CACHE_CONTROL, "private, no-cache"));
+    }
+
+    @Test
+    public void getReportPhotoWhenNoPhotoTest() throws Exception {
+        Mockito.doNothing().when(shelterService).checkShelterId(ShelterId.DOG);
+        when(reportRepository.findPhotoById(ShelterId.DOG, 1)).thenReturn(Optional.of(
+                new ReportPhotoView(null, null, 0, LocalDate.of(2023, 9, 27))));
+
+        mockMvc.perform(get("/report/DOG/1/photo"))
+                .andExpect(status().isNotFound());
+        verify(photoStore, never()).load(any());
     }
 
     @Test
     public void deleteReport() throws Exception {
         Mockito.doNothing().when(shelterService).checkShelterId(ShelterId.DOG);
-        when(dogReportRepository.findById(any())).thenReturn(Optional.of(report));
+        when(reportRepository.findByShelterIdAndId(eq(ShelterId.DOG), anyInt())).thenReturn(Optional.of(report));
 
         mockMvc.perform(
                 delete("/report/DOG/1")
@@ -121,37 +182,38 @@ public class ReportControllerTest {
                     );
                     assertThat(dogReport).isEqualTo(report);
                 });
-        verify(dogReportRepository, atLeast(1)).deleteById(any());
+        verify(reportRepository, atLeast(1)).deleteById(any());
     }
 
     @Test
     public void getAllReportsTest() throws Exception {
         Mockito.doNothing().when(shelterService).checkShelterId(ShelterId.DOG);
-        List<DogReport> dogReportList = List.of(report);
-        when(dogReportRepository.findAll()).thenReturn(dogReportList);
+        ReportListView view = new ReportListView(1, 1, LocalDate.of(2023, 9, 27),
+                false, false, "image/jpeg", 111);
+        when(reportRepository.findPage(eq(ShelterId.DOG), eq(1), eq(LocalDate.of(2023, 9, 1)), eq(LocalDate.of(2023, 9, 30)), any()))
+                .thenReturn(List.of(view));
 
         mockMvc.perform(
-                get("/report/DOG/all")
+                get("/report/DOG/all?after_id=1&limit=10&from=01.09.2023&to=30.09.2023")
                         .contentType(MediaType.APPLICATION_JSON)
         ).andExpect(status().isOk())
                 .andExpect(result -> {
-                    List<DogReport> dogReports = objectMapper.readValue(
+                    List<ReportListView> reports = objectMapper.readValue(
                             result.getResponse().getContentAsString(),
-                            new TypeReference<List<DogReport>>() {
+                            new TypeReference<List<ReportListView>>() {
                             }
                     );
-                    assertThat(dogReports).isNotNull().isNotEmpty();
-                    assertThat(dogReports.get(0).getDate()).isEqualTo(LocalDate.of(2023, 9, 27));
-                    assertThat(dogReports.size()).isEqualTo(dogReportList.size());
+                    assertThat(reports).containsExactly(view);
                 });
+        verify(reportRepository, never()).findAll();
     }
 
     @Test
     public void getReportsByDate() throws Exception {
         LocalDate date = LocalDate.of(2023, 9, 27);
         Mockito.doNothing().when(shelterService).checkShelterId(ShelterId.DOG);
-        List<DogReport> dogReportList = List.of(report);
-        when(dogReportRepository.findByDate(date)).thenReturn(dogReportList);
+        List<Report> dogReportList = List.of(report);
+        when(reportRepository.findByShelterIdAndDate(ShelterId.DOG, date)).thenReturn(dogReportList);
 
         mockMvc.perform(
                 get("/report/DOG/?date=27.09.2023", date)
@@ -168,4 +230,49 @@ public class ReportControllerTest {
                 });
     }
 
+    @Test
+    public void exportReportsTest() throws Exception {
+        LocalDate from = LocalDate.of(2023, 9, 1);
+        LocalDate to = LocalDate.of(2023, 9, 30);
+        Mockito.doNothing().when(shelterService).checkShelterId(ShelterId.DOG);
+        ReportExportView withPhoto = new ReportExportView(1, 1, 1L, 1, LocalDate.of(2023, 9, 27),
+                "Питомец здоров", "a".repeat(64), "image/jpeg", 111);
+        ReportExportView withoutPhoto = new ReportExportView(2, 1, 1L, 1, LocalDate.of(2023, 9, 28),
+                "Гуляем", null, null, 0);
+        when(reportRepository.streamByDate(ShelterId.DOG, from, to)).thenAnswer(invocation -> Stream.of(withPhoto, withoutPhoto));
+
+        String body = mockMvc.perform(get("/report/DOG/export?from=01.09.2023&to=30.09.2023&photo_links=true"))
+                .andExpect(status().isOk())
+                .andExpect(content().contentTypeCompatibleWith(MediaType.APPLICATION_NDJSON))
+                .andReturn().getResponse().getContentAsString(StandardCharsets.UTF_8);
+
+        //по объекту в строке, без пробелов между строками и внутри JSON
+        assertThat(body).isEqualTo(
+                objectMapper.writeValueAsString(withPhoto.withPhotoUrl("http://localhost/report/DOG/1/photo")) + "\n"
+                        + objectMapper.writeValueAsString(withoutPhoto) + "\n");
+        String[] lines = body.split("\n");
+        JsonNode first = objectMapper.readTree(lines[0]);
+        assertThat(first.get("photoUrl").asText()).isEqualTo("http://localhost/report/DOG/1/photo");
+        //ключ фото в хранилище не выгружается
+        assertThat(first.has("photoHash")).isFalse();
+        assertThat(objectMapper.readTree(lines[1]).has("photoUrl")).isFalse();
+    }
+
+    @Test
+    public void exportReportsWithoutPhotoLinksTest() throws Exception {
+        LocalDate from = LocalDate.of(2023, 9, 1);
+        LocalDate to = LocalDate.of(2023, 9, 30);
+        Mockito.doNothing().when(shelterService).checkShelterId(ShelterId.CAT);
+        ReportExportView view = new ReportExportView(3, 2, 2L, 1, LocalDate.of(2023, 9, 27),
+                "Мурлычет", "b".repeat(64), "image/jpeg", 222);
+        when(reportRepository.streamByDate(ShelterId.CAT, from, to)).thenAnswer(invocation -> Stream.of(view));
+
+        String body = mockMvc.perform(get("/report/CAT/export?from=01.09.2023&to=30.09.2023"))
+                .andExpect(status().isOk())
+                .andReturn().getResponse().getContentAsString(StandardCharsets.UTF_8);
+
+        assertThat(body).isEqualTo(objectMapper.writeValueAsString(view) + "\n");
+        assertThat(objectMapper.readTree(body).has("photoUrl")).isFalse();
+        verify(reportRepository, never()).streamByDate(eq(ShelterId.DOG), any(), any());
+    }
 }
@@ -2,6 +2,7 @@ package pro.sky.courseworktelegrambot.controllers;
 
 import com.fasterxml.jackson.core.type.TypeReference;
 import com.fasterxml.jackson.databind.ObjectMapper;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 import org.mockito.InjectMocks;
@@ -11,7 +12,9 @@ import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.boot.test.autoconfigure.web.servlet.WebMvcTest;
 import org.springframework.boot.test.mock.mockito.MockBean;
 import org.springframework.boot.test.mock.mockito.SpyBean;
+import org.springframework.context.annotation.Import;
 import org.springframework.http.MediaType;
+import org.springframework.test.util.ReflectionTestUtils;
 import org.springframework.test.web.servlet.MockMvc;
 import pro.sky.courseworktelegrambot.entities.Shelter;
 import pro.sky.courseworktelegrambot.entities.ShelterId;
@@ -29,6 +32,7 @@ import static org.springframework.test.web.servlet.request.MockMvcRequestBuilder
 import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.status;
 
 @WebMvcTest(controllers = ShelterController.class)
+@Import(SimpleMeterRegistry.class)
 public class ShelterControllerTest {
 
     @Autowired
@@ -65,6 +69,8 @@ public class ShelterControllerTest {
         shelter.setCommunication("communication");
         shelter.setCynologists("cynologists");
         shelter.setRefusalReasons("refusalReasons");
+        //сервис общий для тестов контекста: сбрасываем его кэш, чтобы приюты загрузились из заглушек теста
+        ReflectionTestUtils.invokeMethod(shelterService, "invalidate");
     }
 
     @Test
@@ -104,7 +110,7 @@ public class ShelterControllerTest {
 
     @Test
     public void getTest() throws Exception {
-        when(shelterRepository.findById(eq(ShelterId.DOG))).thenReturn(Optional.of(shelter));
+        when(shelterRepository.findAll()).thenReturn(List.of(shelter));
 
         mockMvc.perform(
                         get("/shelter/DOG")
@@ -133,11 +139,11 @@ public class ShelterControllerTest {
                     assertThat(shelter1.getCynologists()).isEqualTo(shelter.getCynologists());
                     assertThat(shelter1.getRefusalReasons()).isEqualTo(shelter.getRefusalReasons());
                 });
-        verify(shelterRepository, new Times(1)).findById(eq(ShelterId.DOG));
+        //приют берется из кэша
+        verify(shelterRepository, never()).findById(any());
 
         //not found checking
 
-        when(shelterRepository.findById(eq(ShelterId.CAT))).thenReturn(Optional.empty());
         mockMvc.perform(
                         get("/shelter/CAT")
                                 .contentType(MediaType.APPLICATION_JSON)
@@ -0,0 +1,73 @@
+package pro.sky.courseworktelegrambot.controllers;
+
+import org.junit.jupiter.api.Test;
+import org.mockito.ArgumentCaptor;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.web.servlet.WebMvcTest;
+import org.springframework.boot.test.mock.mockito.MockBean;
+import org.springframework.http.MediaType;
+import org.springframework.test.web.servlet.MockMvc;
+import org.telegram.telegrambots.meta.api.objects.Update;
+import pro.sky.courseworktelegrambot.services.TelegramBot;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.post;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.status;
+
+@WebMvcTest(controllers = WebhookController.class,
+        properties = {"telegram.bot.mode=webhook", "telegram.bot.webhook.secret=s3cret"})
+public class WebhookControllerTest {
+
+    @Autowired
+    private MockMvc mockMvc;
+
+    @MockBean
+    private TelegramBot telegramBot;
+
+    private final String update = "{\"update_id\":10," +
+            "\"message\":{\"message_id\":5,\"date\":1700000000," +
+            "\"chat\":{\"id\":77,\"type\":\"private\",\"first_name\":\"Иван\"}," +
+            "\"text\":\"Кошки\"}}";
+
+    @Test
+    public void receiveUpdateTest() throws Exception {
+        when(telegramBot.receiveUpdate(any())).thenReturn(true);
+        mockMvc.perform(
+                post("/telegram/webhook/s3cret")
+                        .contentType(MediaType.APPLICATION_JSON)
+                        .content(update)
+        ).andExpect(status().isOk());
+
+        //обновление ушло в общий конвейер обработки бота
+        ArgumentCaptor<Update> updateCaptor = ArgumentCaptor.forClass(Update.class);
+        verify(telegramBot).receiveUpdate(updateCaptor.capture());
+        assertThat(updateCaptor.getValue().getUpdateId()).isEqualTo(10);
+        assertThat(updateCaptor.getValue().getMessage().getChatId()).isEqualTo(77L);
+        assertThat(updateCaptor.getValue().getMessage().getText()).isEqualTo("Кошки");
+    }
+
+    @Test
+    public void receiveUpdateQueueFullTest() throws Exception {
+        //очередь чата переполнена: Telegram должен прислать обновление повторно
+        when(telegramBot.receiveUpdate(any())).thenReturn(false);
+        mockMvc.perform(
+                post("/telegram/webhook/s3cret")
+                        .contentType(MediaType.APPLICATION_JSON)
+                        .content(update)
+        ).andExpect(status().isServiceUnavailable());
+    }
+
+    @Test
+    public void receiveUpdateWrongSecretTest() throws Exception {
+        mockMvc.perform(
+                post("/telegram/webhook/wrong")
+                        .contentType(MediaType.APPLICATION_JSON)
+                        .content(update)
+        ).andExpect(status().isForbidden());
+        verify(telegramBot, never()).receiveUpdate(any());
+    }
+}
@@ -0,0 +1,209 @@
+package pro.sky.courseworktelegrambot.liquibase;
+
+import liquibase.Contexts;
+import liquibase.LabelExpression;
+import liquibase.Liquibase;
+import liquibase.database.Database;
+import liquibase.database.DatabaseFactory;
+import liquibase.database.jvm.JdbcConnection;
+import liquibase.resource.ClassLoaderResourceAccessor;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.condition.EnabledIfSystemProperty;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.datasource.SingleConnectionDataSource;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.sql.Connection;
+import java.sql.Date;
+import java.sql.DriverManager;
+import java.time.LocalDate;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * Бенчмарк индексов с меткой query-indexes (query-indexes.sql и shelter-tables.yml) на H2 с большим объемом данных.<br>
+ * Схема создается настоящими миграциями Liquibase целиком. Запросы измеряются с индексами,
+ * затем индексы с меткой query-indexes удаляются, и запросы измеряются еще раз - без них.
+ * Убирать changeset с меткой из миграций нельзя: create_query_indexes создает индексы таблиц dog_* и cat_*,
+ * которые shelter-tables.yml потом удаляет. Для каждого запроса репозиториев печатаются план H2
+ * и среднее время до и после индексов.
+ * Запросы - SQL, в который Hibernate переводит методы репозиториев: для DogAdoption и DogReport
+ * в общих таблицах adoption и report он добавляет условие на дискриминатор shelter_id.<br>
+ * Долгий, поэтому запускается только явно:
+ * <pre>mvn test -Dtest=QueryIndexesBenchmarkTest -Dbenchmark=true</pre>
+ * Объем задается -Dbenchmark.adoptions (по умолчанию 100 000 усыновлений собак)
+ * и -Dbenchmark.reports-per-adoption (по умолчанию 50, т.е. 5 млн отчетов).<br>
+ * Кроме вывода в консоль, планы и время до и после индексов пишутся в Markdown-файл
+ * -Dbenchmark.report (по умолчанию target/query-indexes-benchmark.md), чтобы приложить их к коммиту или PR.
+ */
+@EnabledIfSystemProperty(named = "benchmark", matches = "true")
+public class QueryIndexesBenchmarkTest {
+    private static final int ADOPTIONS = Integer.getInteger("benchmark.adoptions", 100_000);
+    private static final int REPORTS_PER_ADOPTION = Integer.getInteger("benchmark.reports-per-adoption", 50);
+    private static final int WARMUP = 3;
+    private static final int RUNS = 20;
+    //сгенерированные строки начинаются после данных, которые вставляют сами миграции
+    private static final int ID_OFFSET = 1000;
+    private static final long USER_ID_OFFSET = 1_000_000;
+    private static final String REPORT = System.getProperty("benchmark.report", "target/query-indexes-benchmark.md");
+    //индексы changeset с меткой query-indexes, действующие после shelter-tables.yml
+    private static final List<String> QUERY_INDEXES = List.of("report_date", "adoption_user_trial",
+            "adoption_pet_trial", "adoption_trial_date",
+            "message_to_volunteer_answer_time", "feedback_request_execution_time");
+
+    private final LocalDate today = LocalDate.now();
+
+    //запрос репозитория, его параметры и индекс, который он должен использовать после миграции
+    private record BenchmarkQuery(String name, String sql, String index, Object... args) {
+    }
+
+    //результат запроса: среднее время, число строк и план H2
+    private record Measurement(double millis, int rows, String plan) {
+    }
+
+    private List<BenchmarkQuery> queries() {
+        int adoption = ID_OFFSET + ADOPTIONS / 2;
+        Date date = Date.valueOf(today);
+        return List.of(
+                new BenchmarkQuery("ReportRepository.findByAdoptionIdAndDate",
+                        "SELECT id FROM report WHERE adoption_id = ? AND date = ?",
+                        "report_adoption_date", adoption, Date.valueOf(adoptionDate(adoption - ID_OFFSET))),
+                new BenchmarkQuery("ReportRepository.findByShelterIdAndDate",
+                        "SELECT id FROM report WHERE shelter_id = 'DOG' AND date = ?", "report_date", date),
+                new BenchmarkQuery("AdoptionRepository.findByShelterIdAndUserAnd...TrialDateGreaterThanEqual",
+                        "SELECT id FROM adoption WHERE shelter_id = 'DOG' AND user_id = ? AND date <= ? AND trial_date >= ?",
+                        "adoption_user_trial", USER_ID_OFFSET + adoption - ID_OFFSET, date, date),
+                new BenchmarkQuery("AdoptionRepository.findByShelterIdAndPetIdAnd...TrialDateGreaterThanEqual",
+                        "SELECT id FROM adoption WHERE shelter_id = 'DOG' AND pet_id = ? AND date <= ? AND trial_date >= ?",
+                        "adoption_pet_trial", adoption, date, date),
+                new BenchmarkQuery("AdoptionRepository.findByTrialDateGreaterThanEqual",
+                        "SELECT id FROM adoption WHERE trial_date >= ?", "adoption_trial_date", date),
+                new BenchmarkQuery("MessageToVolunteerRepository.findAllByAnswerTimeIsNull",
+                        "SELECT id FROM message_to_volunteer WHERE answer_time IS NULL",
+                        "message_to_volunteer_answer_time"),
+                new BenchmarkQuery("FeedbackRequestRepository.findAllByExecutionTimeIsNull",
+                        "SELECT id FROM feedback_request WHERE execution_time IS NULL",
+                        "feedback_request_execution_time"));
+    }
+
+    //усыновления равномерно разбросаны по последнему году, испытательный срок - 30 дней
+    private LocalDate adoptionDate(int number) {
+        return today.minusDays(number % 365);
+    }
+
+    @Test
+    public void queryIndexesBenchmark(@TempDir Path tempDir) throws Exception {
+        //файловая БД: 5 млн отчетов в память не помещаем
+        Connection connection = DriverManager.getConnection("jdbc:h2:" + tempDir.resolve("benchmark"), "sa", "");
+        Database database = DatabaseFactory.getInstance().findCorrectDatabaseImplementation(new JdbcConnection(connection));
+        try (Liquibase liquibase = new Liquibase("liquibase/changelog-master.yml",
+                new ClassLoaderResourceAccessor(), database)) {
+            liquibase.setChangeLogParameter("photo-store-path", tempDir.resolve("photos").toString());
+            JdbcTemplate jdbcTemplate = new JdbcTemplate(new SingleConnectionDataSource(connection, true));
+
+            liquibase.update(new Contexts(), new LabelExpression());
+            long start = System.nanoTime();
+            seed(jdbcTemplate);
+            String data = String.format("%d усыновлений, %d отчетов, загружены за %d с",
+                    ADOPTIONS, (long) ADOPTIONS * REPORTS_PER_ADOPTION, (System.nanoTime() - start) / 1_000_000_000);
+            System.out.println("Данные: " + data);
+            Map<String, Measurement> after = measure(jdbcTemplate, "С индексами query-indexes");
+            for (BenchmarkQuery query : queries()) {
+                assertThat(after.get(query.name()).plan()).as(query.name()).containsIgnoringCase(query.index());
+            }
+
+            QUERY_INDEXES.forEach(index -> jdbcTemplate.execute("DROP INDEX " + index));
+            jdbcTemplate.execute("ANALYZE");
+            Map<String, Measurement> before = measure(jdbcTemplate, "Без индексов query-indexes");
+
+            System.out.println();
+            System.out.printf("%-65s %12s %12s%n", "Запрос", "до, мс", "после, мс");
+            before.forEach((name, measurement) -> System.out.printf("%-65s %12.3f %12.3f%n",
+                    name, measurement.millis(), after.get(name).millis()));
+            Path report = writeReport(data, before, after);
+            System.out.println("Отчет: " + report.toAbsolutePath());
+        }
+    }
+
+    private void seed(JdbcTemplate jdbcTemplate) {
+        jdbcTemplate.update("INSERT INTO users (id, name, shelter_id, state_id) " +
+                "SELECT ? + X, 'User' || X, 'DOG', 'Shelter' FROM SYSTEM_RANGE(1, ?)", USER_ID_OFFSET, ADOPTIONS);
+        jdbcTemplate.update("INSERT INTO dog (id, name, breed, age, adopted) " +
+                "SELECT ? + X, 'Dog' || X, 'Дворняга', MOD(X, 15), TRUE FROM SYSTEM_RANGE(1, ?)", ID_OFFSET, ADOPTIONS);
+        //усыновление X: пользователь USER_ID_OFFSET + X, собака ID_OFFSET + X
+        jdbcTemplate.update("INSERT INTO adoption (id, shelter_id, user_id, pet_id, date, trial_date) " +
+                        "SELECT ? + X, 'DOG', ? + X, ? + X, DATEADD('DAY', -MOD(X, 365), ?), DATEADD('DAY', 30 - MOD(X, 365), ?) " +
+                        "FROM SYSTEM_RANGE(1, ?)",
+                ID_OFFSET, USER_ID_OFFSET, ID_OFFSET, Date.valueOf(today), Date.valueOf(today), ADOPTIONS);
+        //отчеты за дни подряд с даты усыновления. Каждый десятый - без фото
+        jdbcTemplate.update("INSERT INTO report (shelter_id, adoption_id, date, photo_hash, text, image_type, image_size) " +
+                        "SELECT 'DOG', ? + A, DATEADD('DAY', K - MOD(A, 365), ?), " +
+                        "CASE WHEN MOD(X, 10) = 0 THEN NULL ELSE REPEAT('a', 64) END, " +
+                        "'Питомец здоров', 'image/jpeg', 100000 " +
+                        "FROM (SELECT X, X / ? + 1 AS A, MOD(X, ?) AS K FROM SYSTEM_RANGE(0, ?))",
+                ID_OFFSET, Date.valueOf(today), REPORTS_PER_ADOPTION, REPORTS_PER_ADOPTION,
+                (long) ADOPTIONS * REPORTS_PER_ADOPTION - 1);
+        //на вопросы волонтеру и запросы обратной связи почти всегда уже ответили
+        jdbcTemplate.update("INSERT INTO message_to_volunteer (user_id, question_time, question, answer_time, answer) " +
+                "SELECT ? + X, NOW(), 'Вопрос', CASE WHEN MOD(X, 100) = 0 THEN NULL ELSE NOW() END, " +
+                "CASE WHEN MOD(X, 100) = 0 THEN NULL ELSE 'Ответ' END FROM SYSTEM_RANGE(1, ?)", USER_ID_OFFSET, ADOPTIONS);
+        jdbcTemplate.update("INSERT INTO feedback_request (user_id, request_time, contact, execution_time) " +
+                "SELECT ? + X, NOW(), 'Телефон', CASE WHEN MOD(X, 100) = 0 THEN NULL ELSE NOW() END " +
+                "FROM SYSTEM_RANGE(1, ?)", USER_ID_OFFSET, ADOPTIONS);
+        jdbcTemplate.execute("ANALYZE");
+    }
+
+    //печатает план и среднее время каждого запроса. Возвращает результаты по имени запроса
+    private Map<String, Measurement> measure(JdbcTemplate jdbcTemplate, String title) {
+        System.out.println();
+        System.out.println("=== " + title + " ===");
+        Map<String, Measurement> result = new LinkedHashMap<>();
+        for (BenchmarkQuery query : queries()) {
+            for (int i = 0; i < WARMUP; i++) {
+                jdbcTemplate.queryForList(query.sql(), query.args());
+            }
+            long start = System.nanoTime();
+            int rows = 0;
+            for (int i = 0; i < RUNS; i++) {
+                rows = jdbcTemplate.queryForList(query.sql(), query.args()).size();
+            }
+            double millis = (System.nanoTime() - start) / 1_000_000.0 / RUNS;
+            String plan = plan(jdbcTemplate, query);
+            result.put(query.name(), new Measurement(millis, rows, plan));
+            System.out.printf("%s: %.3f мс, строк %d%n%s%n", query.name(), millis, rows, plan);
+        }
+        return result;
+    }
+
+    //Markdown: таблица времени и планы каждого запроса до и после индексов
+    private Path writeReport(String data, Map<String, Measurement> before, Map<String, Measurement> after)
+            throws IOException {
+        StringBuilder report = new StringBuilder();
+        report.append("# Индексы query-indexes на H2\n\n")
+                .append("Данные: ").append(data).append(". Среднее время из ").append(RUNS)
+                .append(" запусков после ").append(WARMUP).append(" прогревочных.\n\n")
+                .append("| Запрос | Строк | До, мс | После, мс |\n")
+                .append("|---|---:|---:|---:|\n");
+        before.forEach((name, measurement) -> report.append(String.format(Locale.ROOT, "| %s | %d | %.3f | %.3f |%n",
+                name, measurement.rows(), measurement.millis(), after.get(name).millis())));
+        before.forEach((name, measurement) -> report.append("\n## ").append(name).append("\n\n")
+                .append("До:\n```sql\n").append(measurement.plan()).append("\n```\n")
+                .append("После:\n```sql\n").append(after.get(name).plan()).append("\n```\n"));
+        Path file = Path.of(REPORT);
+        if (file.getParent() != null) {
+            Files.createDirectories(file.getParent());
+        }
+        return Files.writeString(file, report);
+    }
+
+    private String plan(JdbcTemplate jdbcTemplate, BenchmarkQuery query) {
+        return jdbcTemplate.queryForObject("EXPLAIN " + query.sql(), String.class, query.args());
+    }
+}
@@ -0,0 +1,153 @@
+package pro.sky.courseworktelegrambot.liquibase;
+
+import liquibase.Contexts;
+import liquibase.LabelExpression;
+import liquibase.Liquibase;
+import liquibase.changelog.ChangeSet;
+import liquibase.database.Database;
+import liquibase.database.DatabaseFactory;
+import liquibase.database.jvm.JdbcConnection;
+import liquibase.resource.ClassLoaderResourceAccessor;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.datasource.SingleConnectionDataSource;
+import pro.sky.courseworktelegrambot.services.FileSystemPhotoStore;
+
+import java.nio.file.Path;
+import java.security.MessageDigest;
+import java.sql.Connection;
+import java.sql.Date;
+import java.sql.DriverManager;
+import java.time.LocalDate;
+import java.util.Arrays;
+import java.util.HexFormat;
+import java.util.List;
+import java.util.Map;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * Тест миграций MovePhotosToStoreChange и MergeShelterTablesChange на H2.<br>
+ * Changelog применяется по частям: до переноса фото, затем до слияния таблиц приютов, затем до конца.
+ * Перед каждой миграцией таблицы заполняются так, как их заполнила бы прежняя версия бота.
+ */
+public class ShelterMigrationsTest {
+    //заголовок JPEG: по нему миграция определяет MIME-тип, если он не был сохранен
+    private static final byte[] JPEG_HEADER = {(byte) 0xFF, (byte) 0xD8, (byte) 0xFF, (byte) 0xE0,
+            0x00, 0x10, 'J', 'F', 'I', 'F', 0x00, 0x01, 0x01};
+
+    private final LocalDate date = LocalDate.of(2023, 10, 1);
+
+    private byte[] jpeg(int size, byte fill) {
+        byte[] data = new byte[size];
+        Arrays.fill(data, fill);
+        System.arraycopy(JPEG_HEADER, 0, data, 0, JPEG_HEADER.length);
+        return data;
+    }
+
+    private static String sha256(byte[] data) throws Exception {
+        return HexFormat.of().formatHex(MessageDigest.getInstance("SHA-256").digest(data));
+    }
+
+    //применяет changeset до заданного, не включая его
+    private void updateUntil(Liquibase liquibase, String changeSetId) throws Exception {
+        List<ChangeSet> unrun = liquibase.listUnrunChangeSets(new Contexts(), new LabelExpression());
+        int count = 0;
+        while (!unrun.get(count).getId().equals(changeSetId)) {
+            count++;
+        }
+        liquibase.update(count, new Contexts(), new LabelExpression());
+    }
+
+    @Test
+    public void photosAndShelterTablesAreMigratedTest(@TempDir Path tempDir) throws Exception {
+        Path storePath = tempDir.resolve("photos");
+        Connection connection = DriverManager.getConnection("jdbc:h2:mem:shelter_migrations", "sa", "");
+        Database database = DatabaseFactory.getInstance().findCorrectDatabaseImplementation(new JdbcConnection(connection));
+        try (Liquibase liquibase = new Liquibase("liquibase/changelog-master.yml",
+                new ClassLoaderResourceAccessor(), database)) {
+            liquibase.setChangeLogParameter("photo-store-path", storePath.toString());
+            JdbcTemplate jdbcTemplate = new JdbcTemplate(new SingleConnectionDataSource(connection, true));
+
+            //фото еще в BLOB-колонках. Миграции уже создали собак 1, 2, кошек 1, 2
+            //и усыновление собаки 1 (id 1) пользователем 340330886
+            updateUntil(liquibase, "move_photos_to_store");
+            byte[] reportPhoto = jpeg(1000, (byte) 1);
+            byte[] catReportPhoto = jpeg(2000, (byte) 2);
+            jdbcTemplate.update("INSERT INTO dog_adoption (id, user_id, pet_id, date, trial_date) VALUES (2, 11, 2, ?, ?)",
+                    Date.valueOf(date), Date.valueOf(date.plusDays(30)));
+            jdbcTemplate.update("INSERT INTO cat_adoption (id, user_id, pet_id, date, trial_date) VALUES " +
+                    "(1, 22, 1, ?, ?), (2, 22, 2, ?, ?)", Date.valueOf(date), Date.valueOf(date.plusDays(30)),
+                    Date.valueOf(date.plusDays(1)), Date.valueOf(date.plusDays(31)));
+            jdbcTemplate.update("INSERT INTO dog_report (id, adoption_id, date, photo, text, image_type, image_size) " +
+                    "VALUES (1, 1, ?, ?, 'Здоров', 'image/jpeg', 1), (2, 2, ?, NULL, 'Гуляем', NULL, NULL)",
+                    Date.valueOf(date), reportPhoto, Date.valueOf(date));
+            //тип фото не сохранен - миграция определит его по байтам
+            jdbcTemplate.update("INSERT INTO cat_report (id, adoption_id, date, photo, text, image_type, image_size) " +
+                    "VALUES (1, 2, ?, ?, 'Мурлычет', NULL, NULL)", Date.valueOf(date.plusDays(1)), catReportPhoto);
+            //такое же фото у собаки 2 хранится один раз
+            jdbcTemplate.update("UPDATE dog SET photo = ? WHERE id = 2", (Object) reportPhoto);
+            jdbcTemplate.update("INSERT INTO notification_log (shelter_id, adoption_id, kind, date, sent_time) " +
+                    "VALUES ('DOG', 1, 'REPORT_REMINDER', ?, NOW()), ('CAT', 2, 'REPORT_REMINDER', ?, NOW())",
+                    Date.valueOf(date), Date.valueOf(date));
+            jdbcTemplate.update("INSERT INTO reminder_deadline (shelter_id, adoption_id, kind, date, due_time) " +
+                    "VALUES ('CAT', 1, 'CONGRATULATION', ?, NOW())", Date.valueOf(date.plusDays(30)));
+
+            updateUntil(liquibase, "move_to_shelter_tables");
+            FileSystemPhotoStore photoStore = new FileSystemPhotoStore(storePath.toString());
+            String reportHash = sha256(reportPhoto);
+            String catReportHash = sha256(catReportPhoto);
+            assertThat(jdbcTemplate.queryForMap("SELECT photo_hash, image_type, image_size FROM dog_report WHERE id = 1"))
+                    .containsEntry("PHOTO_HASH", reportHash)
+                    .containsEntry("IMAGE_TYPE", "image/jpeg")
+                    .containsEntry("IMAGE_SIZE", reportPhoto.length);
+            assertThat(jdbcTemplate.queryForObject("SELECT photo_hash FROM dog_report WHERE id = 2", String.class))
+                    .isNull();
+            assertThat(jdbcTemplate.queryForMap("SELECT photo_hash, image_type, image_size FROM cat_report WHERE id = 1"))
+                    .containsEntry("PHOTO_HASH", catReportHash)
+                    .containsEntry("IMAGE_TYPE", "image/jpeg")
+                    .containsEntry("IMAGE_SIZE", catReportPhoto.length);
+            assertThat(jdbcTemplate.queryForMap("SELECT photo_hash, photo_type, photo_size FROM dog WHERE id = 2"))
+                    .containsEntry("PHOTO_HASH", reportHash)
+                    .containsEntry("PHOTO_TYPE", "image/jpeg")
+                    .containsEntry("PHOTO_SIZE", (long) reportPhoto.length);
+            assertThat(photoStore.load(reportHash).getInputStream().readAllBytes()).isEqualTo(reportPhoto);
+            assertThat(photoStore.load(catReportHash).getInputStream().readAllBytes()).isEqualTo(catReportPhoto);
+
+            liquibase.update(new Contexts(), new LabelExpression());
+
+            //id собак сохраняются, id кошек сдвигаются на максимальный id собак: усыновлений - на 2, отчетов - на 2
+            assertThat(jdbcTemplate.queryForList("SELECT id, shelter_id, user_id, pet_id FROM adoption ORDER BY id"))
+                    .containsExactly(
+                            Map.of("ID", 1, "SHELTER_ID", "DOG", "USER_ID", 340330886L, "PET_ID", 1),
+                            Map.of("ID", 2, "SHELTER_ID", "DOG", "USER_ID", 11L, "PET_ID", 2),
+                            Map.of("ID", 3, "SHELTER_ID", "CAT", "USER_ID", 22L, "PET_ID", 1),
+                            Map.of("ID", 4, "SHELTER_ID", "CAT", "USER_ID", 22L, "PET_ID", 2));
+            assertThat(jdbcTemplate.queryForList("SELECT id, shelter_id, adoption_id FROM report ORDER BY id"))
+                    .containsExactly(
+                            Map.of("ID", 1, "SHELTER_ID", "DOG", "ADOPTION_ID", 1),
+                            Map.of("ID", 2, "SHELTER_ID", "DOG", "ADOPTION_ID", 2),
+                            Map.of("ID", 3, "SHELTER_ID", "CAT", "ADOPTION_ID", 4));
+            assertThat(jdbcTemplate.queryForObject("SELECT photo_hash FROM report WHERE id = 3", String.class))
+                    .isEqualTo(catReportHash);
+            //ссылки на усыновления кошек сдвинуты так же
+            assertThat(jdbcTemplate.queryForList("SELECT shelter_id, adoption_id FROM notification_log ORDER BY shelter_id"))
+                    .containsExactly(
+                            Map.of("SHELTER_ID", "CAT", "ADOPTION_ID", 4),
+                            Map.of("SHELTER_ID", "DOG", "ADOPTION_ID", 1));
+            assertThat(jdbcTemplate.queryForObject("SELECT adoption_id FROM reminder_deadline WHERE shelter_id = 'CAT'",
+                    Integer.class)).isEqualTo(3);
+            assertThat(jdbcTemplate.queryForList("SELECT shelter_id, adoption_id FROM report_status ORDER BY adoption_id"))
+                    .containsExactly(
+                            Map.of("SHELTER_ID", "DOG", "ADOPTION_ID", 1),
+                            Map.of("SHELTER_ID", "DOG", "ADOPTION_ID", 2),
+                            Map.of("SHELTER_ID", "CAT", "ADOPTION_ID", 4));
+
+            //новые строки нумеруются после перенесенных
+            jdbcTemplate.update("INSERT INTO adoption (shelter_id, user_id, pet_id, date, trial_date) " +
+                    "VALUES ('CAT', 11, 1, ?, ?)", Date.valueOf(date.plusDays(60)), Date.valueOf(date.plusDays(90)));
+            assertThat(jdbcTemplate.queryForObject("SELECT MAX(id) FROM adoption", Integer.class)).isEqualTo(5);
+        }
+    }
+}
@@ -0,0 +1,241 @@
+package pro.sky.courseworktelegrambot.loadtest;
+
+import org.hibernate.SessionFactory;
+import org.hibernate.stat.Statistics;
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.condition.EnabledIfSystemProperty;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.test.context.DynamicPropertyRegistry;
+import org.springframework.test.context.DynamicPropertySource;
+
+import javax.persistence.EntityManagerFactory;
+import java.io.IOException;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * Нагрузочный тест бота целиком: приложение с БД H2 в памяти получает обновления long polling
+ * от заглушки Bot API ({@link StubTelegramServer}) и отвечает ей же.<br>
+ * Тысячи чатов одновременно проходят меню: выбирают приют, читают информацию о приюте,
+ * сдают отчет с фото и текстом и возвращаются к выбору приюта. Следующее сообщение чат шлет,
+ * получив ответ с клавиатурой на предыдущее. Если ответ отклонен ошибкой 429, чат через секунду
+ * повторяет сообщение, как живой пользователь.<br>
+ * Печатается число обновлений в секунду, p50/p99 времени от отправки сообщения до ответа
+ * и число SQL-запросов Hibernate на обновление (запросы JdbcTemplate в статистику Hibernate не попадают).<br>
+ * Запускается только явно:
+ * <pre>mvn test -Dtest=BotLoadTest -Dloadtest=true</pre>
+ * Параметры: -Dloadtest.chats (по умолчанию 2000), -Dloadtest.rounds - сколько раз чат проходит меню (2),
+ * -Dloadtest.latency - задержка ответов заглушки в мс (20), -Dloadtest.rate-limited - доля ответов 429 (0.01),
+ * -Dloadtest.photo-size - размер фото в байтах (51200), -Dloadtest.timeout - предельная длительность в секундах (600).
+ * Настройки приложения, например -Dtelegram.bot.dispatcher.threads=16, передаются так же.
+ */
+@EnabledIfSystemProperty(named = "loadtest", matches = "true")
+@SpringBootTest(properties = {
+        "spring.datasource.url=jdbc:h2:mem:loadtest;DB_CLOSE_DELAY=-1",
+        "photo.store.path=./target/loadtest-photos",
+        "spring.jpa.properties.hibernate.generate_statistics=true",
+        "telegram.bot.mode=polling",
+        "telegram.bot.token=" + StubTelegramServer.TOKEN})
+public class BotLoadTest {
+    private static final int CHATS = Integer.getInteger("loadtest.chats", 2000);
+    private static final int ROUNDS = Integer.getInteger("loadtest.rounds", 2);
+    private static final long LATENCY = Long.getLong("loadtest.latency", 20);
+    private static final double RATE_LIMITED = Double.parseDouble(System.getProperty("loadtest.rate-limited", "0.01"));
+    private static final int PHOTO_SIZE = Integer.getInteger("loadtest.photo-size", 51200);
+    private static final long TIMEOUT = Long.getLong("loadtest.timeout", 600);
+    private static final long CHAT_ID_OFFSET = 1_000_000;
+    //через сколько повторить сообщение, отклоненное 429 (retry_after заглушки)
+    private static final long RETRY_AFTER_MILLIS = 1000;
+
+    //шаг сценария: текст или фото (text == null)
+    private record Step(String text) {
+    }
+
+    //один проход меню. Пользователь изначально в состоянии Shelter, у него есть активное усыновление
+    private static final List<Step> SCRIPT = List.of(
+            new Step("Собаки"),
+            new Step("Узнать информацию о приюте (этап 1)"),
+            new Step("Рассказать о приюте"),
+            new Step("Назад к выбору этапа"),
+            new Step("Прислать отчет о питомце (этап 3)"),
+            new Step(null),
+            new Step("Питомец здоров, хорошо ест и гуляет"),
+            new Step("Назад к кнопкам"),
+            new Step("Назад к выбору приюта"));
+
+    private static StubTelegramServer stub;
+
+    @Autowired
+    private JdbcTemplate jdbcTemplate;
+    @Autowired
+    private EntityManagerFactory entityManagerFactory;
+
+    private final Map<Long, SimulatedChat> chats = new ConcurrentHashMap<>();
+    private final ScheduledExecutorService retryExecutor = Executors.newSingleThreadScheduledExecutor();
+    private final AtomicLong updatesSent = new AtomicLong();
+    private CountDownLatch finished;
+
+    //заглушка стартует раньше контекста: бот при старте регистрируется в ней
+    @DynamicPropertySource
+    static void stubProperties(DynamicPropertyRegistry registry) throws IOException {
+        byte[] photo = Arrays.copyOf(new byte[]{(byte) 0xFF, (byte) 0xD8, (byte) 0xFF, (byte) 0xE0, 0x00, 0x10,
+                'J', 'F', 'I', 'F', 0x00, 0x01, 0x01}, PHOTO_SIZE);
+        stub = new StubTelegramServer(LATENCY, RATE_LIMITED, photo, 64);
+        stub.start();
+        String url = stub.getUrl();
+        registry.add("telegram.bot.api-url", () -> url + "/bot");
+        registry.add("file_info.uri", () -> url + "/bot{telegram.bot.token}/getFile?file_id={fileId}");
+        registry.add("file_storage.uri", () -> url + "/file/bot{token}/{filePath}");
+    }
+
+    @AfterAll
+    static void stopStub() {
+        if (stub != null) {
+            stub.stop();
+        }
+    }
+
+    //чат с пользователем: номер шага сценария и время отправки текущего сообщения
+    private final class SimulatedChat {
+        private final long id;
+        private final List<Long> latencies = new ArrayList<>();
+        private int step;
+        private long stepStarted;
+
+        SimulatedChat(long id) {
+            this.id = id;
+        }
+
+        synchronized void start() {
+            stepStarted = System.nanoTime();
+            send();
+        }
+
+        //ответ с клавиатурой завершает шаг
+        synchronized void onReply() {
+            latencies.add(System.nanoTime() - stepStarted);
+            step++;
+            if (step == SCRIPT.size() * ROUNDS) {
+                finished.countDown();
+                return;
+            }
+            stepStarted = System.nanoTime();
+            send();
+        }
+
+        //шаг повторяется, время отсчитывается от первой отправки
+        synchronized void onRejected() {
+            retryExecutor.schedule(this::resend, RETRY_AFTER_MILLIS, TimeUnit.MILLISECONDS);
+        }
+
+        private synchronized void resend() {
+            send();
+        }
+
+        private void send() {
+            Step current = SCRIPT.get(step % SCRIPT.size());
+            if (current.text() == null) {
+                stub.addPhotoMessage(id);
+            } else {
+                stub.addTextMessage(id, current.text());
+            }
+            updatesSent.incrementAndGet();
+        }
+
+        synchronized List<Long> getLatencies() {
+            return latencies;
+        }
+    }
+
+    @Test
+    public void loadTest() throws InterruptedException {
+        //пользователи уже выбирают приют, у каждого - испытательный срок в приюте собак
+        LocalDate today = LocalDate.now();
+        jdbcTemplate.update("INSERT INTO users (id, name, shelter_id, state_id) " +
+                "SELECT ? + X, 'User' || X, 'DOG', 'Shelter' FROM SYSTEM_RANGE(1, ?)", CHAT_ID_OFFSET, CHATS);
+        jdbcTemplate.update("INSERT INTO adoption (shelter_id, user_id, date, trial_date) " +
+                        "SELECT 'DOG', ? + X, ?, ? FROM SYSTEM_RANGE(1, ?)",
+                CHAT_ID_OFFSET, today.minusDays(1), today.plusDays(30), CHATS);
+
+        for (long id = CHAT_ID_OFFSET + 1; id <= CHAT_ID_OFFSET + CHATS; id++) {
+            chats.put(id, new SimulatedChat(id));
+        }
+        finished = new CountDownLatch(CHATS);
+        stub.setListener(new StubTelegramServer.Listener() {
+            @Override
+            public void onMessage(long chatId, boolean keyboard) {
+                SimulatedChat chat = chats.get(chatId);
+                if (chat != null && keyboard) {
+                    chat.onReply();
+                }
+            }
+
+            @Override
+            public void onRejected(long chatId) {
+                SimulatedChat chat = chats.get(chatId);
+                if (chat != null) {
+                    chat.onRejected();
+                }
+            }
+        });
+
+        Statistics statistics = entityManagerFactory.unwrap(SessionFactory.class).getStatistics();
+        statistics.clear();
+        long start = System.nanoTime();
+        chats.values().forEach(SimulatedChat::start);
+        boolean completed = finished.await(TIMEOUT, TimeUnit.SECONDS);
+        double seconds = (System.nanoTime() - start) / 1e9;
+        long statements = statistics.getPrepareStatementCount();
+        stub.setListener(null);
+        retryExecutor.shutdownNow();
+
+        long[] latencies = chats.values().stream()
+                .flatMap(chat -> chat.getLatencies().stream())
+                .mapToLong(Long::longValue)
+                .sorted()
+                .toArray();
+        long updates = updatesSent.get();
+
+        System.out.println();
+        System.out.printf("%-34s %12d%n", "чатов", CHATS);
+        System.out.printf("%-34s %12d%n", "обновлений", updates);
+        System.out.printf("%-34s %12.1f%n", "обновлений в секунду", updates / seconds);
+        System.out.printf("%-34s %12.1f%n", "p50, мс", percentile(latencies, 0.50));
+        System.out.printf("%-34s %12.1f%n", "p99, мс", percentile(latencies, 0.99));
+        System.out.printf("%-34s %12d%n", "ответов бота", stub.getSent());
+        System.out.printf("%-34s %12d%n", "ответов 429", stub.getRejected());
+        System.out.printf("%-34s %12d%n", "скачано фото", stub.getFilesServed());
+        System.out.printf("%-34s %12d%n", "SQL (Hibernate)", statements);
+        System.out.printf("%-34s %12.2f%n", "SQL (Hibernate) на обновление", (double) statements / updates);
+
+        assertThat(completed).as("все чаты прошли сценарий за %d с", TIMEOUT).isTrue();
+        //отчет за сегодня с фото и текстом - по каждому усыновлению
+        Integer reports = jdbcTemplate.queryForObject("SELECT COUNT(*) FROM report r " +
+                        "JOIN adoption a ON a.id = r.adoption_id " +
+                        "WHERE a.user_id > ? AND r.date = ? AND r.photo_hash IS NOT NULL AND r.text IS NOT NULL",
+                Integer.class, CHAT_ID_OFFSET, today);
+        assertThat(reports).isEqualTo(CHATS);
+    }
+
+    private static double percentile(long[] sorted, double percentile) {
+        if (sorted.length == 0) {
+            return 0;
+        }
+        int index = (int) Math.ceil(percentile * sorted.length) - 1;
+        return sorted[Math.max(index, 0)] / 1e6;
+    }
+}
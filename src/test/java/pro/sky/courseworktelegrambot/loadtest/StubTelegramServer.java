@@ -0,0 +1,305 @@
+package pro.sky.courseworktelegrambot.loadtest;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ArrayNode;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Заглушка Telegram Bot API для нагрузочного теста: встроенный HTTP-сервер JDK.<br>
+ * Реализует то, чем пользуется бот: getUpdates (long polling), sendMessage, getFile,
+ * скачивание файла и удаление webhook при регистрации бота.
+ * Обновления для бота кладет в очередь генератор нагрузки ({@link #addUpdate}),
+ * ответы бота передаются ему же через {@link Listener}.<br>
+ * Ответы sendMessage, getFile и файлы отдаются с задержкой latencyMillis,
+ * а доля rateLimitedShare ответов sendMessage - ошибка 429 Too Many Requests, как у настоящего Telegram.
+ */
+public class StubTelegramServer {
+    public static final String TOKEN = "loadtest";
+
+    //сколько секунд держать запрос getUpdates без обновлений. Меньше, чем просит бот, чтобы быстро останавливаться
+    private static final int MAX_POLL_SECONDS = 5;
+    private static final int DEFAULT_UPDATES_LIMIT = 100;
+
+    /**
+     * Получатель сообщений, отправленных ботом.
+     */
+    public interface Listener {
+        /**
+         * Бот отправил сообщение в чат.
+         *
+         * @param chatId   идентификатор чата
+         * @param keyboard true, если к сообщению приложена клавиатура
+         */
+        void onMessage(long chatId, boolean keyboard);
+
+        /**
+         * Сообщение в чат отклонено ответом 429 и до пользователя не дошло.
+         *
+         * @param chatId идентификатор чата
+         */
+        void onRejected(long chatId);
+    }
+
+    private final ObjectMapper objectMapper = new ObjectMapper();
+    private final HttpServer server;
+    private final ExecutorService executor;
+    private final long latencyMillis;
+    private final double rateLimitedShare;
+    private final byte[] photo;
+    private volatile Listener listener;
+
+    private final BlockingQueue<ObjectNode> updates = new LinkedBlockingQueue<>();
+    private final AtomicInteger updateId = new AtomicInteger();
+    private final AtomicInteger messageId = new AtomicInteger();
+    private final AtomicLong sent = new AtomicLong();
+    private final AtomicLong rejected = new AtomicLong();
+    private final AtomicLong filesServed = new AtomicLong();
+
+    /**
+     * @param latencyMillis    задержка ответов sendMessage, getFile и файлов
+     * @param rateLimitedShare доля ответов sendMessage с ошибкой 429, от 0 до 1
+     * @param photo            содержимое файла, который отдается на любой file_path
+     * @param threads          число потоков сервера
+     */
+    public StubTelegramServer(long latencyMillis, double rateLimitedShare, byte[] photo, int threads)
+            throws IOException {
+        this.latencyMillis = latencyMillis;
+        this.rateLimitedShare = rateLimitedShare;
+        this.photo = photo;
+        server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        server.createContext("/bot" + TOKEN + "/", this::handleMethod);
+        server.createContext("/file/bot" + TOKEN + "/", this::handleFile);
+        executor = Executors.newFixedThreadPool(threads);
+        server.setExecutor(executor);
+    }
+
+    public void start() {
+        server.start();
+    }
+
+    public void stop() {
+        server.stop(0);
+        executor.shutdownNow();
+    }
+
+    public void setListener(Listener listener) {
+        this.listener = listener;
+    }
+
+    /**
+     * @return адрес заглушки, например http://127.0.0.1:12345
+     */
+    public String getUrl() {
+        return "http://127.0.0.1:" + server.getAddress().getPort();
+    }
+
+    /**
+     * Ставит в очередь текстовое сообщение пользователя.
+     */
+    public void addTextMessage(long chatId, String text) {
+        ObjectNode message = message(chatId);
+        message.put("text", text);
+        addUpdate(message);
+    }
+
+    /**
+     * Ставит в очередь фото от пользователя. Бот скачает его через getFile.
+     */
+    public void addPhotoMessage(long chatId) {
+        ObjectNode message = message(chatId);
+        ArrayNode sizes = message.putArray("photo");
+        ObjectNode size = sizes.addObject();
+        size.put("file_id", "photo-" + chatId);
+        size.put("file_unique_id", "unique-" + chatId);
+        size.put("width", 800);
+        size.put("height", 600);
+        size.put("file_size", photo.length);
+        addUpdate(message);
+    }
+
+    public long getSent() {
+        return sent.get();
+    }
+
+    public long getRejected() {
+        return rejected.get();
+    }
+
+    public long getFilesServed() {
+        return filesServed.get();
+    }
+
+    private ObjectNode message(long chatId) {
+        ObjectNode message = objectMapper.createObjectNode();
+        message.put("message_id", messageId.incrementAndGet());
+        message.put("date", System.currentTimeMillis() / 1000);
+        ObjectNode chat = message.putObject("chat");
+        chat.put("id", chatId);
+        chat.put("type", "private");
+        chat.put("first_name", "User" + chatId);
+        ObjectNode from = message.putObject("from");
+        from.put("id", chatId);
+        from.put("is_bot", false);
+        from.put("first_name", "User" + chatId);
+        return message;
+    }
+
+    private void addUpdate(ObjectNode message) {
+        ObjectNode update = objectMapper.createObjectNode();
+        update.put("update_id", updateId.incrementAndGet());
+        update.set("message", message);
+        updates.add(update);
+    }
+
+    //запросы /bot{token}/{method}. Библиотека шлет JSON в теле POST, ReportPhotoDownloader - параметры в GET
+    private void handleMethod(HttpExchange exchange) throws IOException {
+        try (exchange) {
+            String path = exchange.getRequestURI().getPath();
+            String method = path.substring(path.lastIndexOf('/') + 1);
+            JsonNode request = readRequest(exchange);
+            switch (method) {
+                case "getUpdates" -> getUpdates(exchange, request);
+                case "sendMessage" -> sendMessage(exchange, request);
+                case "getFile" -> getFile(exchange, request);
+                case "deleteWebhook", "setWebhook" -> ok(exchange, objectMapper.getNodeFactory().booleanNode(true));
+                default -> error(exchange, 404, "Not Found: method " + method);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void getUpdates(HttpExchange exchange, JsonNode request) throws IOException, InterruptedException {
+        int limit = request.path("limit").asInt(DEFAULT_UPDATES_LIMIT);
+        int timeout = Math.min(request.path("timeout").asInt(0), MAX_POLL_SECONDS);
+        //обновления отдаются один раз, поэтому offset (подтверждение полученных) не нужен
+        List<ObjectNode> batch = new ArrayList<>();
+        ObjectNode first = updates.poll(timeout, TimeUnit.SECONDS);
+        if (first != null) {
+            batch.add(first);
+            updates.drainTo(batch, Math.max(limit, 1) - 1);
+        }
+        ArrayNode result = objectMapper.createArrayNode();
+        result.addAll(batch);
+        ok(exchange, result);
+    }
+
+    private void sendMessage(HttpExchange exchange, JsonNode request) throws IOException, InterruptedException {
+        sleep();
+        long chatId = request.path("chat_id").asLong();
+        Listener listener = this.listener;
+        if (rateLimitedShare > 0 && ThreadLocalRandom.current().nextDouble() < rateLimitedShare) {
+            rejected.incrementAndGet();
+            ObjectNode body = errorBody(429, "Too Many Requests: retry after 1");
+            body.putObject("parameters").put("retry_after", 1);
+            respond(exchange, 429, body);
+            if (listener != null) {
+                listener.onRejected(chatId);
+            }
+            return;
+        }
+        ObjectNode message = message(chatId);
+        message.put("text", request.path("text").asText());
+        ok(exchange, message);
+        sent.incrementAndGet();
+        if (listener != null) {
+            listener.onMessage(chatId, request.hasNonNull("reply_markup"));
+        }
+    }
+
+    private void getFile(HttpExchange exchange, JsonNode request) throws IOException, InterruptedException {
+        sleep();
+        String fileId = request.path("file_id").asText();
+        ObjectNode file = objectMapper.createObjectNode();
+        file.put("file_id", fileId);
+        file.put("file_unique_id", "unique-" + fileId);
+        file.put("file_size", photo.length);
+        file.put("file_path", "photos/" + fileId + ".jpg");
+        ok(exchange, file);
+    }
+
+    //скачивание /file/bot{token}/{file_path}: на любой путь - одно и то же фото
+    private void handleFile(HttpExchange exchange) throws IOException {
+        try (exchange) {
+            sleep();
+            exchange.getResponseHeaders().set("Content-Type", "image/jpeg");
+            exchange.sendResponseHeaders(200, photo.length);
+            try (OutputStream os = exchange.getResponseBody()) {
+                os.write(photo);
+            }
+            filesServed.incrementAndGet();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private JsonNode readRequest(HttpExchange exchange) throws IOException {
+        String query = exchange.getRequestURI().getRawQuery();
+        if (query != null) {
+            ObjectNode request = objectMapper.createObjectNode();
+            Arrays.stream(query.split("&")).map(pair -> pair.split("=", 2)).forEach(pair ->
+                    request.put(URLDecoder.decode(pair[0], StandardCharsets.UTF_8),
+                            pair.length > 1 ? URLDecoder.decode(pair[1], StandardCharsets.UTF_8) : ""));
+            return request;
+        }
+        try (InputStream is = exchange.getRequestBody()) {
+            byte[] body = is.readAllBytes();
+            return body.length == 0 ? objectMapper.createObjectNode() : objectMapper.readTree(body);
+        }
+    }
+
+    private void sleep() throws InterruptedException {
+        if (latencyMillis > 0) {
+            Thread.sleep(latencyMillis);
+        }
+    }
+
+    private void ok(HttpExchange exchange, JsonNode result) throws IOException {
+        ObjectNode body = objectMapper.createObjectNode();
+        body.put("ok", true);
+        body.set("result", result);
+        respond(exchange, 200, body);
+    }
+
+    private void error(HttpExchange exchange, int code, String description) throws IOException {
+        respond(exchange, code, errorBody(code, description));
+    }
+
+    private ObjectNode errorBody(int code, String description) {
+        ObjectNode body = objectMapper.createObjectNode();
+        body.put("ok", false);
+        body.put("error_code", code);
+        body.put("description", description);
+        return body;
+    }
+
+    private void respond(HttpExchange exchange, int code, JsonNode body) throws IOException {
+        byte[] bytes = objectMapper.writeValueAsBytes(body);
+        exchange.getResponseHeaders().set("Content-Type", "application/json");
+        exchange.sendResponseHeaders(code, bytes.length);
+        try (OutputStream os = exchange.getResponseBody()) {
+            os.write(bytes);
+        }
+    }
+}
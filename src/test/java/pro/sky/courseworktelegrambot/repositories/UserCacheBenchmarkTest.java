@@ -0,0 +1,100 @@
+package pro.sky.courseworktelegrambot.repositories;
+
+import org.hibernate.CacheMode;
+import org.hibernate.Session;
+import org.hibernate.SessionFactory;
+import org.hibernate.stat.Statistics;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.condition.EnabledIfSystemProperty;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.orm.jpa.DataJpaTest;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.transaction.annotation.Propagation;
+import org.springframework.transaction.annotation.Transactional;
+import pro.sky.courseworktelegrambot.entities.User;
+
+import javax.persistence.EntityManager;
+import javax.persistence.EntityManagerFactory;
+import java.util.concurrent.ThreadLocalRandom;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * Бенчмарк кэша второго уровня Hibernate: загрузка пользователя по id чата (findById) со всеми
+ * его EAGER-связями - текущим и предыдущим состоянием, кнопками состояний и их переходами.<br>
+ * Каждая загрузка - в новом EntityManager, как в отдельном запросе к боту. "До" - сессия с CacheMode.IGNORE,
+ * т.е. кэш второго уровня не читается и не пополняется, "после" - обычная сессия.
+ * Печатается среднее время загрузки и число SQL-запросов на одну загрузку по статистике Hibernate.<br>
+ * Запускается только явно:
+ * <pre>mvn test -Dtest=UserCacheBenchmarkTest -Dbenchmark=true</pre>
+ * Число пользователей задается -Dbenchmark.users (по умолчанию 10 000).
+ */
+@EnabledIfSystemProperty(named = "benchmark", matches = "true")
+@DataJpaTest(properties = "spring.jpa.properties.hibernate.generate_statistics=true")
+@Transactional(propagation = Propagation.NOT_SUPPORTED)
+public class UserCacheBenchmarkTest {
+    private static final int USERS = Integer.getInteger("benchmark.users", 10_000);
+    private static final int WARMUP = 2_000;
+    private static final int RUNS = 20_000;
+    private static final long USER_ID_OFFSET = 1_000_000;
+
+    @Autowired
+    private EntityManagerFactory entityManagerFactory;
+    @Autowired
+    private JdbcTemplate jdbcTemplate;
+
+    //среднее время загрузки и число запросов к БД и попаданий в кэш на одну загрузку
+    private record Result(double micros, double statements, double cacheHits) {
+    }
+
+    @Test
+    public void findUserByIdBenchmark() {
+        //пользователи в разных состояниях меню, у половины есть предыдущее состояние
+        jdbcTemplate.update("INSERT INTO users (id, name, shelter_id, state_id, previous_state_id) " +
+                        "SELECT ? + X, 'User' || X, 'DOG', " +
+                        "CASE MOD(X, 3) WHEN 0 THEN 'Shelter' WHEN 1 THEN 'Stage' ELSE 'BadChoice' END, " +
+                        "CASE WHEN MOD(X, 2) = 0 THEN 'Shelter' END FROM SYSTEM_RANGE(1, ?)",
+                USER_ID_OFFSET, USERS);
+
+        Result before = measure(CacheMode.IGNORE);
+        Result after = measure(CacheMode.NORMAL);
+
+        System.out.println();
+        System.out.printf("%-30s %12s %12s %12s%n", "findById(chatId)", "мкс", "SQL", "из кэша");
+        System.out.printf("%-30s %12.1f %12.2f %12.2f%n", "без кэша второго уровня",
+                before.micros(), before.statements(), before.cacheHits());
+        System.out.printf("%-30s %12.1f %12.2f %12.2f%n", "с кэшем второго уровня",
+                after.micros(), after.statements(), after.cacheHits());
+
+        //с кэшем в БД остается только запрос самого пользователя
+        assertThat(after.statements()).isLessThan(before.statements());
+        assertThat(after.statements()).isEqualTo(1.0);
+    }
+
+    private Result measure(CacheMode cacheMode) {
+        for (int i = 0; i < WARMUP; i++) {
+            find(cacheMode);
+        }
+        Statistics statistics = entityManagerFactory.unwrap(SessionFactory.class).getStatistics();
+        statistics.clear();
+        long start = System.nanoTime();
+        for (int i = 0; i < RUNS; i++) {
+            find(cacheMode);
+        }
+        double micros = (System.nanoTime() - start) / 1_000.0 / RUNS;
+        return new Result(micros, (double) statistics.getPrepareStatementCount() / RUNS,
+                (double) statistics.getSecondLevelCacheHitCount() / RUNS);
+    }
+
+    private void find(CacheMode cacheMode) {
+        long id = USER_ID_OFFSET + ThreadLocalRandom.current().nextInt(1, USERS + 1);
+        EntityManager entityManager = entityManagerFactory.createEntityManager();
+        try {
+            entityManager.unwrap(Session.class).setCacheMode(cacheMode);
+            User user = entityManager.find(User.class, id);
+            assertThat(user.getState().getButtons()).isNotNull();
+        } finally {
+            entityManager.close();
+        }
+    }
+}
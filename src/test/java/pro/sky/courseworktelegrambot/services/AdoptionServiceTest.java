@@ -3,23 +3,32 @@ package pro.sky.courseworktelegrambot.services;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.InOrder;
 import org.mockito.InjectMocks;
 import org.mockito.Mock;
 import org.mockito.Mockito;
 import org.mockito.junit.jupiter.MockitoExtension;
+import org.telegram.telegrambots.meta.api.objects.Message;
 import org.telegram.telegrambots.meta.exceptions.TelegramApiException;
 import pro.sky.courseworktelegrambot.entities.*;
+import pro.sky.courseworktelegrambot.exceptions.TelegramException;
 import pro.sky.courseworktelegrambot.exceptions.UserOrPetIsBusyException;
 import pro.sky.courseworktelegrambot.repositories.*;
+import pro.sky.courseworktelegrambot.timer.ReminderSchedule;
 
 import javax.persistence.EntityNotFoundException;
 import java.time.LocalDate;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
 
 import static org.assertj.core.api.Assertions.assertThat;
 import static org.assertj.core.api.AssertionsForClassTypes.assertThatExceptionOfType;
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.eq;
 import static org.mockito.Mockito.*;
 
 @ExtendWith(MockitoExtension.class)
@@ -29,16 +38,19 @@ public class AdoptionServiceTest {
     private UserRepository userRepository;
 
     @Mock
-    private DogRepository dogRepository;
+    private AdoptionRepository adoptionRepository;
 
     @Mock
-    private CatRepository catRepository;
+    private ReportRepository reportRepository;
 
     @Mock
-    private DogAdoptionRepository dogAdoptionRepository;
+    private ReportStatusRepository reportStatusRepository;
 
     @Mock
-    private CatAdoptionRepository catAdoptionRepository;
+    private NotificationLogRepository notificationLogRepository;
+
+    @Mock
+    private PetService petService;
 
     @Mock
     private ShelterService shelterService;
@@ -46,6 +58,9 @@ public class AdoptionServiceTest {
     @Mock
     TelegramBotSender telegramBotSender;
 
+    @Mock
+    private ReminderSchedule reminderSchedule;
+
     @InjectMocks
     private AdoptionService adoptionService;
 
@@ -88,14 +103,15 @@ public class AdoptionServiceTest {
         int petId = 1;
         Mockito.doNothing().when(shelterService).checkShelterId(ShelterId.DOG);
         when(userRepository.findById(userId)).thenReturn(Optional.of(user1));
-        when(dogRepository.findById(petId)).thenReturn(Optional.of(pet1));
-        when(dogAdoptionRepository
-                .findByUserAndDateLessThanEqualAndTrialDateGreaterThanEqual(
-                        user1, trialDate, LocalDate.now())).thenReturn(new ArrayList<>());
-        when(dogAdoptionRepository.save(adoption1)).thenReturn(adoption1);
+        when(petService.getPet(ShelterId.DOG, petId)).thenReturn(pet1);
+        when(adoptionRepository
+                .findByShelterIdAndUserAndDateLessThanEqualAndTrialDateGreaterThanEqual(
+                        shelterIdDog, user1, trialDate, LocalDate.now())).thenReturn(new ArrayList<>());
+        when(adoptionRepository.save(adoption1)).thenReturn(adoption1);
 
         assertThat(adoptionService.createAdoption(shelterIdDog, userId, petId, trialDate)).isEqualTo(adoption1);
-        verify(dogAdoptionRepository, atLeast(1)).save(adoption1);
+        verify(adoptionRepository, atLeast(1)).save(adoption1);
+        verify(reminderSchedule).schedule(shelterIdDog, adoption1);
     }
 
     @Test
@@ -104,14 +120,15 @@ public class AdoptionServiceTest {
         int petId = 2;
         Mockito.doNothing().when(shelterService).checkShelterId(ShelterId.CAT);
         when(userRepository.findById(userId)).thenReturn(Optional.of(user2));
-        when(catRepository.findById(petId)).thenReturn(Optional.of(pet2));
-        when(catAdoptionRepository
-                .findByUserAndDateLessThanEqualAndTrialDateGreaterThanEqual(
-                        user2, trialDate, LocalDate.now())).thenReturn(new ArrayList<>());
-        when(catAdoptionRepository.save(adoption2)).thenReturn(adoption2);
+        when(petService.getPet(ShelterId.CAT, petId)).thenReturn(pet2);
+        when(adoptionRepository
+                .findByShelterIdAndUserAndDateLessThanEqualAndTrialDateGreaterThanEqual(
+                        shelterIdCat, user2, trialDate, LocalDate.now())).thenReturn(new ArrayList<>());
+        when(adoptionRepository.save(adoption2)).thenReturn(adoption2);
 
         assertThat(adoptionService.createAdoption(shelterIdCat, userId, petId, trialDate)).isEqualTo(adoption2);
-        verify(catAdoptionRepository, atLeast(1)).save(adoption2);
+        verify(adoptionRepository, atLeast(1)).save(adoption2);
+        verify(reminderSchedule).schedule(shelterIdCat, adoption2);
     }
 
     @Test
@@ -123,7 +140,7 @@ public class AdoptionServiceTest {
 
         assertThatExceptionOfType(EntityNotFoundException.class)
                 .isThrownBy(() -> adoptionService.createAdoption(shelterIdDog, userId, petId, trialDate));
-        verify(dogAdoptionRepository, atLeast(0)).save(adoption1);
+        verify(adoptionRepository, atLeast(0)).save(adoption1);
     }
 
     @Test
@@ -132,11 +149,11 @@ public class AdoptionServiceTest {
         int petId = 1;
         Mockito.doNothing().when(shelterService).checkShelterId(ShelterId.DOG);
         when(userRepository.findById(userId)).thenReturn(Optional.of(user1));
-        when(dogRepository.findById(petId)).thenReturn(Optional.empty());
+        when(petService.getPet(ShelterId.DOG, petId)).thenThrow(new EntityNotFoundException("Pet not found"));
 
         assertThatExceptionOfType(EntityNotFoundException.class)
                 .isThrownBy(() -> adoptionService.createAdoption(shelterIdDog, userId, petId, trialDate));
-        verify(dogAdoptionRepository, atLeast(0)).save(adoption1);
+        verify(adoptionRepository, atLeast(0)).save(adoption1);
     }
 
     @Test
@@ -145,11 +162,11 @@ public class AdoptionServiceTest {
         int petId = 2;
         Mockito.doNothing().when(shelterService).checkShelterId(ShelterId.CAT);
         when(userRepository.findById(userId)).thenReturn(Optional.of(user2));
-        when(catRepository.findById(petId)).thenReturn(Optional.empty());
+        when(petService.getPet(ShelterId.CAT, petId)).thenThrow(new EntityNotFoundException("Pet not found"));
 
         assertThatExceptionOfType(EntityNotFoundException.class)
                 .isThrownBy(() -> adoptionService.createAdoption(shelterIdCat, userId, petId, trialDate));
-        verify(catAdoptionRepository, atLeast(0)).save(adoption2);
+        verify(adoptionRepository, atLeast(0)).save(adoption2);
     }
 
     @Test
@@ -158,14 +175,14 @@ public class AdoptionServiceTest {
         int petId = 1;
         Mockito.doNothing().when(shelterService).checkShelterId(ShelterId.DOG);
         when(userRepository.findById(userId)).thenReturn(Optional.of(user1));
-        when(dogRepository.findById(petId)).thenReturn(Optional.of(pet1));
-        when(dogAdoptionRepository
-                .findByUserAndDateLessThanEqualAndTrialDateGreaterThanEqual(
-                        user1, trialDate, LocalDate.now())).thenReturn(List.of(adoption1));
+        when(petService.getPet(ShelterId.DOG, petId)).thenReturn(pet1);
+        when(adoptionRepository
+                .findByShelterIdAndUserAndDateLessThanEqualAndTrialDateGreaterThanEqual(
+                        shelterIdDog, user1, trialDate, LocalDate.now())).thenReturn(List.of(adoption1));
 
         assertThatExceptionOfType(UserOrPetIsBusyException.class)
                 .isThrownBy(() -> adoptionService.createAdoption(shelterIdDog, userId, petId, trialDate));
-        verify(dogAdoptionRepository, atLeast(0)).save(adoption1);
+        verify(adoptionRepository, atLeast(0)).save(adoption1);
     }
 
     @Test
@@ -174,14 +191,14 @@ public class AdoptionServiceTest {
         int petId = 1;
         Mockito.doNothing().when(shelterService).checkShelterId(ShelterId.DOG);
         when(userRepository.findById(userId)).thenReturn(Optional.of(user1));
-        when(dogRepository.findById(petId)).thenReturn(Optional.of(pet1));
-        when(dogAdoptionRepository
-                .findByPetAndDateLessThanEqualAndTrialDateGreaterThanEqual(
-                        pet1, trialDate, LocalDate.now())).thenReturn(List.of(adoption1));
+        when(petService.getPet(ShelterId.DOG, petId)).thenReturn(pet1);
+        when(adoptionRepository
+                .findByShelterIdAndPetIdAndDateLessThanEqualAndTrialDateGreaterThanEqual(
+                        shelterIdDog, petId, trialDate, LocalDate.now())).thenReturn(List.of(adoption1));
 
         assertThatExceptionOfType(UserOrPetIsBusyException.class)
                 .isThrownBy(() -> adoptionService.createAdoption(shelterIdDog, userId, petId, trialDate));
-        verify(dogAdoptionRepository, atLeast(0)).save(adoption1);
+        verify(adoptionRepository, atLeast(0)).save(adoption1);
     }
 
     @Test
@@ -190,14 +207,14 @@ public class AdoptionServiceTest {
         int petId = 2;
         Mockito.doNothing().when(shelterService).checkShelterId(ShelterId.CAT);
         when(userRepository.findById(userId)).thenReturn(Optional.of(user2));
-        when(catRepository.findById(petId)).thenReturn(Optional.of(pet2));
-        when(catAdoptionRepository
-                .findByUserAndDateLessThanEqualAndTrialDateGreaterThanEqual(
-                        user2, trialDate, LocalDate.now())).thenReturn(List.of(adoption2));
+        when(petService.getPet(ShelterId.CAT, petId)).thenReturn(pet2);
+        when(adoptionRepository
+                .findByShelterIdAndUserAndDateLessThanEqualAndTrialDateGreaterThanEqual(
+                        shelterIdCat, user2, trialDate, LocalDate.now())).thenReturn(List.of(adoption2));
 
         assertThatExceptionOfType(UserOrPetIsBusyException.class)
                 .isThrownBy(() -> adoptionService.createAdoption(shelterIdCat, userId, petId, trialDate));
-        verify(catAdoptionRepository, atLeast(0)).save(adoption2);
+        verify(adoptionRepository, atLeast(0)).save(adoption2);
     }
 
     @Test
@@ -206,89 +223,122 @@ public class AdoptionServiceTest {
         int petId = 2;
         Mockito.doNothing().when(shelterService).checkShelterId(ShelterId.CAT);
         when(userRepository.findById(userId)).thenReturn(Optional.of(user2));
-        when(catRepository.findById(petId)).thenReturn(Optional.of(pet2));
-        when(catAdoptionRepository
-                .findByPetAndDateLessThanEqualAndTrialDateGreaterThanEqual(
-                        pet2, trialDate, LocalDate.now())).thenReturn(List.of(adoption2));
+        when(petService.getPet(ShelterId.CAT, petId)).thenReturn(pet2);
+        when(adoptionRepository
+                .findByShelterIdAndPetIdAndDateLessThanEqualAndTrialDateGreaterThanEqual(
+                        shelterIdCat, petId, trialDate, LocalDate.now())).thenReturn(List.of(adoption2));
 
         assertThatExceptionOfType(UserOrPetIsBusyException.class)
                 .isThrownBy(() -> adoptionService.createAdoption(shelterIdCat, userId, petId, trialDate));
-        verify(catAdoptionRepository, atLeast(0)).save(adoption2);
+        verify(adoptionRepository, atLeast(0)).save(adoption2);
     }
 
     @Test
     public void getAdoptionTest() {
         int adoptionId = 1;
         Mockito.doNothing().when(shelterService).checkShelterId(ShelterId.DOG);
-        when(dogAdoptionRepository.findById(any())).thenReturn(Optional.of(adoption1));
+        when(adoptionRepository.findByShelterIdAndId(eq(shelterIdDog), anyInt())).thenReturn(Optional.of(adoption1));
 
         assertThat(adoptionService.getAdoption(shelterIdDog, adoptionId)).isEqualTo(adoption1);
-        verify(dogAdoptionRepository, atLeast(1)).findById(adoptionId);
+        verify(adoptionRepository, atLeast(1)).findByShelterIdAndId(shelterIdDog, adoptionId);
     }
 
     @Test
     public void getAdoptionNegativeTest() {
         int adoptionId = 1;
         Mockito.doNothing().when(shelterService).checkShelterId(ShelterId.DOG);
-        when(dogAdoptionRepository.findById(any())).thenReturn(Optional.empty());
+        when(adoptionRepository.findByShelterIdAndId(eq(shelterIdDog), anyInt())).thenReturn(Optional.empty());
 
         assertThatExceptionOfType(EntityNotFoundException.class)
                 .isThrownBy(() -> adoptionService.getAdoption(shelterIdDog, adoptionId));
-        verify(dogAdoptionRepository, atLeast(0)).findById(adoptionId);
+        verify(adoptionRepository, atLeast(0)).findByShelterIdAndId(shelterIdDog, adoptionId);
     }
 
     @Test
     public void setTrialDateDogAdoptionTest() {
         int adoptionId = 1;
         Mockito.doNothing().when(shelterService).checkShelterId(ShelterId.DOG);
-        when(dogAdoptionRepository.findById(any())).thenReturn(Optional.of(adoption1));
+        when(adoptionRepository.findByShelterIdAndId(eq(shelterIdDog), anyInt())).thenReturn(Optional.of(adoption1));
         adoption1.setTrialDate(trialDate);
-        when(dogAdoptionRepository.save(any())).thenReturn(adoption1);
-        //doReturn(null).when(telegramBotSender).execute(any(SendMessage.class));
+        when(adoptionRepository.save(any())).thenReturn(adoption1);
+        messageIsSent(user1);
 
-        assertThat(adoptionService.setTrialDate(shelterIdDog, adoptionId, trialDate)).isEqualTo(adoption1);
-        verify(dogAdoptionRepository, atLeast(1)).save(adoption1);
+        //срок сохраняется после отправки уведомления
+        assertThat(adoptionService.setTrialDate(shelterIdDog, adoptionId, trialDate).join()).isEqualTo(adoption1);
+        verify(adoptionRepository, atLeast(1)).save(adoption1);
     }
 
     @Test
     public void setTrialDateCatAdoptionTest() {
         int adoptionId = 2;
         Mockito.doNothing().when(shelterService).checkShelterId(ShelterId.CAT);
-        when(catAdoptionRepository.findById(any())).thenReturn(Optional.of(adoption2));
+        when(adoptionRepository.findByShelterIdAndId(eq(shelterIdCat), anyInt())).thenReturn(Optional.of(adoption2));
         adoption2.setTrialDate(trialDate);
-        when(catAdoptionRepository.save(any())).thenReturn(adoption2);
+        when(adoptionRepository.save(any())).thenReturn(adoption2);
+        messageIsSent(user2);
+
+        assertThat(adoptionService.setTrialDate(shelterIdCat, adoptionId, trialDate).join()).isEqualTo(adoption2);
+        verify(adoptionRepository, atLeast(1)).save(adoption2);
+    }
+
+    @Test
+    public void setTrialDateNotSentTest() {
+        int adoptionId = 1;
+        Mockito.doNothing().when(shelterService).checkShelterId(ShelterId.DOG);
+        when(adoptionRepository.findByShelterIdAndId(eq(shelterIdDog), anyInt())).thenReturn(Optional.of(adoption1));
+        CompletableFuture<Message> notSent = CompletableFuture.failedFuture(new TelegramApiException("not sent"));
+        when(telegramBotSender.queueMessageToUser(eq(user1), anyString(), eq(0))).thenReturn(notSent);
+        when(telegramBotSender.withSendTimeout(notSent)).thenReturn(notSent);
+
+        //уведомление не ушло - срок не меняется и не сохраняется
+        assertThatExceptionOfType(CompletionException.class)
+                .isThrownBy(() -> adoptionService.setTrialDate(shelterIdDog, adoptionId, trialDate.plusDays(14)).join())
+                .withCauseInstanceOf(TelegramException.class);
+        assertThat(adoption1.getTrialDate()).isEqualTo(trialDate);
+        verify(adoptionRepository, never()).save(any());
+        verify(reminderSchedule, never()).schedule(any(), any());
+    }
 
-        assertThat(adoptionService.setTrialDate(shelterIdCat, adoptionId, trialDate)).isEqualTo(adoption2);
-        verify(catAdoptionRepository, atLeast(1)).save(adoption2);
+    //уведомление пользователю поставлено в очередь и отправлено
+    private void messageIsSent(User user) {
+        CompletableFuture<Message> sent = CompletableFuture.completedFuture(new Message());
+        when(telegramBotSender.queueMessageToUser(eq(user), anyString(), eq(0))).thenReturn(sent);
+        when(telegramBotSender.withSendTimeout(sent)).thenReturn(sent);
     }
 
     @Test
     public void setTrialDateNegativeTest() {
         int adoptionId = 1;
         Mockito.doNothing().when(shelterService).checkShelterId(ShelterId.DOG);
-        when(dogAdoptionRepository.findById(any())).thenReturn(Optional.empty());
+        when(adoptionRepository.findByShelterIdAndId(eq(shelterIdDog), anyInt())).thenReturn(Optional.empty());
 
         assertThatExceptionOfType(EntityNotFoundException.class)
                 .isThrownBy(() -> adoptionService.setTrialDate(shelterIdDog, adoptionId, trialDate));
-        verify(dogAdoptionRepository, atLeast(0)).save(adoption1);
+        verify(adoptionRepository, atLeast(0)).save(adoption1);
     }
 
     @Test
     public void deleteAdoptionTest() {
         int adoptionId = 1;
         Mockito.doNothing().when(shelterService).checkShelterId(ShelterId.DOG);
-        when(dogAdoptionRepository.findById(any())).thenReturn(Optional.of(adoption1));
+        when(adoptionRepository.findByShelterIdAndId(eq(shelterIdDog), anyInt())).thenReturn(Optional.of(adoption1));
 
         assertThat(adoptionService.deleteAdoption(shelterIdDog, adoptionId)).isEqualTo(adoption1);
-        verify(dogAdoptionRepository, atLeast(1)).deleteById(adoptionId);
+        //вместе с усыновлением удаляются все его строки, отчеты - до усыновления
+        InOrder inOrder = inOrder(reportRepository, adoptionRepository);
+        inOrder.verify(reportRepository).deleteByAdoption(adoptionId);
+        inOrder.verify(adoptionRepository).deleteById(adoptionId);
+        verify(reportStatusRepository).deleteByAdoption(shelterIdDog, adoptionId);
+        verify(notificationLogRepository).deleteByAdoption(shelterIdDog, adoptionId);
+        verify(reminderSchedule).cancel(shelterIdDog, adoptionId);
     }
 
     @Test
     public void getAllDogAdoptionsTest() {
         Mockito.doNothing().when(shelterService).checkShelterId(ShelterId.DOG);
-        List<DogAdoption> dogAdoptionList = new ArrayList<>();
+        List<Adoption> dogAdoptionList = new ArrayList<>();
         dogAdoptionList.add(adoption1);
-        when(dogAdoptionRepository.findAll()).thenReturn(dogAdoptionList);
+        when(adoptionRepository.findByShelterId(shelterIdDog)).thenReturn(dogAdoptionList);
         assertThat(adoptionService.getAllAdoptions(shelterIdDog))
                 .hasSize(1)
                 .containsExactlyInAnyOrder(adoption1);
@@ -297,9 +347,9 @@ public class AdoptionServiceTest {
     @Test
     public void getAllCatAdoptionsTest() {
         Mockito.doNothing().when(shelterService).checkShelterId(ShelterId.CAT);
-        List<CatAdoption> catAdoptionList = new ArrayList<>();
+        List<Adoption> catAdoptionList = new ArrayList<>();
         catAdoptionList.add(adoption2);
-        when(catAdoptionRepository.findAll()).thenReturn(catAdoptionList);
+        when(adoptionRepository.findByShelterId(shelterIdCat)).thenReturn(catAdoptionList);
         assertThat(adoptionService.getAllAdoptions(shelterIdCat))
                 .hasSize(1)
                 .containsExactlyInAnyOrder(adoption2);
@@ -308,10 +358,10 @@ public class AdoptionServiceTest {
     @Test
     public void getAllActiveDogAdoptionsTest() {
         Mockito.doNothing().when(shelterService).checkShelterId(ShelterId.DOG);
-        List<DogAdoption> dogAdoptionList = new ArrayList<>();
+        List<Adoption> dogAdoptionList = new ArrayList<>();
         dogAdoptionList.add(adoption1);
-        when(dogAdoptionRepository
-                .findByDateLessThanEqualAndTrialDateGreaterThanEqual(LocalDate.now(), LocalDate.now()))
+        when(adoptionRepository
+                .findByShelterIdAndDateLessThanEqualAndTrialDateGreaterThanEqual(shelterIdDog, LocalDate.now(), LocalDate.now()))
                 .thenReturn(dogAdoptionList);
         assertThat(adoptionService.getAllActiveAdoptions(shelterIdDog))
                 .hasSize(1)
@@ -321,10 +371,10 @@ public class AdoptionServiceTest {
     @Test
     public void getAllActiveCatAdoptionsTest() {
         Mockito.doNothing().when(shelterService).checkShelterId(ShelterId.CAT);
-        List<CatAdoption> catAdoptionList = new ArrayList<>();
+        List<Adoption> catAdoptionList = new ArrayList<>();
         catAdoptionList.add(adoption2);
-        when(catAdoptionRepository
-                .findByDateLessThanEqualAndTrialDateGreaterThanEqual(LocalDate.now(), LocalDate.now()))
+        when(adoptionRepository
+                .findByShelterIdAndDateLessThanEqualAndTrialDateGreaterThanEqual(shelterIdCat, LocalDate.now(), LocalDate.now()))
                 .thenReturn(catAdoptionList);
         assertThat(adoptionService.getAllActiveAdoptions(shelterIdCat))
                 .hasSize(1)
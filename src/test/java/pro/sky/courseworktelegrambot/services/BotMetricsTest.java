@@ -0,0 +1,70 @@
+package pro.sky.courseworktelegrambot.services;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+import org.telegram.telegrambots.meta.api.objects.ApiResponse;
+import org.telegram.telegrambots.meta.exceptions.TelegramApiException;
+import org.telegram.telegrambots.meta.exceptions.TelegramApiRequestException;
+import pro.sky.courseworktelegrambot.entities.NamedState;
+
+import java.util.concurrent.TimeUnit;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+public class BotMetricsTest {
+    private final SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+    private final BotMetrics botMetrics = new BotMetrics(meterRegistry);
+
+    @Test
+    public void recordUpdateTest() {
+        botMetrics.recordUpdate(NamedState.REPORT, BotMetrics.Outcome.TEXT_INPUT, 2_000_000);
+        botMetrics.recordUpdate(null, BotMetrics.Outcome.BAD_CHOICE, 1_000_000);
+        botMetrics.recordUpdate(null, BotMetrics.Outcome.BAD_CHOICE, 3_000_000);
+
+        assertThat(meterRegistry.get("telegram.updates.processing")
+                .tag("state", "REPORT").tag("outcome", "text_input").timer().count()).isEqualTo(1);
+        assertThat(meterRegistry.get("telegram.updates.processing")
+                .tag("state", "none").tag("outcome", "bad_choice").timer().totalTime(TimeUnit.MILLISECONDS))
+                .isEqualTo(4.0);
+        //таймеры всех сочетаний зарегистрированы заранее
+        assertThat(meterRegistry.get("telegram.updates.processing").timers())
+                .hasSize((NamedState.values().length + 1) * BotMetrics.Outcome.values().length);
+    }
+
+    @Test
+    public void recordLagTest() {
+        int sentSecondAgo = (int) (System.currentTimeMillis() / 1000) - 1;
+        botMetrics.recordLag(sentSecondAgo);
+        botMetrics.recordLag(null); //у сообщения нет даты - не учитываем
+
+        assertThat(meterRegistry.get("telegram.updates.lag").timer().count()).isEqualTo(1);
+        assertThat(meterRegistry.get("telegram.updates.lag").timer().totalTime(TimeUnit.MILLISECONDS))
+                .isGreaterThanOrEqualTo(1000.0);
+    }
+
+    @Test
+    public void recordSendErrorTest() {
+        ApiResponse<?> response = mock(ApiResponse.class);
+        when(response.getErrorCode()).thenReturn(429);
+        when(response.getErrorDescription()).thenReturn("Too Many Requests");
+        botMetrics.recordSendError(new TelegramApiRequestException("Error sending message", response));
+        botMetrics.recordSendError(new TelegramApiException("Unable to execute sendmessage method"));
+
+        assertThat(meterRegistry.get("telegram.send.errors").tag("code", "429").counter().count()).isEqualTo(1);
+        assertThat(meterRegistry.get("telegram.send.errors").tag("code", "none").counter().count()).isEqualTo(1);
+    }
+
+    @Test
+    public void recordPhotoDownloadTest() {
+        botMetrics.recordPhotoDownload(5_000_000, 2048, null);
+        botMetrics.recordPhotoDownload(1_000_000, 0, new IllegalStateException("getFile returned 404"));
+
+        assertThat(meterRegistry.get("telegram.report.photo.download").tag("result", "success").timer().count())
+                .isEqualTo(1);
+        assertThat(meterRegistry.get("telegram.report.photo.download").tag("result", "error").timer().count())
+                .isEqualTo(1);
+        assertThat(meterRegistry.get("telegram.report.photo.size").summary().totalAmount()).isEqualTo(2048);
+    }
+}
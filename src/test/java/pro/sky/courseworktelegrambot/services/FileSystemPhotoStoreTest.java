@@ -0,0 +1,65 @@
+package pro.sky.courseworktelegrambot.services;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.core.io.Resource;
+
+import javax.persistence.EntityNotFoundException;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.stream.Stream;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatExceptionOfType;
+
+public class FileSystemPhotoStoreTest {
+    //SHA-256 от "abc"
+    private static final String ABC_HASH = "ba7816bf8f01cfea414140de5dae2223b00361a396177a9cb410ff61f20015ad";
+
+    @TempDir
+    Path root;
+
+    private FileSystemPhotoStore photoStore;
+
+    @BeforeEach
+    public void beforeEach() {
+        photoStore = new FileSystemPhotoStore(root.toString());
+    }
+
+    @Test
+    public void saveAndLoadTest() throws IOException {
+        String hash = photoStore.save(new ByteArrayInputStream("abc".getBytes()));
+        assertThat(hash).isEqualTo(ABC_HASH);
+        Resource photo = photoStore.load(hash);
+        assertThat(photo.contentLength()).isEqualTo(3);
+        try (InputStream is = photo.getInputStream()) {
+            assertThat(is.readAllBytes()).isEqualTo("abc".getBytes());
+        }
+        assertThat(Files.exists(root.resolve("ba").resolve("78").resolve(ABC_HASH))).isTrue();
+    }
+
+    @Test
+    public void samePhotoIsStoredOnceTest() throws IOException {
+        Path file = Files.write(root.resolve("photo.jpg"), "abc".getBytes());
+        assertThat(photoStore.save(file)).isEqualTo(ABC_HASH);
+        assertThat(photoStore.save(new ByteArrayInputStream("abc".getBytes()))).isEqualTo(ABC_HASH);
+        //исходный файл не тронут, в хранилище одно фото и нет временных файлов
+        assertThat(Files.exists(file)).isTrue();
+        try (Stream<Path> files = Files.walk(root)) {
+            assertThat(files.filter(Files::isRegularFile).filter(path -> !path.equals(file))).hasSize(1);
+        }
+    }
+
+    @Test
+    public void loadUnknownPhotoTest() {
+        assertThatExceptionOfType(EntityNotFoundException.class)
+                .isThrownBy(() -> photoStore.load(ABC_HASH));
+        //ключ не из хранилища не должен выводить за пределы каталога
+        assertThatExceptionOfType(EntityNotFoundException.class)
+                .isThrownBy(() -> photoStore.load("../../etc/passwd"));
+    }
+}
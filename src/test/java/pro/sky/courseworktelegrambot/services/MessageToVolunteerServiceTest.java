@@ -9,14 +9,19 @@ import org.mockito.Mock;
 import org.mockito.Mockito;
 import org.mockito.junit.jupiter.MockitoExtension;
 import org.springframework.boot.test.mock.mockito.SpyBean;
+import org.telegram.telegrambots.meta.api.objects.Message;
+import org.telegram.telegrambots.meta.exceptions.TelegramApiException;
 import pro.sky.courseworktelegrambot.entities.MessageToVolunteer;
 import pro.sky.courseworktelegrambot.entities.User;
 import pro.sky.courseworktelegrambot.exceptions.MessageToVolunteerNotFoundException;
+import pro.sky.courseworktelegrambot.exceptions.TelegramException;
 import pro.sky.courseworktelegrambot.repositories.MessageToVolunteerRepository;
 
 import java.time.LocalDateTime;
 import java.util.List;
 import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
 
 import static org.assertj.core.api.Assertions.assertThat;
 import static org.assertj.core.api.AssertionsForClassTypes.assertThatExceptionOfType;
@@ -77,7 +82,7 @@ public class MessageToVolunteerServiceTest {
     @Test
     public void findAllWithoutAnswerTest() {
         List<MessageToVolunteer> messageToVolunteers = List.of(messageToVolunteer1, messageToVolunteer2);
-        when(messageToVolunteerRepository.findAllByAnswerIsNull()).thenReturn(messageToVolunteers);
+        when(messageToVolunteerRepository.findAllByAnswerTimeIsNull()).thenReturn(messageToVolunteers);
         assertThat(messageToVolunteerService.findAllWithoutAnswer())
                 .isNotNull()
                 .isNotEmpty()
@@ -90,10 +95,31 @@ public class MessageToVolunteerServiceTest {
         String answer = "answer";
         boolean answerToMessage = true;
         when(messageToVolunteerRepository.findById(any())).thenReturn(Optional.of(messageToVolunteer1));
-        messageToVolunteerService.updateAnswer(id, answer, answerToMessage);
+        CompletableFuture<Message> sent = CompletableFuture.completedFuture(new Message());
+        when(telegramBot.queueMessageToUser(messageToVolunteer1.getUser(), answer, id)).thenReturn(sent);
+        when(telegramBot.withSendTimeout(sent)).thenReturn(sent);
+
+        //ответ сохраняется после отправки
+        messageToVolunteerService.updateAnswer(id, answer, answerToMessage).join();
         verify(messageToVolunteerRepository, atLeast(1)).save(messageToVolunteer1);
     }
 
+    @Test
+    public void updateAnswerNotSentTest() {
+        int id = 1;
+        String answer = "answer";
+        when(messageToVolunteerRepository.findById(any())).thenReturn(Optional.of(messageToVolunteer1));
+        CompletableFuture<Message> notSent = CompletableFuture.failedFuture(new TelegramApiException("not sent"));
+        when(telegramBot.queueMessageToUser(messageToVolunteer1.getUser(), answer, 0)).thenReturn(notSent);
+        when(telegramBot.withSendTimeout(notSent)).thenReturn(notSent);
+
+        //ответ не ушел - отметку об ответе не сохраняем
+        assertThatExceptionOfType(CompletionException.class)
+                .isThrownBy(() -> messageToVolunteerService.updateAnswer(id, answer, false).join())
+                .withCauseInstanceOf(TelegramException.class);
+        verify(messageToVolunteerRepository, never()).save(any());
+    }
+
     @Test
     public void updateAnswerNegativeTest() {
         int id = 1;
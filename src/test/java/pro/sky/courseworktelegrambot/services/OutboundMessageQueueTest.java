@@ -0,0 +1,221 @@
+package pro.sky.courseworktelegrambot.services;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.ArgumentCaptor;
+import org.telegram.telegrambots.meta.api.methods.send.SendMessage;
+import org.telegram.telegrambots.meta.api.objects.ApiResponse;
+import org.telegram.telegrambots.meta.api.objects.Message;
+import org.telegram.telegrambots.meta.api.objects.ResponseParameters;
+import org.telegram.telegrambots.meta.bots.AbsSender;
+import org.telegram.telegrambots.meta.exceptions.TelegramApiException;
+import org.telegram.telegrambots.meta.exceptions.TelegramApiRequestException;
+import pro.sky.courseworktelegrambot.entities.OutboundDeadLetter;
+import pro.sky.courseworktelegrambot.repositories.OutboundDeadLetterRepository;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.*;
+
+public class OutboundMessageQueueTest {
+    private final SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+    private final OutboundDeadLetterRepository deadLetterRepository = mock(OutboundDeadLetterRepository.class);
+    private final AbsSender sender = mock(AbsSender.class);
+    private OutboundMessageQueue outboundMessageQueue;
+
+    @AfterEach
+    public void afterEach() {
+        outboundMessageQueue.shutdown();
+    }
+
+    private SendMessage message(long chatId, String text) {
+        SendMessage sendMessage = new SendMessage();
+        sendMessage.setChatId(String.valueOf(chatId));
+        sendMessage.setText(text);
+        return sendMessage;
+    }
+
+    //ответ Telegram с кодом ошибки (и retry_after для 429).
+    //Создает и настраивает моки, поэтому вызывается до when(...), а не внутри него
+    private TelegramApiRequestException requestException(int errorCode, Integer retryAfter) {
+        ApiResponse<?> response = mock(ApiResponse.class);
+        when(response.getErrorCode()).thenReturn(errorCode);
+        when(response.getErrorDescription()).thenReturn("error " + errorCode);
+        if (retryAfter != null) {
+            ResponseParameters parameters = mock(ResponseParameters.class);
+            when(parameters.getRetryAfter()).thenReturn(retryAfter);
+            when(response.getParameters()).thenReturn(parameters);
+        }
+        return new TelegramApiRequestException("error " + errorCode, response);
+    }
+
+    @Test
+    public void messagesOfChatAreSentInOrderTest() throws Exception {
+        outboundMessageQueue = new OutboundMessageQueue(1000, 1000, 3, 10, 4,
+                deadLetterRepository, meterRegistry);
+        List<String> sent = Collections.synchronizedList(new ArrayList<>());
+        when(sender.execute(any(SendMessage.class))).thenAnswer(invocation -> {
+            sent.add(((SendMessage) invocation.getArgument(0)).getText());
+            return new Message();
+        });
+        List<CompletableFuture<Message>> futures = new ArrayList<>();
+        for (int i = 0; i < 20; i++) {
+            futures.add(outboundMessageQueue.submit(sender, message(1L, String.valueOf(i))));
+        }
+        CompletableFuture.allOf(futures.toArray(new CompletableFuture[0])).get(5, TimeUnit.SECONDS);
+        for (int i = 0; i < 20; i++) {
+            assertThat(sent.get(i)).isEqualTo(String.valueOf(i));
+        }
+        assertThat(outboundMessageQueue.getPending()).isZero();
+    }
+
+    @Test
+    public void chatRateIsLimitedTest() throws Exception {
+        //в чат не больше 5 сообщений в секунду: первые 5 уходят сразу, еще 5 - примерно за секунду
+        outboundMessageQueue = new OutboundMessageQueue(1000, 5, 3, 10, 4,
+                deadLetterRepository, meterRegistry);
+        when(sender.execute(any(SendMessage.class))).thenReturn(new Message());
+        List<CompletableFuture<Message>> futures = new ArrayList<>();
+        long start = System.nanoTime();
+        for (int i = 0; i < 10; i++) {
+            futures.add(outboundMessageQueue.submit(sender, message(1L, "текст")));
+        }
+        CompletableFuture.allOf(futures.toArray(new CompletableFuture[0])).get(5, TimeUnit.SECONDS);
+        assertThat(System.nanoTime() - start).isGreaterThanOrEqualTo(TimeUnit.MILLISECONDS.toNanos(800));
+    }
+
+    @Test
+    public void retryAfterIsHonouredTest() throws Exception {
+        outboundMessageQueue = new OutboundMessageQueue(1000, 1000, 3, 10, 4,
+                deadLetterRepository, meterRegistry);
+        TelegramApiRequestException error = requestException(429, 1);
+        when(sender.execute(any(SendMessage.class)))
+                .thenThrow(error)
+                .thenReturn(new Message());
+        long start = System.nanoTime();
+        outboundMessageQueue.submit(sender, message(1L, "текст")).get(5, TimeUnit.SECONDS);
+        assertThat(System.nanoTime() - start).isGreaterThanOrEqualTo(TimeUnit.MILLISECONDS.toNanos(1000));
+        verify(sender, times(2)).execute(any(SendMessage.class));
+        verify(deadLetterRepository, never()).save(any());
+    }
+
+    @Test
+    public void undeliverableMessageGoesToDeadLetterTest() throws Exception {
+        outboundMessageQueue = new OutboundMessageQueue(1000, 1000, 3, 10, 4,
+                deadLetterRepository, meterRegistry);
+        TelegramApiRequestException error = requestException(502, null);
+        when(sender.execute(any(SendMessage.class))).thenThrow(error);
+        CompletableFuture<Message> future = outboundMessageQueue.submit(sender, message(1L, "текст"));
+        assertThatThrownBy(() -> future.get(5, TimeUnit.SECONDS))
+                .isInstanceOf(ExecutionException.class)
+                .hasCauseInstanceOf(TelegramApiException.class);
+        //временная ошибка повторяется до исчерпания попыток
+        verify(sender, times(3)).execute(any(SendMessage.class));
+        ArgumentCaptor<OutboundDeadLetter> captor = ArgumentCaptor.forClass(OutboundDeadLetter.class);
+        verify(deadLetterRepository).save(captor.capture());
+        assertThat(captor.getValue().getChatId()).isEqualTo(1L);
+        assertThat(captor.getValue().getText()).isEqualTo("текст");
+        assertThat(captor.getValue().getAttempts()).isEqualTo(3);
+    }
+
+    @Test
+    public void permanentErrorIsNotRetriedTest() throws Exception {
+        outboundMessageQueue = new OutboundMessageQueue(1000, 1000, 3, 10, 4,
+                deadLetterRepository, meterRegistry);
+        //403 - пользователь заблокировал бота, повторять бесполезно
+        TelegramApiRequestException error = requestException(403, null);
+        when(sender.execute(any(SendMessage.class))).thenThrow(error);
+        CompletableFuture<Message> future = outboundMessageQueue.submit(sender, message(1L, "текст"));
+        assertThatThrownBy(() -> future.get(5, TimeUnit.SECONDS)).isInstanceOf(ExecutionException.class);
+        verify(sender, times(1)).execute(any(SendMessage.class));
+        verify(deadLetterRepository).save(any(OutboundDeadLetter.class));
+    }
+
+    @Test
+    public void directSendSharesGlobalRateTest() throws Exception {
+        //общий лимит 5 в секунду: ответы в разные чаты, отправленные сразу, тоже его соблюдают
+        outboundMessageQueue = new OutboundMessageQueue(5, 1000, 3, 10, 4,
+                deadLetterRepository, meterRegistry);
+        when(sender.execute(any(SendMessage.class))).thenReturn(new Message());
+        long start = System.nanoTime();
+        for (int i = 0; i < 10; i++) {
+            outboundMessageQueue.execute(sender, message(i, "текст"));
+        }
+        assertThat(System.nanoTime() - start).isGreaterThanOrEqualTo(TimeUnit.MILLISECONDS.toNanos(800));
+        verify(sender, times(10)).execute(any(SendMessage.class));
+    }
+
+    @Test
+    public void directSendHonoursChatRateTest() throws Exception {
+        //в чат не больше 2 сообщений в секунду: первые 2 ответа уходят сразу, еще 2 - примерно за секунду
+        outboundMessageQueue = new OutboundMessageQueue(1000, 2, 3, 10, 4,
+                deadLetterRepository, meterRegistry);
+        when(sender.execute(any(SendMessage.class))).thenReturn(new Message());
+        long start = System.nanoTime();
+        for (int i = 0; i < 4; i++) {
+            outboundMessageQueue.execute(sender, message(1L, "текст"));
+        }
+        assertThat(System.nanoTime() - start).isGreaterThanOrEqualTo(TimeUnit.MILLISECONDS.toNanos(800));
+        //ответ в другой чат не ждет
+        long other = System.nanoTime();
+        outboundMessageQueue.execute(sender, message(2L, "текст"));
+        assertThat(System.nanoTime() - other).isLessThan(TimeUnit.MILLISECONDS.toNanos(400));
+    }
+
+    @Test
+    public void directSendHonoursAndSetsRetryAfterTest() throws Exception {
+        outboundMessageQueue = new OutboundMessageQueue(1000, 1000, 3, 10, 4,
+                deadLetterRepository, meterRegistry);
+        TelegramApiRequestException error = requestException(429, 1);
+        when(sender.execute(any(SendMessage.class)))
+                .thenThrow(error)
+                .thenReturn(new Message());
+        long start = System.nanoTime();
+        outboundMessageQueue.execute(sender, message(1L, "текст"));
+        assertThat(System.nanoTime() - start).isGreaterThanOrEqualTo(TimeUnit.MILLISECONDS.toNanos(1000));
+        verify(sender, times(2)).execute(any(SendMessage.class));
+    }
+
+    @Test
+    public void directSendDoesNotRetryOtherErrorsTest() throws Exception {
+        outboundMessageQueue = new OutboundMessageQueue(1000, 1000, 3, 10, 4,
+                deadLetterRepository, meterRegistry);
+        TelegramApiRequestException error = requestException(403, null);
+        when(sender.execute(any(SendMessage.class))).thenThrow(error);
+        assertThatThrownBy(() -> outboundMessageQueue.execute(sender, message(1L, "текст")))
+                .isInstanceOf(TelegramApiRequestException.class);
+        verify(sender, times(1)).execute(any(SendMessage.class));
+        verify(deadLetterRepository, never()).save(any());
+    }
+
+    @Test
+    public void cancelRemovesOnlyNotSentMessageTest() throws Exception {
+        //в чат 1 сообщение в секунду: второе ждет в очереди, пока его не снимут
+        outboundMessageQueue = new OutboundMessageQueue(1000, 1, 3, 10, 4,
+                deadLetterRepository, meterRegistry);
+        when(sender.execute(any(SendMessage.class))).thenReturn(new Message());
+        CompletableFuture<Message> first = outboundMessageQueue.submit(sender, message(1L, "раз"));
+        CompletableFuture<Message> second = outboundMessageQueue.submit(sender, message(1L, "два"));
+        first.get(5, TimeUnit.SECONDS);
+
+        assertThat(outboundMessageQueue.cancel(first)).isFalse();
+        assertThat(outboundMessageQueue.cancel(second)).isTrue();
+        assertThatThrownBy(() -> second.get(5, TimeUnit.SECONDS))
+                .isInstanceOf(ExecutionException.class)
+                .hasCauseInstanceOf(TelegramApiException.class);
+        assertThat(outboundMessageQueue.getPending()).isZero();
+        Thread.sleep(1500);
+        //снятое сообщение так и не отправлено
+        verify(sender, times(1)).execute(any(SendMessage.class));
+        verify(deadLetterRepository, never()).save(any());
+    }
+}
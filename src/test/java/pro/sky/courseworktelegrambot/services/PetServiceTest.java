@@ -9,11 +9,17 @@ import org.mockito.junit.jupiter.MockitoExtension;
 import pro.sky.courseworktelegrambot.entities.Cat;
 import pro.sky.courseworktelegrambot.entities.Dog;
 import pro.sky.courseworktelegrambot.entities.Pet;
+import org.springframework.core.io.ByteArrayResource;
 import pro.sky.courseworktelegrambot.entities.ShelterId;
+import pro.sky.courseworktelegrambot.exceptions.NotAnImageException;
 import pro.sky.courseworktelegrambot.repositories.CatRepository;
 import pro.sky.courseworktelegrambot.repositories.DogRepository;
 
 import javax.persistence.EntityNotFoundException;
+import java.io.ByteArrayInputStream;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
 import java.util.Optional;
 
 import static org.junit.jupiter.api.Assertions.*;
@@ -34,6 +40,9 @@ public class PetServiceTest {
     @Mock
     private ShelterService shelterService;
 
+    @Mock
+    private PhotoStore photoStore;
+
     @InjectMocks
     private PetService petService;
 
@@ -160,4 +169,40 @@ public class PetServiceTest {
         assertEquals(cat.getName(), deletedPet.getName());
         verify(catRepository).deleteById(cat.getId());
     }
-}
\ No newline at end of file
+
+    @Test
+    void savePetPhotoDetectsTypeAndSize() throws Exception {
+        byte[] jpeg = Arrays.copyOf(new byte[]{(byte) 0xFF, (byte) 0xD8, (byte) 0xFF, (byte) 0xE0, 0x00, 0x10,
+                'J', 'F', 'I', 'F', 0x00, 0x01, 0x01}, 1000);
+        String hash = "a".repeat(64);
+        byte[][] stored = {null};
+        when(dogRepository.findById(dog.getId())).thenReturn(Optional.of(dog));
+        when(photoStore.save(any(InputStream.class))).thenAnswer(invocation -> {
+            stored[0] = ((InputStream) invocation.getArgument(0)).readAllBytes();
+            return hash;
+        });
+        when(photoStore.load(hash)).thenAnswer(invocation -> new ByteArrayResource(stored[0]));
+        when(dogRepository.save(dog)).thenReturn(dog);
+
+        Pet savedPet = petService.savePetPhoto(ShelterId.DOG, dog.getId(), new ByteArrayInputStream(jpeg));
+
+        //в хранилище попадает все фото, вместе с прочитанными для определения типа байтами
+        assertArrayEquals(jpeg, stored[0]);
+        assertEquals(hash, savedPet.getPhotoHash());
+        assertEquals("image/jpeg", savedPet.getPhotoType());
+        assertEquals(jpeg.length, savedPet.getPhotoSize());
+    }
+
+    @Test
+    void savePetPhotoRejectsNotImage() throws Exception {
+        when(dogRepository.findById(dog.getId())).thenReturn(Optional.of(dog));
+        byte[] html = "<html><script>alert(1)</script></html>".getBytes(StandardCharsets.UTF_8);
+
+        assertThrows(NotAnImageException.class, () ->
+                petService.savePetPhoto(ShelterId.DOG, dog.getId(), new ByteArrayInputStream(html)));
+        assertThrows(NotAnImageException.class, () ->
+                petService.savePetPhoto(ShelterId.DOG, dog.getId(), new ByteArrayInputStream(new byte[0])));
+        verify(photoStore, never()).save(any(InputStream.class));
+        verify(dogRepository, never()).save(any(Dog.class));
+    }
+}
@@ -0,0 +1,66 @@
+package pro.sky.courseworktelegrambot.services;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import pro.sky.courseworktelegrambot.exceptions.PhotoTooLargeException;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatExceptionOfType;
+
+public class ReportPhotoDownloaderTest {
+    //начало JPEG-файла: сигнатура FF D8 FF и заголовок JFIF
+    private static final byte[] JPEG_HEADER = {(byte) 0xFF, (byte) 0xD8, (byte) 0xFF, (byte) 0xE0,
+            0x00, 0x10, 'J', 'F', 'I', 'F', 0x00};
+
+    private ReportPhotoDownloader reportPhotoDownloader;
+
+    @AfterEach
+    public void afterEach() {
+        //тест определения типа по заголовку загрузчик не создает
+        if (reportPhotoDownloader != null) {
+            reportPhotoDownloader.shutdown();
+        }
+    }
+
+    private ReportPhotoDownloader downloader(long maxSize) {
+        return new ReportPhotoDownloader("token", "info/{token}/{fileId}", "storage/{token}/{filePath}",
+                maxSize, 1000, 1);
+    }
+
+    private byte[] jpeg(int size) {
+        byte[] data = new byte[size];
+        System.arraycopy(JPEG_HEADER, 0, data, 0, JPEG_HEADER.length);
+        return data;
+    }
+
+    @Test
+    public void receiveWritesPhotoToFileTest() throws IOException {
+        reportPhotoDownloader = downloader(100_000);
+        byte[] data = jpeg(50_000); //больше заголовка и буфера чтения
+        ReportPhoto photo = reportPhotoDownloader.receive(new ByteArrayInputStream(data));
+        try {
+            assertThat(photo.size()).isEqualTo(50_000);
+            assertThat(photo.mediaType()).isEqualTo("image/jpeg");
+            assertThat(photo.readBytes()).isEqualTo(data);
+        } finally {
+            photo.delete();
+        }
+        assertThat(Files.exists(photo.file())).isFalse();
+    }
+
+    @Test
+    public void receiveRejectsTooLargePhotoTest() {
+        reportPhotoDownloader = downloader(10_000);
+        assertThatExceptionOfType(PhotoTooLargeException.class)
+                .isThrownBy(() -> reportPhotoDownloader.receive(new ByteArrayInputStream(jpeg(10_001))));
+    }
+
+    @Test
+    public void detectMimeTypeByHeaderTest() {
+        assertThat(ReportPhotoDownloader.detectMimeType(JPEG_HEADER)).isEqualTo("image/jpeg");
+    }
+}
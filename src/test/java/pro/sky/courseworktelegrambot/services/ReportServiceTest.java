@@ -3,15 +3,16 @@ package pro.sky.courseworktelegrambot.services;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.ArgumentCaptor;
 import org.mockito.InjectMocks;
 import org.mockito.Mock;
 import org.mockito.Mockito;
 import org.mockito.junit.jupiter.MockitoExtension;
+import org.springframework.data.domain.Pageable;
 import pro.sky.courseworktelegrambot.entities.*;
-import pro.sky.courseworktelegrambot.repositories.CatAdoptionRepository;
-import pro.sky.courseworktelegrambot.repositories.CatReportRepository;
-import pro.sky.courseworktelegrambot.repositories.DogAdoptionRepository;
-import pro.sky.courseworktelegrambot.repositories.DogReportRepository;
+import pro.sky.courseworktelegrambot.repositories.ReportListView;
+import pro.sky.courseworktelegrambot.repositories.ReportRepository;
+import pro.sky.courseworktelegrambot.repositories.ReportStatusRepository;
 
 import javax.persistence.EntityNotFoundException;
 import java.time.LocalDate;
@@ -27,11 +28,11 @@ import static org.mockito.Mockito.*;
 @ExtendWith(MockitoExtension.class)
 public class ReportServiceTest {
     @Mock
-    private DogReportRepository dogReportRepository;
-    @Mock
-    private CatReportRepository catReportRepository;
+    private ReportRepository reportRepository;
     @Mock
     private ShelterService shelterService;
+    @Mock
+    private ReportStatusRepository reportStatusRepository;
     @InjectMocks
     private ReportService reportService;
 
@@ -75,20 +76,48 @@ public class ReportServiceTest {
 
     @Test
     public void saveDogReportTest() {
-        byte[] photo = new byte[5];
+        String photo = "a".repeat(64);
         String text = "Пет здоров!";
         String mediaType = "image/jpeg";
         int mediaSize = 111;
         LocalDate date = LocalDate.now();
         //Пусть по заданному усыновлению и дате отчет уже есть
-        List<DogReport> reportList = new ArrayList<>();
+        List<Report> reportList = new ArrayList<>();
         reportList.add(report1);
-        when(dogReportRepository.findByAdoptionAndDate(adoption1, date)).thenReturn(reportList);
-        report1.setPhoto(photo);
+        when(reportRepository.findByAdoptionIdAndDate(adoption1.getId(), date)).thenReturn(reportList);
+        report1.setPhotoHash(photo);
         report1.setText(text);
-        when(dogReportRepository.save(report1)).thenReturn(report1);
+        when(reportRepository.save(report1)).thenReturn(report1);
         assertThat(reportService.saveReport(adoption1,date, photo,mediaType,mediaSize, text)).isEqualTo(report1);
-        verify(dogReportRepository, atLeast(1)).save(report1);
+        verify(reportRepository, atLeast(1)).save(report1);
+        //отчет полный - состояние отчетов усыновления обновлено в той же операции
+        ArgumentCaptor<ReportStatus> statusCaptor = ArgumentCaptor.forClass(ReportStatus.class);
+        verify(reportStatusRepository).save(statusCaptor.capture());
+        assertThat(statusCaptor.getValue().getShelterId()).isEqualTo(shelterIdDog);
+        assertThat(statusCaptor.getValue().hasPhoto(date)).isTrue();
+        assertThat(statusCaptor.getValue().hasText(date)).isTrue();
+        assertThat(statusCaptor.getValue().getLastCompleteDate()).isEqualTo(date);
+    }
+
+    @Test
+    public void saveReportKeepsLastCompleteDateTest() {
+        LocalDate date = LocalDate.now();
+        //вчера отчет был полным, сегодня пока прислан только текст
+        ReportStatus status = new ReportStatus(shelterIdDog, adoption1.getId());
+        DogReport yesterdayReport = new DogReport(adoption1, date.minusDays(1), "a".repeat(64), "image/jpeg", 111, "Пет здоров!");
+        status.apply(yesterdayReport);
+        when(reportStatusRepository.findByShelterIdAndAdoptionId(shelterIdDog, adoption1.getId()))
+                .thenReturn(Optional.of(status));
+        when(reportRepository.findByAdoptionIdAndDate(adoption1.getId(), date)).thenReturn(new ArrayList<>());
+        when(reportRepository.save(any())).thenAnswer(invocation -> invocation.getArgument(0));
+
+        reportService.saveReport(adoption1, date, null, null, 0, "Пет здоров!");
+
+        verify(reportStatusRepository).save(status);
+        assertThat(status.getDate()).isEqualTo(date);
+        assertThat(status.hasPhoto(date)).isFalse();
+        assertThat(status.hasText(date)).isTrue();
+        assertThat(status.getLastCompleteDate()).isEqualTo(date.minusDays(1));
     }
 
     @Test
@@ -97,32 +126,32 @@ public class ReportServiceTest {
         List<DogAdoption> adoptionList = new ArrayList<>();
         adoptionList.add(adoption1);
 
-        List<DogReport> reportList = new ArrayList<>();
-        when(dogReportRepository.findByAdoptionAndDate(adoption1, date)).thenReturn(reportList);
+        List<Report> reportList = new ArrayList<>();
+        when(reportRepository.findByAdoptionIdAndDate(adoption1.getId(), date)).thenReturn(reportList);
         DogReport newReport = new DogReport(adoption1, date, null,"image/jpeg", 111, null);
 
-        when(dogReportRepository.save(newReport)).thenReturn(newReport);
+        when(reportRepository.save(newReport)).thenReturn(newReport);
         assertThat(reportService.saveReport(adoption1, date, null,"image/jpeg", 111, null)).isEqualTo(newReport);
-        verify(dogReportRepository, atLeast(1)).save(newReport);
+        verify(reportRepository, atLeast(1)).save(newReport);
     }
 
     @Test
     public void saveCatReportTest() {
-        byte[] photo = new byte[5];
+        String photo = "a".repeat(64);
         String text = "Пет здоров!";
         String mediaType = "image/jpeg";
         int mediaSize = 111;
         LocalDate date = LocalDate.now();
         List<CatAdoption> adoptionList = new ArrayList<>();
         adoptionList.add(adoption2);
-        List<CatReport> reportList = new ArrayList<>();
+        List<Report> reportList = new ArrayList<>();
         reportList.add(report2);
-        when(catReportRepository.findByAdoptionAndDate(adoption2, date)).thenReturn(reportList);
-        report2.setPhoto(photo);
+        when(reportRepository.findByAdoptionIdAndDate(adoption2.getId(), date)).thenReturn(reportList);
+        report2.setPhotoHash(photo);
         report2.setText(text);
-        when(catReportRepository.save(report2)).thenReturn(report2);
+        when(reportRepository.save(report2)).thenReturn(report2);
         assertThat(reportService.saveReport(adoption2, date, photo,mediaType,mediaSize, text)).isEqualTo(report2);
-        verify(catReportRepository, atLeast(1)).save(report2);
+        verify(reportRepository, atLeast(1)).save(report2);
     }
 
     @Test
@@ -130,47 +159,88 @@ public class ReportServiceTest {
         LocalDate date = LocalDate.now();
         List<CatAdoption> adoptionList = new ArrayList<>();
         adoptionList.add(adoption2);
-        List<CatReport> reportList = new ArrayList<>();
-        when(catReportRepository.findByAdoptionAndDate(adoption2, date)).thenReturn(reportList);
+        List<Report> reportList = new ArrayList<>();
+        when(reportRepository.findByAdoptionIdAndDate(adoption2.getId(), date)).thenReturn(reportList);
         CatReport newReport = new CatReport(adoption2, date, null,"image/jpeg",111, null);
-        when(catReportRepository.save(newReport)).thenReturn(newReport);
+        when(reportRepository.save(newReport)).thenReturn(newReport);
 
         assertThat(reportService.saveReport(adoption2, date, null,"image/jpeg",111, null)).isEqualTo(newReport);
-        verify(catReportRepository, atLeast(1)).save(newReport);
+        verify(reportRepository, atLeast(1)).save(newReport);
     }
 
     @Test
     public void getReportByIdTest() {
         Mockito.doNothing().when(shelterService).checkShelterId(shelterIdDog);
-        when(dogReportRepository.findById(any())).thenReturn(Optional.of(report1));
+        when(reportRepository.findByShelterIdAndId(eq(shelterIdDog), anyInt())).thenReturn(Optional.of(report1));
         assertThat(reportService.getReportById(shelterIdDog, 1)).isEqualTo(report1);
-        verify(dogReportRepository, atLeast(1)).findById(any());
+        verify(reportRepository, atLeast(1)).findByShelterIdAndId(eq(shelterIdDog), anyInt());
     }
 
     @Test
     public void getReportByIdNegativeTest() {
         Mockito.doNothing().when(shelterService).checkShelterId(shelterIdDog);
-        when(dogReportRepository.findById(any())).thenReturn(Optional.empty());
+        when(reportRepository.findByShelterIdAndId(eq(shelterIdDog), anyInt())).thenReturn(Optional.empty());
 
         assertThatExceptionOfType(EntityNotFoundException.class)
                 .isThrownBy(() -> reportService.getReportById(shelterIdDog, 1));
-        verify(dogReportRepository, atLeast(0)).findById(any());
+        verify(reportRepository, atLeast(0)).findByShelterIdAndId(eq(shelterIdDog), anyInt());
     }
 
     @Test
     public void deleteReportByIdTest() {
         Mockito.doNothing().when(shelterService).checkShelterId(shelterIdDog);
-        when(dogReportRepository.findById(any())).thenReturn(Optional.of(report1));
+        when(reportRepository.findByShelterIdAndId(eq(shelterIdDog), anyInt())).thenReturn(Optional.of(report1));
         reportService.deleteReportById(shelterIdDog, 1);
-        verify(dogReportRepository, atLeast(1)).deleteById(any());
+        verify(reportRepository, atLeast(1)).deleteById(any());
+    }
+
+    @Test
+    public void deleteReportRecomputesStatusTest() {
+        LocalDate date = LocalDate.now();
+        //удаляем сегодняшний полный отчет, остается вчерашний неполный и позавчерашний полный
+        report1.setPhotoHash("a".repeat(64));
+        report1.setText("Пет здоров!");
+        ReportStatus status = new ReportStatus(shelterIdDog, adoption1.getId());
+        status.apply(report1);
+        DogReport yesterdayReport = new DogReport(adoption1, date.minusDays(1), null, null, 0, "Пет здоров!");
+        DogReport completeReport = new DogReport(adoption1, date.minusDays(2), "b".repeat(64), "image/jpeg", 111, "Пет здоров!");
+        Mockito.doNothing().when(shelterService).checkShelterId(shelterIdDog);
+        when(reportRepository.findByShelterIdAndId(shelterIdDog, 1)).thenReturn(Optional.of(report1));
+        when(reportRepository.findByAdoptionId(adoption1.getId())).thenReturn(List.of(yesterdayReport, completeReport));
+        when(reportStatusRepository.findByShelterIdAndAdoptionId(shelterIdDog, adoption1.getId()))
+                .thenReturn(Optional.of(status));
+
+        reportService.deleteReportById(shelterIdDog, 1);
+
+        verify(reportStatusRepository).save(status);
+        assertThat(status.getDate()).isEqualTo(date.minusDays(1));
+        assertThat(status.hasPhoto(date.minusDays(1))).isFalse();
+        assertThat(status.hasText(date.minusDays(1))).isTrue();
+        assertThat(status.getLastCompleteDate()).isEqualTo(date.minusDays(2));
+    }
+
+    @Test
+    public void deleteLastReportDeletesStatusTest() {
+        ReportStatus status = new ReportStatus(shelterIdDog, adoption1.getId());
+        status.apply(report1);
+        Mockito.doNothing().when(shelterService).checkShelterId(shelterIdDog);
+        when(reportRepository.findByShelterIdAndId(shelterIdDog, 1)).thenReturn(Optional.of(report1));
+        when(reportRepository.findByAdoptionId(adoption1.getId())).thenReturn(List.of());
+        when(reportStatusRepository.findByShelterIdAndAdoptionId(shelterIdDog, adoption1.getId()))
+                .thenReturn(Optional.of(status));
+
+        reportService.deleteReportById(shelterIdDog, 1);
+
+        verify(reportStatusRepository).delete(status);
+        verify(reportStatusRepository, never()).save(any());
     }
 
     @Test
     public void getAllDogReportsByDateTest() {
         LocalDate date = LocalDate.now();
         Mockito.doNothing().when(shelterService).checkShelterId(shelterIdDog);
-        List<DogReport> dogReportList = List.of(report1);
-        when(dogReportRepository.findByDate(date)).thenReturn(dogReportList);
+        List<Report> dogReportList = List.of(report1);
+        when(reportRepository.findByShelterIdAndDate(shelterIdDog, date)).thenReturn(dogReportList);
         assertThat(reportService.getAllReportsByDate(shelterIdDog, date))
                 .isNotNull()
                 .isNotEmpty();
@@ -184,8 +254,8 @@ public class ReportServiceTest {
     public void getAllCatReportsByDateTest() {
         LocalDate date = LocalDate.now();
         Mockito.doNothing().when(shelterService).checkShelterId(shelterIdCat);
-        List<CatReport> catReportList = List.of(report2);
-        when(catReportRepository.findByDate(date)).thenReturn(catReportList);
+        List<Report> catReportList = List.of(report2);
+        when(reportRepository.findByShelterIdAndDate(shelterIdCat, date)).thenReturn(catReportList);
         assertThat(reportService.getAllReportsByDate(shelterIdCat, date))
                 .isNotNull()
                 .isNotEmpty();
@@ -196,17 +266,38 @@ public class ReportServiceTest {
     }
 
     @Test
-    public void getAllReportsTest() {
+    public void getReportsTest() {
         Mockito.doNothing().when(shelterService).checkShelterId(shelterIdDog);
-        List<DogReport> dogReportList = List.of(report1);
-        when(dogReportRepository.findAll()).thenReturn(dogReportList);
-        assertThat(reportService.getAllReports(shelterIdDog))
-                .isNotNull()
-                .isNotEmpty();
-        assertThat(reportService.getAllReports(shelterIdDog).size())
-                .isEqualTo(dogReportList.size());
-        assertThat(reportService.getAllReports(shelterIdDog))
-                .containsExactlyInAnyOrder(report1);
+        ReportListView view = new ReportListView(1, 1, LocalDate.of(2023, 9, 27),
+                true, false, "image/jpeg", 111);
+        LocalDate from = LocalDate.of(2023, 9, 1);
+        when(reportRepository.findPage(eq(shelterIdDog), eq(10), eq(from), eq(LocalDate.of(9999, 12, 31)), any()))
+                .thenReturn(List.of(view));
+        assertThat(reportService.getReports(shelterIdDog, 10, 5000, from, null))
+                .containsExactly(view);
+        //размер страницы ограничен, страница всегда первая: место в списке задает afterId
+        ArgumentCaptor<Pageable> pageable = ArgumentCaptor.forClass(Pageable.class);
+        verify(reportRepository).findPage(eq(shelterIdDog), eq(10), eq(from), any(), pageable.capture());
+        assertThat(pageable.getValue().getPageSize()).isEqualTo(1000);
+        assertThat(pageable.getValue().getPageNumber()).isZero();
+        verify(reportRepository, never()).findAll();
     }
 
+
+    @Test
+    public void reportGoesToAdoptionShelterTest() {
+        //пользователь с усыновлением собаки перешел в меню приюта кошек и прислал отчет
+        user1.setShelterId(shelterIdCat);
+        LocalDate date = LocalDate.now();
+        when(reportRepository.findByAdoptionIdAndDate(adoption1.getId(), date)).thenReturn(new ArrayList<>());
+        when(reportRepository.save(any(DogReport.class))).thenAnswer(invocation -> invocation.getArgument(0));
+        when(reportStatusRepository.findByShelterIdAndAdoptionId(shelterIdDog, adoption1.getId()))
+                .thenReturn(Optional.empty());
+
+        reportService.saveReport(adoption1, date, null, null, 0, "Пет здоров!");
+        assertThat(reportService.getReportStatus(adoption1)).isNull();
+
+        verify(reportRepository, never()).save(any(CatReport.class));
+        verify(reportStatusRepository, never()).findByShelterIdAndAdoptionId(eq(shelterIdCat), anyInt());
+    }
 }
@@ -1,19 +1,19 @@
 package pro.sky.courseworktelegrambot.services;
 
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 import org.junit.jupiter.api.extension.ExtendWith;
-import org.mockito.InjectMocks;
 import org.mockito.Mock;
 import org.mockito.Mockito;
 import org.mockito.internal.verification.Times;
 import org.mockito.junit.jupiter.MockitoExtension;
 import pro.sky.courseworktelegrambot.entities.Shelter;
 import pro.sky.courseworktelegrambot.entities.ShelterId;
+import pro.sky.courseworktelegrambot.exceptions.InformationTypeByShelterNotFoundException;
 import pro.sky.courseworktelegrambot.exceptions.ShelterNotFoundException;
 import pro.sky.courseworktelegrambot.repositories.ShelterRepository;
 
-import java.util.ArrayList;
 import java.util.List;
 import java.util.Optional;
 
@@ -27,7 +27,8 @@ public class ShelterServiceTest {
     @Mock
     private ShelterRepository shelterRepository;
 
-    @InjectMocks
+    private final SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+
     private ShelterService shelterService;
 
     private Shelter shelter1;
@@ -51,6 +52,18 @@ public class ShelterServiceTest {
         shelter1.setCommunication("communication");
         shelter1.setCynologists("cynologists");
         shelter1.setRefusalReasons("refusalReasons");
+        //в БД приютов нет: конструктор загружает в кэш пустой список
+        shelterService = new ShelterService(shelterRepository, meterRegistry);
+    }
+
+    //сервис, загрузивший в кэш заданные приюты
+    private ShelterService shelterService(Shelter... shelters) {
+        when(shelterRepository.findAll()).thenReturn(List.of(shelters));
+        return new ShelterService(shelterRepository, meterRegistry);
+    }
+
+    private double cacheGets(String result) {
+        return meterRegistry.get("cache.gets").tag("result", result).counter().count();
     }
 
     @Test
@@ -62,16 +75,16 @@ public class ShelterServiceTest {
 
     @Test
     public void getTest() {
-        when(shelterRepository.findById(ShelterId.DOG)).thenReturn(Optional.of(shelter1));
+        shelterService = shelterService(shelter1);
         assertThat(shelterService.get(ShelterId.DOG)).isEqualTo(shelter1);
-        verify(shelterRepository, atLeast(1)).findById(ShelterId.DOG);
+        //приют берется из кэша
+        verify(shelterRepository, never()).findById(any());
     }
 
     @Test
     public void getNegativeTest() {
-        when(shelterRepository.findById(ShelterId.CAT)).thenReturn(Optional.empty());
+        shelterService = shelterService(shelter1);
         assertThatExceptionOfType(ShelterNotFoundException.class).isThrownBy(() -> shelterService.get(ShelterId.CAT));
-        verify(shelterRepository, atLeast(1)).findById(ShelterId.CAT);
     }
 
 
@@ -92,14 +105,79 @@ public class ShelterServiceTest {
 
     @Test
     public void findAllTest() {
-        List<Shelter> shelterList = new ArrayList<>();
-        shelterList.add(shelter1);
-        when(shelterRepository.findAll()).thenReturn(shelterList);
+        shelterService = shelterService(shelter1);
         assertThat(shelterService.findAll())
                 .hasSize(1)
                 .containsExactlyInAnyOrder(shelter1);
     }
 
+    @Test
+    public void getInformationAfterCreateTest() {
+        when(shelterRepository.save(shelter1)).thenReturn(shelter1);
+        when(shelterRepository.findAll()).thenReturn(List.of(shelter1));
+        shelterService.create(shelter1);
+        assertThat(shelterService.getInformation(ShelterId.DOG, "safetyPrecautions")).isEqualTo("safetyPrecautions");
+        assertThat(shelterService.getNameById(ShelterId.DOG)).isEqualTo("Dogs");
+        //информация берется из индекса, в БД за ней не ходим
+        verify(shelterRepository, never()).findById(any());
+    }
+
+    @Test
+    public void getInformationNegativeTest() {
+        shelterService = shelterService(shelter1);
+        assertThatExceptionOfType(InformationTypeByShelterNotFoundException.class)
+                .isThrownBy(() -> shelterService.getInformation(ShelterId.DOG, "unknown"));
+        assertThatExceptionOfType(ShelterNotFoundException.class)
+                .isThrownBy(() -> shelterService.getInformation(ShelterId.CAT, "address"));
+    }
+
+    @Test
+    public void updateRefreshesInformationTest() {
+        when(shelterRepository.findById(ShelterId.DOG)).thenReturn(Optional.of(shelter1));
+        when(shelterRepository.save(shelter1)).thenReturn(shelter1);
+        when(shelterRepository.findAll()).thenReturn(List.of(shelter1));
+        shelterService.update(ShelterId.DOG, "address", "new address");
+        assertThat(shelter1.getAddress()).isEqualTo("new address");
+        assertThat(shelterService.getInformation(ShelterId.DOG, "address")).isEqualTo("new address");
+    }
+
+    @Test
+    public void updateNegativeInformationTypeTest() {
+        assertThatExceptionOfType(InformationTypeByShelterNotFoundException.class)
+                .isThrownBy(() -> shelterService.update(ShelterId.DOG, "id", "CAT"));
+        verify(shelterRepository, never()).save(any());
+    }
+
+    @Test
+    public void deleteRemovesInformationTest() {
+        shelterService = shelterService(shelter1);
+        when(shelterRepository.findAll()).thenReturn(List.of());
+        when(shelterRepository.findById(ShelterId.DOG)).thenReturn(Optional.of(shelter1));
+        shelterService.delete(ShelterId.DOG);
+        assertThatExceptionOfType(ShelterNotFoundException.class)
+                .isThrownBy(() -> shelterService.checkShelterId(ShelterId.DOG));
+    }
+
+    @Test
+    public void cacheMetricsTest() {
+        shelterService = shelterService(shelter1);
+        clearInvocations(shelterRepository);
+        shelterService.checkShelterId(ShelterId.DOG);
+        shelterService.getNameById(ShelterId.DOG);
+        assertThat(cacheGets("hit")).isEqualTo(2);
+        assertThat(cacheGets("miss")).isZero();
+
+        //изменение сбрасывает кэш, следующее чтение загружает приюты из БД один раз
+        when(shelterRepository.save(shelter1)).thenReturn(shelter1);
+        shelterService.create(shelter1);
+        shelterService.findAll();
+        shelterService.findAll();
+        assertThat(cacheGets("miss")).isEqualTo(1);
+        assertThat(cacheGets("hit")).isEqualTo(3);
+        assertThat(meterRegistry.get("cache.evictions").counter().count()).isEqualTo(1);
+        verify(shelterRepository, times(1)).findAll();
+    }
+
     @Test
     public void checkShelterIdNegativeShelterIdIsNullTest() {
         ShelterId shelterId = null;
@@ -107,4 +185,23 @@ public class ShelterServiceTest {
     }
 
 
+
+    @Test
+    public void refreshPicksUpChangesOfOtherInstanceTest() {
+        shelterService = shelterService(shelter1);
+        List<Shelter> cached = shelterService.findAll();
+        //приюты не менялись - снимок остается прежним
+        shelterService.refresh();
+        assertThat(shelterService.findAll()).isSameAs(cached);
+
+        //другой экземпляр бота изменил расписание приюта
+        Shelter changed = new Shelter();
+        changed.setId(ShelterId.DOG);
+        changed.setName("Dogs");
+        changed.setTimetable("new timetable");
+        when(shelterRepository.findAll()).thenReturn(List.of(changed));
+        shelterService.refresh();
+        assertThat(shelterService.getInformation(ShelterId.DOG, "timetable")).isEqualTo("new timetable");
+        assertThat(shelterService.get(ShelterId.DOG)).isSameAs(changed);
+    }
 }
@@ -0,0 +1,119 @@
+package pro.sky.courseworktelegrambot.services;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import org.telegram.telegrambots.meta.api.objects.replykeyboard.ReplyKeyboardMarkup;
+import org.telegram.telegrambots.meta.api.objects.replykeyboard.buttons.KeyboardRow;
+import pro.sky.courseworktelegrambot.entities.*;
+import pro.sky.courseworktelegrambot.repositories.ShelterRepository;
+import pro.sky.courseworktelegrambot.repositories.StateRepository;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import static org.mockito.Mockito.when;
+
+@ExtendWith(MockitoExtension.class)
+public class StateGraphTest {
+    @Mock
+    private StateRepository stateRepository;
+    @Mock
+    private ShelterRepository shelterRepository;
+
+    private StateGraph stateGraph;
+
+    private final State initialState = new State("Shelter", "Выберите приют:", false, NamedState.INITIAL_STATE, null);
+    private final State mainState = new State("Main", "Главное меню", false, NamedState.AFTER_SHELTER_CHOICE_STATE,
+            new ArrayList<>());
+    private final State infoState = new State("Info", "@information", false, null, new ArrayList<>());
+
+    @BeforeEach
+    public void beforeEach() {
+        Shelter dogShelter = new Shelter();
+        dogShelter.setId(ShelterId.DOG);
+        dogShelter.setName("Собаки");
+        Shelter catShelter = new Shelter();
+        catShelter.setId(ShelterId.CAT);
+        catShelter.setName("Кошки");
+        when(shelterRepository.findAll()).thenReturn(List.of(dogShelter, catShelter));
+        stateGraph = new StateGraph(stateRepository, new ShelterService(shelterRepository, new SimpleMeterRegistry()));
+
+        mainState.getButtons().add(new StateButton(mainState, "Общая", infoState, (byte) 2, (byte) 1, null));
+        mainState.getButtons().add(new StateButton(mainState, "Только кошки", infoState, (byte) 1, (byte) 2, ShelterId.CAT));
+        mainState.getButtons().add(new StateButton(mainState, "Только собаки", infoState, (byte) 1, (byte) 1, ShelterId.DOG));
+        when(stateRepository.findAll()).thenReturn(List.of(initialState, mainState, infoState));
+        stateGraph.reload();
+    }
+
+    @Test
+    public void transitionsDependOnShelterTest() {
+        assertThat(stateGraph.getNextState(mainState, ShelterId.DOG, "Только собаки")).isEqualTo(infoState);
+        assertThat(stateGraph.getNextState(mainState, ShelterId.CAT, "Только собаки")).isNull();
+        assertThat(stateGraph.getNextState(mainState, ShelterId.CAT, "Общая")).isEqualTo(infoState);
+        assertThat(stateGraph.getNextState(mainState, null, "Общая")).isEqualTo(infoState);
+        assertThat(stateGraph.getNextState(mainState, ShelterId.CAT, "Нет такой")).isNull();
+    }
+
+    @Test
+    public void initialStateHasShelterButtonsTest() {
+        State graphInitialState = stateGraph.getNamedState(NamedState.INITIAL_STATE);
+        assertThat(graphInitialState.getButtons()).extracting(StateButton::getCaption)
+                .containsExactly("Собаки", "Кошки");
+        assertThat(stateGraph.getShelterIdByName("Кошки")).isEqualTo(ShelterId.CAT);
+        assertThat(stateGraph.getShelterIdByName("Хомяки")).isNull();
+        //сущность, пришедшая из репозитория, не изменилась
+        assertThat(initialState.getButtons()).isNull();
+    }
+
+    @Test
+    public void keyboardIsPrebuiltPerShelterTest() {
+        ReplyKeyboardMarkup keyboard = stateGraph.getKeyboard(mainState, ShelterId.DOG);
+        assertThat(keyboard.getKeyboard()).hasSize(2);
+        assertThat(keyboard.getKeyboard().get(0)).extracting(button -> button.getText())
+                .containsExactly("Только собаки");
+        assertThat(keyboard.getKeyboard().get(1)).extracting(button -> button.getText())
+                .containsExactly("Общая");
+        //клавиатура одна и та же для всех сообщений
+        assertThat(stateGraph.getKeyboard(mainState, ShelterId.DOG)).isSameAs(keyboard);
+        assertThat(stateGraph.getKeyboard(mainState, ShelterId.CAT)).isNotSameAs(keyboard);
+    }
+
+    @Test
+    public void graphIsImmutableTest() {
+        State graphState = stateGraph.getState("Main");
+        assertThatThrownBy(() -> graphState.getButtons().clear())
+                .isInstanceOf(UnsupportedOperationException.class);
+        List<KeyboardRow> rows = stateGraph.getKeyboard(mainState, null).getKeyboard();
+        assertThatThrownBy(rows::clear).isInstanceOf(UnsupportedOperationException.class);
+    }
+
+    @Test
+    public void reloadSwapsGraphOnlyWhenTablesChangeTest() {
+        long version = stateGraph.getVersion();
+        State before = stateGraph.getState("Main");
+        assertThat(stateGraph.reload()).isFalse();
+        assertThat(stateGraph.getVersion()).isEqualTo(version);
+
+        mainState.getButtons().add(new StateButton(mainState, "Новая", mainState, (byte) 3, (byte) 1, null));
+        assertThat(stateGraph.reload()).isTrue();
+        assertThat(stateGraph.getVersion()).isGreaterThan(version);
+        assertThat(stateGraph.getNextState(mainState, ShelterId.DOG, "Новая")).isEqualTo(mainState);
+        //старый граф у тех, кто его уже получил, не изменился
+        assertThat(before.getButtons()).hasSize(3);
+    }
+
+    @Test
+    public void bindReplacesUnknownStateWithInitialTest() {
+        User user = new User(1L, "Иван", new State("Deleted", "", false, null, null));
+        user.setPreviousState(mainState);
+        stateGraph.bind(user);
+        assertThat(user.getState()).isSameAs(stateGraph.getNamedState(NamedState.INITIAL_STATE));
+        assertThat(user.getPreviousState()).isSameAs(stateGraph.getState("Main"));
+    }
+}
@@ -0,0 +1,92 @@
+package pro.sky.courseworktelegrambot.services;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.ArgumentCaptor;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import org.telegram.telegrambots.meta.api.methods.send.SendMessage;
+import org.telegram.telegrambots.meta.api.objects.replykeyboard.ReplyKeyboardMarkup;
+import org.telegram.telegrambots.meta.exceptions.TelegramApiException;
+import pro.sky.courseworktelegrambot.entities.ShelterId;
+import pro.sky.courseworktelegrambot.entities.State;
+import pro.sky.courseworktelegrambot.entities.StateButton;
+import pro.sky.courseworktelegrambot.entities.User;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.*;
+
+@ExtendWith(MockitoExtension.class)
+public class TelegramBotSenderTest {
+    @Mock
+    private StateGraph stateGraph;
+
+    private TelegramBotSender telegramBotSender;
+
+    private final State state = new State("Main", "Главное меню", false, null, new ArrayList<>());
+    private final State textInputState = new State("Text", "Введите текст", true, null, null);
+
+    @BeforeEach
+    public void beforeEach() throws TelegramApiException {
+        telegramBotSender = spy(new TelegramBotSender());
+        telegramBotSender.setStateGraph(stateGraph);
+        doReturn(null).when(telegramBotSender).execute(any(SendMessage.class));
+        state.getButtons().add(new StateButton(state, "Кнопка", state, (byte) 1, (byte) 1, null));
+    }
+
+    private List<SendMessage> sentMessages(int count) throws TelegramApiException {
+        ArgumentCaptor<SendMessage> sendMessageCaptor = ArgumentCaptor.forClass(SendMessage.class);
+        verify(telegramBotSender, times(count)).execute(sendMessageCaptor.capture());
+        return sendMessageCaptor.getAllValues();
+    }
+
+    @Test
+    public void keyboardComesFromStateGraphTest() throws TelegramApiException {
+        ReplyKeyboardMarkup dogKeyboard = new ReplyKeyboardMarkup();
+        ReplyKeyboardMarkup catKeyboard = new ReplyKeyboardMarkup();
+        when(stateGraph.getKeyboard(state, ShelterId.DOG)).thenReturn(dogKeyboard);
+        when(stateGraph.getKeyboard(state, ShelterId.CAT)).thenReturn(catKeyboard);
+        User user = new User(1L, "Иван", state);
+        user.setShelterId(ShelterId.DOG);
+
+        telegramBotSender.sendMessageToUser(user, "раз", 0);
+        telegramBotSender.sendMessageToUser(user, "два", 0);
+        user.setShelterId(ShelterId.CAT);
+        telegramBotSender.sendMessageToUser(user, "три", 0);
+
+        //клавиатуры построены графом заранее, отправитель их не строит и не копирует
+        List<SendMessage> messages = sentMessages(3);
+        assertThat(messages.get(0).getReplyMarkup()).isSameAs(dogKeyboard);
+        assertThat(messages.get(1).getReplyMarkup()).isSameAs(dogKeyboard);
+        assertThat(messages.get(2).getReplyMarkup()).isSameAs(catKeyboard);
+    }
+
+    @Test
+    public void keyboardOfStateOutsideGraphIsBuiltFromButtonsTest() throws TelegramApiException {
+        User user = new User(1L, "Иван", state);
+        user.setShelterId(ShelterId.DOG);
+
+        telegramBotSender.sendMessageToUser(user, "раз", 0);
+
+        ReplyKeyboardMarkup keyboard = (ReplyKeyboardMarkup) sentMessages(1).get(0).getReplyMarkup();
+        assertThat(keyboard.getKeyboard()).hasSize(1);
+        assertThat(keyboard.getKeyboard().get(0).get(0).getText()).isEqualTo("Кнопка");
+        verify(stateGraph).getKeyboard(state, ShelterId.DOG);
+    }
+
+    @Test
+    public void textInputKeyboardIsSharedTest() throws TelegramApiException {
+        telegramBotSender.sendMessageToUser(new User(1L, "Иван", textInputState), null, 0);
+        telegramBotSender.sendMessageToUser(new User(2L, "Петр", textInputState), null, 0);
+
+        List<SendMessage> messages = sentMessages(2);
+        assertThat(messages.get(0).getText()).isEqualTo("Введите текст");
+        assertThat(messages.get(1).getReplyMarkup()).isSameAs(messages.get(0).getReplyMarkup());
+        verifyNoInteractions(stateGraph);
+    }
+}
@@ -1,13 +1,13 @@
 package pro.sky.courseworktelegrambot.services;
 
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 import org.junit.jupiter.api.extension.ExtendWith;
 import org.mockito.*;
 import org.mockito.junit.jupiter.MockitoExtension;
 
-import org.springframework.http.HttpStatus;
-import org.springframework.http.ResponseEntity;
+import org.springframework.jdbc.core.JdbcTemplate;
 import org.telegram.telegrambots.meta.api.methods.send.SendMessage;
 import org.telegram.telegrambots.meta.api.objects.*;
 import org.telegram.telegrambots.meta.exceptions.TelegramApiException;
@@ -15,6 +15,9 @@ import pro.sky.courseworktelegrambot.entities.*;
 import pro.sky.courseworktelegrambot.entities.User;
 import pro.sky.courseworktelegrambot.repositories.*;
 
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
 import java.time.LocalDate;
 import java.time.LocalDateTime;
 import java.time.temporal.ChronoUnit;
@@ -22,10 +25,13 @@ import java.util.ArrayList;
 import java.util.Collections;
 import java.util.List;
 import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
 
-import static org.junit.jupiter.api.Assertions.assertArrayEquals;
 import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
 import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyList;
+import static org.mockito.ArgumentMatchers.anyString;
 import static org.mockito.Mockito.*;
 
 @ExtendWith(MockitoExtension.class)
@@ -40,23 +46,33 @@ public class TelegramBotTest {
     @Mock
     private FeedbackRequestRepository feedbackRequestRepository;
     @Mock
-    private DogAdoptionRepository dogAdoptionRepository;
+    private AdoptionRepository adoptionRepository;
     @Mock
-    private CatAdoptionRepository catAdoptionRepository;
+    private ReportRepository reportRepository;
     @Mock
-    private DogReportRepository dogReportRepository;
-    @Mock
-    private CatReportRepository catReportRepository;
+    private PetService petService;
     @Mock
     private DogRepository dogRepository;
     @Mock
     private CatRepository catRepository;
     @Mock
     private ShelterRepository shelterRepository;
+    @Mock
+    private JdbcTemplate jdbcTemplate;
+    @Mock
+    private UpdateDispatcher updateDispatcher;
+    @Mock
+    private ReportPhotoDownloader reportPhotoDownloader;
+    @Mock
+    private PhotoStore photoStore;
+    @Mock
+    private ReportStatusRepository reportStatusRepository;
 
     //сервисы реальные - их тоже потестируем. Можно было упростить жизнь и их тоже замокать.
     //@InjectMocks - shelterService будем создавать сами, тогда и заинжектим репозиторий
     private ShelterService shelterService;
+    private UserStateStore userStateStore;
+    private StateGraph stateGraph;
     @InjectMocks
     private FeedbackRequestService feedbackRequestService;
     @InjectMocks
@@ -83,16 +99,33 @@ public class TelegramBotTest {
         catShelter.setId(ShelterId.CAT);
         catShelter.setName("Кошки");
         when(shelterRepository.findAll()).thenReturn(List.of(dogShelter, catShelter));
-        shelterService = new ShelterService(shelterRepository); //в конструкторе считываются все приюты
+        shelterService = new ShelterService(shelterRepository, new SimpleMeterRegistry()); //в конструкторе считываются все приюты
         //для работы бота передадим в него сервисы с заинжекченными моками репозиториев
+        stateGraph = new StateGraph(stateRepository, shelterService);
+        userStateStore = new UserStateStore(userRepository, jdbcTemplate, stateGraph);
         telegramBot.setServices(shelterService, adoptionService, reportService,
-                feedbackRequestService,messageToVolunteerService);
+                feedbackRequestService,messageToVolunteerService, userStateStore, stateGraph);
+    }
+
+    //передадим состояния в граф состояний через мок репозитория состояний
+    private void loadStateGraph(State... states) {
+        when(stateRepository.findAll()).thenReturn(List.of(states));
+        stateGraph.reload();
+    }
+
+    //в базе пользователь хранится только с идентификаторами состояний
+    private void userInRepository(User user) {
+        when(userRepository.findStateById(user.getId())).thenReturn(Optional.of(new UserStateView(
+                user.getId(), user.getName(), user.getShelterId(),
+                user.getState() == null ? null : user.getState().getId(),
+                user.getPreviousState() == null ? null : user.getPreviousState().getId(),
+                user.getStateTime())));
     }
 
     @Test
     public void onUpdateReceived_WhenNewUser() throws TelegramApiException {
         //При поиске пользователя возвратим, что не найден
-        when(userRepository.findById(1L)).thenReturn(Optional.empty());
+        when(userRepository.findStateById(1L)).thenReturn(Optional.empty());
         //при посылке сообщения - ошибку не выбрасываем
         //так возникает TelegramApiException: Parameter method can not be null
         //when(spyTelegramBot.execute(any(SendMessage.class))).thenReturn(null); т.е. сначала идет ошибка, а потом задание вернуть null
@@ -103,9 +136,8 @@ public class TelegramBotTest {
                 Collections.singletonList(new StateButton(
                         null, "Первая кнопка", null, (byte)1,(byte)1 ,null)));
 
-        //передадим созданное состояние в бот через мок репозитория состояний
-        when(stateRepository.findByNamedState(NamedState.INITIAL_STATE)).thenReturn(initialState);
-        telegramBot.initStates();
+        //передадим созданное состояние в бот через граф состояний
+        loadStateGraph(initialState);
 
         //Метод замоканного объекта UserRepository.save ничего не возвращает, далать when не нужно
         //а нужно будет проверить, какие параметры попадают ему на вход
@@ -134,7 +166,7 @@ public class TelegramBotTest {
         assertEquals("Начало", actualSendMessages.get(1).getText());
 
         //Должен быть 1 поиск в репозитории User
-        verify(userRepository, times(1)).findById(1L); //times(1) можно не писать
+        verify(userRepository, times(1)).findStateById(1L); //times(1) можно не писать
         //Должно быть 1 сохранение в репозиторий User
         ArgumentCaptor<User> userCaptor = ArgumentCaptor.forClass(User.class);
         verify(userRepository).save(userCaptor.capture());  //если подставить user, почему-то не работает new User(1L, null, initialState)
@@ -167,8 +199,9 @@ public class TelegramBotTest {
         //При поиске пользователя возвратим, что он найден по коду 1, в состоянии 11 (старое состояние)
         //и от него пришел текст "Какая-то кнопка". Ожидаю, что новое состояние будет 22 - новое состояние
 
+        loadStateGraph(newState, oldState);
         User user = new User(1L,"Какой-то юзер", oldState);
-        when(userRepository.findById(1L)).thenReturn(Optional.of(user));
+        userInRepository(user);
         //при посылке сообщения - ошибку не выбрасываем
         doReturn(null).when(telegramBot).execute(any(SendMessage.class));
 
@@ -193,11 +226,15 @@ public class TelegramBotTest {
         assertEquals("Новое состояние", actualSendMessage.getText());
 
         //Должен быть 1 поиск в репозитории
-        verify(userRepository).findById(1L); //times(1) можно не писать
+        verify(userRepository).findStateById(1L); //times(1) можно не писать
         //Должно быть 1 сохранение в репозиторий
-        ArgumentCaptor<User> userCaptor = ArgumentCaptor.forClass(User.class);
-        verify(userRepository).save(userCaptor.capture());
-        User actualUser = userCaptor.getValue();
+        //известный пользователь в репозиторий сразу не пишется - только при пакетной записи
+        verify(userRepository, never()).save(any());
+        User actualUser = userStateStore.find(1L);
+        //пакет из одного состояния записан
+        when(jdbcTemplate.batchUpdate(anyString(), anyList())).thenReturn(new int[]{1});
+        userStateStore.flush();
+        verify(jdbcTemplate).batchUpdate(anyString(), anyList());
         //проверяем поля объекта, отправленного в репозиторий
         assertEquals(1, actualUser.getId());
         assertEquals("Какой-то юзер", actualUser.getName());
@@ -211,26 +248,22 @@ public class TelegramBotTest {
         //то надо задать у пользователя приют и только потом перейти в Новое состояние.
         //Сымитируем эту нереальную ситуацию с двумя особенностями сразу для большего покрытия
         newState.setText("@information");
-        try {
         shelterService.setInformation(ShelterId.DOG,"information","Информация о приюте");
-        } catch (IllegalAccessException e) {}
         //создадим объект - начальное состояние. Оттуда мы будем переводить пользователя
         //кнопок там нет. Сообщение будет сравниваться не с кнопками, а с именами приютов
         oldState.setNamedState(NamedState.INITIAL_STATE);
-        user.setState(oldState);
         message.setText("Собаки");
 
         //try{
         //    when(shelterService.getInformation(any(),any())).thenReturn("Информация о приюте");
         //} catch (IllegalAccessException e) {}
 
-        //Еще в боте надо задать поле afterShelterChoiceState,
+        //Еще в графе надо задать состояние после выбора приюта,
         //т.к. именно туда перейдет пользователь после выбора приюта
-        //передадим в бот новое состояние через мок репозитория состояний
-        when(stateRepository.findByNamedState(NamedState.INITIAL_STATE)).thenReturn(oldState);
-        when(stateRepository.findByNamedState(NamedState.BAD_CHOICE)).thenReturn(null);
-        when(stateRepository.findByNamedState(NamedState.AFTER_SHELTER_CHOICE_STATE)).thenReturn(newState);
-        telegramBot.initStates();
+        //перестроим граф из измененных состояний
+        newState.setNamedState(NamedState.AFTER_SHELTER_CHOICE_STATE);
+        loadStateGraph(newState, oldState);
+        userStateStore.find(1L).setState(oldState);
 
         reset(telegramBot);  //обнуляем счетчик
         doReturn(null).when(telegramBot).execute(any(SendMessage.class));
@@ -255,8 +288,8 @@ public class TelegramBotTest {
         //Ожидаю, что новое состояние останется прежним - MessageToVolunteer
         //а в базу запишется новая запись для волонтера. Id записи = Id пришедшего Message
 
-        when(userRepository.findById(1L)).thenReturn(
-                Optional.of(new User(1L,"Какой-то юзер", state)));
+        loadStateGraph(state);
+        userInRepository(new User(1L,"Какой-то юзер", state));
 
         //создаем параметр для onUpdateReceived - в чат c id 1L пришло сообщение c текстом 'Что собаки едят?'
         Message message = new Message();
@@ -273,11 +306,15 @@ public class TelegramBotTest {
         verify(telegramBot, never()).execute(any(SendMessage.class));
 
         //Должен быть 1 поиск User
-        verify(userRepository).findById(1L); //times(1) можно не писать
+        verify(userRepository).findStateById(1L); //times(1) можно не писать
         //Проверим, что сохранено в User
-        ArgumentCaptor<User> userCaptor = ArgumentCaptor.forClass(User.class);
-        verify(userRepository).save(userCaptor.capture());
-        User actualUser = userCaptor.getValue();
+        //известный пользователь в репозиторий сразу не пишется - только при пакетной записи
+        verify(userRepository, never()).save(any());
+        User actualUser = userStateStore.find(1L);
+        //пакет из одного состояния записан
+        when(jdbcTemplate.batchUpdate(anyString(), anyList())).thenReturn(new int[]{1});
+        userStateStore.flush();
+        verify(jdbcTemplate).batchUpdate(anyString(), anyList());
         //проверяем поля объекта, отправленного в репозиторий User
         assertEquals(1, actualUser.getId());
         assertEquals("Какой-то юзер", actualUser.getName());
@@ -319,7 +356,8 @@ public class TelegramBotTest {
         User user = new User(1L,"Какой-то юзер", state);
         user.setPreviousState(previousState);
 
-        when(userRepository.findById(1L)).thenReturn(Optional.of(user));
+        loadStateGraph(state, previousState);
+        userInRepository(user);
         //при посылке сообщения - ошибку не выбрасываем
         doReturn(null).when(telegramBot).execute(any(SendMessage.class));
 
@@ -343,11 +381,15 @@ public class TelegramBotTest {
         assertEquals("Предыдущее состояние", actualSendMessages.get(1).getText());
 
         //Должен быть 1 поиск User
-        verify(userRepository).findById(1L); //times(1) можно не писать
+        verify(userRepository).findStateById(1L); //times(1) можно не писать
         //Проверим, что сохранено в User
-        ArgumentCaptor<User> userCaptor = ArgumentCaptor.forClass(User.class);
-        verify(userRepository).save(userCaptor.capture());
-        User actualUser = userCaptor.getValue();
+        //известный пользователь в репозиторий сразу не пишется - только при пакетной записи
+        verify(userRepository, never()).save(any());
+        User actualUser = userStateStore.find(1L);
+        //пакет из одного состояния записан
+        when(jdbcTemplate.batchUpdate(anyString(), anyList())).thenReturn(new int[]{1});
+        userStateStore.flush();
+        verify(jdbcTemplate).batchUpdate(anyString(), anyList());
         //проверяем поля объекта, отправленного в репозиторий User
         assertEquals(1, actualUser.getId());
         assertEquals("Какой-то юзер", actualUser.getName());
@@ -366,7 +408,7 @@ public class TelegramBotTest {
     }
 
     @Test
-    public void onUpdateReceived_Report() throws TelegramApiException {
+    public void onUpdateReceived_Report() throws TelegramApiException, IOException {
         //создадим объект - состояние Report - ждем отчет
         State state = new State("Report",
                 "Пришлите файлы отчета - это пользователь уже получил. Ждем, что пришлет",
@@ -384,13 +426,15 @@ public class TelegramBotTest {
         DogReport report = new DogReport(adoption, LocalDate.now(), null, null, 0, null);
         report.setId(111);
 
-        when(userRepository.findById(1L)).thenReturn(Optional.of(user));
-        when(dogReportRepository.save(any())).thenReturn(report);
+        loadStateGraph(state);
+        userInRepository(user);
+        when(reportRepository.save(any())).thenReturn(report);
         //у пользователя есть активное усыновление. API волонтера следит, чтобы такое было только одно
-        when(dogAdoptionRepository.findByUserAndDateLessThanEqualAndTrialDateGreaterThanEqual(any(),any(),any()))
+        when(adoptionRepository.findByShelterIdAndUserAndDateLessThanEqualAndTrialDateGreaterThanEqual(
+                any(), any(), any(), any()))
                 .thenReturn(Collections.singletonList(adoption));
         //Усыновление-Дата - уникальный индекс таблицы. Двух таких комбинаций быть не может
-        when(dogReportRepository.findByAdoptionAndDate(any(), any()))
+        when(reportRepository.findByAdoptionIdAndDate(anyInt(), any()))
                 .thenReturn(Collections.singletonList(report));
         //при посылке сообщения - ошибку не выбрасываем
         doReturn(null).when(telegramBot).execute(any(SendMessage.class));
@@ -402,15 +446,18 @@ public class TelegramBotTest {
         PhotoSize photoSize = new PhotoSize();
         photoSize.setFileId("1111");
         photoSize.setFileSize(1234);
-        //мокаем все методы бота, участвующие в скачивании файла
-        ResponseEntity<String> responseEntity = new ResponseEntity<>(
-                "{\"ok\":true,\"result\":{\"file_id\":\"abcd\",\"file_unique_id\":\"dcba\",\"file_size\":12345,\"file_path\":\"photos/file_1.jpg\"}}"
-                , HttpStatus.OK);
-        doReturn(responseEntity).when(telegramBot).getFilePath(anyString());
-        doReturn("https://api.telegram.org/bot{telegram.bot.token}/getFile?file_id={fileId}")
-                .when(telegramBot).getFileStorageUri();
-        doReturn("12345").when(telegramBot).getBotToken();
-        doReturn(new byte[]{1,2}).when(telegramBot).downloadJFileByURL(any());
+        //фото скачивается во временный файл
+        Path photoFile = Files.createTempFile("report-photo-", ".tmp");
+        Files.write(photoFile, new byte[]{1,2});
+        String photoHash = "a".repeat(64);
+        when(photoStore.save(photoFile)).thenReturn(photoHash);
+        when(reportPhotoDownloader.download("1111"))
+                .thenReturn(CompletableFuture.completedFuture(new ReportPhoto(photoFile, "image/jpeg", 2)));
+        //сохранение отчета с фото ставится в очередь чата. Выполним его сразу
+        when(updateDispatcher.dispatch(eq(1L), any())).thenAnswer(invocation -> {
+            invocation.<Runnable>getArgument(1).run();
+            return true;
+        });
 
         message.setPhoto(Collections.singletonList(photoSize));
         message.setText("Сдаю отчет");
@@ -428,11 +475,15 @@ public class TelegramBotTest {
         assertEquals("Отчет уже получен. Можете послать еще раз", actualSendMessage.getText());
 
         //Должен быть 1 поиск User
-        verify(userRepository).findById(1L); //times(1) можно не писать
+        verify(userRepository).findStateById(1L); //times(1) можно не писать
         //Проверим, что сохранено в User
-        ArgumentCaptor<User> userCaptor = ArgumentCaptor.forClass(User.class);
-        verify(userRepository).save(userCaptor.capture());
-        User actualUser = userCaptor.getValue();
+        //известный пользователь в репозиторий сразу не пишется - только при пакетной записи
+        verify(userRepository, never()).save(any());
+        User actualUser = userStateStore.find(1L);
+        //пакет из одного состояния записан
+        when(jdbcTemplate.batchUpdate(anyString(), anyList())).thenReturn(new int[]{1});
+        userStateStore.flush();
+        verify(jdbcTemplate).batchUpdate(anyString(), anyList());
         //проверяем поля объекта, отправленного в репозиторий User
         assertEquals(1, actualUser.getId());
         assertEquals("Какой-то юзер", actualUser.getName());
@@ -440,19 +491,24 @@ public class TelegramBotTest {
         assertEquals(state, actualUser.getState());
 
         //Проверим, что сохранено в Report
-        ArgumentCaptor<DogReport> reportCaptor = ArgumentCaptor.forClass(DogReport.class);
-        verify(dogReportRepository).save(reportCaptor.capture());
-        DogReport actualReport = reportCaptor.getValue();
+        ArgumentCaptor<Report> reportCaptor = ArgumentCaptor.forClass(Report.class);
+        verify(reportRepository).save(reportCaptor.capture());
+        Report actualReport = reportCaptor.getValue();
         //проверяем поля объекта, отправленного в репозиторий Report - id, adoption, date, photo, text
         assertEquals(111, actualReport.getId());
         assertEquals(adoption, actualReport.getAdoption());
         assertEquals(LocalDate.now(), actualReport.getDate());
-        assertArrayEquals(new byte[]{1,2}, actualReport.getPhoto());
+        assertEquals(photoHash, actualReport.getPhotoHash());
+        assertEquals("image/jpeg", actualReport.getImageType());
+        assertEquals(2, actualReport.getImageSize());
         assertEquals("Сдаю отчет", actualReport.getText());
+        //временный файл после сохранения удален
+        assertFalse(Files.exists(photoFile));
 
         //Что будет, если у пользователя нет активного усыновления.
         //Теоретически мы должны оказаться в предыдущем состоянии
-        when(dogAdoptionRepository.findByUserAndDateLessThanEqualAndTrialDateGreaterThanEqual(any(),any(),any()))
+        when(adoptionRepository.findByShelterIdAndUserAndDateLessThanEqualAndTrialDateGreaterThanEqual(
+                any(), any(), any(), any()))
                 .thenReturn(Collections.emptyList());
 
         //создаем предыдущее состояние
@@ -463,7 +519,8 @@ public class TelegramBotTest {
         StateButton anyButton = new StateButton(
                 previousState, "Какая-то кнопка",  null, (byte)1,(byte)1 ,null);
         previousState.getButtons().add(0, anyButton);
-        user.setPreviousState(previousState);
+        loadStateGraph(state, previousState);
+        userStateStore.find(1L).setPreviousState(previousState);
 
         reset(telegramBot);  //обнуляем счетчик
         doReturn(null).when(telegramBot).execute(any(SendMessage.class));
@@ -0,0 +1,86 @@
+package pro.sky.courseworktelegrambot.services;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class UpdateDispatcherTest {
+    private final SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+    private UpdateDispatcher updateDispatcher;
+
+    @AfterEach
+    public void afterEach() {
+        updateDispatcher.shutdown();
+    }
+
+    @Test
+    public void dispatchKeepsOrderWithinChatTest() throws InterruptedException {
+        updateDispatcher = new UpdateDispatcher(4, 1000, meterRegistry);
+        List<Integer> processed = Collections.synchronizedList(new ArrayList<>());
+        CountDownLatch done = new CountDownLatch(100);
+        for (int i = 0; i < 100; i++) {
+            int number = i;
+            updateDispatcher.dispatch(1L, () -> {
+                processed.add(number);
+                done.countDown();
+            });
+        }
+        assertThat(done.await(5, TimeUnit.SECONDS)).isTrue();
+        //обновления одного чата обработаны в порядке поступления
+        for (int i = 0; i < 100; i++) {
+            assertThat(processed.get(i)).isEqualTo(i);
+        }
+    }
+
+    @Test
+    public void dispatchProcessesChatsInParallelTest() throws InterruptedException {
+        updateDispatcher = new UpdateDispatcher(2, 10, meterRegistry);
+        //первый чат "зависает" на медленной операции, второй чат не должен его ждать
+        CountDownLatch slowChatReleased = new CountDownLatch(1);
+        CountDownLatch fastChatDone = new CountDownLatch(1);
+        updateDispatcher.dispatch(1L, () -> {
+            try {
+                slowChatReleased.await(5, TimeUnit.SECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        });
+        updateDispatcher.dispatch(2L, fastChatDone::countDown);
+        assertThat(fastChatDone.await(5, TimeUnit.SECONDS)).isTrue();
+        slowChatReleased.countDown();
+    }
+
+    @Test
+    public void dispatchRejectsWhenChatQueueIsFullTest() throws InterruptedException {
+        updateDispatcher = new UpdateDispatcher(1, 2, meterRegistry);
+        CountDownLatch started = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        //первое обновление занимает поток, следующие ждут в очереди чата
+        updateDispatcher.dispatch(1L, () -> {
+            started.countDown();
+            try {
+                release.await(5, TimeUnit.SECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        });
+        assertThat(started.await(5, TimeUnit.SECONDS)).isTrue();
+        assertThat(updateDispatcher.dispatch(1L, () -> {})).isTrue();
+        assertThat(updateDispatcher.dispatch(1L, () -> {})).isTrue();
+        assertThat(updateDispatcher.dispatch(1L, () -> {})).isFalse();
+        //переполнение одного чата не мешает другим
+        assertThat(updateDispatcher.dispatch(2L, () -> {})).isTrue();
+        release.countDown();
+
+        assertThat(meterRegistry.counter("telegram.updates.rejected").count()).isEqualTo(1);
+        assertThat(meterRegistry.counter("telegram.updates.accepted").count()).isEqualTo(4);
+    }
+}
@@ -5,10 +5,10 @@ import org.junit.jupiter.api.extension.ExtendWith;
 import org.mockito.InjectMocks;
 import org.mockito.Mock;
 import org.mockito.junit.jupiter.MockitoExtension;
-import pro.sky.courseworktelegrambot.entities.User;
+import org.springframework.data.domain.PageRequest;
+import pro.sky.courseworktelegrambot.entities.ShelterId;
+import pro.sky.courseworktelegrambot.repositories.UserListView;
 import pro.sky.courseworktelegrambot.repositories.UserRepository;
-import java.util.ArrayList;
-import java.util.Collections;
 import java.util.List;
 
 import static org.assertj.core.api.Assertions.assertThat;
@@ -21,10 +21,18 @@ import static org.mockito.Mockito.*;
         private UserService userService;
         @Test
         void getWaitingListTest() {
-            User user = new User();
-            List<User> users = new ArrayList<>(Collections.singletonList(user));
-            when(userRepository.findAll()).thenReturn(users);
-            assertThat(userService.getAllUsers()).isEqualTo(users);
-            verify(userRepository, times(1)).findAll();
+            List<UserListView> users = List.of(new UserListView(-5L, "Ivan", ShelterId.DOG, null));
+            when(userRepository.findPage(Long.MIN_VALUE, PageRequest.ofSize(100))).thenReturn(users);
+            assertThat(userService.getUsers(Long.MIN_VALUE, 100)).isEqualTo(users);
+            verify(userRepository, never()).findAll();
+        }
+
+        @Test
+        void getUsersLimitTest() {
+            userService.getUsers(7L, 0);
+            userService.getUsers(7L, 100_000);
+            //размер страницы - от 1 до 1000
+            verify(userRepository).findPage(7L, PageRequest.ofSize(1));
+            verify(userRepository).findPage(7L, PageRequest.ofSize(1000));
         }
 }
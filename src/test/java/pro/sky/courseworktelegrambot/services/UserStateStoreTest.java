@@ -0,0 +1,185 @@
+package pro.sky.courseworktelegrambot.services;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.ArgumentCaptor;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import org.springframework.dao.DataAccessResourceFailureException;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.test.util.ReflectionTestUtils;
+import pro.sky.courseworktelegrambot.entities.ShelterId;
+import pro.sky.courseworktelegrambot.entities.State;
+import pro.sky.courseworktelegrambot.entities.User;
+import pro.sky.courseworktelegrambot.repositories.UserRepository;
+import pro.sky.courseworktelegrambot.repositories.UserStateView;
+
+import java.sql.Timestamp;
+import java.time.LocalDateTime;
+import java.time.temporal.ChronoUnit;
+import java.util.List;
+import java.util.Optional;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.*;
+import static org.mockito.Mockito.*;
+
+@ExtendWith(MockitoExtension.class)
+public class UserStateStoreTest {
+    @Mock
+    private UserRepository userRepository;
+    @Mock
+    private JdbcTemplate jdbcTemplate;
+    @Mock
+    private StateGraph stateGraph;
+
+    private UserStateStore userStateStore;
+
+    private final State state = new State("S1", "Состояние", false, null, null);
+    private final State previousState = new State("S0", "Предыдущее состояние", false, null, null);
+
+    @BeforeEach
+    public void beforeEach() {
+        userStateStore = new UserStateStore(userRepository, jdbcTemplate, stateGraph);
+    }
+
+    //пользователь в БД: вместо состояний только их идентификаторы
+    private void userInRepository(String stateId) {
+        when(userRepository.findStateById(1L)).thenReturn(Optional.of(
+                new UserStateView(1L, "Иван", ShelterId.DOG, stateId, null, null)));
+    }
+
+    @Test
+    public void findReadsRepositoryOnceTest() {
+        userInRepository("S1");
+        when(stateGraph.getState("S1")).thenReturn(state);
+
+        User user = userStateStore.find(1L);
+        assertThat(user.getName()).isEqualTo("Иван");
+        assertThat(user.getShelterId()).isEqualTo(ShelterId.DOG);
+        //состояние взято из графа, а не загружено из БД
+        assertThat(user.getState()).isSameAs(state);
+        assertThat(userStateStore.find(1L)).isSameAs(user);
+        verify(userRepository, times(1)).findStateById(1L);
+        verify(userRepository, never()).findById(anyLong());
+    }
+
+    @Test
+    public void saveNewUserWritesImmediatelyTest() {
+        User user = new User(1L, "Иван", state);
+        userStateStore.save(user);
+
+        verify(userRepository).save(user);
+        assertThat(userStateStore.find(1L)).isSameAs(user);
+        verify(userRepository, never()).findStateById(anyLong());
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    public void saveKnownUserIsBatchedUntilFlushTest() {
+        userInRepository("S1");
+        when(stateGraph.getState("S1")).thenReturn(state);
+        User user = userStateStore.find(1L);
+
+        user.setShelterId(ShelterId.CAT);
+        user.setPreviousState(previousState);
+        user.setStateTime();
+        userStateStore.save(user);
+        //повторное сохранение до записи дает одну строку с последним состоянием
+        userStateStore.save(user);
+        verify(userRepository, never()).save(any());
+        verifyNoInteractions(jdbcTemplate);
+
+        when(jdbcTemplate.batchUpdate(anyString(), anyList())).thenReturn(new int[]{1});
+        userStateStore.flush();
+        ArgumentCaptor<List<Object[]>> rowsCaptor = ArgumentCaptor.forClass(List.class);
+        verify(jdbcTemplate).batchUpdate(anyString(), rowsCaptor.capture());
+        List<Object[]> rows = rowsCaptor.getValue();
+        assertThat(rows).hasSize(1);
+        //время состояния - и новое значение, и условие: более новую строку не затираем
+        assertThat(rows.get(0)).containsExactly(
+                "CAT", "S1", "S0", Timestamp.valueOf(user.getStateTime()), 1L, Timestamp.valueOf(user.getStateTime()));
+
+        //записывать больше нечего
+        userStateStore.flush();
+        verify(jdbcTemplate, times(1)).batchUpdate(anyString(), anyList());
+    }
+
+    @Test
+    public void flushFailureKeepsChangesTest() {
+        userInRepository("S1");
+        when(stateGraph.getState("S1")).thenReturn(state);
+        User user = userStateStore.find(1L);
+        user.setStateTime();
+        userStateStore.save(user);
+
+        when(jdbcTemplate.batchUpdate(anyString(), anyList()))
+                .thenThrow(new DataAccessResourceFailureException("нет связи"))
+                .thenReturn(new int[]{1});
+        userStateStore.flush();
+        userStateStore.flush();
+        verify(jdbcTemplate, times(2)).batchUpdate(anyString(), anyList());
+    }
+
+    @Test
+    public void discardDropsCachedUserTest() {
+        userInRepository("S1");
+        when(stateGraph.getState("S1")).thenReturn(state);
+        User user = userStateStore.find(1L);
+        userStateStore.save(user);
+
+        userStateStore.discard(user);
+        //последний сохраненный снимок записан сразу
+        verify(jdbcTemplate).update(anyString(), any(), any(), any(), any(), any(), any());
+        //при следующем обращении пользователь читается из БД заново
+        userStateStore.find(1L);
+        verify(userRepository, times(2)).findStateById(1L);
+    }
+
+    @Test
+    public void flushSkippedByNewerRowReloadsUserTest() {
+        userInRepository("S1");
+        when(stateGraph.getState("S1")).thenReturn(state);
+        User user = userStateStore.find(1L);
+        user.setStateTime();
+        userStateStore.save(user);
+
+        //другой экземпляр уже записал более новое состояние: строка не обновлена
+        when(jdbcTemplate.batchUpdate(anyString(), anyList())).thenReturn(new int[]{0});
+        userStateStore.flush();
+
+        //устаревший пользователь вытеснен и читается из БД заново
+        assertThat(userStateStore.find(1L)).isNotSameAs(user);
+        verify(userRepository, times(2)).findStateById(1L);
+    }
+
+    @Test
+    public void webhookModeWritesThroughAndRevalidatesTest() {
+        ReflectionTestUtils.setField(userStateStore, "mode", "webhook");
+        //время относительно текущего, иначе flush вытеснит давно не писавшего пользователя
+        LocalDateTime savedAt = LocalDateTime.now().minusMinutes(5).truncatedTo(ChronoUnit.SECONDS);
+        when(userRepository.findStateById(1L)).thenReturn(Optional.of(
+                new UserStateView(1L, "Иван", ShelterId.DOG, "S1", null, savedAt)));
+        when(stateGraph.getState("S1")).thenReturn(state);
+        User user = userStateStore.find(1L);
+
+        user.setPreviousState(previousState);
+        user.setStateTime(savedAt.plusMinutes(1));
+        when(jdbcTemplate.update(anyString(), any(), any(), any(), any(), any(), any())).thenReturn(1);
+        userStateStore.save(user);
+        //записано сразу, без пакета
+        verify(jdbcTemplate).update(anyString(), any(), any(), any(), any(), any(), any());
+        userStateStore.flush();
+        verify(jdbcTemplate, never()).batchUpdate(anyString(), anyList());
+
+        //в БД не новее - пользователь из памяти
+        assertThat(userStateStore.find(1L)).isSameAs(user);
+        //другой экземпляр записал более новое состояние - перечитываем
+        when(userRepository.findStateById(1L)).thenReturn(Optional.of(
+                new UserStateView(1L, "Иван", ShelterId.CAT, "S1", "S0", savedAt.plusMinutes(2))));
+        User fresh = userStateStore.find(1L);
+        assertThat(fresh).isNotSameAs(user);
+        assertThat(fresh.getShelterId()).isEqualTo(ShelterId.CAT);
+    }
+}
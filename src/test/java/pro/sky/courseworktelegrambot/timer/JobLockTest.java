@@ -0,0 +1,108 @@
+package pro.sky.courseworktelegrambot.timer;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.datasource.DriverManagerDataSource;
+
+import java.time.Clock;
+import java.time.Duration;
+import java.time.Instant;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Блокировка проверяется на настоящей БД H2 в памяти: два "экземпляра" бота - два JobLock
+ * с разными владельцами над одной таблицей job_lock.
+ */
+public class JobLockTest {
+    private static final long LEASE = 60_000;
+    private static final long MIN_HOLD = 30_000;
+
+    private JdbcTemplate jdbcTemplate;
+    private final Instant start = Instant.parse("2023-11-05T21:00:00Z");
+    private JobLock node1;
+    private JobLock node2;
+
+    @BeforeEach
+    public void beforeEach() {
+        DriverManagerDataSource dataSource = new DriverManagerDataSource(
+                "jdbc:h2:mem:job_lock;DB_CLOSE_DELAY=-1", "sa", "");
+        jdbcTemplate = new JdbcTemplate(dataSource);
+        jdbcTemplate.execute("CREATE TABLE job_lock (name VARCHAR(50) PRIMARY KEY, owner VARCHAR(255) NOT NULL, " +
+                "locked_at TIMESTAMP NOT NULL, locked_until TIMESTAMP NOT NULL)");
+    }
+
+    @AfterEach
+    public void afterEach() {
+        jdbcTemplate.execute("DROP TABLE job_lock");
+        if (node1 != null) {
+            node1.shutdown();
+        }
+        if (node2 != null) {
+            node2.shutdown();
+        }
+    }
+
+    private JobLock node(String owner, Duration offset) {
+        return new JobLock(jdbcTemplate, LEASE, MIN_HOLD, owner,
+                Clock.fixed(start.plus(offset), ZoneId.of("UTC")));
+    }
+
+    private LocalDateTime at(Duration offset) {
+        return LocalDateTime.ofInstant(start.plus(offset), ZoneId.of("UTC"));
+    }
+
+    @Test
+    public void onlyOneNodeRunsJobTest() {
+        node1 = node("node1", Duration.ZERO);
+        node2 = node("node2", Duration.ZERO);
+        AtomicBoolean node2Ran = new AtomicBoolean();
+        //пока node1 выполняет задание, node2 его пропускает
+        assertTrue(node1.runExclusively("job", () ->
+                assertFalse(node2.runExclusively("job", () -> node2Ran.set(true)))));
+        assertFalse(node2Ran.get());
+    }
+
+    @Test
+    public void lockIsHeldForMinHoldAfterJobTest() {
+        node1 = node("node1", Duration.ZERO);
+        assertTrue(node1.runExclusively("job", () -> { }));
+        //у node2 расписание сработало на 10 секунд позже - задание уже выполнено
+        node2 = node("node2", Duration.ofSeconds(10));
+        assertFalse(node2.runExclusively("job", () -> { }));
+        //на следующем срабатывании блокировка уже свободна
+        node2.shutdown();
+        node2 = node("node2", Duration.ofSeconds(60));
+        assertTrue(node2.runExclusively("job", () -> { }));
+    }
+
+    @Test
+    public void deadLeaderIsTakenOverAfterLeaseTest() {
+        node1 = node("node1", Duration.ZERO);
+        //node1 захватил блокировку и упал, не освободив ее
+        assertTrue(node1.tryAcquire("job", at(Duration.ZERO)));
+        node2 = node("node2", Duration.ofSeconds(30));
+        assertFalse(node2.runExclusively("job", () -> { }));
+        //аренда истекла
+        node2.shutdown();
+        node2 = node("node2", Duration.ofMillis(LEASE));
+        assertTrue(node2.runExclusively("job", () -> { }));
+        assertEquals("node2", jdbcTemplate.queryForObject(
+                "SELECT owner FROM job_lock WHERE name = 'job'", String.class));
+    }
+
+    @Test
+    public void differentJobsDoNotBlockEachOtherTest() {
+        node1 = node("node1", Duration.ZERO);
+        node2 = node("node2", Duration.ZERO);
+        assertTrue(node1.runExclusively("sendWarningNoReport", () ->
+                assertTrue(node2.runExclusively("sendCongratulation", () -> { }))));
+    }
+}
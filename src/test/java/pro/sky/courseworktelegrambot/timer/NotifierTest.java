@@ -1,146 +1,212 @@
 package pro.sky.courseworktelegrambot.timer;
 
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 import org.junit.jupiter.api.extension.ExtendWith;
 import org.mockito.ArgumentCaptor;
-import org.mockito.InjectMocks;
 import org.mockito.Mock;
 import org.mockito.junit.jupiter.MockitoExtension;
+import org.springframework.transaction.PlatformTransactionManager;
 import org.telegram.telegrambots.meta.exceptions.TelegramApiException;
 import pro.sky.courseworktelegrambot.entities.*;
-import pro.sky.courseworktelegrambot.repositories.CatAdoptionRepository;
-import pro.sky.courseworktelegrambot.repositories.CatReportRepository;
-import pro.sky.courseworktelegrambot.repositories.DogAdoptionRepository;
-import pro.sky.courseworktelegrambot.repositories.DogReportRepository;
+import pro.sky.courseworktelegrambot.repositories.AdoptionRepository;
+import pro.sky.courseworktelegrambot.repositories.NotificationLogRepository;
+import pro.sky.courseworktelegrambot.repositories.ReminderDeadlineRepository;
+import pro.sky.courseworktelegrambot.repositories.ReportReminderView;
+import pro.sky.courseworktelegrambot.repositories.UserRepository;
 import pro.sky.courseworktelegrambot.services.MessageToVolunteerService;
+import pro.sky.courseworktelegrambot.services.PetService;
 import pro.sky.courseworktelegrambot.services.TelegramBotSender;
 
+import java.time.Clock;
 import java.time.LocalDate;
+import java.time.LocalTime;
+import java.time.ZoneId;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.stream.Collectors;
 
 import static org.junit.jupiter.api.Assertions.assertEquals;
 import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.eq;
 import static org.mockito.Mockito.*;
 
 @ExtendWith(MockitoExtension.class)
 class NotifierTest {
 
+    private static final ZoneId ZONE = ZoneId.of("Europe/Moscow");
+
     @Mock
-    private  CatAdoptionRepository catAdoptionRepository;
-    @Mock
-    private  DogAdoptionRepository dogAdoptionRepository;
-    @Mock
-    private  CatReportRepository catReportRepository;
+    private AdoptionRepository adoptionRepository;
     @Mock
-    private  DogReportRepository dogReportRepository;
+    private UserRepository userRepository;
     @Mock
     private MessageToVolunteerService messageToVolunteerService;
     @Mock
     private  TelegramBotSender telegramBotSender;
+    @Mock
+    private NotificationLogRepository notificationLogRepository;
+    @Mock
+    private ReminderDeadlineRepository reminderDeadlineRepository;
+    @Mock
+    private PlatformTransactionManager transactionManager;
+    @Mock
+    private JobLock jobLock;
+    @Mock
+    private PetService petService;
+
+    //в приюте 23:00: сроки отчета (21:00) и поздравления (22:00) за сегодня наступили
+    private final LocalDate today = LocalDate.of(2023, 11, 20);
+    private final Clock clock = Clock.fixed(today.atTime(23, 0).atZone(ZONE).toInstant(), ZONE);
+
+    private ReminderSchedule reminderSchedule;
+
+    private final SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
 
-    @InjectMocks
     private Notifier notifier;
 
+    //один поток, чтобы уведомления уходили в предсказуемом порядке
+    private Notifier notifier(int chunkSize) {
+        return new Notifier(adoptionRepository, userRepository, notificationLogRepository,
+                reminderDeadlineRepository, reminderSchedule, messageToVolunteerService, petService, telegramBotSender,
+                transactionManager, jobLock, chunkSize, 1, 300_000, meterRegistry);
+    }
+
+    @BeforeEach
+    void beforeEach() {
+        //без разброса по окну, чтобы сроки были предсказуемы
+        reminderSchedule = new ReminderSchedule(reminderDeadlineRepository, adoptionRepository,
+                LocalTime.of(21, 0), LocalTime.of(22, 0), 0, clock);
+        notifier = notifier(100);
+        //блокировка задания всегда достается этому экземпляру
+        lenient().when(jobLock.runExclusively(anyString(), any())).thenAnswer(invocation -> {
+            invocation.<Runnable>getArgument(1).run();
+            return true;
+        });
+    }
+
+    @AfterEach
+    void afterEach() {
+        notifier.shutdown();
+    }
+
+    private ReminderDeadline deadline(ShelterId shelterId, int adoptionId, NotificationKind kind) {
+        return new ReminderDeadline(shelterId, adoptionId, kind, today,
+                reminderSchedule.dueTime(shelterId, adoptionId, kind, today));
+    }
+
+    //питомцы у каждого приюта в своей таблице: имена подставляются по id питомца из напоминания
+    private void givenPetNames(ShelterId shelterId, Map<Integer, String> petNames) {
+        when(petService.getPetNames(eq(shelterId), any())).thenReturn(petNames);
+    }
+
+    private void givenDueDeadlines(ReminderDeadline... deadlines) {
+        when(reminderDeadlineRepository.findByDueTimeLessThanEqualOrderByDueTime(clock.instant()))
+                .thenReturn(List.of(deadlines));
+    }
+
     @Test
     void sendWarningNoCatReportTest() throws TelegramApiException {
-        Cat cat7 = new Cat();
-        cat7.setName("Кот");
-        Cat cat8 = new Cat();
-        Cat cat9 = new Cat();
-        cat7.setId(7);
-        cat8.setId(8);
-        cat8.setId(9);
         User user7 = new User(); //прислал последний отчет 3 дня назад
         User user8 = new User(); //прислал последний отчет вчера
-        User user9 = new User(); //прислал последний отчет сегодня
         user7.setId(77);
         user7.setName("Иван");
         user8.setId(88);
-        user9.setId(99);
-        CatAdoption adoption7 = new CatAdoption(user7, cat7, LocalDate.now());
-        adoption7.setId(777);
-        CatAdoption adoption8 = new CatAdoption(user8, cat8, LocalDate.of(2023, 11, 5));
-        adoption8.setId(888);
-        CatAdoption adoption9 = new CatAdoption(user9, cat9, LocalDate.of(2023, 11, 5));
-        adoption8.setId(999);
-        CatReport report7 = new CatReport(
-                adoption7,LocalDate.now().plusDays(-3), new byte[]{1,2},null, 0, null);
-        CatReport report8 = new CatReport(
-                adoption8,LocalDate.now().plusDays(-1), new byte[]{1,2},null, 0, null);
-        CatReport report9 = new CatReport(
-                adoption9,LocalDate.now(), new byte[]{1,2},null, 0, null);
-
-        when(catAdoptionRepository.findByTrialDateGreaterThanEqual(LocalDate.now()))
-                .thenReturn(List.of(adoption7, adoption8, adoption9));
-        when(catReportRepository.findByDateAndPhotoIsNotNullAndTextIsNotNull(LocalDate.now()))
-                .thenReturn(List.of(report9));
-        when(catReportRepository.findLatestReport(adoption7.getId())).thenReturn(report7);
-        when(catReportRepository.findLatestReport(adoption8.getId())).thenReturn(report8);
+        user8.setName("Петр");
+        //пользователь 99 прислал отчет сегодня, пользователь 66 не прислал ни одного
+        //и должен был уже прислать, а пользователь 55 усыновил питомца только вчера.
+        //Пользователь 99 идет вторым: проверяем, что после него обработка продолжается
+        User user6 = new User();
+        user6.setId(66);
+        user6.setName("Анна");
+        User user5 = new User();
+        user5.setId(55);
+        user5.setName("Олег");
+        LocalDate trialDate = today.plusDays(10);
+        givenDueDeadlines(deadline(ShelterId.CAT, 777, NotificationKind.REPORT_REMINDER),
+                deadline(ShelterId.CAT, 999, NotificationKind.REPORT_REMINDER),
+                deadline(ShelterId.CAT, 888, NotificationKind.REPORT_REMINDER),
+                deadline(ShelterId.CAT, 666, NotificationKind.REPORT_REMINDER),
+                deadline(ShelterId.CAT, 555, NotificationKind.REPORT_REMINDER));
+        when(adoptionRepository.findReportReminders(List.of(777, 999, 888, 666, 555), today)).thenReturn(List.of(
+                new ReportReminderView(777, ShelterId.CAT, 77, "Иван", 7, LocalDate.of(2023, 11, 5), trialDate, today.minusDays(3)),
+                new ReportReminderView(999, ShelterId.CAT, 99, "Мария", 9, LocalDate.of(2023, 11, 5), trialDate, today),
+                new ReportReminderView(888, ShelterId.CAT, 88, "Петр", 8, LocalDate.of(2023, 11, 5), trialDate, today.minusDays(1)),
+                new ReportReminderView(666, ShelterId.CAT, 66, "Анна", 6, today.minusDays(5), trialDate, null),
+                //у пользователя 55 испытательный срок заканчивается сегодня
+                new ReportReminderView(555, ShelterId.CAT, 55, "Олег", 5, today.minusDays(1), today, null)));
+        when(userRepository.findAllById(Set.of(77L, 88L, 66L, 55L))).thenReturn(List.of(user7, user8, user6, user5));
+        givenPetNames(ShelterId.CAT, Map.of(7, "Кот", 9, "Мурка", 8, "Барсик", 6, "Пушок", 5, "Рыжик"));
 
         //запускаем тестируемый метод
-        notifier.sendWarningNoReport();
+        notifier.processDueDeadlines();
 
         ArgumentCaptor<User> userArgumentCaptor = ArgumentCaptor.forClass(User.class);
         ArgumentCaptor<String> stringArgumentCaptor = ArgumentCaptor.forClass(String.class);
-        //пользователю 7 и 8 уйдут сообщения в чат
-        verify(telegramBotSender, times(2)).sendMessageToUser(
+        //всем, кроме 99, уйдут сообщения в чат
+        verify(telegramBotSender, times(4)).queueMessageToUser(
                 userArgumentCaptor.capture(), stringArgumentCaptor.capture(), any(Integer.class));
-        assertEquals(userArgumentCaptor.getAllValues().get(0), user7);
-        assertEquals(stringArgumentCaptor.getAllValues().get(0), "ВНИМАНИЕ !!! " +
-                "Иван, просим Вас присылать ежедневный отчет по кошке Кот до 21:00.");
+        assertEquals(List.of(user7, user8, user6, user5), userArgumentCaptor.getAllValues());
+        assertEquals("ВНИМАНИЕ !!! " +
+                "Иван, просим Вас присылать ежедневный отчет по кошке Кот до 21:00.", stringArgumentCaptor.getAllValues().get(0));
+        //пользователи загружаются одним запросом, имена питомцев - одним запросом на приют,
+        //и только тех, о ком напоминаем
+        verify(userRepository, times(1)).findAllById(any());
+        verify(petService, only()).getPetNames(ShelterId.CAT, Set.of(7, 8, 6, 5));
+        //и отметки о напоминаниях записаны, чтобы повторный запуск их не повторил
+        verify(notificationLogRepository, times(1)).saveAll(argThat(logs -> ((List<?>) logs).size() == 4));
 
-        //а про пользователя 7 еще уйдет жалоба волонтеру
+        //а про пользователей 7 и 6 еще уйдет жалоба волонтеру
         userArgumentCaptor = ArgumentCaptor.forClass(User.class);
         stringArgumentCaptor = ArgumentCaptor.forClass(String.class);
-        verify(messageToVolunteerService, only()).createMessageToVolunteer(
+        verify(messageToVolunteerService, times(2)).createMessageToVolunteer(
                 anyInt(), userArgumentCaptor.capture(), stringArgumentCaptor.capture());
-        assertEquals(userArgumentCaptor.getValue(), user7);
-        assertEquals("ВНИМАНИЕ !!! Опекун Иван не присылал ежедневный отчет по кошке Кот более 2х дней.", stringArgumentCaptor.getValue());
+        assertEquals(List.of(user7, user6), userArgumentCaptor.getAllValues());
+        assertEquals("ВНИМАНИЕ !!! Опекун Иван не присылал ежедневный отчет по кошке Кот более 2х дней.",
+                stringArgumentCaptor.getAllValues().get(0));
+
+        //сроки отчета перенесены на завтра, в том числе у того, кто отчет уже прислал.
+        //У пользователя 55 испытательный срок закончился, его срок отчета удален
+        ArgumentCaptor<ReminderDeadline> deadlineCaptor = ArgumentCaptor.forClass(ReminderDeadline.class);
+        verify(reminderDeadlineRepository, times(4)).save(deadlineCaptor.capture());
+        assertEquals(List.of(777, 999, 888, 666), deadlineCaptor.getAllValues().stream()
+                .map(ReminderDeadline::getAdoptionId).collect(Collectors.toList()));
+        assertEquals(today.plusDays(1), deadlineCaptor.getValue().getDate());
+        assertEquals(today.plusDays(1).atTime(21, 0).atZone(ZONE).toInstant(), deadlineCaptor.getValue().getDueTime());
+        verify(reminderDeadlineRepository).delete(argThat(deadline -> deadline.getAdoptionId() == 555));
     }
 
     @Test
     void sendWarningNoDogReportTest() throws TelegramApiException {
-        Dog dog7 = new Dog();
-        Dog dog8 = new Dog();
-        Dog dog9 = new Dog();
-        dog7.setId(7);
-        dog7.setName("Барбос");
-        dog8.setId(8);
-        dog8.setId(9);
         User user7 = new User(); //прислал последний отчет 3 дня назад
         User user8 = new User(); //прислал последний отчет вчера
-        User user9 = new User(); //прислал последний отчет сегодня
         user7.setId(77);
         user7.setName("Иван");
         user8.setId(88);
-        user9.setId(99);
-        DogAdoption adoption7 = new DogAdoption(user7, dog7, LocalDate.now());
-        adoption7.setId(777);
-        DogAdoption adoption8 = new DogAdoption(user8, dog8, LocalDate.of(2023, 11, 5));
-        adoption8.setId(888);
-        DogAdoption adoption9 = new DogAdoption(user9, dog9, LocalDate.of(2023, 11, 5));
-        adoption8.setId(999);
-        DogReport report7 = new DogReport(
-                adoption7,LocalDate.now().plusDays(-3), new byte[]{1,2},null, 0, null);
-        DogReport report8 = new DogReport(
-                adoption8,LocalDate.now().plusDays(-1), new byte[]{1,2}, null, 0, null);
-        DogReport report9 = new DogReport(
-                adoption9,LocalDate.now(), new byte[]{1,2}, null, 0, null);
-
-        when(dogAdoptionRepository.findByTrialDateGreaterThanEqual(LocalDate.now()))
-                .thenReturn(List.of(adoption7, adoption8, adoption9));
-        when(dogReportRepository.findByDateAndPhotoIsNotNullAndTextIsNotNull(LocalDate.now()))
-                .thenReturn(List.of(report9));
-        when(dogReportRepository.findLatestReport(adoption7.getId())).thenReturn(report7);
-        when(dogReportRepository.findLatestReport(adoption8.getId())).thenReturn(report8);
+        LocalDate trialDate = today.plusDays(10);
+        //усыновление 444 удалено в обход сервиса, запрос его не вернет
+        givenDueDeadlines(deadline(ShelterId.DOG, 777, NotificationKind.REPORT_REMINDER),
+                deadline(ShelterId.DOG, 888, NotificationKind.REPORT_REMINDER),
+                deadline(ShelterId.DOG, 999, NotificationKind.REPORT_REMINDER),
+                deadline(ShelterId.DOG, 444, NotificationKind.REPORT_REMINDER));
+        when(adoptionRepository.findReportReminders(List.of(777, 888, 999, 444), today)).thenReturn(List.of(
+                new ReportReminderView(777, ShelterId.DOG, 77, "Иван", 7, LocalDate.of(2023, 11, 5), trialDate, today.minusDays(3)),
+                new ReportReminderView(888, ShelterId.DOG, 88, null, null, LocalDate.of(2023, 11, 5), trialDate, today.minusDays(1)),
+                new ReportReminderView(999, ShelterId.DOG, 99, null, null, LocalDate.of(2023, 11, 5), trialDate, today)));
+        when(userRepository.findAllById(Set.of(77L, 88L))).thenReturn(List.of(user7, user8));
+        givenPetNames(ShelterId.DOG, Map.of(7, "Барбос"));
 
         //запускаем тестируемый метод
-        notifier.sendWarningNoReport();
+        notifier.processDueDeadlines();
 
         ArgumentCaptor<User> userArgumentCaptor = ArgumentCaptor.forClass(User.class);
         ArgumentCaptor<String> stringArgumentCaptor = ArgumentCaptor.forClass(String.class);
         //пользователю 7 и 8 уйдут сообщения в чат
-        verify(telegramBotSender, times(2)).sendMessageToUser(
+        verify(telegramBotSender, times(2)).queueMessageToUser(
                 userArgumentCaptor.capture(), stringArgumentCaptor.capture(), any(Integer.class));
         assertEquals(user7, userArgumentCaptor.getAllValues().get(0));
         assertEquals("ВНИМАНИЕ !!! " +
@@ -151,9 +217,102 @@ class NotifierTest {
         userArgumentCaptor = ArgumentCaptor.forClass(User.class);
         stringArgumentCaptor = ArgumentCaptor.forClass(String.class);
         verify(messageToVolunteerService, only()).createMessageToVolunteer(
-                anyInt(), userArgumentCaptor.capture(), stringArgumentCaptor.capture());
+                eq(777), userArgumentCaptor.capture(), stringArgumentCaptor.capture());
         assertEquals(userArgumentCaptor.getValue(), user7);
         assertEquals("ВНИМАНИЕ !!! Опекун Иван не присылал ежедневный отчет по собаке Барбос более 2х дней.", stringArgumentCaptor.getValue());
+
+        //срок удаленного усыновления тоже удален
+        verify(reminderDeadlineRepository, times(3)).save(any());
+        verify(reminderDeadlineRepository).delete(argThat(deadline -> deadline.getAdoptionId() == 444));
+    }
+
+    @Test
+    void sendWarningNoReportForAllSheltersTest() {
+        User user1 = new User();
+        user1.setId(11);
+        User user2 = new User();
+        user2.setId(22);
+        LocalDate trialDate = today.plusDays(10);
+        givenDueDeadlines(deadline(ShelterId.DOG, 10, NotificationKind.REPORT_REMINDER),
+                deadline(ShelterId.CAT, 20, NotificationKind.REPORT_REMINDER));
+        when(adoptionRepository.findReportReminders(List.of(10, 20), today)).thenReturn(List.of(
+                new ReportReminderView(10, ShelterId.DOG, 11, "Иван", 1, today.minusDays(1), trialDate, null),
+                new ReportReminderView(20, ShelterId.CAT, 22, "Мария", 2, today.minusDays(1), trialDate, null)));
+        when(userRepository.findAllById(Set.of(11L, 22L))).thenReturn(List.of(user1, user2));
+        givenPetNames(ShelterId.DOG, Map.of(1, "Барбос"));
+        givenPetNames(ShelterId.CAT, Map.of(2, "Мурка"));
+
+        notifier.processDueDeadlines();
+
+        //сроки обоих приютов - одна группа и один запрос, текст и отметка - по приюту усыновления
+        verify(adoptionRepository, only()).findReportReminders(any(), any());
+        verify(telegramBotSender).queueMessageToUser(user1,
+                "ВНИМАНИЕ !!! Иван, просим Вас присылать ежедневный отчет по собаке Барбос до 21:00.", 0);
+        verify(telegramBotSender).queueMessageToUser(user2,
+                "ВНИМАНИЕ !!! Мария, просим Вас присылать ежедневный отчет по кошке Мурка до 21:00.", 0);
+        ArgumentCaptor<List<NotificationLog>> logsCaptor = ArgumentCaptor.forClass(List.class);
+        verify(notificationLogRepository).saveAll(logsCaptor.capture());
+        assertEquals(List.of(ShelterId.DOG, ShelterId.CAT), logsCaptor.getValue().stream()
+                .map(NotificationLog::getShelterId).collect(Collectors.toList()));
+    }
+
+    @Test
+    void sendWarningNoReportInChunksTest() {
+        notifier.shutdown();
+        notifier = notifier(1); //каждое усыновление - отдельная часть со своей транзакцией
+        User user7 = new User();
+        user7.setId(77);
+        User user8 = new User();
+        user8.setId(88);
+        LocalDate trialDate = today.plusDays(10);
+        givenDueDeadlines(deadline(ShelterId.DOG, 666, NotificationKind.REPORT_REMINDER),
+                deadline(ShelterId.DOG, 777, NotificationKind.REPORT_REMINDER),
+                deadline(ShelterId.DOG, 888, NotificationKind.REPORT_REMINDER));
+        when(adoptionRepository.findReportReminders(List.of(666), today)).thenReturn(List.of(
+                new ReportReminderView(666, ShelterId.DOG, 66, "Анна", 6, LocalDate.of(2023, 11, 5), trialDate, today.minusDays(1))));
+        when(adoptionRepository.findReportReminders(List.of(777), today)).thenReturn(List.of(
+                new ReportReminderView(777, ShelterId.DOG, 77, "Иван", 7, LocalDate.of(2023, 11, 5), trialDate, today.minusDays(3))));
+        when(adoptionRepository.findReportReminders(List.of(888), today)).thenReturn(List.of(
+                new ReportReminderView(888, ShelterId.DOG, 88, "Петр", 8, LocalDate.of(2023, 11, 5), trialDate, today.minusDays(1))));
+        //пользователю 66 напоминание сегодня уже ушло при прошлом запуске
+        when(notificationLogRepository.findAdoptionIds(NotificationKind.REPORT_REMINDER, today))
+                .thenReturn(Set.of(666));
+        when(userRepository.findAllById(Set.of(77L))).thenReturn(List.of(user7));
+        when(userRepository.findAllById(Set.of(88L))).thenReturn(List.of(user8));
+        givenPetNames(ShelterId.DOG, Map.of(6, "Шарик", 7, "Барбос", 8, "Бобик"));
+        //часть с пользователем 77 падает при записи сообщения волонтеру
+        doThrow(new RuntimeException("БД недоступна")).when(messageToVolunteerService)
+                .createMessageToVolunteer(eq(777), any(), anyString());
+
+        notifier.processDueDeadlines();
+
+        //пользователю 66 повторно не пишем, упавшая часть пользователю 77 ничего не отправила,
+        //а соседняя часть все равно выполнена
+        verify(telegramBotSender, only()).queueMessageToUser(eq(user8), anyString(), anyInt());
+        verify(userRepository, never()).findAllById(Set.of(66L));
+        //у каждой части своя транзакция: две зафиксированы, одна откатилась
+        verify(transactionManager, times(3)).getTransaction(any());
+        verify(transactionManager, times(2)).commit(any());
+        verify(transactionManager, times(1)).rollback(any());
+        //отметки пишутся только в части, где было кому напомнить
+        ArgumentCaptor<List<NotificationLog>> logsCaptor = ArgumentCaptor.forClass(List.class);
+        verify(notificationLogRepository, times(2)).saveAll(logsCaptor.capture());
+        assertEquals(List.of(0, 1), logsCaptor.getAllValues().stream().map(List::size).collect(Collectors.toList()));
+        assertEquals(888, logsCaptor.getValue().get(0).getAdoptionId());
+        assertEquals(NotificationKind.REPORT_REMINDER, logsCaptor.getValue().get(0).getKind());
+        //срок упавшей части не перенесен: при следующем пробуждении она будет выполнена снова
+        verify(reminderDeadlineRepository, never()).save(argThat(deadline -> deadline.getAdoptionId() == 777));
+        verify(reminderDeadlineRepository, times(2)).save(any());
+    }
+
+    @Test
+    void processDueDeadlinesWhenLockedByOtherInstanceTest() {
+        when(jobLock.runExclusively(eq("notifier"), any())).thenReturn(false);
+
+        notifier.processDueDeadlines();
+
+        verifyNoInteractions(reminderDeadlineRepository, adoptionRepository,
+                telegramBotSender, messageToVolunteerService);
     }
 
     @Test
@@ -163,17 +322,21 @@ class NotifierTest {
         User user1 = new User();
         user1.setId(111111111);
         user1.setName("Иван");
-        CatAdoption adoption1 = new CatAdoption(user1, cat1, LocalDate.now());
-        when(catAdoptionRepository.findByTrialDate(LocalDate.now())).thenReturn(List.of(adoption1));
-        notifier.sendCongratulation();
+        CatAdoption adoption1 = new CatAdoption(user1, cat1, today);
+        adoption1.setId(1);
+        givenDueDeadlines(deadline(ShelterId.CAT, 1, NotificationKind.CONGRATULATION));
+        when(adoptionRepository.findAllById(List.of(1))).thenReturn(List.of(adoption1));
+        notifier.processDueDeadlines();
 
         ArgumentCaptor<User> userArgumentCaptor = ArgumentCaptor.forClass(User.class);
         ArgumentCaptor<String> stringArgumentCaptor = ArgumentCaptor.forClass(String.class);
-        verify(telegramBotSender, only()).sendMessageToUser(
+        verify(telegramBotSender, only()).queueMessageToUser(
                 userArgumentCaptor.capture(), stringArgumentCaptor.capture(), any(Integer.class));
         assertEquals(user1, userArgumentCaptor.getValue());
         assertEquals("Иван! Поздравляем !!! Вы успешно прошли испытательный период. " +
                 "Всего наилучшего Вам и вашему питомцу.", stringArgumentCaptor.getValue());
+        //поздравление - последний срок усыновления
+        verify(reminderDeadlineRepository).deleteAll(argThat(deadlines -> ((List<?>) deadlines).size() == 1));
     }
 
     @Test
@@ -184,17 +347,30 @@ class NotifierTest {
         User user4 = new User();
         user4.setId(444444444);
         user4.setName("Мария");
-        DogAdoption adoption4 = new DogAdoption(user4, dog4, LocalDate.now());
-        when(dogAdoptionRepository.findByTrialDate(LocalDate.now())).thenReturn(List.of(adoption4));
-        notifier.sendCongratulation();
+        DogAdoption adoption4 = new DogAdoption(user4, dog4, today);
+        adoption4.setId(4);
+        //усыновлению 5 продлили испытательный срок, его не поздравляем
+        Dog dog5 = new Dog();
+        dog5.setId(5);
+        DogAdoption adoption5 = new DogAdoption(new User(), dog5, today.plusDays(14));
+        adoption5.setId(5);
+        givenDueDeadlines(deadline(ShelterId.DOG, 4, NotificationKind.CONGRATULATION),
+                deadline(ShelterId.DOG, 5, NotificationKind.CONGRATULATION));
+        when(adoptionRepository.findAllById(List.of(4, 5))).thenReturn(List.of(adoption4, adoption5));
+        notifier.processDueDeadlines();
 
         ArgumentCaptor<User> userArgumentCaptor = ArgumentCaptor.forClass(User.class);
         ArgumentCaptor<String> stringArgumentCaptor = ArgumentCaptor.forClass(String.class);
-        verify(telegramBotSender, times(1)).sendMessageToUser(
+        verify(telegramBotSender, times(1)).queueMessageToUser(
                 userArgumentCaptor.capture(), stringArgumentCaptor.capture(), any(Integer.class));
         assertEquals(user4, userArgumentCaptor.getValue());
         assertEquals("Мария! Поздравляем !!! Вы успешно прошли испытательный период. " +
                 "Всего наилучшего Вам и вашему питомцу.", stringArgumentCaptor.getValue());
+        verify(notificationLogRepository).saveAll(argThat(logs -> ((List<?>) logs).size() == 1));
+        //обработаны оба усыновления, поздравление ушло одно
+        assertEquals(1, meterRegistry.get("notifier.job.duration").tag("job", "sendCongratulation").timer().count());
+        assertEquals(2.0, meterRegistry.get("notifier.job.items").tag("job", "sendCongratulation").counter().count());
+        assertEquals(1.0, meterRegistry.get("notifier.job.notifications").tag("job", "sendCongratulation").counter().count());
     }
 
     @Test
@@ -208,7 +384,7 @@ class NotifierTest {
         notifier.sendNotification(adoption3, notification3);
 
         ArgumentCaptor<String> stringArgumentCaptor = ArgumentCaptor.forClass(String.class);
-        verify(telegramBotSender, only()).sendMessageToUser(any(User.class), stringArgumentCaptor.capture(), any(Integer.class));
+        verify(telegramBotSender, only()).queueMessageToUser(any(User.class), stringArgumentCaptor.capture(), any(Integer.class));
         assertEquals(stringArgumentCaptor.getValue(), notification3);
     }
 }
\ No newline at end of file
@@ -0,0 +1,167 @@
+package pro.sky.courseworktelegrambot.timer;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.ArgumentCaptor;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import pro.sky.courseworktelegrambot.entities.*;
+import pro.sky.courseworktelegrambot.repositories.AdoptionRepository;
+import pro.sky.courseworktelegrambot.repositories.ReminderDeadlineRepository;
+
+import java.time.*;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.Mockito.*;
+
+@ExtendWith(MockitoExtension.class)
+class ReminderScheduleTest {
+
+    private static final ZoneId ZONE = ZoneId.of("Europe/Moscow");
+
+    @Mock
+    private ReminderDeadlineRepository reminderDeadlineRepository;
+    @Mock
+    private AdoptionRepository adoptionRepository;
+
+    //дата усыновления берется с часов компьютера, поэтому и расписание считаем от сегодняшнего дня
+    private final LocalDate today = LocalDate.now();
+
+    //расписание с часами в приюте на заданное время
+    private ReminderSchedule schedule(LocalTime now, int spreadMinutes) {
+        return new ReminderSchedule(reminderDeadlineRepository, adoptionRepository,
+                LocalTime.of(21, 0), LocalTime.of(22, 0), spreadMinutes,
+                Clock.fixed(today.atTime(now).atZone(ZONE).toInstant(), ZONE));
+    }
+
+    private DogAdoption adoption(int id, LocalDate trialDate) {
+        DogAdoption adoption = new DogAdoption(new User(), new Dog(), trialDate);
+        adoption.setId(id);
+        return adoption;
+    }
+
+    private Instant at(LocalDate date, LocalTime time) {
+        return date.atTime(time).atZone(ZONE).toInstant();
+    }
+
+    @Test
+    void deadlinesBeforeReportDeadlineTest() {
+        ReminderSchedule reminderSchedule = schedule(LocalTime.of(20, 0), 0);
+        LocalDate trialDate = today.plusDays(30);
+
+        List<ReminderDeadline> deadlines = reminderSchedule.deadlines(ShelterId.DOG, adoption(1, trialDate));
+
+        //отчет ждем уже сегодня, время - по часовому поясу приюта
+        assertEquals(2, deadlines.size());
+        assertEquals(NotificationKind.REPORT_REMINDER, deadlines.get(0).getKind());
+        assertEquals(today, deadlines.get(0).getDate());
+        assertEquals(at(today, LocalTime.of(21, 0)), deadlines.get(0).getDueTime());
+        assertEquals(NotificationKind.CONGRATULATION, deadlines.get(1).getKind());
+        assertEquals(trialDate, deadlines.get(1).getDate());
+        assertEquals(at(trialDate, LocalTime.of(22, 0)), deadlines.get(1).getDueTime());
+    }
+
+    @Test
+    void deadlinesAfterReportDeadlineTest() {
+        ReminderSchedule reminderSchedule = schedule(LocalTime.of(21, 30), 0);
+
+        List<ReminderDeadline> deadlines = reminderSchedule.deadlines(ShelterId.DOG, adoption(1, today.plusDays(30)));
+
+        //сегодняшний срок прошел - первый срок отчета завтра
+        assertEquals(today.plusDays(1), deadlines.get(0).getDate());
+    }
+
+    @Test
+    void deadlinesOnLastTrialDayTest() {
+        ReminderSchedule reminderSchedule = schedule(LocalTime.of(23, 0), 0);
+
+        List<ReminderDeadline> deadlines = reminderSchedule.deadlines(ShelterId.DOG, adoption(1, today));
+
+        //отчетов больше не ждем, а поздравление уже наступило
+        assertEquals(1, deadlines.size());
+        assertEquals(NotificationKind.CONGRATULATION, deadlines.get(0).getKind());
+        assertTrue(deadlines.get(0).getDueTime().isBefore(reminderSchedule.now()));
+    }
+
+    @Test
+    void dueTimesAreSpreadOverWindowTest() {
+        ReminderSchedule reminderSchedule = schedule(LocalTime.of(12, 0), 30);
+        Instant from = at(today, LocalTime.of(21, 0));
+        Instant to = at(today, LocalTime.of(21, 30));
+        Set<Instant> dueTimes = new HashSet<>();
+        for (int adoptionId = 1; adoptionId <= 100; adoptionId++) {
+            Instant dueTime = reminderSchedule.dueTime(ShelterId.DOG, adoptionId, NotificationKind.REPORT_REMINDER, today);
+            assertTrue(!dueTime.isBefore(from) && dueTime.isBefore(to));
+            dueTimes.add(dueTime);
+            //смещение усыновления постоянно
+            assertEquals(dueTime, reminderSchedule.dueTime(ShelterId.DOG, adoptionId, NotificationKind.REPORT_REMINDER, today));
+        }
+        //соседние усыновления не получают один и тот же момент
+        assertEquals(100, dueTimes.size());
+    }
+
+    @Test
+    void advanceTest() {
+        ReminderSchedule reminderSchedule = schedule(LocalTime.of(21, 5), 0);
+        ReminderDeadline deadline = new ReminderDeadline(ShelterId.CAT, 7, NotificationKind.REPORT_REMINDER,
+                today, at(today, LocalTime.of(21, 0)));
+
+        reminderSchedule.advance(deadline, today.plusDays(5));
+
+        verify(reminderDeadlineRepository).save(deadline);
+        assertEquals(today.plusDays(1), deadline.getDate());
+        assertEquals(at(today.plusDays(1), LocalTime.of(21, 0)), deadline.getDueTime());
+    }
+
+    @Test
+    void advanceAfterDowntimeTest() {
+        ReminderSchedule reminderSchedule = schedule(LocalTime.of(21, 5), 0);
+        //бот не работал несколько дней: пропущенные дни не наверстываем
+        LocalDate missed = today.minusDays(3);
+        ReminderDeadline deadline = new ReminderDeadline(ShelterId.CAT, 7, NotificationKind.REPORT_REMINDER,
+                missed, at(missed, LocalTime.of(21, 0)));
+
+        reminderSchedule.advance(deadline, today.plusDays(5));
+
+        assertEquals(today, deadline.getDate());
+    }
+
+    @Test
+    void advanceAfterTrialDateTest() {
+        ReminderSchedule reminderSchedule = schedule(LocalTime.of(21, 5), 0);
+        ReminderDeadline deadline = new ReminderDeadline(ShelterId.CAT, 7, NotificationKind.REPORT_REMINDER,
+                today, at(today, LocalTime.of(21, 0)));
+
+        reminderSchedule.advance(deadline, today);
+
+        verify(reminderDeadlineRepository).delete(deadline);
+        verify(reminderDeadlineRepository, never()).save(any());
+    }
+
+    @Test
+    void scheduleMissingTest() {
+        ReminderSchedule reminderSchedule = schedule(LocalTime.of(12, 0), 0);
+        CatAdoption catAdoption = new CatAdoption(new User(), new Cat(), today.plusDays(3));
+        catAdoption.setId(3);
+        //усыновления всех приютов - одним запросом
+        when(adoptionRepository.findByTrialDateGreaterThanEqual(today))
+                .thenReturn(List.of(adoption(1, today.plusDays(3)), adoption(2, today.plusDays(3)), catAdoption));
+        //у усыновления 1 сроки уже есть
+        when(reminderDeadlineRepository.findAdoptionIds()).thenReturn(Set.of(1));
+
+        reminderSchedule.scheduleMissing();
+
+        ArgumentCaptor<List<ReminderDeadline>> deadlinesCaptor = ArgumentCaptor.forClass(List.class);
+        verify(reminderDeadlineRepository).saveAll(deadlinesCaptor.capture());
+        List<ReminderDeadline> deadlines = deadlinesCaptor.getValue();
+        assertEquals(4, deadlines.size());
+        assertEquals(List.of(2, 2, 3, 3), deadlines.stream().map(ReminderDeadline::getAdoptionId).toList());
+        //приют срока - из дискриминатора усыновления
+        assertEquals(List.of(ShelterId.DOG, ShelterId.DOG, ShelterId.CAT, ShelterId.CAT),
+                deadlines.stream().map(ReminderDeadline::getShelterId).toList());
+    }
+}